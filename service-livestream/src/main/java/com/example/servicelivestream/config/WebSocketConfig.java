@@ -1,13 +1,19 @@
 package com.example.servicelivestream.config;
 
+import com.example.servicelivestream.service.ChatMembershipService;
+import com.example.websocketsupport.CompactPayloadEncoding;
+import com.example.websocketsupport.OutboundBackpressure;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.server.ServerHttpRequest;
 import org.springframework.http.server.ServerHttpResponse;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MessageConverter;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.messaging.simp.stomp.StompCommand;
@@ -25,6 +31,7 @@ import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.config.annotation.*;
 import org.springframework.web.socket.server.HandshakeInterceptor;
 
+import java.util.List;
 import java.util.Map;
 
 @Slf4j
@@ -34,13 +41,34 @@ import java.util.Map;
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     private final JwtDecoder jwtDecoder;
+    private final MeterRegistry meterRegistry;
+    private final ChatMembershipService chatMembershipService;
+
+    @Value("${application.websocket.permessage-deflate:true}")
+    private boolean permessageDeflate;
+
+    // ✅ Contre-pression sortante (application.websocket.outbound.*)
+    @Value("${application.websocket.outbound.send-time-limit-ms:10000}")
+    private int sendTimeLimitMs;
+    @Value("${application.websocket.outbound.send-buffer-size-limit:524288}")
+    private int sendBufferSizeLimit;
+    @Value("${application.websocket.outbound.low-priority-threshold:32}")
+    private int lowPriorityThreshold;
+    @Value("${application.websocket.outbound.max-queued-frames:512}")
+    private int maxQueuedFrames;
+    @Value("${application.websocket.outbound.max-lag-ms:15000}")
+    private long maxLagMs;
+    @Value("${application.websocket.outbound.low-priority-destinations:" +
+            "/topic/session/*/typing,/topic/session/*/users}")
+    private List<String> lowPriorityDestinations;
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         // ✅ Endpoint principal pour le chat avec interceptor de handshake
         registry.addEndpoint("/ws")
                 .setAllowedOriginPatterns("http://localhost:4200")
-                .addInterceptors(new HandshakeInterceptor() {
+                .setHandshakeHandler(compactPayloadEncoding().handshakeHandler())
+                .addInterceptors(compactPayloadEncoding().binaryFramesInterceptor(), new HandshakeInterceptor() {
                     @Override
                     public boolean beforeHandshake(
                             ServerHttpRequest request,
@@ -72,6 +100,7 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         // ✅ Endpoint SockJS fallback
         registry.addEndpoint("/ws/websocket")
                 .setAllowedOriginPatterns("http://localhost:4200")
+                .setHandshakeHandler(compactPayloadEncoding().handshakeHandler())
                 .addInterceptors(new HandshakeInterceptor() {
                     @Override
                     public boolean beforeHandshake(
@@ -102,7 +131,7 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                 .setSessionCookieNeeded(false);
 
         log.info("✅ WebSocket endpoints registered:");
-        log.info("   - /ws (primary endpoint)");
+        log.info("   - /ws (primary endpoint, CBOR/Smile on demand)");
         log.info("   - /ws/websocket (SockJS fallback)");
     }
 
@@ -153,6 +182,8 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                             Jwt jwt = jwtDecoder.decode(jwtToken);
                             JwtAuthenticationToken authToken = new JwtAuthenticationToken(jwt);
                             accessor.setUser(authToken);
+                            compactPayloadEncoding().onConnect(accessor);
+                            attachChatIdentity(accessor, jwt);
 
                             log.info("✅ WebSocket authentication successful for user: {}", jwt.getSubject());
                             log.debug("👤 User authorities: {}", authToken.getAuthorities());
@@ -173,12 +204,64 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         log.info("✅ Client inbound channel configured with 8-16 threads");
     }
 
+    /**
+     * Résout l'utilisateur une seule fois pour toute la durée de la connexion ; en cas d'échec
+     * la connexion est conservée et l'identité sera résolue au premier message.
+     */
+    private void attachChatIdentity(StompHeaderAccessor accessor, Jwt jwt) {
+        Map<String, Object> attributes = accessor.getSessionAttributes();
+        if (attributes == null) {
+            return;
+        }
+        try {
+            attributes.put(ChatMembershipService.IDENTITY_ATTRIBUTE, chatMembershipService.resolveIdentity(jwt));
+        } catch (Exception e) {
+            log.warn("⚠️ Chat identity not resolved at CONNECT for {}: {}", jwt.getSubject(), e.getMessage());
+        }
+    }
+
     @Override
     public void configureClientOutboundChannel(ChannelRegistration registration) {
+        // ✅ Contre-pression d'abord : une frame abandonnée n'est pas transcodée
+        registration.interceptors(outboundBackpressure().outboundInterceptor(), compactPayloadEncoding().outboundInterceptor());
         registration.taskExecutor().corePoolSize(8).maxPoolSize(16);
         log.info("✅ Client outbound channel configured with 8-16 threads");
     }
 
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // ✅ Sessions lentes fermées au-delà de ces limites (application.websocket.outbound.*)
+        registration.setSendTimeLimit(outboundBackpressure().getSendTimeLimitMs())
+                .setSendBufferSizeLimit(outboundBackpressure().getSendBufferSizeLimit())
+                .addDecoratorFactory(outboundBackpressure().handlerDecorator());
+        log.info("✅ Outbound limits: send time {}ms, buffer {} bytes",
+                outboundBackpressure().getSendTimeLimitMs(), outboundBackpressure().getSendBufferSizeLimit());
+    }
+
+    @Override
+    public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        // ✅ CBOR/Smile uniquement si le content-type le demande, JSON par défaut sinon
+        messageConverters.addAll(compactPayloadEncoding().inboundConverters());
+        return true;
+    }
+
+    /**
+     * Compression et frames binaires CBOR/Smile à la demande (module websocket-support)
+     */
+    @Bean
+    public CompactPayloadEncoding compactPayloadEncoding() {
+        return new CompactPayloadEncoding(permessageDeflate);
+    }
+
+    /**
+     * Contre-pression sortante par session (module websocket-support)
+     */
+    @Bean
+    public OutboundBackpressure outboundBackpressure() {
+        return new OutboundBackpressure(meterRegistry, sendTimeLimitMs, sendBufferSizeLimit,
+                lowPriorityThreshold, maxQueuedFrames, maxLagMs, lowPriorityDestinations);
+    }
+
     @Bean
     public TaskScheduler heartBeatScheduler() {
         ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
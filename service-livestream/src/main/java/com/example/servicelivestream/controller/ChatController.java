@@ -1,7 +1,9 @@
 package com.example.servicelivestream.controller;
 
+import com.example.servicelivestream.dto.ChatIdentity;
 import com.example.servicelivestream.dto.ChatMessage;
 import com.example.servicelivestream.dto.TypingIndicator;
+import com.example.servicelivestream.service.ChatMembershipService;
 import com.example.servicelivestream.service.ChatService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -11,7 +13,6 @@ import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.handler.annotation.SendTo;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.security.access.prepost.PreAuthorize;
-import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
 import org.springframework.stereotype.Controller;
 
@@ -21,6 +22,7 @@ import org.springframework.stereotype.Controller;
 public class ChatController {
 
     private final ChatService chatService;
+    private final ChatMembershipService chatMembershipService;
 
     @MessageMapping("/session/{sessionId}/chat")
     @SendTo("/topic/session/{sessionId}/chat")
@@ -30,17 +32,12 @@ public class ChatController {
             @Payload ChatMessage message,
             SimpMessageHeaderAccessor headerAccessor
     ) {
-        // Récupération du JWT depuis l'authentification
-        JwtAuthenticationToken auth = (JwtAuthenticationToken) headerAccessor.getUser();
-        if (auth == null) {
-            log.error("No authentication found in WebSocket message");
-            throw new SecurityException("Authentication required");
-        }
-
-        Jwt jwt = auth.getToken();
-        log.debug("Processing chat message for session {} from user {}", sessionId, jwt.getSubject());
+        // Identité résolue au CONNECT : aucun appel distant par message
+        ChatIdentity user = chatMembershipService.identityOf(headerAccessor);
+        log.debug("Processing chat message for session {} from user {}", sessionId, user.userId());
 
-        return chatService.processAndSaveMessage(sessionId, message, jwt);
+        // null : message persisté mais non diffusé (salle échantillonnée)
+        return chatService.processAndSaveMessage(sessionId, message, user);
     }
     @PreAuthorize("hasRole('RECEIVER') or hasRole('PRODUCER')")
     @MessageMapping("/session/{sessionId}/typing")
@@ -51,16 +48,10 @@ public class ChatController {
             @Payload TypingIndicator indicator,
             SimpMessageHeaderAccessor headerAccessor
     ) {
-        JwtAuthenticationToken auth = (JwtAuthenticationToken) headerAccessor.getUser();
-        if (auth == null) {
-            log.error("No authentication found in WebSocket message");
-            throw new SecurityException("Authentication required");
-        }
-
-        Jwt jwt = auth.getToken();
-        log.debug("Processing typing indicator for session {} from user {}", sessionId, jwt.getSubject());
+        ChatIdentity user = chatMembershipService.identityOf(headerAccessor);
+        log.debug("Processing typing indicator for session {} from user {}", sessionId, user.userId());
 
-        return chatService.processTypingIndicator(sessionId, indicator, jwt);
+        return chatService.processTypingIndicator(sessionId, indicator, user);
     }
     @PreAuthorize("hasRole('RECEIVER') or hasRole('PRODUCER')")
     @MessageMapping("/session/{sessionId}/join")
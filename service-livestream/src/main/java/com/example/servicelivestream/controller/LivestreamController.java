@@ -1,5 +1,6 @@
 package com.example.servicelivestream.controller;
 
+import com.example.servicelivestream.dto.ChatHistoryResponse;
 import com.example.servicelivestream.dto.ChatMessage;
 import com.example.servicelivestream.dto.RecordingRequest;
 import com.example.servicelivestream.dto.RecordingResponse;
@@ -76,10 +77,42 @@ public class LivestreamController {
     @GetMapping("/{sessionId}/messages")
     public ResponseEntity<List<ChatMessage>> getSessionMessages(
             @PathVariable Long sessionId,
+            @RequestParam(required = false) Long before,
+            @RequestParam(required = false) Long after,
+            @RequestParam(defaultValue = "50") int limit,
             @AuthenticationPrincipal Jwt jwt
     ) {
-        List<ChatMessage> messages = chatService.getMessagesForSession(sessionId, jwt);
-        return ResponseEntity.ok(messages);
+        ChatHistoryResponse history = chatService.getMessagesForSession(sessionId, before, after, limit, jwt);
+        return ResponseEntity.ok(history.messages());
+    }
+
+    /**
+     * Mode lent du chat : un message par participant toutes les {@code seconds} secondes (0 = désactivé)
+     */
+    @PreAuthorize("hasRole('PRODUCER')")
+    @PutMapping("/{sessionId}/chat/slow-mode")
+    public ResponseEntity<Map<String, Integer>> setSlowMode(
+            @PathVariable Long sessionId,
+            @RequestParam int seconds,
+            @AuthenticationPrincipal Jwt jwt
+    ) {
+        int applied = chatService.setSlowMode(sessionId, seconds, jwt);
+        return ResponseEntity.ok(Map.of("slowModeSeconds", applied));
+    }
+
+    /**
+     * Historique par ancre : before=<messageId> pour remonter, after=<messageId> pour le rattrapage
+     */
+    @PreAuthorize("hasRole('RECEIVER') or hasRole('PRODUCER')")
+    @GetMapping("/{sessionId}/messages/history")
+    public ResponseEntity<ChatHistoryResponse> getSessionMessageHistory(
+            @PathVariable Long sessionId,
+            @RequestParam(required = false) Long before,
+            @RequestParam(required = false) Long after,
+            @RequestParam(defaultValue = "50") int limit,
+            @AuthenticationPrincipal Jwt jwt
+    ) {
+        return ResponseEntity.ok(chatService.getMessagesForSession(sessionId, before, after, limit, jwt));
     }
 
 
@@ -6,12 +6,15 @@ import com.example.servicelivestream.dto.UserResponse;
 import com.example.servicelivestream.entity.Recording;
 import com.example.servicelivestream.feignclient.UserServiceClient;
 import com.example.servicelivestream.repository.RecordingRepository;
+import com.example.servicelivestream.dto.PackagingStatusResponse;
+import com.example.servicelivestream.service.RecordingPackagingService;
 import com.example.servicelivestream.service.RecordingService;
+import com.example.servicelivestream.service.RecordingStreamService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -22,13 +25,20 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDateTime;
 import java.util.*;
 
@@ -44,6 +54,16 @@ public class RecordingController {
     private final RecordingService recordingService;
     private  final RecordingRepository recordingRepository;
 private  final UserServiceClient userServiceClient;
+    private final RecordingStreamService recordingStreamService;
+    private final RecordingPackagingService recordingPackagingService;
+
+    // Attributs Tomcat pour l'envoi zéro-copie (sendfile) après le retour du contrôleur
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    private static final int MAX_RANGES = 16;
+    private static final String IMMUTABLE_CACHE_CONTROL = "private, max-age=31536000, immutable";
 
     @PostMapping("/upload-recording")
     public ResponseEntity<Map<String, String>> uploadRecording(
@@ -121,6 +141,8 @@ private  final UserServiceClient userServiceClient;
 
             try {
                 recordingRepository.save(recording);
+                recordingStreamService.evict(recording.getId());
+                recordingPackagingService.enqueue(recording.getId());
                 log.info("Recording updated successfully in database");
             } catch (Exception e) {
                 log.error("Failed to update recording in database", e);
@@ -215,36 +237,314 @@ private  final UserServiceClient userServiceClient;
         return ResponseEntity.ok(recordings);
     }
 
+    /**
+     * Téléchargement (pièce jointe) : mêmes validateurs, plages et envoi zéro-copie que le streaming
+     */
     @GetMapping("/recordings/download/{recordingId}")
-    public ResponseEntity<Resource> downloadRecording(
+    public void downloadRecording(
             @PathVariable Long recordingId,
-            @AuthenticationPrincipal Jwt jwt) {
-        String token = "Bearer " + jwt.getTokenValue();
-        RecordingResponse recording = recordingService.getRecordingById(recordingId, token);
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        serveRecording(recordingId, false, request, response);
+    }
 
-        // CORRECTION: Utiliser le chemin complet du fichier, pas juste le nom
-        Path filePath = Paths.get(recordingService.getRecordingFilePath(recordingId));
-        File file = filePath.toFile();
+    /**
+     * Lecture dans le navigateur : disposition inline, plages simples et multiples (206),
+     * ETag / Last-Modified, envoi sendfile quand Tomcat le permet
+     */
+    @RequestMapping(value = "/recordings/stream/{recordingId}", method = {RequestMethod.GET, RequestMethod.HEAD})
+    public void streamRecording(
+            @PathVariable Long recordingId,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        serveRecording(recordingId, true, request, response);
+    }
+
+    /**
+     * État du packaging (MP4 faststart + HLS) et URL de la playlist maître une fois publiée
+     */
+    @GetMapping("/recordings/{recordingId}/packaging")
+    public ResponseEntity<PackagingStatusResponse> getPackagingStatus(@PathVariable Long recordingId) {
+        return ResponseEntity.ok(recordingPackagingService.getStatus(recordingId));
+    }
 
-        if (!file.exists()) {
-            log.error("File not found: {}", filePath);
-            return ResponseEntity.notFound().build();
+    @GetMapping("/recordings/{recordingId}/hls/{version}/{fileName}")
+    public void getHlsPlaylist(
+            @PathVariable Long recordingId,
+            @PathVariable String version,
+            @PathVariable String fileName,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        serveHls(recordingId, version, null, fileName, request, response);
+    }
+
+    @GetMapping("/recordings/{recordingId}/hls/{version}/{rendition}/{fileName}")
+    public void getHlsRenditionFile(
+            @PathVariable Long recordingId,
+            @PathVariable String version,
+            @PathVariable String rendition,
+            @PathVariable String fileName,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        serveHls(recordingId, version, rendition, fileName, request, response);
+    }
+
+    private void serveHls(Long recordingId, String version, String rendition, String fileName,
+                          HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Path path = recordingPackagingService.resolveHlsFile(recordingId, version, rendition, fileName);
+        String contentType = fileName.endsWith(".m3u8") ? "application/vnd.apple.mpegurl" : "video/mp2t";
+        // Chaque version publiée est immuable : l'URL change à chaque nouveau packaging
+        serveFile(new RecordingStreamService.RecordingFile(recordingId, path, fileName, contentType),
+                null, IMMUTABLE_CACHE_CONTROL, request, response);
+    }
+
+    private void serveRecording(Long recordingId, boolean inline,
+                                HttpServletRequest request, HttpServletResponse response) throws IOException {
+        RecordingStreamService.RecordingFile file = recordingStreamService.getRecordingFile(recordingId);
+        serveFile(file, inline ? "inline" : "attachment", "private, max-age=3600", request, response);
+    }
+
+    private void serveFile(RecordingStreamService.RecordingFile file, String disposition, String cacheControl,
+                           HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Long recordingId = file.id();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file.path(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            log.error("File not found: {}", file.path());
+            recordingStreamService.evict(recordingId);
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
 
-        Resource resource = new FileSystemResource(file);
+        long length = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        String etag = "\"" + recordingId + "-" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
 
-        // Déterminer le type MIME basé sur l'extension
-        String contentType = "video/mp4";
-        if (recording.getFileName().endsWith(".webm")) {
-            contentType = "video/webm";
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
         }
 
-        return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(contentType))
-                .header(HttpHeaders.CONTENT_DISPOSITION,
-                        "attachment; filename=\"" + recording.getFileName() + "\"")
-                .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(file.length()))
-                .body(resource);
+        if (disposition != null) {
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, disposition + "; filename=\"" + file.fileName() + "\"");
+        }
+
+        List<long[]> ranges = List.of();
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null && ifRangeMatches(request, etag, lastModified)) {
+            ranges = parseRanges(range, length);
+            if (ranges == null) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+        }
+
+        boolean head = "HEAD".equals(request.getMethod());
+        boolean sendfile = ranges.size() <= 1 && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT));
+        // Copie par le thread de requête : nombre de flux simultanés borné
+        boolean permit = !head && !sendfile && length > 0;
+        if (permit && !recordingStreamService.tryAcquireStream()) {
+            log.warn("Too many concurrent recording streams, rejecting recording {}", recordingId);
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        try {
+            if (ranges.size() > 1) {
+                writeMultipart(file, ranges, length, head, response);
+                return;
+            }
+
+            long start = 0;
+            long end = length - 1;
+            response.setContentType(file.contentType());
+            if (ranges.size() == 1) {
+                start = ranges.get(0)[0];
+                end = ranges.get(0)[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+            long count = end - start + 1;
+            response.setContentLengthLong(Math.max(count, 0));
+            if (head || count <= 0) {
+                return;
+            }
+
+            if (sendfile) {
+                // Tomcat envoie le fichier après le retour du contrôleur, sans copie en espace utilisateur
+                request.setAttribute(SENDFILE_FILENAME, file.path().toAbsolutePath().toString());
+                request.setAttribute(SENDFILE_START, start);
+                request.setAttribute(SENDFILE_END, end + 1);
+                return;
+            }
+
+            try (FileChannel channel = FileChannel.open(file.path(), StandardOpenOption.READ)) {
+                transfer(channel, Channels.newChannel(response.getOutputStream()), start, count);
+            }
+        } finally {
+            if (permit) {
+                recordingStreamService.releaseStream();
+            }
+        }
+    }
+
+    private void writeMultipart(RecordingStreamService.RecordingFile file, List<long[]> ranges, long length,
+                                boolean head, HttpServletResponse response) throws IOException {
+        String boundary = "RECORDING_" + UUID.randomUUID().toString().replace("-", "");
+        byte[][] partHeaders = new byte[ranges.size()][];
+        byte[] crlf = "\r\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] closing = ("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+
+        long contentLength = closing.length;
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] r = ranges.get(i);
+            partHeaders[i] = ("--" + boundary + "\r\n" +
+                    "Content-Type: " + file.contentType() + "\r\n" +
+                    "Content-Range: bytes " + r[0] + "-" + r[1] + "/" + length + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            contentLength += partHeaders[i].length + (r[1] - r[0] + 1) + crlf.length;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if (head) {
+            return;
+        }
+
+        OutputStream out = response.getOutputStream();
+        WritableByteChannel target = Channels.newChannel(out);
+        try (FileChannel channel = FileChannel.open(file.path(), StandardOpenOption.READ)) {
+            for (int i = 0; i < ranges.size(); i++) {
+                long[] r = ranges.get(i);
+                out.write(partHeaders[i]);
+                transfer(channel, target, r[0], r[1] - r[0] + 1);
+                out.write(crlf);
+            }
+            out.write(closing);
+        }
+    }
+
+    private static void transfer(FileChannel channel, WritableByteChannel target, long position, long count)
+            throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            long sent = channel.transferTo(position, remaining, target);
+            if (sent <= 0) break;
+            position += sent;
+            remaining -= sent;
+        }
+    }
+
+    private static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String value = candidate.trim();
+                if (value.startsWith("W/")) {
+                    value = value.substring(2);
+                }
+                if (value.equals("*") || value.equals(etag)) {
+                    return true;
+                }
+            }
+            return false; // If-None-Match prime sur If-Modified-Since
+        }
+        long ifModifiedSince = dateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * If-Range : la plage n'est honorée que si le fichier n'a pas changé (ETag fort ou date exacte)
+     */
+    private static boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        long date = dateHeader(request, HttpHeaders.IF_RANGE);
+        return date >= 0 && date / 1000 == lastModified / 1000;
+    }
+
+    private static long dateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * "bytes=a-b, c-, -n" : plages triées et fusionnées.
+     * Liste vide = en-tête ignoré (contenu complet), null = aucune plage satisfaisable (416).
+     */
+    private static List<long[]> parseRanges(String header, long length) {
+        if (!header.startsWith("bytes=")) {
+            return List.of();
+        }
+        String[] specs = header.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return List.of();
+        }
+
+        List<long[]> ranges = new ArrayList<>();
+        for (String raw : specs) {
+            String spec = raw.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return List.of();
+            }
+            try {
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                long start;
+                long end;
+                if (first.isEmpty()) {
+                    long suffix = Long.parseLong(last);
+                    if (suffix <= 0) continue;
+                    start = Math.max(0, length - suffix);
+                    end = length - 1;
+                } else {
+                    start = Long.parseLong(first);
+                    end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                    if (!last.isEmpty() && Long.parseLong(last) < start) {
+                        return List.of(); // syntaxe invalide : en-tête ignoré
+                    }
+                }
+                if (start < length && start <= end) {
+                    ranges.add(new long[]{start, end});
+                }
+            } catch (NumberFormatException e) {
+                return List.of();
+            }
+        }
+        if (ranges.isEmpty()) {
+            return null;
+        }
+
+        // Fusion des plages qui se chevauchent ou se touchent
+        ranges.sort(Comparator.comparingLong(r -> r[0]));
+        List<long[]> merged = new ArrayList<>();
+        for (long[] r : ranges) {
+            long[] previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (previous != null && r[0] <= previous[1] + 1) {
+                previous[1] = Math.max(previous[1], r[1]);
+            } else {
+                merged.add(r);
+            }
+        }
+        return merged;
     }
 
     @DeleteMapping("/recordings/{recordingId}")
@@ -253,6 +553,7 @@ private  final UserServiceClient userServiceClient;
             @AuthenticationPrincipal Jwt jwt) {
         String token = "Bearer " + jwt.getTokenValue();
         recordingService.deleteRecording(recordingId, token);
+        recordingStreamService.evict(recordingId);
         return ResponseEntity.noContent().build();
     }
 
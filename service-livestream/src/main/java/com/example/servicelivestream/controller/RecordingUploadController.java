@@ -0,0 +1,102 @@
+package com.example.servicelivestream.controller;
+
+import com.example.servicelivestream.dto.RecordingUploadRequest;
+import com.example.servicelivestream.dto.RecordingUploadResponse;
+import com.example.servicelivestream.entity.Recording;
+import com.example.servicelivestream.service.RecordingUploadService;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * Upload fractionné et reprenable des enregistrements client.
+ * <pre>
+ * POST   /recordings/uploads                 {sessionId, fileName, totalSize} -> uploadId
+ * HEAD   /recordings/uploads/{id}            Upload-Offset : reprise après coupure
+ * PUT    /recordings/uploads/{id}            Upload-Offset, [Upload-Checksum], corps brut
+ * POST   /recordings/uploads/{id}/complete   finalise l'enregistrement
+ * DELETE /recordings/uploads/{id}            abandon
+ * </pre>
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/v1/livestream/recordings/uploads")
+@RequiredArgsConstructor
+public class RecordingUploadController {
+
+    static final String UPLOAD_OFFSET = "Upload-Offset";
+    static final String UPLOAD_LENGTH = "Upload-Length";
+    static final String UPLOAD_CHECKSUM = "Upload-Checksum";
+
+    private final RecordingUploadService uploadService;
+
+    @PostMapping
+    public ResponseEntity<RecordingUploadResponse> createUpload(
+            @RequestBody RecordingUploadRequest request,
+            @AuthenticationPrincipal Jwt jwt) {
+        RecordingUploadResponse upload = uploadService.createUpload(request, jwt.getSubject());
+        return withOffsets(ResponseEntity.created(URI.create("/api/v1/livestream/recordings/uploads/" + upload.uploadId())), upload)
+                .body(upload);
+    }
+
+    @RequestMapping(value = "/{uploadId}", method = {RequestMethod.GET, RequestMethod.HEAD})
+    public ResponseEntity<RecordingUploadResponse> getUpload(
+            @PathVariable String uploadId,
+            @AuthenticationPrincipal Jwt jwt) {
+        RecordingUploadResponse upload = uploadService.getUpload(uploadId, jwt.getSubject());
+        return withOffsets(ResponseEntity.ok(), upload).body(upload);
+    }
+
+    /**
+     * Le corps est lu directement depuis la requête (pas de multipart, pas de fichier temporaire)
+     */
+    @PutMapping("/{uploadId}")
+    public ResponseEntity<RecordingUploadResponse> uploadChunk(
+            @PathVariable String uploadId,
+            @RequestHeader(UPLOAD_OFFSET) long offset,
+            @RequestHeader(value = UPLOAD_CHECKSUM, required = false) String checksum,
+            HttpServletRequest request,
+            @AuthenticationPrincipal Jwt jwt) throws IOException {
+        RecordingUploadResponse upload = uploadService.writeChunk(uploadId, jwt.getSubject(), offset,
+                request.getContentLengthLong(), checksum, request.getInputStream());
+        return withOffsets(ResponseEntity.ok(), upload).body(upload);
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<Map<String, String>> completeUpload(
+            @PathVariable String uploadId,
+            @AuthenticationPrincipal Jwt jwt) {
+        Recording recording = uploadService.completeUpload(uploadId, jwt.getSubject());
+        return ResponseEntity.ok(Map.of(
+                "message", "Upload successful",
+                "success", "true",
+                "fileName", recording.getFileName(),
+                "recordingId", recording.getId().toString()
+        ));
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<Void> abortUpload(
+            @PathVariable String uploadId,
+            @AuthenticationPrincipal Jwt jwt) {
+        uploadService.abortUpload(uploadId, jwt.getSubject());
+        return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+    }
+
+    private static ResponseEntity.BodyBuilder withOffsets(ResponseEntity.BodyBuilder builder, RecordingUploadResponse upload) {
+        return builder
+                .header(UPLOAD_OFFSET, String.valueOf(upload.offset()))
+                .header(UPLOAD_LENGTH, String.valueOf(upload.totalSize()))
+                .header(HttpHeaders.CACHE_CONTROL, "no-store");
+    }
+}
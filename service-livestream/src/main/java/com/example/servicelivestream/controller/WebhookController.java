@@ -1,19 +1,24 @@
 package com.example.servicelivestream.controller;
 
-import com.example.servicelivestream.dto.WebhookEvent;
-import com.example.servicelivestream.service.LivestreamService;
+import com.example.servicelivestream.service.WebhookInboxService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
 
 @RestController
 @RequiredArgsConstructor
 public class WebhookController {
-    private final LivestreamService livestreamService;
+    private final WebhookInboxService webhookInboxService;
 
-    @PostMapping("/webhook")
-    public void handleWebhook(@RequestBody WebhookEvent event) {
-        livestreamService.handleMediaServerEvent(event);
+    /**
+     * Corps brut (nécessaire au contrôle de signature) ; 200 dès l'événement stocké, y compris pour un renvoi
+     */
+    @PostMapping(value = "/webhook", consumes = {"application/webhook+json", "application/json"})
+    public void handleWebhook(@RequestBody String body,
+                              @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization) {
+        webhookInboxService.receive(body, authorization);
     }
-}
\ No newline at end of file
+}
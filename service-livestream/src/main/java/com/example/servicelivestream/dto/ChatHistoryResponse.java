@@ -0,0 +1,16 @@
+package com.example.servicelivestream.dto;
+
+import java.util.List;
+
+/**
+ * Page d'historique du chat, en ordre chronologique.
+ * Ancres pour la page suivante : before=oldestId pour remonter, after=newestId pour rattraper.
+ */
+public record ChatHistoryResponse(
+        Long sessionId,
+        List<ChatMessage> messages,
+        Long oldestId,
+        Long newestId,
+        boolean hasMore
+) {
+}
@@ -0,0 +1,12 @@
+package com.example.servicelivestream.dto;
+
+/**
+ * Identité d'un participant au chat, résolue une seule fois au CONNECT STOMP
+ * et conservée dans les attributs de la session WebSocket.
+ */
+public record ChatIdentity(
+        Long userId,
+        String keycloakId,
+        String displayName
+) {
+}
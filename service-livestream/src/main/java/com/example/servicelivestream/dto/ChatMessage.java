@@ -6,9 +6,14 @@ public record ChatMessage(
         String userId,
         String username,
         String message,
-        LocalDateTime timestamp
+        LocalDateTime timestamp,
+        Long id // identifiant persistant, ancre des curseurs d'historique (absent en entrée)
 ) {
+    public ChatMessage(String userId, String username, String message, LocalDateTime timestamp) {
+        this(userId, username, message, timestamp, null);
+    }
+
     public ChatMessage(String userId, String username, String message) {
         this(userId, username, message, LocalDateTime.now());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,40 @@
+package com.example.servicelivestream.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.List;
+
+/**
+ * Sous-ensemble utile d'un événement webhook LiveKit (JSON protobuf, champs en camelCase)
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record LiveKitWebhookEvent(
+        String id,
+        String event,
+        Room room,
+        Participant participant,
+        EgressInfo egressInfo,
+        String createdAt
+) {
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Room(String sid, String name) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Participant(String sid, String identity, String name) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record EgressInfo(String egressId, String roomName, String status, String error,
+                             List<FileInfo> fileResults, FileInfo file) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record FileInfo(String filename, String location, Long size) {
+    }
+
+    public String roomName() {
+        if (room != null && room.name() != null) return room.name();
+        return egressInfo != null ? egressInfo.roomName() : null;
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.servicelivestream.dto;
+
+import java.util.List;
+
+public record PackagingStatusResponse(
+        Long recordingId,
+        String status,
+        Double progress,
+        int attempts,
+        List<String> renditions,
+        String masterPlaylistUrl,
+        String mp4Url,
+        String lastError
+) {
+}
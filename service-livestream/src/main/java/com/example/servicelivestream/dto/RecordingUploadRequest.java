@@ -0,0 +1,8 @@
+package com.example.servicelivestream.dto;
+
+public record RecordingUploadRequest(
+        Long sessionId,
+        String fileName,
+        Long totalSize
+) {
+}
@@ -0,0 +1,11 @@
+package com.example.servicelivestream.dto;
+
+public record RecordingUploadResponse(
+        String uploadId,
+        Long recordingId,
+        String fileName,
+        long offset,
+        long totalSize,
+        long maxChunkSize
+) {
+}
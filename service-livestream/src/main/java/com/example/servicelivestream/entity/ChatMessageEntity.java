@@ -6,7 +6,10 @@ import lombok.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "chat_messages")
+@Table(name = "chat_messages", indexes = {
+        // Lectures par ancre (dernière page, before/after) : aucun tri ni OFFSET
+        @Index(name = "idx_chat_messages_session_id", columnList = "session_id, id")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -0,0 +1,38 @@
+package com.example.servicelivestream.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Chat archivé d'une session terminée : une seule ligne par session (JSON compressé gzip)
+ * à la place des lignes {@code chat_messages}, relue en lecture seule par l'historique.
+ */
+@Entity
+@Table(name = "chat_transcripts")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ChatTranscript {
+    @Id
+    @Column(name = "session_id")
+    private Long sessionId;
+
+    @Column(name = "message_count", nullable = false)
+    private int messageCount;
+
+    @Column(name = "last_message_id", nullable = false)
+    private Long lastMessageId;
+
+    @Column(name = "payload", nullable = false, columnDefinition = "bytea")
+    private byte[] payload;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,66 @@
+package com.example.servicelivestream.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Tâche de packaging d'un enregistrement terminé (MP4 faststart + échelle HLS).
+ * Persistée pour survivre aux redémarrages : une tâche PENDING est reprise par le planificateur.
+ */
+@Entity
+@Table(name = "recording_packaging_jobs", indexes = {
+        @Index(name = "idx_packaging_jobs_status", columnList = "status, created_at")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class PackagingJob {
+    public static final String PENDING = "PENDING";
+    public static final String RUNNING = "RUNNING";
+    public static final String COMPLETED = "COMPLETED";
+    public static final String FAILED = "FAILED";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "recording_id", nullable = false, unique = true)
+    private Long recordingId;
+
+    @Column(name = "status", nullable = false, length = 16)
+    private String status;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    // Répertoire publié (immuable une fois COMPLETED)
+    @Column(name = "output_dir")
+    private String outputDir;
+
+    @Column(name = "mp4_file_name")
+    private String mp4FileName;
+
+    @Column(name = "renditions")
+    private String renditions;
+
+    // Nouveau fichier arrivé pendant une exécution : relancée à la fin de celle-ci.
+    // Modifié uniquement par les requêtes du dépôt, jamais écrasé par la sauvegarde de l'entité du worker
+    @Column(name = "rerun_requested", updatable = false)
+    private Boolean rerunRequested;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+}
@@ -7,7 +7,10 @@ import java.time.LocalDateTime;
 import java.util.List;
 
 @Entity
-@Table(name = "recordings")
+@Table(name = "recordings", indexes = {
+        // Enregistrements d'un lot de sessions (tableaux de bord receveur, sessions d'une compétence)
+        @Index(name = "idx_recordings_session", columnList = "session_id, recording_number")
+})
 @Getter
 @Setter
 @NoArgsConstructor
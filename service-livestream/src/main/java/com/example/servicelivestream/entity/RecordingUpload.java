@@ -0,0 +1,52 @@
+package com.example.servicelivestream.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Upload fractionné d'un enregistrement client : l'offset n'avance qu'une fois le morceau écrit,
+ * vérifié et synchronisé sur disque, le client reprend à partir de cette valeur.
+ */
+@Entity
+@Table(name = "recording_uploads", indexes = {
+        @Index(name = "idx_recording_uploads_updated_at", columnList = "updated_at")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class RecordingUpload {
+    @Id
+    @Column(name = "id", length = 36)
+    private String id;
+
+    @Column(name = "recording_id", nullable = false, unique = true)
+    private Long recordingId;
+
+    @Column(name = "owner_id", nullable = false)
+    private String ownerId;
+
+    @Column(name = "file_name", nullable = false)
+    private String fileName;
+
+    @Column(name = "temp_path", nullable = false)
+    private String tempPath;
+
+    @Column(name = "final_path", nullable = false)
+    private String finalPath;
+
+    @Column(name = "total_size", nullable = false)
+    private Long totalSize;
+
+    @Column(name = "upload_offset", nullable = false)
+    private Long uploadOffset;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,51 @@
+package com.example.servicelivestream.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Participation d'un utilisateur à une session (producteur ou participant).
+ * Le statut et la date de fin de la session sont recopiés ici pour que les tableaux de bord
+ * (« mes sessions terminées », « mes enregistrements ») soient servis par l'index
+ * (user_id, session_status, end_time) au lieu d'un MEMBER OF sur la collection.
+ */
+@Entity
+@Table(name = "livestream_session_participants",
+        uniqueConstraints = {
+                @UniqueConstraint(name = "uk_session_participants_session_user", columnNames = {"session_id", "user_id"})
+        },
+        indexes = {
+                @Index(name = "idx_session_participants_user_status", columnList = "user_id, session_status, end_time")
+        })
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SessionParticipant {
+
+    public static final String PRODUCER = "PRODUCER";
+    public static final String RECEIVER = "RECEIVER";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "session_id", nullable = false)
+    private LivestreamSession session;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "role", nullable = false, length = 16)
+    private String role;
+
+    @Column(name = "session_status", nullable = false)
+    private String sessionStatus;
+
+    @Column(name = "end_time")
+    private LocalDateTime endTime;
+}
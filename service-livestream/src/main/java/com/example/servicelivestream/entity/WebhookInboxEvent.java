@@ -0,0 +1,65 @@
+package com.example.servicelivestream.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Événement du serveur média reçu par webhook, stocké brut avant traitement.
+ * La clé de dédoublonnage (identifiant LiveKit ou empreinte du corps) absorbe les renvois ;
+ * les événements d'une même salle sont traités dans l'ordre de réception.
+ */
+@Entity
+@Table(name = "webhook_inbox",
+        uniqueConstraints = {
+                @UniqueConstraint(name = "uk_webhook_inbox_dedupe_key", columnNames = "dedupe_key")
+        },
+        indexes = {
+                @Index(name = "idx_webhook_inbox_room_status", columnList = "room_name, status, id"),
+                @Index(name = "idx_webhook_inbox_status_received", columnList = "status, received_at")
+        })
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class WebhookInboxEvent {
+    public static final String PENDING = "PENDING";
+    public static final String DONE = "DONE";
+    public static final String FAILED = "FAILED";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "dedupe_key", nullable = false, length = 128)
+    private String dedupeKey;
+
+    @Column(name = "source", nullable = false, length = 16)
+    private String source;
+
+    @Column(name = "event_type", nullable = false, length = 64)
+    private String eventType;
+
+    @Column(name = "room_name", nullable = false)
+    private String roomName;
+
+    @Column(name = "payload", nullable = false, columnDefinition = "text")
+    private String payload;
+
+    @Column(name = "status", nullable = false, length = 16)
+    private String status;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    @Column(name = "received_at", nullable = false)
+    private LocalDateTime receivedAt;
+
+    @Column(name = "processed_at")
+    private LocalDateTime processedAt;
+}
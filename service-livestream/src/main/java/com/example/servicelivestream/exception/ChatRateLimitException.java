@@ -0,0 +1,18 @@
+package com.example.servicelivestream.exception;
+
+import lombok.Getter;
+
+/**
+ * Message de chat refusé (débit, mode lent ou écriture saturée) ; renvoyé à l'expéditeur seul
+ */
+@Getter
+public class ChatRateLimitException extends RuntimeException {
+    private final String reason;
+    private final long retryAfterMs;
+
+    public ChatRateLimitException(String reason, long retryAfterMs) {
+        super("Chat message rejected: " + reason);
+        this.reason = reason;
+        this.retryAfterMs = retryAfterMs;
+    }
+}
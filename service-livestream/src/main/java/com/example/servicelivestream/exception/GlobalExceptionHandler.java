@@ -51,6 +51,36 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
     }
 
+    // Chat limité : réponse à l'expéditeur seul, sans trace d'erreur
+    @MessageExceptionHandler(ChatRateLimitException.class)
+    @SendToUser("/queue/errors")
+    public Map<String, Object> handleChatRateLimit(ChatRateLimitException e) {
+        log.debug("Chat message throttled: {}", e.getReason());
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", "Chat rate limited");
+        response.put("reason", e.getReason());
+        response.put("retryAfterMs", e.getRetryAfterMs());
+        response.put("timestamp", LocalDateTime.now());
+
+        return response;
+    }
+
+    // Message de chat invalide (vide, trop long) : réponse à l'expéditeur seul
+    @MessageExceptionHandler(InvalidChatMessageException.class)
+    @SendToUser("/queue/errors")
+    public Map<String, Object> handleInvalidChatMessage(InvalidChatMessageException e) {
+        log.debug("Chat message rejected: {}", e.getReason());
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", "Invalid chat message");
+        response.put("reason", e.getReason());
+        response.put("message", e.getMessage());
+        response.put("timestamp", LocalDateTime.now());
+
+        return response;
+    }
+
     // Gestion des exceptions WebSocket
     @MessageExceptionHandler
     @SendToUser("/queue/errors")
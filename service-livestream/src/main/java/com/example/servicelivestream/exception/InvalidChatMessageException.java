@@ -0,0 +1,16 @@
+package com.example.servicelivestream.exception;
+
+import lombok.Getter;
+
+/**
+ * Message de chat refusé avant mise en file (vide ou trop long) ; renvoyé à l'expéditeur seul
+ */
+@Getter
+public class InvalidChatMessageException extends RuntimeException {
+    private final String reason;
+
+    public InvalidChatMessageException(String reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+}
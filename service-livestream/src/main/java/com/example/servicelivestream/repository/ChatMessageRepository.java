@@ -1,15 +1,46 @@
 package com.example.servicelivestream.repository;
 
 import com.example.servicelivestream.entity.ChatMessageEntity;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Repository
 public interface ChatMessageRepository extends JpaRepository<ChatMessageEntity, Long> {
     // Update to use the session relationship
-    @Query("SELECT m FROM ChatMessageEntity m WHERE m.session.id = :sessionId ORDER BY m.timestamp ASC")
-    List<ChatMessageEntity> findBySessionIdOrderByTimestampAsc(@Param("sessionId") Long sessionId);}
\ No newline at end of file
+    @Query("SELECT m FROM ChatMessageEntity m WHERE m.session.id = :sessionId ORDER BY m.id ASC")
+    List<ChatMessageEntity> findBySessionIdOrderByIdAsc(@Param("sessionId") Long sessionId);
+
+    /**
+     * Historique par ancre (index session_id, id) : l'identifiant suit l'ordre d'arrivée des messages
+     */
+    @Query("SELECT m FROM ChatMessageEntity m WHERE m.session.id = :sessionId ORDER BY m.id DESC")
+    List<ChatMessageEntity> findLatestMessages(@Param("sessionId") Long sessionId, Limit limit);
+
+    @Query("SELECT m FROM ChatMessageEntity m WHERE m.session.id = :sessionId AND m.id < :beforeId ORDER BY m.id DESC")
+    List<ChatMessageEntity> findMessagesBefore(@Param("sessionId") Long sessionId,
+                                               @Param("beforeId") Long beforeId,
+                                               Limit limit);
+
+    @Query("SELECT m FROM ChatMessageEntity m WHERE m.session.id = :sessionId AND m.id > :afterId ORDER BY m.id ASC")
+    List<ChatMessageEntity> findMessagesAfter(@Param("sessionId") Long sessionId,
+                                              @Param("afterId") Long afterId,
+                                              Limit limit);
+
+    /**
+     * Sessions terminées dont le chat est encore stocké message par message
+     */
+    @Query("SELECT DISTINCT m.session.id FROM ChatMessageEntity m " +
+            "WHERE m.session.status = 'COMPLETED' AND m.session.endTime < :endedBefore")
+    List<Long> findSessionIdsToArchive(@Param("endedBefore") LocalDateTime endedBefore, Limit limit);
+
+    @Modifying
+    @Query("DELETE FROM ChatMessageEntity m WHERE m.session.id = :sessionId AND m.id <= :maxId")
+    int deleteArchived(@Param("sessionId") Long sessionId, @Param("maxId") Long maxId);
+}
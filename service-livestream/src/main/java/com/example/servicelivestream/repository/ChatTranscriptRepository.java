@@ -0,0 +1,9 @@
+package com.example.servicelivestream.repository;
+
+import com.example.servicelivestream.entity.ChatTranscript;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ChatTranscriptRepository extends JpaRepository<ChatTranscript, Long> {
+}
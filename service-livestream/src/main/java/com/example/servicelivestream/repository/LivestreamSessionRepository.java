@@ -8,6 +8,7 @@ import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface LivestreamSessionRepository extends JpaRepository<LivestreamSession, Long> {
@@ -25,12 +26,13 @@ public interface LivestreamSessionRepository extends JpaRepository<LivestreamSes
     // Recherche par producerId
     List<LivestreamSession> findByProducerId(Long producerId);
 
-    // Recherche où receiverId est dans la liste des receivers
-    @Query("SELECT ls FROM LivestreamSession ls WHERE :receiverId MEMBER OF ls.receiverIds")
+    // Recherche où receiverId est participant (table des participants, index user_id, session_status, end_time)
+    @Query("SELECT p.session FROM SessionParticipant p WHERE p.userId = :receiverId AND p.role = 'RECEIVER'")
     List<LivestreamSession> findByReceiverIdsContaining(@Param("receiverId") Long receiverId);
 
-    // Recherche où receiverId est dans la liste et avec un statut spécifique
-    @Query("SELECT ls FROM LivestreamSession ls WHERE :receiverId MEMBER OF ls.receiverIds AND ls.status = :status")
+    // Recherche où receiverId est participant et avec un statut spécifique
+    @Query("SELECT p.session FROM SessionParticipant p WHERE p.userId = :receiverId AND p.role = 'RECEIVER' " +
+            "AND p.sessionStatus = :status")
     List<LivestreamSession> findByReceiverIdsContainingAndStatus(
             @Param("receiverId") Long receiverId,
             @Param("status") String status
@@ -41,7 +43,8 @@ public interface LivestreamSessionRepository extends JpaRepository<LivestreamSes
     List<LivestreamSession> findCompletedByProducerId(@Param("producerId") Long producerId);
 
     // Sessions complétées par receiverId
-    @Query("SELECT ls FROM LivestreamSession ls WHERE :receiverId MEMBER OF ls.receiverIds AND ls.status = 'COMPLETED' ORDER BY ls.endTime DESC")
+    @Query("SELECT p.session FROM SessionParticipant p WHERE p.userId = :receiverId AND p.role = 'RECEIVER' " +
+            "AND p.sessionStatus = 'COMPLETED' ORDER BY p.endTime DESC")
     List<LivestreamSession> findCompletedByReceiverId(@Param("receiverId") Long receiverId);
 
     // Sessions par skillId
@@ -49,4 +52,17 @@ public interface LivestreamSessionRepository extends JpaRepository<LivestreamSes
 
     // Sessions par producerId et status
     List<LivestreamSession> findByProducerIdAndStatus(Long producerId, String status);
+
+    // Membres du chat : projections légères, sans charger l'entité
+    interface ChatSessionView {
+        Long getProducerId();
+
+        String getStatus();
+    }
+
+    @Query("SELECT ls.producerId AS producerId, ls.status AS status FROM LivestreamSession ls WHERE ls.id = :sessionId")
+    Optional<ChatSessionView> findChatViewById(@Param("sessionId") Long sessionId);
+
+    @Query("SELECT p.userId FROM SessionParticipant p WHERE p.session.id = :sessionId AND p.role = 'RECEIVER'")
+    List<Long> findReceiverIdsById(@Param("sessionId") Long sessionId);
 }
\ No newline at end of file
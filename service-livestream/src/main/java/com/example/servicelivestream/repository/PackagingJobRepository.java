@@ -0,0 +1,52 @@
+package com.example.servicelivestream.repository;
+
+import com.example.servicelivestream.entity.PackagingJob;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface PackagingJobRepository extends JpaRepository<PackagingJob, Long> {
+
+    Optional<PackagingJob> findByRecordingId(Long recordingId);
+
+    Optional<PackagingJob> findByRecordingIdAndStatus(Long recordingId, String status);
+
+    List<PackagingJob> findByStatusOrderByCreatedAtAsc(String status, Limit limit);
+
+    long countByStatus(String status);
+
+    // Un seul worker obtient la tâche
+    @Transactional
+    @Modifying
+    @Query("UPDATE PackagingJob j SET j.status = 'RUNNING', j.startedAt = :now, j.attempts = j.attempts + 1 " +
+            "WHERE j.id = :id AND j.status = 'PENDING'")
+    int claim(@Param("id") Long id, @Param("now") LocalDateTime now);
+
+    // Ré-upload pendant l'exécution : 0 si la tâche n'est plus RUNNING
+    @Transactional
+    @Modifying
+    @Query("UPDATE PackagingJob j SET j.rerunRequested = true WHERE j.id = :id AND j.status = 'RUNNING'")
+    int requestRerun(@Param("id") Long id);
+
+    // Fin d'exécution : repart de zéro si une relance a été demandée entre-temps
+    @Transactional
+    @Modifying
+    @Query("UPDATE PackagingJob j SET j.status = 'PENDING', j.attempts = 0, j.lastError = null, j.rerunRequested = false " +
+            "WHERE j.id = :id AND j.rerunRequested = true AND j.status <> 'RUNNING'")
+    int requeueIfRerunRequested(@Param("id") Long id);
+
+    // Tâches interrompues par un arrêt du service (la reprise traite déjà le dernier fichier)
+    @Transactional
+    @Modifying
+    @Query("UPDATE PackagingJob j SET j.status = 'PENDING', j.rerunRequested = false WHERE j.status = 'RUNNING'")
+    int requeueRunning();
+}
@@ -8,6 +8,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -28,7 +29,17 @@ public interface RecordingRepository extends JpaRepository<Recording, Long> {
 
     Optional<Recording> findBySession(LivestreamSession session);
 
-    List<Recording> findByAuthorizedUsersContaining(Long userId);
+    // Enregistrements des sessions auxquelles l'utilisateur a participé (table des participants)
+    @Query("SELECT r FROM Recording r WHERE r.session.id IN " +
+            "(SELECT p.session.id FROM SessionParticipant p WHERE p.userId = :userId)")
+    List<Recording> findAccessibleByUserId(@Param("userId") Long userId);
+
+    @Query("SELECT r FROM Recording r WHERE r.session.id IN :sessionIds ORDER BY r.session.id, r.recordingNumber ASC")
+    List<Recording> findBySessionIdIn(@Param("sessionIds") Collection<Long> sessionIds);
+
+    // Un même fichier peut être annoncé par egress_ended et par l'ancien recordingFinished
+    @Query("SELECT COUNT(r) > 0 FROM Recording r WHERE r.session.id = :sessionId AND r.filePath = :filePath")
+    boolean existsBySessionIdAndFilePath(@Param("sessionId") Long sessionId, @Param("filePath") String filePath);
 
     // Pour trouver les enregistrements bloqués depuis longtemps
     List<Recording> findByStatusAndStartedAtBefore(String status, LocalDateTime threshold);
@@ -0,0 +1,28 @@
+package com.example.servicelivestream.repository;
+
+import com.example.servicelivestream.entity.RecordingUpload;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface RecordingUploadRepository extends JpaRepository<RecordingUpload, String> {
+
+    // Avance conditionnelle : 0 ligne si l'offset a changé entre-temps
+    @Transactional
+    @Modifying
+    @Query("UPDATE RecordingUpload u SET u.uploadOffset = :next, u.updatedAt = :now " +
+            "WHERE u.id = :id AND u.uploadOffset = :expected")
+    int advanceOffset(@Param("id") String id,
+                      @Param("expected") Long expected,
+                      @Param("next") Long next,
+                      @Param("now") LocalDateTime now);
+
+    List<RecordingUpload> findByUpdatedAtBefore(LocalDateTime threshold);
+}
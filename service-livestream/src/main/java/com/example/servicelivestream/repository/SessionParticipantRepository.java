@@ -0,0 +1,53 @@
+package com.example.servicelivestream.repository;
+
+import com.example.servicelivestream.entity.SessionParticipant;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface SessionParticipantRepository extends JpaRepository<SessionParticipant, Long> {
+
+    // Sessions terminées d'un utilisateur pour une compétence : index (user_id, session_status, end_time)
+    @Query("SELECT p.session.id FROM SessionParticipant p WHERE p.userId = :userId " +
+            "AND p.sessionStatus = :status AND p.session.skillId = :skillId")
+    List<Long> findSessionIdsByUserAndSkill(@Param("userId") Long userId,
+                                            @Param("skillId") Integer skillId,
+                                            @Param("status") String status);
+
+    @Modifying
+    @Query("UPDATE SessionParticipant p SET p.sessionStatus = :status, p.endTime = :endTime WHERE p.session.id = :sessionId")
+    int syncSessionState(@Param("sessionId") Long sessionId,
+                         @Param("status") String status,
+                         @Param("endTime") LocalDateTime endTime);
+
+    // ========== Reprise des anciennes collections (idempotente) ==========
+
+    @Modifying
+    @Query(value = "INSERT INTO livestream_session_participants (session_id, user_id, role, session_status, end_time) " +
+            "SELECT s.id, s.producer_id, 'PRODUCER', s.status, s.end_time FROM livestream_sessions s " +
+            "ON CONFLICT (session_id, user_id) DO NOTHING", nativeQuery = true)
+    int backfillProducers();
+
+    @Modifying
+    @Query(value = "INSERT INTO livestream_session_participants (session_id, user_id, role, session_status, end_time) " +
+            "SELECT s.id, r.receiver_ids, 'RECEIVER', s.status, s.end_time " +
+            "FROM livestream_session_receiver_ids r JOIN livestream_sessions s ON s.id = r.livestream_session_id " +
+            "WHERE r.receiver_ids IS NOT NULL " +
+            "ON CONFLICT (session_id, user_id) DO NOTHING", nativeQuery = true)
+    int backfillReceivers();
+
+    @Modifying
+    @Query(value = "INSERT INTO livestream_session_participants (session_id, user_id, role, session_status, end_time) " +
+            "SELECT s.id, a.user_id, 'RECEIVER', s.status, s.end_time " +
+            "FROM recording_access a JOIN recordings rec ON rec.id = a.recording_id " +
+            "JOIN livestream_sessions s ON s.id = rec.session_id " +
+            "WHERE a.user_id IS NOT NULL " +
+            "ON CONFLICT (session_id, user_id) DO NOTHING", nativeQuery = true)
+    int backfillRecordingAccess();
+}
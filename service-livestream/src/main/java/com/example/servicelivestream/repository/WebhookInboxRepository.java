@@ -0,0 +1,52 @@
+package com.example.servicelivestream.repository;
+
+import com.example.servicelivestream.entity.WebhookInboxEvent;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface WebhookInboxRepository extends JpaRepository<WebhookInboxEvent, Long> {
+
+    /**
+     * Insertion idempotente : 0 si l'événement a déjà été reçu
+     */
+    @Modifying
+    @Query(value = "INSERT INTO webhook_inbox (dedupe_key, source, event_type, room_name, payload, status, attempts, received_at) " +
+            "VALUES (:dedupeKey, :source, :eventType, :roomName, :payload, 'PENDING', 0, :receivedAt) " +
+            "ON CONFLICT (dedupe_key) DO NOTHING", nativeQuery = true)
+    int insertIfAbsent(@Param("dedupeKey") String dedupeKey,
+                       @Param("source") String source,
+                       @Param("eventType") String eventType,
+                       @Param("roomName") String roomName,
+                       @Param("payload") String payload,
+                       @Param("receivedAt") LocalDateTime receivedAt);
+
+    // Prochains événements d'une salle, dans l'ordre de réception
+    @Query("SELECT e.id FROM WebhookInboxEvent e WHERE e.roomName = :roomName AND e.status = 'PENDING' ORDER BY e.id ASC")
+    List<Long> findPendingIds(@Param("roomName") String roomName, Limit limit);
+
+    @Query("SELECT DISTINCT e.roomName FROM WebhookInboxEvent e WHERE e.status = 'PENDING'")
+    List<String> findRoomsWithPendingEvents(Limit limit);
+
+    // Verrou de ligne : un seul worker (toutes instances confondues) traite l'événement
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT e FROM WebhookInboxEvent e WHERE e.id = :id")
+    Optional<WebhookInboxEvent> findForUpdate(@Param("id") Long id);
+
+    // Fenêtre de dédoublonnage : les événements traités sont conservés quelques jours
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM WebhookInboxEvent e WHERE e.status = 'DONE' AND e.processedAt < :before")
+    int deleteProcessedBefore(@Param("before") LocalDateTime before);
+}
@@ -32,7 +32,7 @@ public class SecurityConfig {
         http
                 // ✅ EXACTEMENT comme le service notifications
                 .csrf(csrf -> csrf
-                        .ignoringRequestMatchers("/ws/**", "/ws/info/**", "/actuator/**")
+                        .ignoringRequestMatchers("/ws/**", "/ws/info/**", "/actuator/**", "/webhook/**")
                 )
                 // ✅ PAS DE CORS - délégué au Gateway
                 .authorizeHttpRequests(auth -> auth
@@ -0,0 +1,225 @@
+package com.example.servicelivestream.service;
+
+import com.example.servicelivestream.dto.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Persistance groupée du chat : les messages acceptés sont diffusés tout de suite puis écrits
+ * par un thread dédié, un INSERT multi-lignes par lot (au plus {@code batch-size} lignes,
+ * au plus toutes les {@code flush-interval-ms}).
+ * <p>
+ * Les identifiants sont réservés par blocs sur la séquence de {@code chat_messages.id} : le message
+ * diffusé porte déjà son identifiant définitif, et un lot rejoué n'insère pas de doublon.
+ * L'identifiant est pris et le message mis en file sous le même verrou : l'ordre de la file, donc
+ * des écritures et de l'historique, est celui des identifiants, et un lecteur {@code after} ne
+ * voit jamais un identifiant avant un plus petit.
+ * Les messages ne rejoignent le tampon d'historique qu'une fois écrits. Une ligne refusée par la base
+ * fait échouer tout l'INSERT : le lot est alors coupé en deux jusqu'à isoler les lignes fautives,
+ * seules abandonnées.
+ */
+@Slf4j
+@Component
+public class ChatBatchWriter {
+
+    private record PendingMessage(Long sessionId, Long userId, ChatMessage message) {
+    }
+
+    private static final String INSERT_PREFIX =
+            "INSERT INTO chat_messages (id, session_id, user_id, username, content, timestamp) VALUES ";
+    private static final String INSERT_SUFFIX = " ON CONFLICT (id) DO NOTHING";
+    private static final String RESERVE_IDS =
+            "SELECT nextval(pg_get_serial_sequence('chat_messages', 'id')) FROM generate_series(1, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ChatHistoryService chatHistoryService;
+    private final BlockingQueue<PendingMessage> queue;
+    private final Deque<Long> reservedIds = new ArrayDeque<>();
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final int maxRetries;
+    private final int idBlockSize;
+    private final Timer flushTimer;
+    private final Counter writtenCounter;
+    private final Counter droppedCounter;
+    private final Thread thread;
+
+    public ChatBatchWriter(JdbcTemplate jdbcTemplate,
+                           ChatHistoryService chatHistoryService,
+                           MeterRegistry meterRegistry,
+                           @Value("${application.chat.ingestion.writer.batch-size:500}") int batchSize,
+                           @Value("${application.chat.ingestion.writer.flush-interval-ms:200}") long flushIntervalMs,
+                           @Value("${application.chat.ingestion.writer.queue-capacity:10000}") int queueCapacity,
+                           @Value("${application.chat.ingestion.writer.max-retries:5}") int maxRetries,
+                           @Value("${application.chat.ingestion.writer.id-block-size:100}") int idBlockSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.chatHistoryService = chatHistoryService;
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.maxRetries = maxRetries;
+        this.idBlockSize = idBlockSize;
+        this.flushTimer = Timer.builder("chat.writer.flush")
+                .description("Écriture d'un lot de messages de chat")
+                .register(meterRegistry);
+        this.writtenCounter = Counter.builder("chat.writer.written").register(meterRegistry);
+        this.droppedCounter = Counter.builder("chat.writer.dropped")
+                .description("Messages diffusés mais non persistés après épuisement des tentatives")
+                .register(meterRegistry);
+        Gauge.builder("chat.writer.queue", queue, Collection::size).register(meterRegistry);
+
+        this.thread = new Thread(this::run, "chat-batch-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Attribue l'identifiant définitif (un aller-retour base par bloc) et met le message en file.
+     *
+     * @param message construit le message à partir de son identifiant
+     * @return le message en file, ou null si la file est pleine (écriture en retard) : le message doit
+     * être refusé, son identifiant n'apparaîtra jamais
+     */
+    public synchronized ChatMessage enqueue(Long sessionId, Long userId, Function<Long, ChatMessage> message) {
+        if (reservedIds.isEmpty()) {
+            reservedIds.addAll(jdbcTemplate.queryForList(RESERVE_IDS, Long.class, idBlockSize));
+        }
+        ChatMessage accepted = message.apply(reservedIds.poll());
+        return queue.offer(new PendingMessage(sessionId, userId, accepted)) ? accepted : null;
+    }
+
+    private void run() {
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(queue.take());
+                // Le lot se remplit pendant l'intervalle, ou part dès qu'il est plein
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    PendingMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+                flushWithRetry(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Arrêt : le lot en cours et le reste de la file sont écrits avant de rendre la main
+            queue.drainTo(batch);
+            for (int from = 0; from < batch.size(); from += batchSize) {
+                List<PendingMessage> chunk = new ArrayList<>(batch.subList(from, Math.min(batch.size(), from + batchSize)));
+                try {
+                    flushIsolatingInvalid(chunk);
+                } catch (Exception e) {
+                    droppedCounter.increment(chunk.size());
+                    log.error("❌ Lost {} chat message(s) at shutdown: {}", chunk.size(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void flushWithRetry(List<PendingMessage> batch) throws InterruptedException {
+        // Une nouvelle tentative ne reprend que les messages ni écrits ni abandonnés
+        List<PendingMessage> remaining = new ArrayList<>(batch);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                flushIsolatingInvalid(remaining);
+                return;
+            } catch (Exception e) {
+                if (attempt >= maxRetries) {
+                    droppedCounter.increment(remaining.size());
+                    log.error("❌ Dropping {} chat message(s) after {} attempts: {}", remaining.size(), attempt, e.getMessage());
+                    return;
+                }
+                long backoff = Math.min(5000L, 100L << attempt);
+                log.warn("⚠️ Chat batch write failed (attempt {}), retrying in {}ms: {}", attempt, backoff, e.getMessage());
+                TimeUnit.MILLISECONDS.sleep(backoff);
+            }
+        }
+    }
+
+    /**
+     * Écrit {@code pending} et le vide ; en cas de ligne invalide, écrit chaque moitié séparément.
+     * Une erreur transitoire remonte en laissant dans {@code pending} ce qui reste à écrire.
+     */
+    private void flushIsolatingInvalid(List<PendingMessage> pending) {
+        try {
+            flush(pending);
+            pending.clear();
+        } catch (DataIntegrityViolationException e) {
+            if (pending.size() == 1) {
+                PendingMessage invalid = pending.get(0);
+                droppedCounter.increment();
+                log.error("❌ Dropping invalid chat message {} in session {}: {}",
+                        invalid.message().id(), invalid.sessionId(), e.getMostSpecificCause().getMessage());
+                pending.clear();
+                return;
+            }
+            // Vider la première moitié (vue sur pending) la retire de pending : reste la seconde
+            flushIsolatingInvalid(pending.subList(0, pending.size() / 2));
+            flushIsolatingInvalid(pending);
+        }
+    }
+
+    private void flush(List<PendingMessage> batch) {
+        if (batch.isEmpty()) return;
+
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + batch.size() * 20).append(INSERT_PREFIX);
+        Object[] args = new Object[batch.size() * 6];
+        int i = 0;
+        for (PendingMessage pending : batch) {
+            if (i > 0) sql.append(',');
+            sql.append("(?, ?, ?, ?, ?, ?)");
+            ChatMessage message = pending.message();
+            args[i++] = message.id();
+            args[i++] = pending.sessionId();
+            args[i++] = pending.userId();
+            args[i++] = message.username();
+            args[i++] = message.message();
+            args[i++] = Timestamp.valueOf(message.timestamp());
+        }
+        sql.append(INSERT_SUFFIX);
+
+        flushTimer.record(() -> jdbcTemplate.update(sql.toString(), args));
+        writtenCounter.increment(batch.size());
+
+        for (PendingMessage pending : batch) {
+            chatHistoryService.appendAfterCommit(pending.sessionId(), pending.message());
+        }
+        log.debug("💾 Chat batch written: {} message(s)", batch.size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
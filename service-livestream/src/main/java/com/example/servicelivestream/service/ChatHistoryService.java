@@ -0,0 +1,377 @@
+package com.example.servicelivestream.service;
+
+import com.example.servicelivestream.dto.ChatHistoryResponse;
+import com.example.servicelivestream.dto.ChatMessage;
+import com.example.servicelivestream.entity.ChatMessageEntity;
+import com.example.servicelivestream.entity.ChatTranscript;
+import com.example.servicelivestream.repository.ChatMessageRepository;
+import com.example.servicelivestream.repository.ChatTranscriptRepository;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+
+/**
+ * Historique borné du chat des sessions :
+ * <ul>
+ *   <li>pages par ancre (dernière page, {@code before}, {@code after}) sur l'index (session_id, id) ;</li>
+ *   <li>session en direct : les derniers messages sont gardés dans un tampon circulaire en mémoire,
+ *       les arrivées en cours de session ne touchent pas la base ;</li>
+ *   <li>session terminée : le chat est compacté en une transcription gzip par session,
+ *       les lignes {@code chat_messages} correspondantes sont supprimées.</li>
+ * </ul>
+ */
+@Slf4j
+@Service
+public class ChatHistoryService {
+
+    private static final TypeReference<List<ChatMessage>> MESSAGE_LIST = new TypeReference<>() {
+    };
+
+    private final ChatMessageRepository chatMessageRepository;
+    private final ChatTranscriptRepository transcriptRepository;
+    private final ChatMembershipService chatMembershipService;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxLimit;
+    private final int bufferSize;
+    private final boolean archiveEnabled;
+    private final long archiveAfterHours;
+    private final int archiveBatchSize;
+    private final Map<Long, SessionBuffer> buffers;
+    private final Map<Long, List<ChatMessage>> transcripts;
+
+    public ChatHistoryService(ChatMessageRepository chatMessageRepository,
+                              ChatTranscriptRepository transcriptRepository,
+                              ChatMembershipService chatMembershipService,
+                              ObjectMapper objectMapper,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${application.chat.history.max-limit:200}") int maxLimit,
+                              @Value("${application.chat.history.buffer-size:200}") int bufferSize,
+                              @Value("${application.chat.history.max-buffered-sessions:200}") int maxBufferedSessions,
+                              @Value("${application.chat.history.archive.enabled:true}") boolean archiveEnabled,
+                              @Value("${application.chat.history.archive.after-hours:24}") long archiveAfterHours,
+                              @Value("${application.chat.history.archive.batch-size:20}") int archiveBatchSize,
+                              @Value("${application.chat.history.archive.transcript-cache-size:20}") int transcriptCacheSize) {
+        this.chatMessageRepository = chatMessageRepository;
+        this.transcriptRepository = transcriptRepository;
+        this.chatMembershipService = chatMembershipService;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxLimit = maxLimit;
+        this.bufferSize = bufferSize;
+        this.archiveEnabled = archiveEnabled;
+        this.archiveAfterHours = archiveAfterHours;
+        this.archiveBatchSize = archiveBatchSize;
+        this.buffers = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, SessionBuffer> eldest) {
+                return size() > maxBufferedSessions;
+            }
+        };
+        this.transcripts = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, List<ChatMessage>> eldest) {
+                return size() > transcriptCacheSize;
+            }
+        };
+    }
+
+    /**
+     * Page d'historique : {@code before} remonte dans le passé, {@code after} rattrape après une
+     * reconnexion, sans ancre la page la plus récente. Une ligne de plus est lue pour hasMore.
+     * L'appartenance à la session est vérifiée par l'appelant.
+     */
+    public ChatHistoryResponse getHistory(Long sessionId, Long beforeId, Long afterId, int limit) {
+        if (beforeId != null && afterId != null) {
+            throw new ResponseStatusException(BAD_REQUEST, "Use either 'before' or 'after', not both");
+        }
+        int pageSize = Math.max(1, Math.min(limit, maxLimit));
+        String status = chatMembershipService.statusOf(sessionId);
+
+        List<ChatMessage> rows = null;
+        if ("LIVE".equals(status)) {
+            rows = bufferFor(sessionId).page(beforeId, afterId, pageSize + 1);
+        }
+        if (rows == null) {
+            rows = readStored(sessionId, beforeId, afterId, pageSize + 1, "COMPLETED".equals(status));
+        }
+
+        boolean hasMore = rows.size() > pageSize;
+        List<ChatMessage> page = new ArrayList<>(hasMore ? rows.subList(0, pageSize) : rows);
+        if (afterId == null) {
+            Collections.reverse(page); // lectures DESC -> ordre chronologique
+        }
+
+        return new ChatHistoryResponse(
+                sessionId,
+                page,
+                page.isEmpty() ? null : page.get(0).id(),
+                page.isEmpty() ? null : page.get(page.size() - 1).id(),
+                hasMore
+        );
+    }
+
+    /**
+     * Ajoute un message persisté au tampon de sa session, une fois la transaction validée
+     */
+    public void appendAfterCommit(Long sessionId, ChatMessage message) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    append(sessionId, message);
+                }
+            });
+        } else {
+            append(sessionId, message);
+        }
+    }
+
+    /**
+     * À appeler quand la session n'est plus en direct
+     */
+    public void evictSession(Long sessionId) {
+        synchronized (buffers) {
+            buffers.remove(sessionId);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${application.chat.history.archive.interval-ms:3600000}")
+    public void archiveCompletedSessions() {
+        if (!archiveEnabled) return;
+
+        List<Long> sessionIds = chatMessageRepository.findSessionIdsToArchive(
+                LocalDateTime.now().minusHours(archiveAfterHours), Limit.of(archiveBatchSize));
+        for (Long sessionId : sessionIds) {
+            try {
+                Integer archived = transactionTemplate.execute(status -> archiveSession(sessionId));
+                // Après validation seulement : les lignes supprimées sont désormais dans la transcription
+                synchronized (transcripts) {
+                    transcripts.remove(sessionId);
+                }
+                log.info("🗜️ Archived {} chat message(s) of session {}", archived, sessionId);
+            } catch (Exception e) {
+                log.error("Failed to archive chat of session {}: {}", sessionId, e.getMessage(), e);
+            }
+        }
+    }
+
+    private int archiveSession(Long sessionId) {
+        List<ChatMessageEntity> rows = chatMessageRepository.findBySessionIdOrderByIdAsc(sessionId);
+        if (rows.isEmpty()) return 0;
+
+        LocalDateTime now = LocalDateTime.now();
+        ChatTranscript transcript = transcriptRepository.findById(sessionId)
+                .orElseGet(() -> ChatTranscript.builder().sessionId(sessionId).createdAt(now).build());
+        List<ChatMessage> messages = new ArrayList<>(
+                transcript.getPayload() != null ? decode(transcript.getPayload()) : List.of());
+        rows.forEach(row -> messages.add(toMessage(row)));
+
+        Long lastId = rows.get(rows.size() - 1).getId();
+        transcript.setPayload(encode(messages));
+        transcript.setMessageCount(messages.size());
+        transcript.setLastMessageId(lastId);
+        transcript.setUpdatedAt(now);
+        transcriptRepository.save(transcript);
+        chatMessageRepository.deleteArchived(sessionId, lastId);
+        return rows.size();
+    }
+
+    private List<ChatMessage> readStored(Long sessionId, Long beforeId, Long afterId, int count, boolean archived) {
+        List<ChatMessage> rows = new ArrayList<>();
+        if (afterId != null) {
+            // La transcription précède toujours les lignes restantes
+            if (archived) {
+                rows.addAll(transcriptAfter(sessionId, afterId, count));
+            }
+            if (rows.size() < count) {
+                Long hotAnchor = rows.isEmpty() ? afterId : rows.get(rows.size() - 1).id();
+                for (ChatMessageEntity row : chatMessageRepository.findMessagesAfter(
+                        sessionId, hotAnchor, Limit.of(count - rows.size()))) {
+                    rows.add(toMessage(row));
+                }
+            }
+        } else {
+            List<ChatMessageEntity> hot = beforeId != null
+                    ? chatMessageRepository.findMessagesBefore(sessionId, beforeId, Limit.of(count))
+                    : chatMessageRepository.findLatestMessages(sessionId, Limit.of(count));
+            for (ChatMessageEntity row : hot) {
+                rows.add(toMessage(row));
+            }
+            // Lignes épuisées : la suite de l'historique est lue dans la transcription
+            if (rows.size() < count && archived) {
+                Long archiveAnchor = !rows.isEmpty() ? rows.get(rows.size() - 1).id()
+                        : beforeId != null ? beforeId : Long.MAX_VALUE;
+                rows.addAll(transcriptBefore(sessionId, archiveAnchor, count - rows.size()));
+            }
+        }
+        return rows;
+    }
+
+    private List<ChatMessage> transcriptBefore(Long sessionId, Long beforeId, int count) {
+        List<ChatMessage> messages = transcriptOf(sessionId);
+        List<ChatMessage> result = new ArrayList<>();
+        for (int i = messages.size() - 1; i >= 0 && result.size() < count; i--) {
+            if (messages.get(i).id() < beforeId) {
+                result.add(messages.get(i));
+            }
+        }
+        return result;
+    }
+
+    private List<ChatMessage> transcriptAfter(Long sessionId, Long afterId, int count) {
+        List<ChatMessage> result = new ArrayList<>();
+        for (ChatMessage message : transcriptOf(sessionId)) {
+            if (result.size() >= count) break;
+            if (message.id() > afterId) {
+                result.add(message);
+            }
+        }
+        return result;
+    }
+
+    private List<ChatMessage> transcriptOf(Long sessionId) {
+        synchronized (transcripts) {
+            List<ChatMessage> cached = transcripts.get(sessionId);
+            if (cached != null) return cached;
+        }
+        List<ChatMessage> messages = transcriptRepository.findById(sessionId)
+                .map(transcript -> decode(transcript.getPayload()))
+                .orElse(null);
+        if (messages == null) return List.of();
+        synchronized (transcripts) {
+            transcripts.put(sessionId, messages);
+        }
+        return messages;
+    }
+
+    private SessionBuffer bufferFor(Long sessionId) {
+        SessionBuffer buffer;
+        synchronized (buffers) {
+            buffer = buffers.computeIfAbsent(sessionId, id -> new SessionBuffer(bufferSize));
+        }
+        // Chargé hors du verrou global ; les ajouts reçus entre-temps sont fusionnés
+        buffer.warm(() -> chatMessageRepository.findLatestMessages(sessionId, Limit.of(bufferSize + 1)).stream()
+                .map(ChatHistoryService::toMessage)
+                .toList());
+        return buffer;
+    }
+
+    private void append(Long sessionId, ChatMessage message) {
+        SessionBuffer buffer;
+        synchronized (buffers) {
+            buffer = buffers.get(sessionId);
+        }
+        if (buffer != null && message.id() != null) {
+            buffer.append(message);
+        }
+    }
+
+    private byte[] encode(List<ChatMessage> messages) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            objectMapper.writeValue(out, messages);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private List<ChatMessage> decode(byte[] payload) {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(payload))) {
+            return List.copyOf(objectMapper.readValue(in, MESSAGE_LIST));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ChatMessage toMessage(ChatMessageEntity entity) {
+        return new ChatMessage(
+                entity.getUserId().toString(),
+                entity.getUsername(),
+                entity.getContent(),
+                entity.getTimestamp(),
+                entity.getId()
+        );
+    }
+
+    /**
+     * Derniers messages d'une session en direct, par identifiant croissant.
+     * Le tampon est toujours un suffixe contigu de l'historique ; {@code complete} indique
+     * qu'il contient aussi le début de la session.
+     */
+    private static final class SessionBuffer {
+        private final int capacity;
+        private final TreeMap<Long, ChatMessage> messages = new TreeMap<>();
+        private boolean loaded;
+        private boolean complete;
+
+        SessionBuffer(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized void warm(Supplier<List<ChatMessage>> latestFirst) {
+            if (loaded) return;
+            List<ChatMessage> latest = latestFirst.get(); // capacity + 1 lignes au plus
+            complete = latest.size() <= capacity;
+            latest.stream().limit(capacity).forEach(message -> messages.put(message.id(), message));
+            trim();
+            loaded = true;
+        }
+
+        synchronized void append(ChatMessage message) {
+            messages.put(message.id(), message);
+            trim();
+        }
+
+        /**
+         * Lignes servies depuis la mémoire (DESC, ASC pour after), ou null si la page déborde du tampon
+         */
+        synchronized List<ChatMessage> page(Long beforeId, Long afterId, int count) {
+            if (!loaded) return null;
+            if (afterId != null) {
+                if (!complete && (messages.isEmpty() || afterId < messages.firstKey())) return null;
+                return messages.tailMap(afterId, false).values().stream().limit(count).toList();
+            }
+            NavigableMap<Long, ChatMessage> head = beforeId != null ? messages.headMap(beforeId, false) : messages;
+            if (!complete && head.size() < count) return null;
+            return head.descendingMap().values().stream().limit(count).toList();
+        }
+
+        private void trim() {
+            while (messages.size() > capacity) {
+                messages.pollFirstEntry();
+                complete = false;
+            }
+        }
+    }
+}
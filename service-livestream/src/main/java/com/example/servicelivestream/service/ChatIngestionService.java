@@ -0,0 +1,200 @@
+package com.example.servicelivestream.service;
+
+import com.example.servicelivestream.dto.ChatIdentity;
+import com.example.servicelivestream.dto.ChatMessage;
+import com.example.servicelivestream.exception.ChatRateLimitException;
+import com.example.servicelivestream.exception.InvalidChatMessageException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Entrée des messages de chat d'une session en direct :
+ * <ul>
+ *   <li>seau à jetons par utilisateur et par session (rafale puis débit soutenu) ;</li>
+ *   <li>mode lent activé par le producteur : un message par utilisateur toutes les N secondes ;</li>
+ *   <li>échantillonnage des salles très actives : au-delà du seuil de messages par seconde,
+ *       seule une fraction est diffusée (l'expéditeur reçoit toujours le sien sur sa file privée) ;
+ *       tout est persisté et reste lisible dans l'historique ;</li>
+ *   <li>diffusion immédiate, persistance déléguée à {@link ChatBatchWriter}.</li>
+ * </ul>
+ */
+@Slf4j
+@Service
+public class ChatIngestionService {
+
+    public static final String REASON_RATE = "rate_limit";
+    public static final String REASON_SLOW_MODE = "slow_mode";
+    public static final String REASON_BACKLOG = "backlog";
+    // Taille de chat_messages.content (varchar(255) NOT NULL)
+    public static final int MAX_MESSAGE_LENGTH = 255;
+
+    private final ChatMembershipService chatMembershipService;
+    private final ChatBatchWriter chatBatchWriter;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final MeterRegistry meterRegistry;
+    private final int burst;
+    private final double refillPerSecond;
+    private final int maxSlowModeSeconds;
+    private final int sampleThresholdPerSecond;
+    private final Map<Long, SessionState> sessions = new ConcurrentHashMap<>();
+    private final Counter acceptedCounter;
+    private final Counter sampledOutCounter;
+
+    public ChatIngestionService(ChatMembershipService chatMembershipService,
+                                ChatBatchWriter chatBatchWriter,
+                                SimpMessagingTemplate messagingTemplate,
+                                MeterRegistry meterRegistry,
+                                @Value("${application.chat.ingestion.rate-limit.burst:5}") int burst,
+                                @Value("${application.chat.ingestion.rate-limit.refill-per-second:1.0}") double refillPerSecond,
+                                @Value("${application.chat.ingestion.slow-mode.max-seconds:300}") int maxSlowModeSeconds,
+                                @Value("${application.chat.ingestion.sampling.threshold-per-second:50}") int sampleThresholdPerSecond) {
+        this.chatMembershipService = chatMembershipService;
+        this.chatBatchWriter = chatBatchWriter;
+        this.messagingTemplate = messagingTemplate;
+        this.meterRegistry = meterRegistry;
+        this.burst = burst;
+        this.refillPerSecond = refillPerSecond;
+        this.maxSlowModeSeconds = maxSlowModeSeconds;
+        this.sampleThresholdPerSecond = sampleThresholdPerSecond;
+        this.acceptedCounter = Counter.builder("chat.ingestion.accepted").register(meterRegistry);
+        this.sampledOutCounter = Counter.builder("chat.ingestion.sampled_out")
+                .description("Messages persistés mais non diffusés (salle saturée)")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Accepte un message et le met en file d'écriture.
+     *
+     * @return le message à diffuser, ou null s'il est écarté par l'échantillonnage
+     * @throws ChatRateLimitException si l'expéditeur dépasse son débit ou le mode lent
+     * @throws InvalidChatMessageException si le message est vide ou dépasse {@link #MAX_MESSAGE_LENGTH} caractères
+     */
+    public ChatMessage accept(Long sessionId, ChatMessage message, ChatIdentity user) {
+        // Refusé avant toute réservation : une ligne invalide ferait échouer tout un lot d'écriture
+        String content = message != null ? message.message() : null;
+        if (content == null || content.isBlank()) {
+            throw invalid("empty", "Message vide");
+        }
+        if (content.length() > MAX_MESSAGE_LENGTH) {
+            throw invalid("too_long", "Message trop long (" + MAX_MESSAGE_LENGTH + " caractères max)");
+        }
+
+        chatMembershipService.requireMember(sessionId, user, "send messages");
+        boolean producer = chatMembershipService.isProducer(sessionId, user.userId());
+
+        SessionState session = sessions.computeIfAbsent(sessionId, id -> new SessionState());
+        UserBucket bucket = session.users.computeIfAbsent(user.userId(), id -> new UserBucket());
+        long retryAfterMs = bucket.tryAcquire(System.nanoTime(), producer ? 0 : session.slowModeSeconds);
+        if (retryAfterMs > 0) {
+            throw throttled(REASON_RATE, retryAfterMs);
+        }
+        if (retryAfterMs < 0) {
+            throw throttled(REASON_SLOW_MODE, -retryAfterMs);
+        }
+
+        ChatMessage accepted = chatBatchWriter.enqueue(sessionId, user.userId(), id -> new ChatMessage(
+                user.userId().toString(),
+                user.displayName(),
+                content,
+                LocalDateTime.now(),
+                id
+        ));
+        if (accepted == null) {
+            log.warn("⚠️ Chat writer backlog full, rejecting message in session {}", sessionId);
+            throw throttled(REASON_BACKLOG, 1000);
+        }
+        acceptedCounter.increment();
+
+        // Le producteur est toujours diffusé ; les autres au-delà du seuil, avec une probabilité seuil/débit
+        if (!producer && !session.sampleIn()) {
+            sampledOutCounter.increment();
+            // L'expéditeur voit quand même son message
+            messagingTemplate.convertAndSendToUser(user.keycloakId(), "/queue/session/" + sessionId + "/chat", accepted);
+            return null;
+        }
+        return accepted;
+    }
+
+    public int setSlowMode(Long sessionId, int seconds) {
+        int applied = Math.max(0, Math.min(seconds, maxSlowModeSeconds));
+        sessions.computeIfAbsent(sessionId, id -> new SessionState()).slowModeSeconds = applied;
+        log.info("🐢 Slow mode for session {}: {}s", sessionId, applied);
+        return applied;
+    }
+
+    public int getSlowMode(Long sessionId) {
+        SessionState session = sessions.get(sessionId);
+        return session != null ? session.slowModeSeconds : 0;
+    }
+
+    /**
+     * À appeler quand la session n'est plus en direct
+     */
+    public void evictSession(Long sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    private InvalidChatMessageException invalid(String reason, String message) {
+        meterRegistry.counter("chat.ingestion.invalid", "reason", reason).increment();
+        return new InvalidChatMessageException(reason, message);
+    }
+
+    private ChatRateLimitException throttled(String reason, long retryAfterMs) {
+        meterRegistry.counter("chat.ingestion.throttled", "reason", reason).increment();
+        return new ChatRateLimitException(reason, retryAfterMs);
+    }
+
+    private final class SessionState {
+        private final Map<Long, UserBucket> users = new ConcurrentHashMap<>();
+        private volatile int slowModeSeconds;
+        private long windowStart;
+        private int windowCount;
+
+        synchronized boolean sampleIn() {
+            long now = System.currentTimeMillis();
+            if (now - windowStart >= 1000) {
+                windowStart = now;
+                windowCount = 0;
+            }
+            windowCount++;
+            return windowCount <= sampleThresholdPerSecond
+                    || ThreadLocalRandom.current().nextInt(windowCount) < sampleThresholdPerSecond;
+        }
+    }
+
+    private final class UserBucket {
+        private double tokens = burst;
+        private long lastRefill = System.nanoTime();
+        private long lastAccepted = Long.MIN_VALUE;
+
+        /**
+         * @return 0 si accepté, le délai en ms avant le prochain jeton (> 0), ou l'opposé du délai
+         * restant de mode lent (< 0)
+         */
+        synchronized long tryAcquire(long now, int slowModeSeconds) {
+            if (slowModeSeconds > 0 && lastAccepted != Long.MIN_VALUE) {
+                long waitNanos = lastAccepted + slowModeSeconds * 1_000_000_000L - now;
+                if (waitNanos > 0) {
+                    return -Math.max(1, waitNanos / 1_000_000);
+                }
+            }
+            tokens = Math.min(burst, tokens + (now - lastRefill) / 1e9 * refillPerSecond);
+            lastRefill = now;
+            if (tokens < 1) {
+                return Math.max(1, (long) Math.ceil((1 - tokens) / refillPerSecond * 1000));
+            }
+            tokens -= 1;
+            lastAccepted = now;
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.servicelivestream.service;
+
+import com.example.servicelivestream.dto.ChatIdentity;
+import com.example.servicelivestream.dto.UserResponse;
+import com.example.servicelivestream.feignclient.UserServiceClient;
+import com.example.servicelivestream.repository.LivestreamSessionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Identité et appartenance des participants au chat, sans appel distant par message :
+ * <ul>
+ *   <li>l'utilisateur est résolu une fois au CONNECT STOMP (service utilisateur) puis lu
+ *       dans les attributs de la session WebSocket ; un petit cache par keycloakId absorbe
+ *       les reconnexions et l'historique REST ;</li>
+ *   <li>les membres d'une session (producteur + participants) sont chargés une fois par
+ *       projection puis gardés en mémoire, invalidés quand la session change de statut.</li>
+ * </ul>
+ */
+@Slf4j
+@Service
+public class ChatMembershipService {
+
+    public static final String IDENTITY_ATTRIBUTE = "chatIdentity";
+
+    private record CachedIdentity(ChatIdentity identity, long loadedAt) {
+    }
+
+    private record Membership(Long producerId, String status, Set<Long> members, long loadedAt) {
+        boolean contains(Long userId) {
+            return producerId.equals(userId) || members.contains(userId);
+        }
+    }
+
+    private final LivestreamSessionRepository sessionRepository;
+    private final UserServiceClient userServiceClient;
+    private final long identityTtlMillis;
+    private final long membershipTtlMillis;
+    private final Map<String, CachedIdentity> identities;
+    private final Map<Long, Membership> memberships;
+
+    public ChatMembershipService(LivestreamSessionRepository sessionRepository,
+                                 UserServiceClient userServiceClient,
+                                 @Value("${application.chat.identity-cache-size:5000}") int identityCacheSize,
+                                 @Value("${application.chat.identity-ttl-ms:600000}") long identityTtlMillis,
+                                 @Value("${application.chat.membership-cache-size:500}") int membershipCacheSize,
+                                 @Value("${application.chat.membership-ttl-ms:300000}") long membershipTtlMillis) {
+        this.sessionRepository = sessionRepository;
+        this.userServiceClient = userServiceClient;
+        this.identityTtlMillis = identityTtlMillis;
+        this.membershipTtlMillis = membershipTtlMillis;
+        this.identities = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedIdentity> eldest) {
+                return size() > identityCacheSize;
+            }
+        };
+        this.memberships = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Membership> eldest) {
+                return size() > membershipCacheSize;
+            }
+        };
+    }
+
+    /**
+     * Résout l'utilisateur du jeton (un appel au service utilisateur au plus par TTL)
+     */
+    public ChatIdentity resolveIdentity(Jwt jwt) {
+        String keycloakId = jwt.getSubject();
+        long now = System.currentTimeMillis();
+        synchronized (identities) {
+            CachedIdentity cached = identities.get(keycloakId);
+            if (cached != null && now - cached.loadedAt() < identityTtlMillis) {
+                return cached.identity();
+            }
+        }
+
+        UserResponse user = userServiceClient.getUserByKeycloakId(keycloakId, "Bearer " + jwt.getTokenValue());
+        ChatIdentity identity = new ChatIdentity(user.id(), keycloakId, displayNameOf(user));
+        synchronized (identities) {
+            identities.put(keycloakId, new CachedIdentity(identity, now));
+        }
+        return identity;
+    }
+
+    /**
+     * Identité attachée à la session WebSocket au CONNECT ; résolue et attachée à la volée
+     * si le service utilisateur était indisponible à la connexion.
+     */
+    public ChatIdentity identityOf(SimpMessageHeaderAccessor headerAccessor) {
+        Map<String, Object> attributes = headerAccessor.getSessionAttributes();
+        if (attributes != null && attributes.get(IDENTITY_ATTRIBUTE) instanceof ChatIdentity identity) {
+            return identity;
+        }
+
+        if (!(headerAccessor.getUser() instanceof JwtAuthenticationToken auth)) {
+            log.error("No authentication found in WebSocket message");
+            throw new SecurityException("Authentication required");
+        }
+        ChatIdentity identity = resolveIdentity(auth.getToken());
+        if (attributes != null) {
+            attributes.put(IDENTITY_ATTRIBUTE, identity);
+        }
+        return identity;
+    }
+
+    public boolean isMember(Long sessionId, Long userId) {
+        return membershipOf(sessionId).contains(userId);
+    }
+
+    /**
+     * Statut de la session tel que vu par le cache (rafraîchi à chaque changement de statut)
+     */
+    public String statusOf(Long sessionId) {
+        return membershipOf(sessionId).status();
+    }
+
+    public boolean isProducer(Long sessionId, Long userId) {
+        return membershipOf(sessionId).producerId().equals(userId);
+    }
+
+    public void requireMember(Long sessionId, ChatIdentity identity, String action) {
+        if (!isMember(sessionId, identity.userId())) {
+            throw new SecurityException("User not authorized to " + action + " in session: " + sessionId);
+        }
+    }
+
+    /**
+     * À appeler quand le statut ou les participants d'une session changent
+     */
+    public void evictSession(Long sessionId) {
+        synchronized (memberships) {
+            memberships.remove(sessionId);
+        }
+        log.debug("Chat membership evicted for session {}", sessionId);
+    }
+
+    private Membership membershipOf(Long sessionId) {
+        long now = System.currentTimeMillis();
+        synchronized (memberships) {
+            Membership membership = memberships.get(sessionId);
+            if (membership != null && now - membership.loadedAt() < membershipTtlMillis) {
+                return membership;
+            }
+        }
+
+        LivestreamSessionRepository.ChatSessionView view = sessionRepository.findChatViewById(sessionId)
+                .orElseThrow(() -> new IllegalArgumentException("Session not found with ID: " + sessionId));
+        Membership membership = new Membership(view.getProducerId(), view.getStatus(),
+                Set.copyOf(sessionRepository.findReceiverIdsById(sessionId)), now);
+        synchronized (memberships) {
+            memberships.put(sessionId, membership);
+        }
+        return membership;
+    }
+
+    private static String displayNameOf(UserResponse user) {
+        if (user.firstName() != null && user.lastName() != null) {
+            return user.firstName() + " " + user.lastName();
+        } else if (user.firstName() != null) {
+            return user.firstName();
+        } else if (user.username() != null) {
+            return user.username();
+        } else {
+            return "User " + user.id();
+        }
+    }
+}
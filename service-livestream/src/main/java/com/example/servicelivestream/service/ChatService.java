@@ -1,134 +1,91 @@
 package com.example.servicelivestream.service;
 
+import com.example.servicelivestream.dto.ChatHistoryResponse;
+import com.example.servicelivestream.dto.ChatIdentity;
 import com.example.servicelivestream.dto.ChatMessage;
 import com.example.servicelivestream.dto.TypingIndicator;
-import com.example.servicelivestream.dto.UserResponse;
-import com.example.servicelivestream.entity.ChatMessageEntity;
-import com.example.servicelivestream.entity.LivestreamSession;
-import com.example.servicelivestream.feignclient.UserServiceClient;
-import com.example.servicelivestream.repository.ChatMessageRepository;
-import com.example.servicelivestream.repository.LivestreamSessionRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.time.LocalDateTime;
-import java.util.List;
+import java.util.Map;
+
+import static org.springframework.http.HttpStatus.FORBIDDEN;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class ChatService {
-    private final LivestreamSessionRepository sessionRepository;
-    private final ChatMessageRepository chatMessageRepository;
-    private final UserServiceClient userServiceClient;
+    private final ChatMembershipService chatMembershipService;
+    private final ChatHistoryService chatHistoryService;
+    private final ChatIngestionService chatIngestionService;
     private final SimpMessagingTemplate messagingTemplate;
 
-    @Transactional
-    public ChatMessage processAndSaveMessage(Long sessionId, ChatMessage message, Jwt jwt) {
-        LivestreamSession session = sessionRepository.findById(sessionId)
-                .orElseThrow(() -> new IllegalArgumentException("Session not found with ID: " + sessionId));
-
-        String token = "Bearer " + jwt.getTokenValue();
-        UserResponse user = userServiceClient.getUserByKeycloakId(jwt.getSubject(), token);
+    /**
+     * Diffusion immédiate : la persistance est groupée par {@link ChatBatchWriter}.
+     * Retourne null quand le message n'est pas diffusé sur le topic (salle échantillonnée).
+     */
+    public ChatMessage processAndSaveMessage(Long sessionId, ChatMessage message, ChatIdentity user) {
+        ChatMessage accepted = chatIngestionService.accept(sessionId, message, user);
 
-        // Vérifier l'autorisation
-        if (!session.getProducerId().equals(user.id()) && !session.getReceiverIds().contains(user.id())) {
-            throw new SecurityException("User not authorized to send messages in session: " + sessionId);
-        }
+        log.debug("Message accepted for session {} by user {}: {}", sessionId, user.userId(), message.message());
 
-        // Créer le message avec les informations de l'utilisateur
-        ChatMessage validatedMessage = new ChatMessage(
-                user.id().toString(),
-                getUserDisplayName(user),
-                message.message(),
-                LocalDateTime.now()
-        );
-
-        // Sauvegarder en base de données
-        ChatMessageEntity messageEntity = ChatMessageEntity.builder()
-                .session(session)
-                .userId(user.id())
-                .username(getUserDisplayName(user))
-                .content(message.message())
-                .timestamp(validatedMessage.timestamp())
-                .build();
-
-        chatMessageRepository.save(messageEntity);
-
-        log.info("Message saved for session {} by user {}: {}", sessionId, user.id(), message.message());
-
-        return validatedMessage;
+        return accepted;
     }
 
-    public TypingIndicator processTypingIndicator(Long sessionId, TypingIndicator indicator, Jwt jwt) {
-        // Vérifier que la session existe
-        LivestreamSession session = sessionRepository.findById(sessionId)
-                .orElseThrow(() -> new IllegalArgumentException("Session not found with ID: " + sessionId));
-
-        String token = "Bearer " + jwt.getTokenValue();
-        UserResponse user = userServiceClient.getUserByKeycloakId(jwt.getSubject(), token);
-
+    public TypingIndicator processTypingIndicator(Long sessionId, TypingIndicator indicator, ChatIdentity user) {
         // Vérifier l'autorisation
-        if (!session.getProducerId().equals(user.id()) && !session.getReceiverIds().contains(user.id())) {
-            throw new SecurityException("User not authorized for session: " + sessionId);
-        }
+        chatMembershipService.requireMember(sessionId, user, "type");
 
         // Créer l'indicateur de frappe avec les informations de l'utilisateur
         TypingIndicator validatedIndicator = new TypingIndicator(
-                user.id().toString(),
-                getUserDisplayName(user),
+                user.userId().toString(),
+                user.displayName(),
                 indicator.isTyping(),
                 LocalDateTime.now()
         );
 
         log.debug("Typing indicator for session {} by user {}: {}",
-                sessionId, user.id(), indicator.isTyping());
+                sessionId, user.userId(), indicator.isTyping());
 
         return validatedIndicator;
     }
 
-    @Transactional
-    public void sendMessage(Long sessionId, ChatMessage message, Jwt jwt) {
-        ChatMessage processedMessage = processAndSaveMessage(sessionId, message, jwt);
-        messagingTemplate.convertAndSend("/topic/session/" + sessionId + "/chat", processedMessage);
+    public void sendMessage(Long sessionId, ChatMessage message, ChatIdentity user) {
+        ChatMessage processedMessage = processAndSaveMessage(sessionId, message, user);
+        if (processedMessage != null) {
+            messagingTemplate.convertAndSend("/topic/session/" + sessionId + "/chat", processedMessage);
+        }
     }
 
-    @Transactional(readOnly = true)
-    public List<ChatMessage> getMessagesForSession(Long sessionId, Jwt jwt) {
-        LivestreamSession session = sessionRepository.findById(sessionId)
-                .orElseThrow(() -> new IllegalArgumentException("Session not found with ID: " + sessionId));
-
-        String token = "Bearer " + jwt.getTokenValue();
-        UserResponse user = userServiceClient.getUserByKeycloakId(jwt.getSubject(), token);
-
-        // Vérifier l'autorisation
-        if (!session.getProducerId().equals(user.id()) && !session.getReceiverIds().contains(user.id())) {
-            throw new SecurityException("User not authorized to view messages in session: " + sessionId);
+    /**
+     * Mode lent (0 = désactivé), réservé au producteur de la session ; annoncé aux participants
+     */
+    public int setSlowMode(Long sessionId, int seconds, Jwt jwt) {
+        ChatIdentity user = chatMembershipService.resolveIdentity(jwt);
+        if (!chatMembershipService.isProducer(sessionId, user.userId())) {
+            throw new ResponseStatusException(FORBIDDEN, "Only the producer can change slow mode");
         }
 
-        return chatMessageRepository.findBySessionIdOrderByTimestampAsc(sessionId).stream()
-                .map(entity -> new ChatMessage(
-                        entity.getUserId().toString(),
-                        entity.getUsername(),
-                        entity.getContent(),
-                        entity.getTimestamp()
-                ))
-                .toList();
+        int applied = chatIngestionService.setSlowMode(sessionId, seconds);
+        messagingTemplate.convertAndSend("/topic/session/" + sessionId + "/chat-settings",
+                Map.of("slowModeSeconds", applied));
+        return applied;
     }
 
-    private String getUserDisplayName(UserResponse user) {
-        if (user.firstName() != null && user.lastName() != null) {
-            return user.firstName() + " " + user.lastName();
-        } else if (user.firstName() != null) {
-            return user.firstName();
-        } else if (user.username() != null) {
-            return user.username();
-        } else {
-            return "User " + user.id();
-        }
+    /**
+     * Historique borné : dernière page par défaut, before/after pour naviguer par identifiant de message
+     */
+    public ChatHistoryResponse getMessagesForSession(Long sessionId, Long beforeId, Long afterId, int limit, Jwt jwt) {
+        ChatIdentity user = chatMembershipService.resolveIdentity(jwt);
+
+        // Vérifier l'autorisation
+        chatMembershipService.requireMember(sessionId, user, "view messages");
+
+        return chatHistoryService.getHistory(sessionId, beforeId, afterId, limit);
     }
-}
\ No newline at end of file
+}
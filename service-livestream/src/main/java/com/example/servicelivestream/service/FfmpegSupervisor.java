@@ -0,0 +1,511 @@
+package com.example.servicelivestream.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Superviseur des processus ffmpeg.
+ * <ul>
+ *   <li>Nombre global d'encodeurs borné ({@code max-concurrent}) avec une file d'attente bornée pour les créneaux ;</li>
+ *   <li>sortie {@code -progress pipe:1} lue sur un exécuteur partagé (plus de thread par enregistrement),
+ *       fps / débit / vitesse exposés en métriques {@code ffmpeg.encoder.*} ;</li>
+ *   <li>chien de garde : un encodeur dont le temps de sortie n'avance plus pendant {@code stall-timeout-ms}
+ *       est tué puis relancé dans un nouveau fichier partiel, les parties sont concaténées à l'arrêt ;</li>
+ *   <li>arrêt non bloquant : {@code q} sur stdin, arrêt forcé après {@code stop-grace-ms} ;
+ *       les processus restants (et leurs descendants) sont tués à l'arrêt du service.</li>
+ * </ul>
+ */
+@Slf4j
+@Component
+public class FfmpegSupervisor {
+
+    enum State {QUEUED, RUNNING, STOPPING, DONE}
+
+    private final class Encoder {
+        final String key;
+        final Path output;
+        final Function<Path, List<String>> commandFactory;
+        final boolean oneShot;
+        final List<Path> parts = new ArrayList<>();
+        final CompletableFuture<Path> result = new CompletableFuture<>();
+        final long queuedAt = System.nanoTime();
+
+        volatile State state = State.QUEUED;
+        volatile Process process;
+        volatile long startedAt;
+        volatile long lastProgressAt;
+        volatile long stopRequestedAt;
+        volatile long outTimeUs = -1;
+        volatile double fps;
+        volatile double bitrateKbps;
+        volatile double speed;
+        int restarts;
+        List<Gauge> gauges = List.of();
+
+        Encoder(String key, Path output, Function<Path, List<String>> commandFactory, boolean oneShot) {
+            this.key = key;
+            this.output = output;
+            this.commandFactory = commandFactory;
+            this.oneShot = oneShot;
+        }
+
+        Path logFile() {
+            return output.resolveSibling(output.getFileName() + ".ffmpeg.log");
+        }
+    }
+
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long stallTimeoutNanos;
+    private final long stopGraceNanos;
+    private final long oneShotTimeoutNanos;
+    private final int maxRestarts;
+
+    private final Map<String, Encoder> encoders = new ConcurrentHashMap<>();
+    private final Deque<Encoder> waiting = new ArrayDeque<>();
+    private int running;
+
+    private final ThreadPoolTaskExecutor ioExecutor = new ThreadPoolTaskExecutor();
+    private final ScheduledFuture<?> watchdog;
+
+    private final MeterRegistry meterRegistry;
+    private final Counter restartCounter;
+    private final Counter stallCounter;
+    private final Counter forcedStopCounter;
+    private final Timer slotWaitTimer;
+
+    public FfmpegSupervisor(MeterRegistry meterRegistry,
+                            @Qualifier("taskScheduler") TaskScheduler taskScheduler,
+                            @Value("${application.recording.ffmpeg.max-concurrent:2}") int maxConcurrent,
+                            @Value("${application.recording.ffmpeg.max-queued:4}") int maxQueued,
+                            @Value("${application.recording.ffmpeg.stall-timeout-ms:30000}") long stallTimeoutMs,
+                            @Value("${application.recording.ffmpeg.stop-grace-ms:10000}") long stopGraceMs,
+                            @Value("${application.recording.ffmpeg.one-shot-timeout-ms:60000}") long oneShotTimeoutMs,
+                            @Value("${application.recording.ffmpeg.max-restarts:3}") int maxRestarts,
+                            @Value("${application.recording.ffmpeg.watchdog-interval-ms:5000}") long watchdogIntervalMs) {
+        this.meterRegistry = meterRegistry;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxQueued = maxQueued;
+        this.stallTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(stallTimeoutMs);
+        this.stopGraceNanos = TimeUnit.MILLISECONDS.toNanos(stopGraceMs);
+        this.oneShotTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(oneShotTimeoutMs);
+        this.maxRestarts = maxRestarts;
+
+        // Un lecteur de progression par encodeur actif, plus les finalisations (concaténation)
+        ioExecutor.setCorePoolSize(this.maxConcurrent + 1);
+        ioExecutor.setMaxPoolSize(this.maxConcurrent + 1);
+        ioExecutor.setQueueCapacity(this.maxConcurrent + maxQueued + 8);
+        ioExecutor.setThreadNamePrefix("ffmpeg-io-");
+        ioExecutor.setDaemon(true);
+        ioExecutor.initialize();
+
+        this.restartCounter = Counter.builder("ffmpeg.encoder.restarts")
+                .description("Encoders relaunched after a crash or a stall")
+                .register(meterRegistry);
+        this.stallCounter = Counter.builder("ffmpeg.encoder.stalls")
+                .description("Encoders killed because their output time stopped advancing")
+                .register(meterRegistry);
+        this.forcedStopCounter = Counter.builder("ffmpeg.encoder.forced.stops")
+                .description("Encoders killed after ignoring the quit command")
+                .register(meterRegistry);
+        this.slotWaitTimer = Timer.builder("ffmpeg.encoder.slot.wait")
+                .description("Time spent waiting for an encoder slot")
+                .register(meterRegistry);
+        Gauge.builder("ffmpeg.encoders.running", this, s -> s.runningCount())
+                .register(meterRegistry);
+        Gauge.builder("ffmpeg.encoders.queued", this, s -> s.queuedCount())
+                .register(meterRegistry);
+
+        this.watchdog = taskScheduler.scheduleWithFixedDelay(this::checkEncoders, Duration.ofMillis(watchdogIntervalMs));
+    }
+
+    // ========== API ==========
+
+    /**
+     * Démarre (ou met en file) un encodeur de longue durée, arrêté par {@link #stop(String)}.
+     * La commande reçoit le chemin de sortie de chaque partie (une partie par redémarrage).
+     *
+     * @throws RejectedExecutionException si tous les créneaux et la file sont occupés
+     */
+    public void start(String key, Path output, Function<Path, List<String>> commandFactory) {
+        submit(new Encoder(key, output, commandFactory, false));
+    }
+
+    /**
+     * Exécute une commande ffmpeg ponctuelle ; le futur est complété avec {@code output} si elle réussit
+     */
+    public CompletableFuture<Path> runOnce(String key, Path output, List<String> command) {
+        Encoder encoder = new Encoder(key, output, path -> command, true);
+        submit(encoder);
+        return encoder.result;
+    }
+
+    /**
+     * Demande l'arrêt propre de l'encodeur ; le futur est complété quand le fichier final est écrit
+     */
+    public CompletableFuture<Path> stop(String key) {
+        Encoder encoder = encoders.get(key);
+        if (encoder == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("No encoder for " + key));
+        }
+        synchronized (this) {
+            if (encoder.state == State.QUEUED) {
+                waiting.remove(encoder);
+                encoder.state = State.DONE;
+                encoders.remove(key, encoder);
+                encoder.result.completeExceptionally(new IllegalStateException("Encoder stopped before starting"));
+                return encoder.result;
+            }
+            if (encoder.state != State.RUNNING) return encoder.result;
+            encoder.state = State.STOPPING;
+            encoder.stopRequestedAt = System.nanoTime();
+        }
+        sendQuit(encoder.process);
+        return encoder.result;
+    }
+
+    public boolean isManaged(String key) {
+        return encoders.containsKey(key);
+    }
+
+    // ========== CRÉNEAUX ==========
+
+    private void submit(Encoder encoder) {
+        if (encoders.putIfAbsent(encoder.key, encoder) != null) {
+            throw new IllegalStateException("Encoder already running for " + encoder.key);
+        }
+        synchronized (this) {
+            if (running < maxConcurrent) {
+                running++;
+            } else if (waiting.size() < maxQueued) {
+                waiting.addLast(encoder);
+                log.info("⏳ Encoder {} queued ({} waiting, {} running)", encoder.key, waiting.size(), running);
+                return;
+            } else {
+                encoders.remove(encoder.key, encoder);
+                throw new RejectedExecutionException("No ffmpeg slot available for " + encoder.key);
+            }
+        }
+        launch(encoder);
+    }
+
+    private void releaseSlot() {
+        Encoder next;
+        synchronized (this) {
+            next = waiting.pollFirst();
+            if (next == null) {
+                running--;
+                return;
+            }
+            // Le créneau passe directement à l'encodeur suivant
+        }
+        launch(next);
+    }
+
+    private synchronized int runningCount() {
+        return running;
+    }
+
+    private synchronized int queuedCount() {
+        return waiting.size();
+    }
+
+    // ========== CYCLE DE VIE ==========
+
+    private void launch(Encoder encoder) {
+        if (encoder.parts.isEmpty()) {
+            slotWaitTimer.record(System.nanoTime() - encoder.queuedAt, TimeUnit.NANOSECONDS);
+        }
+        Path part = encoder.parts.isEmpty() ? encoder.output : partPath(encoder.output, encoder.parts.size());
+        try {
+            Process process = new ProcessBuilder(encoder.commandFactory.apply(part))
+                    .redirectError(ProcessBuilder.Redirect.appendTo(encoder.logFile().toFile()))
+                    .start();
+            encoder.parts.add(part);
+            encoder.process = process;
+            encoder.startedAt = encoder.lastProgressAt = System.nanoTime();
+            encoder.outTimeUs = -1;
+            synchronized (this) {
+                if (encoder.state == State.QUEUED) encoder.state = State.RUNNING;
+            }
+            if (encoder.gauges.isEmpty()) registerGauges(encoder);
+
+            ioExecutor.execute(() -> drainProgress(encoder, process));
+            process.onExit().thenAcceptAsync(exited -> onExit(encoder, exited), ioExecutor);
+            log.info("🎬 ffmpeg started for {} (pid {}, part {})", encoder.key, process.pid(), encoder.parts.size());
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to start ffmpeg for {}: {}", encoder.key, e.getMessage());
+            complete(encoder, null, e);
+            releaseSlot();
+        }
+    }
+
+    /**
+     * Lit les blocs {@code -progress} (clé=valeur, terminés par {@code progress=...})
+     */
+    private void drainProgress(Encoder encoder, Process process) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int eq = line.indexOf('=');
+                if (eq <= 0) continue;
+                String value = line.substring(eq + 1).trim();
+                switch (line.substring(0, eq)) {
+                    case "fps" -> encoder.fps = parseNumber(value);
+                    case "bitrate" -> encoder.bitrateKbps = parseNumber(value.replace("kbits/s", ""));
+                    case "speed" -> encoder.speed = parseNumber(value.replace("x", ""));
+                    case "out_time_us" -> {
+                        long outTime = (long) parseNumber(value);
+                        // Seul un temps de sortie qui avance compte comme progression
+                        if (outTime > encoder.outTimeUs) {
+                            encoder.outTimeUs = outTime;
+                            encoder.lastProgressAt = System.nanoTime();
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.debug("ffmpeg output closed for {}: {}", encoder.key, e.getMessage());
+        }
+    }
+
+    private void onExit(Encoder encoder, Process process) {
+        try {
+            handleExit(encoder, process);
+        } catch (RuntimeException e) {
+            // Sans cela le résultat ne se termine jamais et l'encodeur reste enregistré
+            log.error("Failed to finalize ffmpeg for {}", encoder.key, e);
+            encoder.state = State.DONE;
+            encoders.remove(encoder.key, encoder);
+            encoder.result.completeExceptionally(e);
+        }
+    }
+
+    private void handleExit(Encoder encoder, Process process) {
+        int exitCode = process.exitValue();
+        if (encoder.process != process) return;
+
+        if (encoder.oneShot) {
+            try {
+                if (exitCode == 0) {
+                    complete(encoder, encoder.output, null);
+                } else {
+                    complete(encoder, null, new IOException("ffmpeg exited with code " + exitCode + " for " + encoder.key));
+                }
+            } finally {
+                releaseSlot();
+            }
+            return;
+        }
+
+        if (encoder.state == State.RUNNING && encoder.restarts < maxRestarts) {
+            // Crash ou blocage : relance dans une nouvelle partie en gardant le créneau
+            encoder.restarts++;
+            restartCounter.increment();
+            log.warn("🔁 ffmpeg for {} exited with code {}, restarting ({}/{})",
+                    encoder.key, exitCode, encoder.restarts, maxRestarts);
+            launch(encoder);
+            return;
+        }
+
+        if (encoder.state == State.RUNNING) {
+            log.error("ffmpeg for {} exited with code {} and exhausted its restarts", encoder.key, exitCode);
+        }
+        try {
+            complete(encoder, assemble(encoder), null);
+        } catch (IOException | InterruptedException e) {
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            complete(encoder, null, e);
+        } finally {
+            releaseSlot();
+        }
+    }
+
+    /**
+     * Concatène les parties produites après des redémarrages (sans réencodage)
+     */
+    private Path assemble(Encoder encoder) throws IOException, InterruptedException {
+        List<Path> parts = encoder.parts.stream().filter(this::nonEmpty).toList();
+        if (parts.isEmpty()) {
+            throw new IOException("ffmpeg produced no output for " + encoder.key);
+        }
+        if (parts.size() == 1) {
+            if (!parts.get(0).equals(encoder.output)) {
+                Files.move(parts.get(0), encoder.output, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return encoder.output;
+        }
+
+        // La sortie finale est aussi la première partie, sauf si celle-ci est restée vide
+        List<Path> inputs = new ArrayList<>(parts);
+        int outputIndex = inputs.indexOf(encoder.output);
+        if (outputIndex >= 0) {
+            Path first = partPath(encoder.output, 0);
+            Files.move(encoder.output, first, StandardCopyOption.REPLACE_EXISTING);
+            inputs.set(outputIndex, first);
+        }
+
+        Path list = encoder.output.resolveSibling(encoder.output.getFileName() + ".parts.txt");
+        Files.write(list, inputs.stream()
+                .map(p -> "file '" + p.toAbsolutePath().toString().replace("'", "'\\''") + "'")
+                .collect(Collectors.toList()));
+        Process concat = new ProcessBuilder("ffmpeg", "-hide_banner", "-loglevel", "error", "-y",
+                "-f", "concat", "-safe", "0", "-i", list.toString(), "-c", "copy",
+                "-movflags", "+faststart", encoder.output.toString())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(encoder.logFile().toFile()))
+                .start();
+        boolean finished = concat.waitFor(5, TimeUnit.MINUTES);
+        if (!finished || concat.exitValue() != 0) {
+            concat.destroyForcibly();
+            throw new IOException("Failed to concatenate " + inputs.size() + " parts for " + encoder.key);
+        }
+        for (Path input : inputs) Files.deleteIfExists(input);
+        Files.deleteIfExists(list);
+        log.info("Assembled {} parts for {}", inputs.size(), encoder.key);
+        return encoder.output;
+    }
+
+    private void complete(Encoder encoder, Path output, Throwable error) {
+        encoder.state = State.DONE;
+        encoders.remove(encoder.key, encoder);
+        encoder.gauges.forEach(meterRegistry::remove);
+        if (error == null) {
+            try {
+                Files.deleteIfExists(encoder.logFile());
+            } catch (IOException ignored) {
+                // journal conservé
+            }
+            encoder.result.complete(output);
+        } else {
+            encoder.result.completeExceptionally(error);
+        }
+    }
+
+    // ========== CHIEN DE GARDE ==========
+
+    private void checkEncoders() {
+        long now = System.nanoTime();
+        for (Encoder encoder : encoders.values()) {
+            Process process = encoder.process;
+            if (process == null || !process.isAlive()) continue;
+
+            if (encoder.state == State.STOPPING && now - encoder.stopRequestedAt > stopGraceNanos) {
+                log.warn("ffmpeg for {} ignored quit, killing it", encoder.key);
+                forcedStopCounter.increment();
+                destroyTree(process);
+            } else if (encoder.oneShot && now - encoder.startedAt > oneShotTimeoutNanos) {
+                log.warn("ffmpeg job {} timed out, killing it", encoder.key);
+                destroyTree(process);
+            } else if (encoder.state == State.RUNNING && !encoder.oneShot
+                    && now - encoder.lastProgressAt > stallTimeoutNanos) {
+                log.warn("🐢 ffmpeg for {} stalled for {}s, killing it", encoder.key,
+                        TimeUnit.NANOSECONDS.toSeconds(now - encoder.lastProgressAt));
+                stallCounter.increment();
+                destroyTree(process);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.cancel(false);
+        for (Encoder encoder : encoders.values()) {
+            encoder.state = State.STOPPING;
+            sendQuit(encoder.process);
+        }
+        long deadline = System.nanoTime() + stopGraceNanos;
+        for (Encoder encoder : encoders.values()) {
+            Process process = encoder.process;
+            if (process == null) continue;
+            try {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !process.waitFor(remaining, TimeUnit.NANOSECONDS)) {
+                    destroyTree(process);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                destroyTree(process);
+            }
+        }
+        ioExecutor.shutdown();
+    }
+
+    // ========== UTILITAIRES ==========
+
+    private void registerGauges(Encoder encoder) {
+        encoder.gauges = List.of(
+                Gauge.builder("ffmpeg.encoder.fps", encoder, e -> e.fps)
+                        .tag("encoder", encoder.key).register(meterRegistry),
+                Gauge.builder("ffmpeg.encoder.bitrate", encoder, e -> e.bitrateKbps)
+                        .tag("encoder", encoder.key).baseUnit("kbits/s").register(meterRegistry),
+                Gauge.builder("ffmpeg.encoder.speed", encoder, e -> e.speed)
+                        .tag("encoder", encoder.key).register(meterRegistry));
+    }
+
+    private static void sendQuit(Process process) {
+        if (process == null || !process.isAlive()) return;
+        try {
+            OutputStream stdin = process.getOutputStream();
+            stdin.write("q\n".getBytes(StandardCharsets.US_ASCII));
+            stdin.flush();
+        } catch (IOException e) {
+            log.warn("Failed to send quit signal to ffmpeg: {}", e.getMessage());
+        }
+    }
+
+    private static void destroyTree(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    private static Path partPath(Path output, int index) {
+        String name = output.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String partName = dot > 0
+                ? name.substring(0, dot) + "_part" + index + name.substring(dot)
+                : name + "_part" + index;
+        return output.resolveSibling(partName);
+    }
+
+    private boolean nonEmpty(Path path) {
+        try {
+            return Files.exists(path) && Files.size(path) > 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static double parseNumber(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return 0; // "N/A"
+        }
+    }
+}
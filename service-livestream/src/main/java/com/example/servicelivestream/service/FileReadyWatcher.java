@@ -0,0 +1,128 @@
+package com.example.servicelivestream.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Notification « fichier prêt » par {@link WatchService} (un seul thread pour tous les répertoires)
+ * à la place des boucles {@code Thread.sleep} : le futur est complété dès que le fichier atteint
+ * la taille minimale, ou en erreur après le délai.
+ */
+@Slf4j
+@Component
+public class FileReadyWatcher {
+
+    private record Waiter(Path file, long minBytes, CompletableFuture<Path> future) {
+    }
+
+    private final WatchService watchService;
+    private final Map<Path, List<Waiter>> waitersByDirectory = new ConcurrentHashMap<>();
+    private final Map<Path, WatchKey> keys = new ConcurrentHashMap<>();
+    private final Thread thread;
+
+    public FileReadyWatcher() throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.thread = new Thread(this::watch, "file-ready-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public CompletableFuture<Path> awaitReady(Path file, long minBytes, Duration timeout) {
+        Path absolute = file.toAbsolutePath().normalize();
+        if (isReady(absolute, minBytes)) {
+            return CompletableFuture.completedFuture(file);
+        }
+
+        Path directory = absolute.getParent();
+        CompletableFuture<Path> future = new CompletableFuture<>();
+        Waiter waiter = new Waiter(absolute, minBytes, future);
+        try {
+            Files.createDirectories(directory);
+            waitersByDirectory.computeIfAbsent(directory, d -> new CopyOnWriteArrayList<>()).add(waiter);
+            keys.computeIfAbsent(directory, this::register);
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        // Le fichier a pu apparaître entre le premier contrôle et l'enregistrement
+        if (isReady(absolute, minBytes)) {
+            future.complete(file);
+        }
+        future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((path, error) -> remove(directory, waiter));
+        return future.thenApply(path -> file);
+    }
+
+    private WatchKey register(Path directory) {
+        try {
+            return directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot watch " + directory, e);
+        }
+    }
+
+    private void watch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = (Path) key.watchable();
+            key.pollEvents(); // seuls les fichiers attendus sont vérifiés
+            List<Waiter> waiters = waitersByDirectory.get(directory);
+            if (waiters != null) {
+                for (Waiter waiter : waiters) {
+                    if (isReady(waiter.file(), waiter.minBytes())) {
+                        waiter.future().complete(waiter.file());
+                    }
+                }
+            }
+            if (!key.reset()) {
+                keys.remove(directory);
+            }
+        }
+    }
+
+    private void remove(Path directory, Waiter waiter) {
+        waitersByDirectory.computeIfPresent(directory, (d, waiters) -> {
+            waiters.remove(waiter);
+            if (!waiters.isEmpty()) return waiters;
+            WatchKey key = keys.remove(d);
+            if (key != null) key.cancel();
+            return null;
+        });
+    }
+
+    private static boolean isReady(Path file, long minBytes) {
+        try {
+            return Files.exists(file) && Files.size(file) >= minBytes;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        thread.interrupt();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.debug("Error closing watch service: {}", e.getMessage());
+        }
+    }
+}
@@ -10,15 +10,15 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.SecretKey;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
@@ -27,6 +27,10 @@ import java.util.concurrent.TimeUnit;
 @RequiredArgsConstructor
 public class LiveKitService {
     private final LiveKitConfig liveKitConfig;
+    private final FfmpegSupervisor ffmpegSupervisor;
+
+    // Détection faite une fois (évite un processus "ffmpeg -version" par enregistrement)
+    private volatile Boolean ffmpegAvailable;
 
     @Value("${application.recording.min-duration-seconds:5}")
     private int minRecordingDuration;
@@ -134,7 +138,10 @@ public class LiveKitService {
         }
     }
 
-    public void stopRoomRecording(String roomName) {
+    /**
+     * Demande l'arrêt sans attendre ffmpeg : le futur est complété quand le fichier est finalisé
+     */
+    public CompletableFuture<Void> stopRoomRecording(String roomName) {
         try {
             log.info("=== STOPPING REAL STREAM RECORDING ===");
             log.info("Room: {}", roomName);
@@ -142,7 +149,7 @@ public class LiveKitService {
             RecordingSession session = activeRecordings.get(roomName);
             if (session == null) {
                 log.warn("No active recording found for room: {}", roomName);
-                return;
+                return CompletableFuture.completedFuture(null);
             }
 
             // Calculer la durée
@@ -152,12 +159,13 @@ public class LiveKitService {
             log.info("Recording session duration: {}s", actualDurationSeconds);
 
             // ✅ ARRÊTER L'ENREGISTREMENT RÉEL
-            stopRealRecording(session);
+            CompletableFuture<Void> finalized = stopRealRecording(session);
 
             session.isActive = false;
             activeRecordings.remove(roomName);
 
-            log.info("=== REAL RECORDING STOPPED ===");
+            log.info("=== REAL RECORDING STOP REQUESTED ===");
+            return finalized;
 
         } catch (Exception e) {
             log.error("=== RECORDING STOP FAILED ===", e);
@@ -188,40 +196,22 @@ public class LiveKitService {
         }
     }
 
-    private void stopRealRecording(RecordingSession session) throws IOException {
-        if (session.recordingProcess != null && session.recordingProcess.isAlive()) {
-            log.info("Stopping FFmpeg recording process");
-
-            // Envoyer signal d'arrêt propre à FFmpeg
-            try {
-                session.recordingProcess.getOutputStream().write("q\n".getBytes());
-                session.recordingProcess.getOutputStream().flush();
-            } catch (IOException e) {
-                log.warn("Failed to send quit signal to FFmpeg: {}", e.getMessage());
-            }
-
-            // Attendre que le processus se termine
-            try {
-                boolean finished = session.recordingProcess.waitFor(10, TimeUnit.SECONDS);
-                if (!finished) {
-                    log.warn("FFmpeg didn't terminate gracefully, forcing shutdown");
-                    session.recordingProcess.destroyForcibly();
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                session.recordingProcess.destroyForcibly();
-            }
-        }
-
-        // Vérifier que le fichier a été créé
+    private CompletableFuture<Void> stopRealRecording(RecordingSession session) {
         Path outputFile = Paths.get(session.outputPath);
-        if (Files.exists(outputFile)) {
-            long fileSize = Files.size(outputFile);
-            log.info("Recording file created: {} ({} bytes)", outputFile.getFileName(), fileSize);
-        } else {
-            log.warn("Recording file not found, creating fallback");
-            createMinimalRecording(outputFile, 10); // 10 secondes par défaut
-        }
+        CompletableFuture<Path> stopped = ffmpegSupervisor.isManaged(session.roomName)
+                ? ffmpegSupervisor.stop(session.roomName)
+                : CompletableFuture.failedFuture(new IllegalStateException("No encoder running"));
+
+        // Vérifier que le fichier a été créé, sinon produire un fichier de repli
+        return stopped.handle((path, error) -> {
+                    if (error == null && Files.exists(outputFile)) {
+                        log.info("Recording file created: {} ({} bytes)", outputFile.getFileName(), sizeOf(outputFile));
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    log.warn("Recording file not found, creating fallback");
+                    return createMinimalRecording(outputFile, 10); // 10 secondes par défaut
+                })
+                .thenCompose(future -> future);
     }
 
     // ========== MÉTHODES D'ENREGISTREMENT ==========
@@ -239,16 +229,23 @@ public class LiveKitService {
         startScreenRecording(session);
     }
 
-    private void startScreenRecording(RecordingSession session) throws IOException {
+    private void startScreenRecording(RecordingSession session) {
         log.info("Starting screen recording with FFmpeg");
+        ffmpegSupervisor.start(session.roomName, Paths.get(session.outputPath), this::screenRecordingCommand);
+        log.info("Screen recording started");
+    }
 
-        String[] command;
+    /**
+     * MP4 fragmenté : une partie interrompue (crash, arrêt forcé) reste lisible ;
+     * le packaging produit ensuite la version faststart
+     */
+    private List<String> screenRecordingCommand(Path output) {
         String os = System.getProperty("os.name").toLowerCase();
 
         if (os.contains("windows")) {
             // Windows - Capturer l'écran principal
-            command = new String[]{
-                    "ffmpeg",
+            return List.of(
+                    "ffmpeg", "-nostats", "-progress", "pipe:1", "-y",
                     "-f", "gdigrab",
                     "-framerate", "25",
                     "-i", "desktop",
@@ -260,13 +257,12 @@ public class LiveKitService {
                     "-c:a", "aac",
                     "-b:a", "128k",
                     "-pix_fmt", "yuv420p",
-                    "-movflags", "+faststart",
-                    session.outputPath
-            };
+                    "-movflags", "+frag_keyframe+empty_moov",
+                    output.toString());
         } else if (os.contains("mac")) {
             // macOS - Capturer l'écran
-            command = new String[]{
-                    "ffmpeg",
+            return List.of(
+                    "ffmpeg", "-nostats", "-progress", "pipe:1", "-y",
                     "-f", "avfoundation",
                     "-framerate", "25",
                     "-i", "1:0", // Écran 1, Audio device 0
@@ -276,13 +272,12 @@ public class LiveKitService {
                     "-c:a", "aac",
                     "-b:a", "128k",
                     "-pix_fmt", "yuv420p",
-                    "-movflags", "+faststart",
-                    session.outputPath
-            };
+                    "-movflags", "+frag_keyframe+empty_moov",
+                    output.toString());
         } else {
             // Linux - Capturer l'écran X11
-            command = new String[]{
-                    "ffmpeg",
+            return List.of(
+                    "ffmpeg", "-nostats", "-progress", "pipe:1", "-y",
                     "-f", "x11grab",
                     "-framerate", "25",
                     "-i", ":0.0",
@@ -294,33 +289,9 @@ public class LiveKitService {
                     "-c:a", "aac",
                     "-b:a", "128k",
                     "-pix_fmt", "yuv420p",
-                    "-movflags", "+faststart",
-                    session.outputPath
-            };
+                    "-movflags", "+frag_keyframe+empty_moov",
+                    output.toString());
         }
-
-        ProcessBuilder pb = new ProcessBuilder(command);
-        pb.redirectErrorStream(true);
-        Process process = pb.start();
-
-        session.recordingProcess = process;
-
-        // Log de démarrage dans un thread séparé
-        new Thread(() -> {
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null && session.isActive) {
-                    if (line.contains("frame=")) {
-                        log.debug("Recording: {}", line.trim());
-                    }
-                }
-            } catch (IOException e) {
-                log.debug("Recording process output ended: {}", e.getMessage());
-            }
-        }).start();
-
-        log.info("Screen recording started");
     }
 
     private void createRealisticSimulation(RecordingSession session) throws IOException {
@@ -333,16 +304,16 @@ public class LiveKitService {
         log.info("Recording simulation started, will generate video on stop");
     }
 
-    private void createMinimalRecording(Path outputPath, int durationSeconds) throws IOException {
+    private CompletableFuture<Void> createMinimalRecording(Path outputPath, int durationSeconds) {
         if (!isFFmpegAvailable()) {
-            createMinimalMP4(outputPath);
-            return;
+            return CompletableFuture.runAsync(() -> createMinimalMP4Quietly(outputPath));
         }
 
         log.info("Creating minimal recording ({} seconds)", durationSeconds);
 
-        String[] command = {
+        List<String> command = List.of(
                 "ffmpeg",
+                "-nostats", "-progress", "pipe:1",
                 "-f", "lavfi",
                 "-i", "color=c=black:s=1280x720:d=" + durationSeconds,
                 "-f", "lavfi",
@@ -357,21 +328,30 @@ public class LiveKitService {
                 "-metadata", "title=Recording Unavailable",
                 "-y",
                 outputPath.toString()
-        };
+        );
 
         try {
-            ProcessBuilder pb = new ProcessBuilder(command);
-            Process process = pb.start();
-            boolean finished = process.waitFor(30, TimeUnit.SECONDS);
-
-            if (finished && process.exitValue() == 0) {
-                log.info("Minimal recording created: {}", outputPath.getFileName());
-            } else {
-                createMinimalMP4(outputPath);
-            }
-        } catch (Exception e) {
+            return ffmpegSupervisor.runOnce("minimal:" + outputPath, outputPath, command)
+                    .handle((path, error) -> {
+                        if (error == null) {
+                            log.info("Minimal recording created: {}", outputPath.getFileName());
+                        } else {
+                            log.error("Failed to create minimal recording: {}", error.getMessage());
+                            createMinimalMP4Quietly(outputPath);
+                        }
+                        return null;
+                    });
+        } catch (RuntimeException e) {
             log.error("Failed to create minimal recording", e);
-            createMinimalMP4(outputPath);
+            return CompletableFuture.runAsync(() -> createMinimalMP4Quietly(outputPath));
+        }
+    }
+
+    private void createMinimalMP4Quietly(Path filePath) {
+        try {
+            createMinimalMP4(filePath);
+        } catch (IOException e) {
+            log.error("Failed to write minimal MP4 {}", filePath, e);
         }
     }
 
@@ -408,14 +388,29 @@ public class LiveKitService {
     // ========== UTILITAIRES ==========
 
     private boolean isFFmpegAvailable() {
+        Boolean available = ffmpegAvailable;
+        if (available != null) {
+            return available;
+        }
         try {
             ProcessBuilder pb = new ProcessBuilder("ffmpeg", "-version");
+            pb.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD);
             Process process = pb.start();
             boolean finished = process.waitFor(3, TimeUnit.SECONDS);
-            return finished && process.exitValue() == 0;
+            available = finished && process.exitValue() == 0;
         } catch (Exception e) {
             log.debug("FFmpeg not available: {}", e.getMessage());
-            return false;
+            available = false;
+        }
+        ffmpegAvailable = available;
+        return available;
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
         }
     }
 
@@ -441,6 +436,5 @@ public class LiveKitService {
         LocalDateTime startTime;
         LocalDateTime endTime;
         boolean isActive;
-        Process recordingProcess; // ✅ Pour contrôler FFmpeg
     }
 }
\ No newline at end of file
@@ -14,14 +14,17 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
@@ -40,6 +43,12 @@ public class LivestreamService {
     private final SkillServiceClient skillServiceClient;
     private final KafkaTemplate<String, NotificationEvent> kafkaTemplate;
     private final LiveKitService liveKitService;
+    private final RecordingPackagingService recordingPackagingService;
+    private final ChatMembershipService chatMembershipService;
+    private final ChatHistoryService chatHistoryService;
+    private final ChatIngestionService chatIngestionService;
+    private final SessionParticipantService sessionParticipantService;
+    private final SimpMessagingTemplate messagingTemplate;
 
     @Value("${application.livestream.allow-sessions-without-participants:true}")
     private boolean allowSessionsWithoutParticipants;
@@ -144,6 +153,10 @@ public class LivestreamService {
         session.setStatus("COMPLETED");
         session.setEndTime(LocalDateTime.now());
         sessionRepository.save(session);
+        sessionParticipantService.syncSessionState(session);
+        chatMembershipService.evictSession(sessionId);
+        chatHistoryService.evictSession(sessionId);
+        chatIngestionService.evictSession(sessionId);
 
         updateCompletedExchanges(session, token);
         sendCompletionNotification(session, producer);
@@ -180,6 +193,9 @@ public class LivestreamService {
         );
     }
 
+    /**
+     * Ancien format de webhook ; appelé depuis la boîte de réception, les erreurs remontent pour rejouer l'événement
+     */
     @Transactional
     public void handleMediaServerEvent(WebhookEvent event) {
         if ("recordingFinished".equals(event.action())) {
@@ -187,6 +203,35 @@ public class LivestreamService {
         }
     }
 
+    /**
+     * Événement LiveKit dépilé de la boîte de réception, dans l'ordre de réception pour une salle.
+     * Les erreurs remontent : l'événement est rejoué.
+     */
+    @Transactional
+    public void handleLiveKitEvent(LiveKitWebhookEvent event) {
+        String roomName = event.roomName();
+        LivestreamSession session = roomName != null ? sessionRepository.findByRoomName(roomName) : null;
+        if (session == null) {
+            log.warn("No session found for room {} ({})", roomName, event.event());
+            return;
+        }
+
+        switch (event.event()) {
+            case "room_started" -> {
+                // Salle ouverte avant le passage planifié : la session démarre
+                if ("SCHEDULED".equals(session.getStatus())) {
+                    processScheduledSession(session);
+                }
+            }
+            case "room_finished" -> log.info("LiveKit room {} finished (session {} is {})",
+                    roomName, session.getId(), session.getStatus());
+            case "participant_joined" -> broadcastPresence(session, event, "User joined: ");
+            case "participant_left" -> broadcastPresence(session, event, "User left: ");
+            case "egress_ended" -> handleEgressEnded(session, event.egressInfo());
+            default -> log.debug("Ignoring LiveKit event {} for room {}", event.event(), roomName);
+        }
+    }
+
     // Helper methods
     private boolean isAuthorizedForSession(LivestreamSession session, Long userId) {
         return session.getProducerId().equals(userId) ||
@@ -265,7 +310,9 @@ public class LivestreamService {
                 .producerToken(producerToken)
                 .build();
 
-        return sessionRepository.save(session);
+        LivestreamSession saved = sessionRepository.save(session);
+        sessionParticipantService.registerParticipants(saved);
+        return saved;
     }
 
     private void updateExchangesAndNotify(List<ExchangeResponse> exchanges, String token,
@@ -321,6 +368,8 @@ public class LivestreamService {
             }
 
             LivestreamSession updatedSession = sessionRepository.save(session);
+            sessionParticipantService.syncSessionState(updatedSession);
+            chatMembershipService.evictSession(session.getId());
 
             if (session.getReceiverIds() != null && !session.getReceiverIds().isEmpty()) {
                 updateScheduledExchanges(updatedSession);
@@ -334,6 +383,10 @@ public class LivestreamService {
             log.error("Failed to start session {}: {}", session.getId(), e.getMessage(), e);
             session.setStatus("ERROR");
             sessionRepository.save(session);
+            sessionParticipantService.syncSessionState(session);
+            chatMembershipService.evictSession(session.getId());
+            chatHistoryService.evictSession(session.getId());
+            chatIngestionService.evictSession(session.getId());
         }
     }
 
@@ -448,29 +501,59 @@ public class LivestreamService {
     }
 
     private void handleRecordingFinished(WebhookEvent event) {
-        try {
-            LivestreamSession session = sessionRepository.findByRoomName(event.streamId());
-            if (session != null) {
-                saveRecording(session, event.recordingFilePath());
-            } else {
-                log.warn("No session found for room {}", event.streamId());
+        LivestreamSession session = sessionRepository.findByRoomName(event.streamId());
+        if (session != null) {
+            saveRecording(session, event.recordingFilePath());
+        } else {
+            log.warn("No session found for room {}", event.streamId());
+        }
+    }
+
+    private void broadcastPresence(LivestreamSession session, LiveKitWebhookEvent event, String prefix) {
+        if (event.participant() == null) return;
+        messagingTemplate.convertAndSend("/topic/session/" + session.getId() + "/users",
+                prefix + event.participant().identity());
+    }
+
+    private void handleEgressEnded(LivestreamSession session, LiveKitWebhookEvent.EgressInfo egress) {
+        if (egress == null) return;
+        if (!"EGRESS_COMPLETE".equals(egress.status())) {
+            log.warn("Egress {} for session {} ended with status {}: {}",
+                    egress.egressId(), session.getId(), egress.status(), egress.error());
+            return;
+        }
+
+        List<LiveKitWebhookEvent.FileInfo> files = new ArrayList<>();
+        if (egress.fileResults() != null) files.addAll(egress.fileResults());
+        if (files.isEmpty() && egress.file() != null) files.add(egress.file());
+
+        for (LiveKitWebhookEvent.FileInfo file : files) {
+            String path = file.location() != null && !file.location().isBlank() ? file.location() : file.filename();
+            if (path != null && !path.isBlank()) {
+                saveRecording(session, path);
             }
-        } catch (Exception e) {
-            log.error("Failed to handle recording event: {}", e.getMessage());
         }
     }
 
     private void saveRecording(LivestreamSession session, String recordingPath) {
+        if (recordingRepository.existsBySessionIdAndFilePath(session.getId(), recordingPath)) {
+            log.info("Recording {} already registered for session {}", recordingPath, session.getId());
+            return;
+        }
         session.setRecordingPath(recordingPath);
         sessionRepository.save(session);
 
         Recording recording = Recording.builder()
                 .session(session)
                 .filePath(recordingPath)
+                .fileName(Paths.get(recordingPath).getFileName().toString())
+                .status("COMPLETED")
+                .endedAt(LocalDateTime.now())
                 .createdAt(LocalDateTime.now())
                 .authorizedUsers(session.getReceiverIds())
                 .build();
         recordingRepository.save(recording);
+        recordingPackagingService.enqueue(recording.getId());
     }
 
     // Data access helper methods
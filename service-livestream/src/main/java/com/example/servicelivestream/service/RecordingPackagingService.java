@@ -0,0 +1,562 @@
+package com.example.servicelivestream.service;
+
+import com.example.servicelivestream.dto.PackagingStatusResponse;
+import com.example.servicelivestream.entity.PackagingJob;
+import com.example.servicelivestream.entity.Recording;
+import com.example.servicelivestream.repository.PackagingJobRepository;
+import com.example.servicelivestream.repository.RecordingRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.springframework.http.HttpStatus.NOT_FOUND;
+
+/**
+ * Packaging des enregistrements terminés : MP4 faststart (lecture progressive immédiate)
+ * et échelle HLS de 2 à 3 rendus, produits par le ffmpeg local.
+ * <ul>
+ *   <li>Tâches persistées ({@link PackagingJob}) : déclenchées au passage en COMPLETED,
+ *       reprises par un planificateur après saturation de la file ou redémarrage.</li>
+ *   <li>Pool de workers borné ; chaque sortie est écrite dans un répertoire temporaire puis publiée
+ *       par renommage atomique sous un nom versionné, ce qui rend segments et playlists immuables.</li>
+ *   <li>Métriques {@code recording.packaging.*} : tâches, durée, vitesse (secondes de média par seconde), octets produits.</li>
+ * </ul>
+ */
+@Slf4j
+@Service
+public class RecordingPackagingService {
+
+    public static final String MASTER_PLAYLIST = "master.m3u8";
+    private static final Pattern SAFE_NAME = Pattern.compile("[A-Za-z0-9_-]+(\\.[A-Za-z0-9]+)?");
+
+    record Rendition(String name, int height, int videoKbps) {
+    }
+
+    private record Probe(double durationSeconds, int height, boolean hasAudio) {
+    }
+
+    private final PackagingJobRepository jobRepository;
+    private final RecordingRepository recordingRepository;
+    private final RecordingStreamService recordingStreamService;
+    private final TaskScheduler taskScheduler;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final boolean enabled;
+    private final String ffmpegPath;
+    private final String ffprobePath;
+    private final Path outputRoot;
+    private final List<Rendition> ladder;
+    private final int segmentSeconds;
+    private final int maxAttempts;
+    private final int queueCapacity;
+    private final Duration minTimeout;
+    private final double timeoutFactor;
+
+    private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    // jobId -> avancement [0..1] des tâches en cours
+    private final Map<Long, Double> progress = new ConcurrentHashMap<>();
+
+    private final MeterRegistry meterRegistry;
+    private final Timer durationTimer;
+    private final DistributionSummary speedSummary;
+    private final Counter bytesCounter;
+
+    public RecordingPackagingService(PackagingJobRepository jobRepository,
+                                     RecordingRepository recordingRepository,
+                                     RecordingStreamService recordingStreamService,
+                                     @Qualifier("taskScheduler") TaskScheduler taskScheduler,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${application.recording.packaging.enabled:true}") boolean enabled,
+                                     @Value("${application.recording.packaging.ffmpeg-path:ffmpeg}") String ffmpegPath,
+                                     @Value("${application.recording.packaging.ffprobe-path:ffprobe}") String ffprobePath,
+                                     @Value("${application.recording.directory:./recordings}") String recordingDirectory,
+                                     @Value("${application.recording.packaging.renditions:1080:5000,720:2800,480:1200}") List<String> renditions,
+                                     @Value("${application.recording.packaging.segment-seconds:6}") int segmentSeconds,
+                                     @Value("${application.recording.packaging.workers:2}") int workers,
+                                     @Value("${application.recording.packaging.queue-capacity:50}") int queueCapacity,
+                                     @Value("${application.recording.packaging.max-attempts:3}") int maxAttempts,
+                                     @Value("${application.recording.packaging.min-timeout-minutes:10}") long minTimeoutMinutes,
+                                     @Value("${application.recording.packaging.timeout-factor:4}") double timeoutFactor) {
+        this.jobRepository = jobRepository;
+        this.recordingRepository = recordingRepository;
+        this.recordingStreamService = recordingStreamService;
+        this.taskScheduler = taskScheduler;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.ffmpegPath = ffmpegPath;
+        this.ffprobePath = ffprobePath;
+        this.outputRoot = Paths.get(recordingDirectory, "packaged");
+        this.ladder = parseLadder(renditions);
+        this.segmentSeconds = segmentSeconds;
+        this.maxAttempts = maxAttempts;
+        this.queueCapacity = queueCapacity;
+        this.minTimeout = Duration.ofMinutes(minTimeoutMinutes);
+        this.timeoutFactor = timeoutFactor;
+
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("recording-packaging-");
+        executor.initialize();
+
+        this.durationTimer = Timer.builder("recording.packaging.duration")
+                .description("Wall-clock time to package one recording")
+                .register(meterRegistry);
+        this.speedSummary = DistributionSummary.builder("recording.packaging.speed")
+                .description("Seconds of media packaged per second of wall-clock time")
+                .register(meterRegistry);
+        this.bytesCounter = Counter.builder("recording.packaging.bytes")
+                .description("Bytes written by packaging jobs")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("recording.packaging.active", inFlight, Set::size)
+                .description("Packaging jobs queued or running on this instance")
+                .register(meterRegistry);
+        Gauge.builder("recording.packaging.progress", progress,
+                        p -> p.values().stream().mapToDouble(Double::doubleValue).average().orElse(0))
+                .description("Average progress of running packaging jobs")
+                .register(meterRegistry);
+    }
+
+    // ========== DÉCLENCHEMENT ==========
+
+    /**
+     * À appeler quand un enregistrement passe en COMPLETED. Dans une transaction, la tâche
+     * n'est soumise qu'après le commit. Si elle est en cours, elle est relancée à la fin de l'exécution.
+     */
+    public void enqueue(Long recordingId) {
+        if (!enabled || recordingId == null) return;
+
+        PackagingJob job = jobRepository.findByRecordingId(recordingId).orElse(null);
+        if (job != null && PackagingJob.RUNNING.equals(job.getStatus())
+                && jobRepository.requestRerun(job.getId()) > 0) {
+            // L'exécution en cours lit peut-être l'ancien fichier : relancée dès qu'elle se termine
+            log.info("🔁 Recording {} changed during packaging, rerun requested", recordingId);
+            return;
+        }
+        if (job == null) {
+            job = PackagingJob.builder()
+                    .recordingId(recordingId)
+                    .createdAt(LocalDateTime.now())
+                    .build();
+        }
+        // Nouveau fichier (ré-upload) : on repart de zéro, l'ancienne sortie reste servie jusqu'à la publication
+        job.setStatus(PackagingJob.PENDING);
+        job.setAttempts(0);
+        job.setLastError(null);
+        Long jobId = jobRepository.save(job).getId();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submit(jobId);
+                }
+            });
+        } else {
+            submit(jobId);
+        }
+    }
+
+    /**
+     * À appeler à la suppression d'un enregistrement : supprime la tâche, et la sortie publiée
+     * ({@code recordings/packaged/<id>}) après le commit. Une tâche en cours s'arrête à la publication.
+     */
+    public void discard(Long recordingId) {
+        if (recordingId == null) return;
+        jobRepository.findByRecordingId(recordingId).ifPresent(jobRepository::delete);
+
+        Path baseDir = outputRoot.resolve(String.valueOf(recordingId));
+        Runnable cleanup = () -> {
+            recordingStreamService.evict(recordingId);
+            deleteTree(baseDir);
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cleanup.run();
+                }
+            });
+        } else {
+            cleanup.run();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterruptedJobs() {
+        if (!enabled) return;
+        int requeued = jobRepository.requeueRunning();
+        if (requeued > 0) {
+            log.info("🎞️ Requeued {} interrupted packaging job(s)", requeued);
+        }
+        pollPendingJobs();
+    }
+
+    @Scheduled(fixedDelayString = "${application.recording.packaging.poll-interval-ms:60000}")
+    public void pollPendingJobs() {
+        if (!enabled) return;
+        for (PackagingJob job : jobRepository.findByStatusOrderByCreatedAtAsc(PackagingJob.PENDING, Limit.of(queueCapacity))) {
+            submit(job.getId());
+        }
+    }
+
+    private void submit(Long jobId) {
+        if (!inFlight.add(jobId)) return;
+        try {
+            executor.execute(() -> {
+                try {
+                    run(jobId);
+                } finally {
+                    inFlight.remove(jobId);
+                }
+                if (jobRepository.requeueIfRerunRequested(jobId) > 0) {
+                    submit(jobId);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            // File pleine : la tâche reste PENDING et sera reprise par le planificateur
+            inFlight.remove(jobId);
+            log.debug("Packaging queue full, job {} deferred", jobId);
+        }
+    }
+
+    // ========== EXÉCUTION ==========
+
+    private void run(Long jobId) {
+        if (jobRepository.claim(jobId, LocalDateTime.now()) == 0) return;
+        PackagingJob job = jobRepository.findById(jobId).orElse(null);
+        if (job == null) return;
+
+        Recording recording = recordingRepository.findById(job.getRecordingId()).orElse(null);
+        Path source = recording != null && recording.getFilePath() != null ? Paths.get(recording.getFilePath()) : null;
+        if (source == null || !Files.isRegularFile(source)) {
+            finish(job, PackagingJob.FAILED, "Recording file missing");
+            return;
+        }
+
+        String version = "v" + System.currentTimeMillis();
+        Path baseDir = outputRoot.resolve(String.valueOf(job.getRecordingId()));
+        Path work = baseDir.resolve(version + ".tmp");
+        Path target = baseDir.resolve(version);
+        long started = System.nanoTime();
+        log.info("🎞️ Packaging recording {} (attempt {})", job.getRecordingId(), job.getAttempts());
+
+        try {
+            Files.createDirectories(work.resolve("hls"));
+            Probe probe = probe(source);
+            List<Rendition> renditions = renditionsFor(probe.height());
+            String mp4Name = baseName(recording.getFileName()) + ".mp4";
+            Path logFile = work.resolve("ffmpeg.log");
+
+            progress.put(jobId, 0.0);
+            runFfmpeg(faststartCommand(source, work.resolve(mp4Name)), probe.durationSeconds(), logFile, jobId, 0.0, 0.3);
+            runFfmpeg(hlsCommand(source, work.resolve("hls"), renditions, probe.hasAudio()), probe.durationSeconds(),
+                    logFile, jobId, 0.3, 0.7);
+
+            if (!recordingRepository.existsById(job.getRecordingId())) {
+                // Supprimé pendant le packaging : rien à publier, la tâche n'existe plus
+                deleteTree(baseDir);
+                log.info("🗑️ Recording {} deleted during packaging, output discarded", job.getRecordingId());
+                return;
+            }
+            Files.move(work, target, StandardCopyOption.ATOMIC_MOVE);
+
+            String previous = job.getOutputDir();
+            job.setOutputDir(target.toString());
+            job.setMp4FileName(mp4Name);
+            job.setRenditions(String.join(",", renditions.stream().map(Rendition::name).toList()));
+            finish(job, PackagingJob.COMPLETED, null);
+            recordingStreamService.evict(job.getRecordingId());
+            if (previous != null && !previous.equals(job.getOutputDir())) {
+                deleteTree(Paths.get(previous));
+            }
+
+            long elapsed = System.nanoTime() - started;
+            durationTimer.record(elapsed, TimeUnit.NANOSECONDS);
+            if (probe.durationSeconds() > 0) {
+                speedSummary.record(probe.durationSeconds() / (elapsed / 1e9));
+            }
+            bytesCounter.increment(treeSize(target));
+            log.info("✅ Recording {} packaged: {} + HLS {}", job.getRecordingId(), mp4Name, job.getRenditions());
+        } catch (Exception e) {
+            deleteTree(work);
+            if (!recordingRepository.existsById(job.getRecordingId())) return;
+            boolean retry = job.getAttempts() < maxAttempts;
+            log.warn("⚠️ Packaging of recording {} failed (attempt {}/{}): {}",
+                    job.getRecordingId(), job.getAttempts(), maxAttempts, e.getMessage());
+            finish(job, retry ? PackagingJob.PENDING : PackagingJob.FAILED, e.getMessage());
+        } finally {
+            progress.remove(jobId);
+        }
+    }
+
+    private void finish(PackagingJob job, String status, String error) {
+        job.setStatus(status);
+        job.setLastError(error != null && error.length() > 1000 ? error.substring(0, 1000) : error);
+        job.setFinishedAt(LocalDateTime.now());
+        jobRepository.save(job);
+        Counter.builder("recording.packaging.jobs")
+                .tag("outcome", status.toLowerCase())
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private List<String> faststartCommand(Path source, Path output) {
+        List<String> command = new ArrayList<>(List.of(ffmpegPath, "-hide_banner", "-nostats", "-y",
+                "-i", source.toString(), "-progress", "pipe:1"));
+        if (source.getFileName().toString().toLowerCase().endsWith(".mp4")) {
+            // Déjà en H.264/AAC : on déplace seulement l'atome moov en tête
+            command.addAll(List.of("-map", "0", "-c", "copy"));
+        } else {
+            command.addAll(List.of("-c:v", "libx264", "-preset", "veryfast", "-crf", "23", "-pix_fmt", "yuv420p",
+                    "-c:a", "aac", "-b:a", "128k"));
+        }
+        command.addAll(List.of("-movflags", "+faststart", output.toString()));
+        return command;
+    }
+
+    private List<String> hlsCommand(Path source, Path hlsDir, List<Rendition> renditions, boolean hasAudio) {
+        List<String> command = new ArrayList<>(List.of(ffmpegPath, "-hide_banner", "-nostats", "-y",
+                "-i", source.toString(), "-progress", "pipe:1"));
+
+        StringBuilder filter = new StringBuilder("[0:v]split=").append(renditions.size());
+        for (int i = 0; i < renditions.size(); i++) filter.append("[s").append(i).append(']');
+        for (int i = 0; i < renditions.size(); i++) {
+            filter.append(";[s").append(i).append("]scale=-2:").append(renditions.get(i).height())
+                    .append(",format=yuv420p[v").append(i).append(']');
+        }
+        command.addAll(List.of("-filter_complex", filter.toString()));
+
+        StringJoiner streamMap = new StringJoiner(" ");
+        for (int i = 0; i < renditions.size(); i++) {
+            Rendition rendition = renditions.get(i);
+            command.addAll(List.of("-map", "[v" + i + "]",
+                    "-c:v:" + i, "libx264",
+                    "-b:v:" + i, rendition.videoKbps() + "k",
+                    "-maxrate:v:" + i, (int) (rendition.videoKbps() * 1.07) + "k",
+                    "-bufsize:v:" + i, rendition.videoKbps() * 2 + "k"));
+            if (hasAudio) {
+                command.addAll(List.of("-map", "0:a:0"));
+            }
+            streamMap.add("v:" + i + (hasAudio ? ",a:" + i : "") + ",name:" + rendition.name());
+        }
+        if (hasAudio) {
+            command.addAll(List.of("-c:a", "aac", "-b:a", "128k", "-ac", "2"));
+        }
+        command.addAll(List.of(
+                "-preset", "veryfast",
+                // Images clés alignées sur les segments : bascule de rendu sans saut
+                "-force_key_frames", "expr:gte(t,n_forced*" + segmentSeconds + ")",
+                "-f", "hls",
+                "-hls_time", String.valueOf(segmentSeconds),
+                "-hls_playlist_type", "vod",
+                "-hls_flags", "independent_segments",
+                "-hls_segment_filename", hlsDir.resolve("%v").resolve("segment_%05d.ts").toString(),
+                "-master_pl_name", MASTER_PLAYLIST,
+                "-var_stream_map", streamMap.toString(),
+                hlsDir.resolve("%v").resolve("index.m3u8").toString()));
+        return command;
+    }
+
+    /**
+     * Lance ffmpeg, lit {@code -progress pipe:1} sur le thread du worker, stderr dans le journal de la tâche.
+     * Un processus qui dépasse son délai est tué.
+     */
+    private void runFfmpeg(List<String> command, double durationSeconds, Path logFile,
+                           Long jobId, double progressBase, double progressWeight) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.appendTo(logFile.toFile()))
+                .start();
+        Duration timeout = durationSeconds > 0
+                ? max(minTimeout, Duration.ofSeconds((long) (durationSeconds * timeoutFactor)))
+                : minTimeout.multipliedBy(3);
+        ScheduledFuture<?> killer = taskScheduler.schedule(process::destroyForcibly, Instant.now().plus(timeout));
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // out_time_ms est exprimé en microsecondes, comme out_time_us
+                if (durationSeconds > 0 && (line.startsWith("out_time_us=") || line.startsWith("out_time_ms="))) {
+                    try {
+                        double seconds = Long.parseLong(line.substring(line.indexOf('=') + 1).trim()) / 1_000_000.0;
+                        progress.put(jobId, progressBase + progressWeight * Math.min(1.0, seconds / durationSeconds));
+                    } catch (NumberFormatException ignored) {
+                        // "N/A" en début d'encodage
+                    }
+                }
+            }
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException("ffmpeg exited with code " + exitCode + " (see " + logFile.getFileName() + ")");
+            }
+        } finally {
+            killer.cancel(false);
+            if (process.isAlive()) process.destroyForcibly();
+        }
+    }
+
+    private Probe probe(Path source) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(ffprobePath, "-v", "error",
+                "-show_entries", "format=duration:stream=codec_type,height",
+                "-of", "json", source.toString())
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        JsonNode root;
+        try {
+            root = objectMapper.readTree(process.getInputStream());
+            if (!process.waitFor(30, TimeUnit.SECONDS) || process.exitValue() != 0) {
+                throw new IOException("ffprobe failed on " + source.getFileName());
+            }
+        } finally {
+            if (process.isAlive()) process.destroyForcibly();
+        }
+
+        int height = 0;
+        boolean hasAudio = false;
+        for (JsonNode stream : root.path("streams")) {
+            String type = stream.path("codec_type").asText();
+            if ("video".equals(type)) height = Math.max(height, stream.path("height").asInt());
+            if ("audio".equals(type)) hasAudio = true;
+        }
+        if (height == 0) {
+            throw new IOException("No video stream in " + source.getFileName());
+        }
+        // Les webm de MediaRecorder n'ont souvent pas de durée ("N/A")
+        double duration = root.path("format").path("duration").asDouble(0);
+        return new Probe(duration, height, hasAudio);
+    }
+
+    private List<Rendition> renditionsFor(int sourceHeight) {
+        List<Rendition> fitting = ladder.stream().filter(r -> r.height() <= sourceHeight).toList();
+        // Source plus petite que le plus petit rendu : un seul rendu à la hauteur de la source
+        return fitting.isEmpty()
+                ? List.of(new Rendition(sourceHeight + "p", sourceHeight, ladder.get(ladder.size() - 1).videoKbps()))
+                : fitting;
+    }
+
+    // ========== CONSULTATION ==========
+
+    public PackagingStatusResponse getStatus(Long recordingId) {
+        PackagingJob job = jobRepository.findByRecordingId(recordingId)
+                .orElseThrow(() -> new ResponseStatusException(NOT_FOUND, "Aucun packaging pour cet enregistrement"));
+        Double jobProgress = PackagingJob.COMPLETED.equals(job.getStatus()) ? Double.valueOf(1.0) : progress.get(job.getId());
+        String base = "/api/v1/livestream/recordings/" + recordingId;
+        boolean ready = PackagingJob.COMPLETED.equals(job.getStatus()) && job.getOutputDir() != null;
+        return new PackagingStatusResponse(
+                recordingId,
+                job.getStatus(),
+                jobProgress,
+                job.getAttempts(),
+                ready && job.getRenditions() != null ? List.of(job.getRenditions().split(",")) : List.of(),
+                ready ? base + "/hls/" + Paths.get(job.getOutputDir()).getFileName() + "/" + MASTER_PLAYLIST : null,
+                ready ? "/api/v1/livestream/recordings/stream/" + recordingId : null,
+                job.getLastError());
+    }
+
+    /**
+     * Résout un fichier HLS publié ; seule la version courante est servie
+     */
+    public Path resolveHlsFile(Long recordingId, String version, String rendition, String fileName) {
+        if (!recordingRepository.existsById(recordingId)) {
+            throw new ResponseStatusException(NOT_FOUND, "Enregistrement non trouvé");
+        }
+        PackagingJob job = jobRepository.findByRecordingIdAndStatus(recordingId, PackagingJob.COMPLETED)
+                .orElseThrow(() -> new ResponseStatusException(NOT_FOUND, "Packaging non disponible"));
+        Path outputDir = Paths.get(job.getOutputDir());
+        if (!outputDir.getFileName().toString().equals(version)
+                || !SAFE_NAME.matcher(fileName).matches()
+                || (rendition != null && !SAFE_NAME.matcher(rendition).matches())) {
+            throw new ResponseStatusException(NOT_FOUND, "Fichier non trouvé");
+        }
+        Path hlsDir = outputDir.resolve("hls");
+        Path file = rendition != null ? hlsDir.resolve(rendition).resolve(fileName) : hlsDir.resolve(fileName);
+        if (!file.normalize().startsWith(hlsDir.normalize()) || !Files.isRegularFile(file)) {
+            throw new ResponseStatusException(NOT_FOUND, "Fichier non trouvé");
+        }
+        return file;
+    }
+
+    // ========== UTILITAIRES ==========
+
+    private static List<Rendition> parseLadder(List<String> specs) {
+        List<Rendition> renditions = new ArrayList<>();
+        for (String spec : specs) {
+            String[] parts = spec.trim().split(":");
+            int height = Integer.parseInt(parts[0].trim());
+            renditions.add(new Rendition(height + "p", height, Integer.parseInt(parts[1].trim())));
+        }
+        renditions.sort(Comparator.comparingInt(Rendition::height).reversed());
+        if (renditions.isEmpty()) {
+            throw new IllegalStateException("application.recording.packaging.renditions is empty");
+        }
+        return renditions;
+    }
+
+    private static String baseName(String fileName) {
+        if (fileName == null || fileName.isBlank()) return "recording";
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+
+    private static Duration max(Duration a, Duration b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    private static long treeSize(Path root) {
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void deleteTree(Path root) {
+        if (!Files.exists(root)) return;
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Failed to delete {}: {}", root, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -9,6 +9,7 @@ import com.example.servicelivestream.entity.Recording;
 import com.example.servicelivestream.feignclient.SkillServiceClient;
 import com.example.servicelivestream.repository.LivestreamSessionRepository;
 import com.example.servicelivestream.repository.RecordingRepository;
+import com.example.servicelivestream.repository.SessionParticipantRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,15 +17,19 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static org.springframework.http.HttpStatus.*;
@@ -36,8 +41,17 @@ public class RecordingService {
 
     private final LivestreamSessionRepository sessionRepository;
     private final RecordingRepository recordingRepository;
+    private final SessionParticipantRepository participantRepository;
     private final LiveKitService liveKitService;
     private final SkillServiceClient skillServiceClient;
+    private final RecordingPackagingService recordingPackagingService;
+    private final FileReadyWatcher fileReadyWatcher;
+
+    private static final String STATUS_FINALIZING = "FINALIZING";
+    private static final long MIN_RECORDING_FILE_SIZE = 1024;
+
+    @Value("${application.recording.ffmpeg.file-ready-timeout-ms:15000}")
+    private long fileReadyTimeoutMs;
 
 
 
@@ -101,13 +115,28 @@ public class RecordingService {
         Recording recording = findActiveRecording(sessionId);
 
         try {
-            // Arrêter l'enregistrement
-            liveKitService.stopRoomRecording(session.getRoomName());
+            // Arrêter l'enregistrement (ffmpeg se termine en arrière-plan)
+            CompletableFuture<Void> stopped = liveKitService.stopRoomRecording(session.getRoomName());
+
+            // FINALIZING jusqu'à ce que le fichier soit prêt
+            recording.setStatus(STATUS_FINALIZING);
+            recording.setEndedAt(LocalDateTime.now());
+            recording.setDuration(calculateDuration(recording.getStartedAt(), recording.getEndedAt()));
+            recordingRepository.save(recording);
 
-            // Mettre à jour l'enregistrement
-            updateRecordingStatus(recording);
+            Long recordingId = recording.getId();
+            Path filePath = Paths.get(recording.getFilePath());
+            // Après le commit : le rappel ne doit pas voir l'état d'avant l'arrêt
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    stopped.thenCompose(ignored -> fileReadyWatcher.awaitReady(filePath, MIN_RECORDING_FILE_SIZE,
+                                    Duration.ofMillis(fileReadyTimeoutMs)))
+                            .whenComplete((path, error) -> finalizeRecording(recordingId, error));
+                }
+            });
 
-            log.info("=== RECORDING STOPPED SUCCESSFULLY ===");
+            log.info("=== RECORDING STOP REQUESTED ===");
             log.info("File: {}", recording.getFileName());
 
         } catch (Exception e) {
@@ -115,6 +144,28 @@ public class RecordingService {
             markRecordingFailed(recording);
         }
     }
+
+    /**
+     * Fin de l'arrêt : fichier prêt (ou délai écoulé) -> COMPLETED si le fichier existe, sinon FAILED
+     */
+    private void finalizeRecording(Long recordingId, Throwable error) {
+        recordingRepository.findById(recordingId).ifPresent(recording -> {
+            if (!STATUS_FINALIZING.equals(recording.getStatus())) {
+                return;
+            }
+            if (error != null) {
+                log.warn("Recording {} file not ready: {}", recordingId, error.getMessage());
+            }
+            Path filePath = Paths.get(recording.getFilePath());
+            if (Files.exists(filePath)) {
+                updateRecordingStatus(recording);
+            } else {
+                log.error("Recording {} has no file after stop", recordingId);
+                recording.setStatus("FAILED");
+                recordingRepository.save(recording);
+            }
+        });
+    }
     @Transactional
     public void cleanupOrphanRecordings(Long sessionId) {
         // CHANGÉ: Maintenant utilise une List
@@ -165,6 +216,15 @@ public class RecordingService {
             log.info("Auto-cleanup stale recording: {}", stale.getId());
             cleanupOrphanRecordings(stale.getSession().getId());
         }
+
+        // Arrêts dont la notification de fin a été perdue (redémarrage pendant la finalisation)
+        LocalDateTime finalizingThreshold = LocalDateTime.now().minusMinutes(5);
+        for (Recording finalizing : recordingRepository.findByStatusAndStartedAtBefore(STATUS_FINALIZING, finalizingThreshold)) {
+            if (finalizing.getEndedAt() != null && finalizing.getEndedAt().isBefore(finalizingThreshold)) {
+                log.info("Auto-finalize stale recording: {}", finalizing.getId());
+                finalizeRecording(finalizing.getId(), null);
+            }
+        }
     }
     // ========== CONSULTATION ENREGISTREMENTS ==========
 
@@ -177,7 +237,7 @@ public class RecordingService {
 
     @Transactional(readOnly = true)
     public List<RecordingResponse> getUserRecordings(Long userId, String token) {
-        List<Recording> recordings = recordingRepository.findByAuthorizedUsersContaining(userId);
+        List<Recording> recordings = recordingRepository.findAccessibleByUserId(userId);
         log.info("Found {} recordings for user {}", recordings.size(), userId);
         return recordings.stream().map(this::mapToResponse).collect(Collectors.toList());
     }
@@ -211,7 +271,8 @@ public class RecordingService {
                 log.info("Physical file deleted: {}", filePath);
             }
 
-            // Supprimer de la base de données
+            // Supprimer de la base de données, avec la tâche et la sortie de packaging
+            recordingPackagingService.discard(recordingId);
             recordingRepository.delete(recording);
             log.info("Recording deleted from database: {}", recording.getFileName());
 
@@ -314,38 +375,20 @@ public class RecordingService {
         return users.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
     }
 
-    private void updateRecordingStatus(Recording recording) throws IOException {
-        // Attendre que le fichier soit disponible
-        waitForFile(recording);
+    private void updateRecordingStatus(Recording recording) {
+        Path filePath = Paths.get(recording.getFilePath());
+        log.info("File verification completed. Exists: {}, Size: {} bytes",
+                Files.exists(filePath), getFileSize(filePath));
 
         recording.setStatus("COMPLETED");
-        recording.setEndedAt(LocalDateTime.now());
-        recording.setDuration(calculateDuration(recording.getStartedAt(), recording.getEndedAt()));
-
-        Path filePath = Paths.get(recording.getFilePath());
-        if (Files.exists(filePath)) {
-            recording.setFileSize(Files.size(filePath));
+        if (recording.getEndedAt() == null) {
+            recording.setEndedAt(LocalDateTime.now());
         }
+        recording.setDuration(calculateDuration(recording.getStartedAt(), recording.getEndedAt()));
+        recording.setFileSize(getFileSize(filePath));
 
         recordingRepository.save(recording);
-    }
-
-    private void waitForFile(Recording recording) {
-        Path filePath = Paths.get(recording.getFilePath());
-        int attempts = 10;
-
-        while (attempts > 0 && (!Files.exists(filePath) || getFileSize(filePath) < 1024)) {
-            try {
-                Thread.sleep(1000); // Attendre 1 seconde
-                attempts--;
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            }
-        }
-
-        log.info("File verification completed. Exists: {}, Size: {} bytes",
-                Files.exists(filePath), getFileSize(filePath));
+        recordingPackagingService.enqueue(recording.getId());
     }
 
     private long getFileSize(Path filePath) {
@@ -429,27 +472,19 @@ public class RecordingService {
     public Map<String, List<RecordingResponse>> getReceiverRecordingsGroupedBySkill(Long receiverId, String token) {
         log.info("Getting recordings for receiver: {}", receiverId);
 
-        // Récupérer toutes les sessions où le receiver est participant
-        List<LivestreamSession> sessions = sessionRepository.findByReceiverIdsContaining(receiverId);
+        // Sessions terminées où le receiver est participant (index de la table des participants)
+        List<LivestreamSession> sessions = sessionRepository.findByReceiverIdsContainingAndStatus(receiverId, "COMPLETED");
 
         Map<String, List<RecordingResponse>> groupedRecordings = new HashMap<>();
 
         for (LivestreamSession session : sessions) {
-            // Vérifier que la session est terminée
-            if (!"COMPLETED".equals(session.getStatus())) {
-                continue;
-            }
-
             try {
                 // Récupérer le nom de la compétence
                 SkillResponse skill = skillServiceClient.getSkillById(session.getSkillId());
                 String skillKey = skill.name() + "_" + skill.id();
 
-                // Récupérer les enregistrements autorisés pour ce receiver
-                List<Recording> recordings = recordingRepository.findBySessionIdOrderByRecordingNumberAsc(session.getId())
-                        .stream()
-                        .filter(r -> r.getAuthorizedUsers() != null && r.getAuthorizedUsers().contains(receiverId))
-                        .collect(Collectors.toList());
+                // La participation donne accès aux enregistrements de la session
+                List<Recording> recordings = recordingRepository.findBySessionIdOrderByRecordingNumberAsc(session.getId());
 
                 if (!recordings.isEmpty()) {
                     List<RecordingResponse> responses = recordings.stream()
@@ -470,30 +505,15 @@ public class RecordingService {
     public List<RecordingResponse> getSkillRecordingsForUser(Integer skillId, Long userId, String token) {
         log.info("Getting recordings for skill {} and user {}", skillId, userId);
 
-        // Récupérer toutes les sessions de cette compétence
-        List<LivestreamSession> sessions = sessionRepository.findBySkillIdAndStatusIn(
-                skillId,
-                List.of("COMPLETED")
-        );
-
-        List<RecordingResponse> allRecordings = new ArrayList<>();
-
-        for (LivestreamSession session : sessions) {
-            // Vérifier l'autorisation
-            boolean isAuthorized = session.getProducerId().equals(userId) ||
-                    (session.getReceiverIds() != null && session.getReceiverIds().contains(userId));
-
-            if (isAuthorized) {
-                List<Recording> recordings = recordingRepository.findBySessionIdOrderByRecordingNumberAsc(session.getId());
-                allRecordings.addAll(
-                        recordings.stream()
-                                .map(this::mapToResponse)
-                                .collect(Collectors.toList())
-                );
-            }
+        // Sessions terminées de cette compétence auxquelles l'utilisateur a participé
+        List<Long> sessionIds = participantRepository.findSessionIdsByUserAndSkill(userId, skillId, "COMPLETED");
+        if (sessionIds.isEmpty()) {
+            return new ArrayList<>();
         }
 
-        return allRecordings;
+        return recordingRepository.findBySessionIdIn(sessionIds).stream()
+                .map(this::mapToResponse)
+                .collect(Collectors.toList());
     }
 
     @Transactional(readOnly = true)
@@ -506,19 +526,16 @@ public class RecordingService {
         List<LivestreamSession> finishedSessions = sessionRepository
                 .findByReceiverIdsContainingAndStatus(userId, "COMPLETED");
 
-        for (LivestreamSession session : finishedSessions) {
-            List<Recording> recordings = recordingRepository.findBySessionIdOrderByRecordingNumberAsc(session.getId());
-
-            if (!recordings.isEmpty()) {
-                List<RecordingResponse> responses = recordings.stream()
-                        .filter(r -> r.getAuthorizedUsers() != null && r.getAuthorizedUsers().contains(userId))
-                        .map(this::mapToResponse)
-                        .collect(Collectors.toList());
+        if (finishedSessions.isEmpty()) {
+            return recordingsBySkill;
+        }
 
-                if (!responses.isEmpty()) {
-                    recordingsBySkill.computeIfAbsent(session.getSkillId(), k -> new ArrayList<>()).addAll(responses);
-                }
-            }
+        // Une seule requête pour toutes les sessions (déjà chargées : pas de requête par session)
+        Map<Long, LivestreamSession> sessionsById = finishedSessions.stream()
+                .collect(Collectors.toMap(LivestreamSession::getId, session -> session, (a, b) -> a));
+        for (Recording recording : recordingRepository.findBySessionIdIn(sessionsById.keySet())) {
+            LivestreamSession session = sessionsById.get(recording.getSession().getId());
+            recordingsBySkill.computeIfAbsent(session.getSkillId(), k -> new ArrayList<>()).add(mapToResponse(recording));
         }
 
         return recordingsBySkill;
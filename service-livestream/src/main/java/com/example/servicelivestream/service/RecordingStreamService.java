@@ -0,0 +1,119 @@
+package com.example.servicelivestream.service;
+
+import com.example.servicelivestream.entity.PackagingJob;
+import com.example.servicelivestream.entity.Recording;
+import com.example.servicelivestream.repository.PackagingJobRepository;
+import com.example.servicelivestream.repository.RecordingRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import static org.springframework.http.HttpStatus.NOT_FOUND;
+
+/**
+ * Support du streaming des enregistrements :
+ * <ul>
+ *   <li>cache LRU borné des métadonnées fichier (chemin, nom, type) : une lecture ou un saut dans
+ *       la vidéo ne recharge pas l'entité ; les validateurs (taille, date) sont relus sur le disque à chaque requête ;</li>
+ *   <li>le MP4 faststart produit par le packaging est servi à la place de l'original dès qu'il est publié ;</li>
+ *   <li>limite du nombre de copies simultanées effectuées par les threads de requête
+ *       (les transferts sendfile de Tomcat n'occupent pas de thread et n'y sont pas soumis).</li>
+ * </ul>
+ */
+@Slf4j
+@Service
+public class RecordingStreamService {
+
+    public record RecordingFile(Long id, Path path, String fileName, String contentType) {
+    }
+
+    private record Entry(RecordingFile file, long loadedAt) {
+    }
+
+    private final RecordingRepository recordingRepository;
+    private final PackagingJobRepository packagingJobRepository;
+    private final long ttlMillis;
+    private final Semaphore streamPermits;
+    private final Map<Long, Entry> cache;
+
+    public RecordingStreamService(RecordingRepository recordingRepository,
+                                  PackagingJobRepository packagingJobRepository,
+                                  @Value("${application.recording.streaming.metadata-cache-size:1000}") int cacheSize,
+                                  @Value("${application.recording.streaming.metadata-ttl-ms:300000}") long ttlMillis,
+                                  @Value("${application.recording.streaming.max-concurrent-streams:32}") int maxConcurrentStreams) {
+        this.recordingRepository = recordingRepository;
+        this.packagingJobRepository = packagingJobRepository;
+        this.ttlMillis = ttlMillis;
+        this.streamPermits = new Semaphore(Math.max(1, maxConcurrentStreams));
+        this.cache = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Sans transaction : un accès au cache ne prend pas de connexion. En cas d'absence, chaque lecture
+     * passe par sa propre transaction de dépôt (colonnes simples, aucun chargement paresseux).
+     */
+    public RecordingFile getRecordingFile(Long recordingId) {
+        long now = System.currentTimeMillis();
+        synchronized (cache) {
+            Entry entry = cache.get(recordingId);
+            if (entry != null && now - entry.loadedAt() < ttlMillis) {
+                return entry.file();
+            }
+        }
+
+        Recording recording = recordingRepository.findById(recordingId)
+                .orElseThrow(() -> new ResponseStatusException(NOT_FOUND, "Enregistrement non trouvé"));
+        if (recording.getFilePath() == null) {
+            throw new ResponseStatusException(NOT_FOUND, "Fichier d'enregistrement absent");
+        }
+
+        RecordingFile file = packagingJobRepository.findByRecordingIdAndStatus(recordingId, PackagingJob.COMPLETED)
+                .filter(job -> job.getOutputDir() != null && job.getMp4FileName() != null)
+                .map(job -> Paths.get(job.getOutputDir()).resolve(job.getMp4FileName()))
+                .filter(Files::isRegularFile)
+                .map(mp4 -> new RecordingFile(recording.getId(), mp4, mp4.getFileName().toString(), "video/mp4"))
+                .orElseGet(() -> new RecordingFile(recording.getId(), Paths.get(recording.getFilePath()),
+                        recording.getFileName(), contentTypeOf(recording.getFileName())));
+        synchronized (cache) {
+            cache.put(recordingId, new Entry(file, now));
+        }
+        return file;
+    }
+
+    /**
+     * À appeler quand le fichier d'un enregistrement change ou disparaît
+     */
+    public void evict(Long recordingId) {
+        synchronized (cache) {
+            cache.remove(recordingId);
+        }
+    }
+
+    public boolean tryAcquireStream() {
+        return streamPermits.tryAcquire();
+    }
+
+    public void releaseStream() {
+        streamPermits.release();
+    }
+
+    private static String contentTypeOf(String fileName) {
+        if (fileName != null && fileName.toLowerCase().endsWith(".webm")) {
+            return "video/webm";
+        }
+        return "video/mp4";
+    }
+}
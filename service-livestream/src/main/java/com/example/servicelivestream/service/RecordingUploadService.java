@@ -0,0 +1,375 @@
+package com.example.servicelivestream.service;
+
+import com.example.servicelivestream.dto.RecordingUploadRequest;
+import com.example.servicelivestream.dto.RecordingUploadResponse;
+import com.example.servicelivestream.entity.Recording;
+import com.example.servicelivestream.entity.RecordingUpload;
+import com.example.servicelivestream.repository.RecordingRepository;
+import com.example.servicelivestream.repository.RecordingUploadRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.springframework.http.HttpStatus.*;
+
+/**
+ * Upload fractionné et reprenable des enregistrements client (protocole inspiré de tus) :
+ * <ol>
+ *   <li>création : l'enregistrement actif de la session passe en UPLOADING, un fichier {@code .part} est créé ;</li>
+ *   <li>morceaux : {@code PUT} à l'offset courant, corps brut écrit directement dans le fichier
+ *       par écritures positionnelles ({@link FileChannel#write(ByteBuffer, long)}), sans fichier temporaire multipart ;
+ *       somme de contrôle optionnelle par morceau ({@code Upload-Checksum: sha256 <base64>}) ;</li>
+ *   <li>finalisation : le fichier complet est renommé et l'enregistrement passe en COMPLETED.</li>
+ * </ol>
+ * L'offset persisté n'avance qu'après vérification et {@code force()} : après une coupure,
+ * le client relit l'offset et renvoie la suite.
+ */
+@Slf4j
+@Service
+public class RecordingUploadService {
+
+    public static final String STATUS_UPLOADING = "UPLOADING";
+    private static final HttpStatusCode CHECKSUM_MISMATCH = HttpStatusCode.valueOf(460);
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final Map<String, String> CHECKSUM_ALGORITHMS = Map.of(
+            "sha256", "SHA-256",
+            "sha1", "SHA-1",
+            "md5", "MD5");
+
+    private final RecordingRepository recordingRepository;
+    private final RecordingUploadRepository uploadRepository;
+    private final RecordingStreamService recordingStreamService;
+    private final RecordingPackagingService recordingPackagingService;
+    private final String recordingDirectory;
+    private final long maxFileSize;
+    private final long maxChunkSize;
+    private final Duration expiry;
+
+    // Un seul morceau à la fois par upload (les écritures d'un même upload ne se chevauchent pas)
+    private final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+
+    public RecordingUploadService(RecordingRepository recordingRepository,
+                                  RecordingUploadRepository uploadRepository,
+                                  RecordingStreamService recordingStreamService,
+                                  RecordingPackagingService recordingPackagingService,
+                                  @Value("${application.recording.directory:./recordings}") String recordingDirectory,
+                                  @Value("${application.recording.upload.max-file-size:2GB}") DataSize maxFileSize,
+                                  @Value("${application.recording.upload.max-chunk-size:16MB}") DataSize maxChunkSize,
+                                  @Value("${application.recording.upload.expiry-hours:24}") long expiryHours) {
+        this.recordingRepository = recordingRepository;
+        this.uploadRepository = uploadRepository;
+        this.recordingStreamService = recordingStreamService;
+        this.recordingPackagingService = recordingPackagingService;
+        this.recordingDirectory = recordingDirectory;
+        this.maxFileSize = maxFileSize.toBytes();
+        this.maxChunkSize = maxChunkSize.toBytes();
+        this.expiry = Duration.ofHours(expiryHours);
+    }
+
+    // ========== CRÉATION ==========
+
+    @Transactional
+    public RecordingUploadResponse createUpload(RecordingUploadRequest request, String ownerId) {
+        if (request.sessionId() == null || request.sessionId() <= 0) {
+            throw new ResponseStatusException(BAD_REQUEST, "Invalid session ID");
+        }
+        if (request.totalSize() == null || request.totalSize() <= 0) {
+            throw new ResponseStatusException(BAD_REQUEST, "totalSize is required");
+        }
+        if (request.totalSize() > maxFileSize) {
+            throw new ResponseStatusException(PAYLOAD_TOO_LARGE, "Recording exceeds " + maxFileSize + " bytes");
+        }
+
+        List<Recording> activeRecordings = recordingRepository.findBySessionIdAndStatus(request.sessionId(), "RECORDING");
+        if (activeRecordings.isEmpty()) {
+            throw new ResponseStatusException(BAD_REQUEST, "No active recording found");
+        }
+        Recording recording = activeRecordings.get(0);
+
+        String fileName = sanitizeFileName(request.fileName(), request.sessionId());
+        Path finalPath = Paths.get(recordingDirectory, "session_" + request.sessionId(), fileName);
+        Path tempPath = finalPath.resolveSibling(fileName + ".part");
+        try {
+            Files.createDirectories(finalPath.getParent());
+            Files.deleteIfExists(tempPath);
+            Files.createFile(tempPath);
+        } catch (IOException e) {
+            log.error("Failed to prepare upload file {}", tempPath, e);
+            throw new ResponseStatusException(INTERNAL_SERVER_ERROR, "Failed to create upload file");
+        }
+
+        // L'enregistrement n'est plus "en cours" : le nettoyage des enregistrements orphelins ne le touche pas
+        recording.setStatus(STATUS_UPLOADING);
+        recording.setEndedAt(LocalDateTime.now());
+        recordingRepository.save(recording);
+
+        LocalDateTime now = LocalDateTime.now();
+        RecordingUpload upload = uploadRepository.save(RecordingUpload.builder()
+                .id(UUID.randomUUID().toString())
+                .recordingId(recording.getId())
+                .ownerId(ownerId)
+                .fileName(fileName)
+                .tempPath(tempPath.toString())
+                .finalPath(finalPath.toString())
+                .totalSize(request.totalSize())
+                .uploadOffset(0L)
+                .createdAt(now)
+                .updatedAt(now)
+                .build());
+
+        log.info("📤 Upload {} created for recording {} ({} bytes)", upload.getId(), recording.getId(), upload.getTotalSize());
+        return toResponse(upload);
+    }
+
+    @Transactional(readOnly = true)
+    public RecordingUploadResponse getUpload(String uploadId, String ownerId) {
+        return toResponse(findUpload(uploadId, ownerId));
+    }
+
+    // ========== MORCEAUX ==========
+
+    /**
+     * Écrit un morceau à {@code offset} et retourne le nouvel offset acquitté
+     */
+    public RecordingUploadResponse writeChunk(String uploadId, String ownerId, long offset, long contentLength,
+                                              String checksumHeader, InputStream body) {
+        ReentrantLock lock = locks.computeIfAbsent(uploadId, id -> new ReentrantLock());
+        if (!lock.tryLock()) {
+            throw new ResponseStatusException(CONFLICT, "A chunk is already being written for this upload");
+        }
+        try {
+            RecordingUpload upload = findUpload(uploadId, ownerId);
+            long expected = upload.getUploadOffset();
+            if (offset != expected) {
+                throw new ResponseStatusException(CONFLICT, "Offset mismatch, expected " + expected);
+            }
+            if (contentLength < 0) {
+                throw new ResponseStatusException(LENGTH_REQUIRED, "Content-Length is required");
+            }
+            if (contentLength > maxChunkSize) {
+                throw new ResponseStatusException(PAYLOAD_TOO_LARGE, "Chunk exceeds " + maxChunkSize + " bytes");
+            }
+            if (offset + contentLength > upload.getTotalSize()) {
+                throw new ResponseStatusException(BAD_REQUEST, "Chunk exceeds declared upload size");
+            }
+
+            Checksum checksum = Checksum.parse(checksumHeader);
+            long received = copyAt(upload, offset, contentLength, body, checksum);
+
+            if (checksum != null) {
+                // Un morceau vérifié est accepté entier ou pas du tout
+                if (received != contentLength || !checksum.matches()) {
+                    log.warn("Checksum mismatch on upload {} at offset {}", uploadId, offset);
+                    throw new ResponseStatusException(CHECKSUM_MISMATCH, "Checksum mismatch");
+                }
+            }
+
+            long next = offset + received;
+            if (received > 0 && uploadRepository.advanceOffset(uploadId, expected, next, LocalDateTime.now()) == 0) {
+                throw new ResponseStatusException(CONFLICT, "Upload offset changed concurrently");
+            }
+            upload.setUploadOffset(next);
+            log.debug("Upload {}: {}/{} bytes", uploadId, next, upload.getTotalSize());
+            return toResponse(upload);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copie le corps de la requête directement dans le fichier à partir de {@code offset}.
+     * Une coupure côté client arrête la copie : les octets reçus sont conservés (sans somme de contrôle).
+     */
+    private long copyAt(RecordingUpload upload, long offset, long contentLength, InputStream body, Checksum checksum) {
+        byte[] buffer = new byte[(int) Math.min(COPY_BUFFER_SIZE, Math.max(contentLength, 1))];
+        ByteBuffer view = ByteBuffer.wrap(buffer);
+        long received = 0;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(upload.getTempPath()), StandardOpenOption.WRITE)) {
+            while (received < contentLength) {
+                int read;
+                try {
+                    read = body.read(buffer, 0, (int) Math.min(buffer.length, contentLength - received));
+                } catch (IOException e) {
+                    log.info("Upload {} interrupted at offset {}: {}", upload.getId(), offset + received, e.getMessage());
+                    break;
+                }
+                if (read < 0) break;
+
+                if (checksum != null) checksum.update(buffer, read);
+                view.clear().limit(read);
+                long position = offset + received;
+                while (view.hasRemaining()) {
+                    position += channel.write(view, position);
+                }
+                received += read;
+            }
+            // Acquitter un offset n'a de sens que si les octets sont sur disque
+            channel.force(false);
+        } catch (IOException e) {
+            log.error("Failed to write chunk for upload {}", upload.getId(), e);
+            throw new ResponseStatusException(INTERNAL_SERVER_ERROR, "Failed to write chunk");
+        }
+        return received;
+    }
+
+    // ========== FINALISATION ==========
+
+    @Transactional
+    public Recording completeUpload(String uploadId, String ownerId) {
+        ReentrantLock lock = locks.computeIfAbsent(uploadId, id -> new ReentrantLock());
+        if (!lock.tryLock()) {
+            throw new ResponseStatusException(CONFLICT, "A chunk is still being written for this upload");
+        }
+        try {
+            RecordingUpload upload = findUpload(uploadId, ownerId);
+            if (upload.getUploadOffset() < upload.getTotalSize()) {
+                throw new ResponseStatusException(CONFLICT,
+                        "Upload incomplete: " + upload.getUploadOffset() + "/" + upload.getTotalSize());
+            }
+            Recording recording = recordingRepository.findById(upload.getRecordingId())
+                    .orElseThrow(() -> new ResponseStatusException(NOT_FOUND, "Enregistrement non trouvé"));
+
+            Path tempPath = Paths.get(upload.getTempPath());
+            Path finalPath = Paths.get(upload.getFinalPath());
+            try {
+                // Des morceaux rejetés ont pu écrire au-delà de l'offset acquitté
+                try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+                    channel.truncate(upload.getTotalSize());
+                    channel.force(true);
+                }
+                Files.move(tempPath, finalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                log.error("Failed to finalize upload {}", uploadId, e);
+                throw new ResponseStatusException(INTERNAL_SERVER_ERROR, "Failed to finalize upload");
+            }
+
+            LocalDateTime endedAt = recording.getEndedAt() != null ? recording.getEndedAt() : LocalDateTime.now();
+            recording.setFilePath(finalPath.toString());
+            recording.setFileName(upload.getFileName());
+            recording.setFileSize(upload.getTotalSize());
+            recording.setStatus("COMPLETED");
+            recording.setEndedAt(endedAt);
+            recording.setDuration(recording.getStartedAt() != null
+                    ? Duration.between(recording.getStartedAt(), endedAt).getSeconds() : 0);
+            recordingRepository.save(recording);
+            uploadRepository.delete(upload);
+            recordingStreamService.evict(recording.getId());
+            recordingPackagingService.enqueue(recording.getId());
+
+            log.info("✅ Upload {} completed: {} ({} bytes)", uploadId, upload.getFileName(), upload.getTotalSize());
+            return recording;
+        } finally {
+            lock.unlock();
+            locks.remove(uploadId);
+        }
+    }
+
+    @Transactional
+    public void abortUpload(String uploadId, String ownerId) {
+        discard(findUpload(uploadId, ownerId));
+    }
+
+    @Scheduled(fixedDelayString = "${application.recording.upload.cleanup-interval-ms:3600000}")
+    @Transactional
+    public void cleanupExpiredUploads() {
+        List<RecordingUpload> expired = uploadRepository.findByUpdatedAtBefore(LocalDateTime.now().minus(expiry));
+        for (RecordingUpload upload : expired) {
+            log.info("Discarding expired upload {} ({}/{} bytes)", upload.getId(), upload.getUploadOffset(), upload.getTotalSize());
+            discard(upload);
+        }
+    }
+
+    private void discard(RecordingUpload upload) {
+        try {
+            Files.deleteIfExists(Paths.get(upload.getTempPath()));
+        } catch (IOException e) {
+            log.warn("Failed to delete upload file {}: {}", upload.getTempPath(), e.getMessage());
+        }
+        recordingRepository.findById(upload.getRecordingId()).ifPresent(recording -> {
+            if (STATUS_UPLOADING.equals(recording.getStatus())) {
+                recording.setStatus("FAILED");
+                recordingRepository.save(recording);
+            }
+        });
+        uploadRepository.delete(upload);
+        locks.remove(upload.getId());
+    }
+
+    // ========== UTILITAIRES ==========
+
+    private RecordingUpload findUpload(String uploadId, String ownerId) {
+        RecordingUpload upload = uploadRepository.findById(uploadId)
+                .orElseThrow(() -> new ResponseStatusException(NOT_FOUND, "Upload not found"));
+        if (!upload.getOwnerId().equals(ownerId)) {
+            throw new ResponseStatusException(FORBIDDEN, "Upload belongs to another user");
+        }
+        return upload;
+    }
+
+    private RecordingUploadResponse toResponse(RecordingUpload upload) {
+        return new RecordingUploadResponse(upload.getId(), upload.getRecordingId(), upload.getFileName(),
+                upload.getUploadOffset(), upload.getTotalSize(), maxChunkSize);
+    }
+
+    private static String sanitizeFileName(String requested, Long sessionId) {
+        String fileName = requested != null ? Paths.get(requested).getFileName().toString() : "";
+        if (fileName.isBlank() || fileName.startsWith(".")) {
+            fileName = "recording_" + sessionId + "_" + System.currentTimeMillis() + ".webm";
+        }
+        return fileName;
+    }
+
+    /**
+     * En-tête {@code Upload-Checksum: <algorithme> <base64>}
+     */
+    private record Checksum(MessageDigest digest, byte[] expected) {
+
+        static Checksum parse(String header) {
+            if (header == null || header.isBlank()) return null;
+            String[] parts = header.trim().split("\\s+", 2);
+            String algorithm = CHECKSUM_ALGORITHMS.get(parts[0].toLowerCase());
+            if (algorithm == null || parts.length < 2) {
+                throw new ResponseStatusException(BAD_REQUEST, "Unsupported Upload-Checksum: " + header);
+            }
+            try {
+                return new Checksum(MessageDigest.getInstance(algorithm), Base64.getDecoder().decode(parts[1]));
+            } catch (NoSuchAlgorithmException | IllegalArgumentException e) {
+                throw new ResponseStatusException(BAD_REQUEST, "Invalid Upload-Checksum: " + header);
+            }
+        }
+
+        void update(byte[] buffer, int length) {
+            digest.update(buffer, 0, length);
+        }
+
+        boolean matches() {
+            return MessageDigest.isEqual(digest.digest(), expected);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.servicelivestream.service;
+
+import com.example.servicelivestream.entity.LivestreamSession;
+import com.example.servicelivestream.entity.SessionParticipant;
+import com.example.servicelivestream.repository.SessionParticipantRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Table des participants ({@code livestream_session_participants}), source des requêtes
+ * « par utilisateur » à la place des collections {@code receiverIds} / {@code authorizedUsers}.
+ * Les collections restent écrites pour les réponses existantes ; le statut et la fin de session
+ * sont recopiés à chaque transition.
+ */
+@Slf4j
+@Service
+public class SessionParticipantService {
+
+    private final SessionParticipantRepository participantRepository;
+    private final boolean backfillOnStartup;
+
+    public SessionParticipantService(SessionParticipantRepository participantRepository,
+                                     @Value("${application.livestream.participants.backfill-on-startup:true}") boolean backfillOnStartup) {
+        this.participantRepository = participantRepository;
+        this.backfillOnStartup = backfillOnStartup;
+    }
+
+    @Transactional
+    public void registerParticipants(LivestreamSession session) {
+        List<SessionParticipant> participants = new ArrayList<>();
+        participants.add(participant(session, session.getProducerId(), SessionParticipant.PRODUCER));
+
+        Set<Long> receivers = new LinkedHashSet<>();
+        if (session.getReceiverIds() != null) {
+            session.getReceiverIds().stream()
+                    .filter(Objects::nonNull)
+                    .filter(id -> !id.equals(session.getProducerId()))
+                    .forEach(receivers::add);
+        }
+        receivers.forEach(id -> participants.add(participant(session, id, SessionParticipant.RECEIVER)));
+
+        participantRepository.saveAll(participants);
+    }
+
+    /**
+     * À appeler après chaque changement de statut ou de date de fin de la session
+     */
+    @Transactional
+    public void syncSessionState(LivestreamSession session) {
+        participantRepository.syncSessionState(session.getId(), session.getStatus(), session.getEndTime());
+    }
+
+    /**
+     * Reprise des sessions et enregistrements antérieurs à la table (sans effet s'ils y sont déjà)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void backfillFromCollections() {
+        if (!backfillOnStartup) return;
+        int producers = participantRepository.backfillProducers();
+        int receivers = participantRepository.backfillReceivers();
+        int access = participantRepository.backfillRecordingAccess();
+        if (producers + receivers + access > 0) {
+            log.info("👥 Participants backfilled: {} producer(s), {} receiver(s), {} from recording access",
+                    producers, receivers, access);
+        }
+    }
+
+    private static SessionParticipant participant(LivestreamSession session, Long userId, String role) {
+        return SessionParticipant.builder()
+                .session(session)
+                .userId(userId)
+                .role(role)
+                .sessionStatus(session.getStatus())
+                .endTime(session.getEndTime())
+                .build();
+    }
+}
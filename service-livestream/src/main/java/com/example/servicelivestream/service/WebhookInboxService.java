@@ -0,0 +1,354 @@
+package com.example.servicelivestream.service;
+
+import com.example.servicelivestream.config.LiveKitConfig;
+import com.example.servicelivestream.dto.LiveKitWebhookEvent;
+import com.example.servicelivestream.dto.WebhookEvent;
+import com.example.servicelivestream.entity.WebhookInboxEvent;
+import com.example.servicelivestream.repository.WebhookInboxRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.UNAUTHORIZED;
+
+/**
+ * Boîte de réception des webhooks du serveur média :
+ * <ul>
+ *   <li>signature LiveKit vérifiée (JWT HS256 émis par la clé API, claim {@code sha256} = empreinte du corps) ;</li>
+ *   <li>événement brut inséré avec une clé de dédoublonnage, réponse 200 sans autre traitement :
+ *       les renvois de LiveKit sont absorbés par la contrainte unique ;</li>
+ *   <li>traitement asynchrone par voies : une salle est toujours servie par la même voie,
+ *       ses événements passent dans l'ordre de réception ; un échec bloque la salle jusqu'au rejeu
+ *       (ou jusqu'à épuisement des tentatives) pour ne pas appliquer un événement plus récent avant lui.</li>
+ * </ul>
+ * L'effet d'un événement et son passage à DONE sont validés dans la même transaction.
+ */
+@Slf4j
+@Service
+public class WebhookInboxService {
+
+    public static final String SOURCE_LIVEKIT = "livekit";
+    public static final String SOURCE_LEGACY = "legacy";
+
+    private final WebhookInboxRepository inboxRepository;
+    private final LivestreamService livestreamService;
+    private final LiveKitConfig liveKitConfig;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final boolean requireSignature;
+    private final int maxAttempts;
+    private final int batchSize;
+    private final int retentionDays;
+    private final ExecutorService[] lanes;
+    // Salles déjà soumises à leur voie : une seule tâche de vidage en attente par salle
+    private final Set<String> scheduledRooms = ConcurrentHashMap.newKeySet();
+    private final Counter receivedCounter;
+    private final Counter duplicateCounter;
+    private final Counter processedCounter;
+    private final Counter failedCounter;
+
+    public WebhookInboxService(WebhookInboxRepository inboxRepository,
+                               LivestreamService livestreamService,
+                               LiveKitConfig liveKitConfig,
+                               PlatformTransactionManager transactionManager,
+                               ObjectMapper objectMapper,
+                               MeterRegistry meterRegistry,
+                               @Value("${application.webhook.require-signature:true}") boolean requireSignature,
+                               @Value("${application.webhook.workers:4}") int workers,
+                               @Value("${application.webhook.max-attempts:5}") int maxAttempts,
+                               @Value("${application.webhook.batch-size:50}") int batchSize,
+                               @Value("${application.webhook.retention-days:7}") int retentionDays) {
+        this.inboxRepository = inboxRepository;
+        this.livestreamService = livestreamService;
+        this.liveKitConfig = liveKitConfig;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.objectMapper = objectMapper;
+        this.requireSignature = requireSignature;
+        this.maxAttempts = maxAttempts;
+        this.batchSize = batchSize;
+        this.retentionDays = retentionDays;
+        this.lanes = new ExecutorService[Math.max(1, workers)];
+        for (int i = 0; i < lanes.length; i++) {
+            int lane = i;
+            lanes[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "webhook-lane-" + lane);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        this.receivedCounter = Counter.builder("webhook.inbox.received").register(meterRegistry);
+        this.duplicateCounter = Counter.builder("webhook.inbox.duplicate")
+                .description("Renvois ignorés grâce à la clé de dédoublonnage")
+                .register(meterRegistry);
+        this.processedCounter = Counter.builder("webhook.inbox.processed").register(meterRegistry);
+        this.failedCounter = Counter.builder("webhook.inbox.failed")
+                .description("Événements abandonnés après épuisement des tentatives")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Vérifie, dédoublonne et stocke un webhook ; le traitement part après la validation
+     *
+     * @return false si l'événement avait déjà été reçu
+     */
+    @Transactional
+    public boolean receive(String body, String authorization) {
+        if (body == null || body.isBlank()) {
+            throw new ResponseStatusException(BAD_REQUEST, "Empty webhook body");
+        }
+        verifySignature(body, authorization);
+
+        JsonNode json;
+        try {
+            json = objectMapper.readTree(body);
+        } catch (Exception e) {
+            throw new ResponseStatusException(BAD_REQUEST, "Invalid webhook payload");
+        }
+
+        String source;
+        String eventType;
+        String roomName;
+        String dedupeKey;
+        if (json.hasNonNull("event")) {
+            LiveKitWebhookEvent event = objectMapper.convertValue(json, LiveKitWebhookEvent.class);
+            source = SOURCE_LIVEKIT;
+            eventType = event.event();
+            roomName = event.roomName();
+            dedupeKey = event.id() != null && !event.id().isBlank() ? event.id() : sha256Hex(body);
+        } else {
+            WebhookEvent event = objectMapper.convertValue(json, WebhookEvent.class);
+            source = SOURCE_LEGACY;
+            eventType = event.action();
+            roomName = event.streamId();
+            dedupeKey = sha256Hex(body);
+        }
+        if (eventType == null || roomName == null) {
+            // Événement sans salle (egress de test, ingress…) : rien à appliquer
+            log.debug("Ignoring webhook without room: {}", eventType);
+            return true;
+        }
+
+        receivedCounter.increment();
+        int inserted = inboxRepository.insertIfAbsent(dedupeKey, source, eventType, roomName, body, LocalDateTime.now());
+        if (inserted == 0) {
+            duplicateCounter.increment();
+            log.info("🔁 Duplicate webhook {} ({}) for room {} ignored", dedupeKey, eventType, roomName);
+            return false;
+        }
+
+        log.info("📥 Webhook {} queued for room {}", eventType, roomName);
+        submitAfterCommit(roomName);
+        return true;
+    }
+
+    /**
+     * Reprise au démarrage des événements reçus mais non traités
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumePending() {
+        List<String> rooms = inboxRepository.findRoomsWithPendingEvents(Limit.of(1000));
+        if (!rooms.isEmpty()) {
+            log.info("📥 Resuming webhook processing for {} room(s)", rooms.size());
+        }
+        rooms.forEach(this::submit);
+    }
+
+    /**
+     * Filet de sécurité : événements bloqués (échec, autre instance arrêtée) et purge des événements traités
+     */
+    @Scheduled(fixedDelayString = "${application.webhook.poll-interval-ms:30000}")
+    public void poll() {
+        resumePending();
+        int deleted = inboxRepository.deleteProcessedBefore(LocalDateTime.now().minusDays(retentionDays));
+        if (deleted > 0) {
+            log.debug("🧹 Purged {} processed webhook(s)", deleted);
+        }
+    }
+
+    private void verifySignature(String body, String authorization) {
+        if (authorization == null || authorization.isBlank()) {
+            if (requireSignature) {
+                throw new ResponseStatusException(UNAUTHORIZED, "Missing webhook signature");
+            }
+            return;
+        }
+
+        String token = authorization.startsWith("Bearer ") ? authorization.substring(7) : authorization;
+        try {
+            Claims claims = Jwts.parser()
+                    .verifyWith(Keys.hmacShaKeyFor(liveKitConfig.getApiSecret().getBytes(StandardCharsets.UTF_8)))
+                    .requireIssuer(liveKitConfig.getApiKey())
+                    .build()
+                    .parseSignedClaims(token)
+                    .getPayload();
+
+            String expected = Base64.getEncoder().encodeToString(sha256(body));
+            String actual = claims.get("sha256", String.class);
+            if (actual == null || !MessageDigest.isEqual(
+                    expected.getBytes(StandardCharsets.UTF_8), actual.getBytes(StandardCharsets.UTF_8))) {
+                throw new ResponseStatusException(UNAUTHORIZED, "Webhook body does not match signature");
+            }
+        } catch (JwtException | IllegalArgumentException e) {
+            log.warn("⚠️ Rejected webhook with invalid signature: {}", e.getMessage());
+            throw new ResponseStatusException(UNAUTHORIZED, "Invalid webhook signature");
+        }
+    }
+
+    private void submitAfterCommit(String roomName) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submit(roomName);
+                }
+            });
+        } else {
+            submit(roomName);
+        }
+    }
+
+    private void submit(String roomName) {
+        if (!scheduledRooms.add(roomName)) return;
+        try {
+            lanes[Math.floorMod(roomName.hashCode(), lanes.length)].execute(() -> drain(roomName));
+        } catch (RejectedExecutionException e) {
+            // Arrêt en cours : la reprise au prochain démarrage s'en charge
+            scheduledRooms.remove(roomName);
+        }
+    }
+
+    private void drain(String roomName) {
+        // Retiré avant lecture : un événement inséré pendant le vidage resoumet la salle
+        scheduledRooms.remove(roomName);
+        try {
+            List<Long> ids;
+            do {
+                ids = inboxRepository.findPendingIds(roomName, Limit.of(batchSize));
+                for (Long id : ids) {
+                    if (!processOne(id)) return;
+                }
+            } while (ids.size() == batchSize);
+        } catch (Exception e) {
+            log.error("❌ Webhook lane failed for room {}: {}", roomName, e.getMessage());
+        }
+    }
+
+    /**
+     * @return false si l'événement a échoué et doit être rejoué avant les suivants de la salle
+     */
+    private boolean processOne(Long id) {
+        try {
+            Boolean applied = transactionTemplate.execute(status -> {
+                WebhookInboxEvent event = inboxRepository.findForUpdate(id).orElse(null);
+                // Déjà traité par une autre instance entre la lecture et le verrou
+                if (event == null || !WebhookInboxEvent.PENDING.equals(event.getStatus())) return false;
+
+                dispatch(event);
+                event.setStatus(WebhookInboxEvent.DONE);
+                event.setAttempts(event.getAttempts() + 1);
+                event.setProcessedAt(LocalDateTime.now());
+                event.setLastError(null);
+                return true;
+            });
+            if (Boolean.TRUE.equals(applied)) {
+                processedCounter.increment();
+            }
+            return true;
+        } catch (Exception e) {
+            return recordFailure(id, e);
+        }
+    }
+
+    private void dispatch(WebhookInboxEvent event) throws Exception {
+        if (SOURCE_LIVEKIT.equals(event.getSource())) {
+            livestreamService.handleLiveKitEvent(objectMapper.readValue(event.getPayload(), LiveKitWebhookEvent.class));
+        } else {
+            livestreamService.handleMediaServerEvent(objectMapper.readValue(event.getPayload(), WebhookEvent.class));
+        }
+    }
+
+    private boolean recordFailure(Long id, Exception error) {
+        String message = error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+        Boolean giveUp = transactionTemplate.execute(status -> {
+            WebhookInboxEvent event = inboxRepository.findById(id).orElse(null);
+            if (event == null) return true;
+            event.setAttempts(event.getAttempts() + 1);
+            event.setLastError(message.length() > 1000 ? message.substring(0, 1000) : message);
+            if (event.getAttempts() >= maxAttempts) {
+                event.setStatus(WebhookInboxEvent.FAILED);
+                event.setProcessedAt(LocalDateTime.now());
+                return true;
+            }
+            return false;
+        });
+
+        if (Boolean.TRUE.equals(giveUp)) {
+            failedCounter.increment();
+            log.error("❌ Webhook {} abandoned after {} attempt(s): {}", id, maxAttempts, message);
+            return true;
+        }
+        log.warn("⚠️ Webhook {} failed, will retry: {}", id, message);
+        return false;
+    }
+
+    private static byte[] sha256(String body) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(body.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String sha256Hex(String body) {
+        return HexFormat.of().formatHex(sha256(body));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+        for (ExecutorService lane : lanes) {
+            try {
+                lane.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
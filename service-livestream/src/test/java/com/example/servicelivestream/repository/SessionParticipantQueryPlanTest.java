@@ -0,0 +1,212 @@
+package com.example.servicelivestream.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Plans d'exécution des requêtes receveur sur 100 000 sessions : anciennes requêtes MEMBER OF sur les
+ * collections contre la table {@code livestream_session_participants}.
+ * <p>
+ * Nécessite une base PostgreSQL : {@code -Dlivestream.benchmark.db-url=jdbc:postgresql://localhost:5432/...}
+ * (ou {@code LIVESTREAM_BENCHMARK_DB_URL}), sinon le test est ignoré. Tout est créé dans un schéma
+ * temporaire supprimé à la fin. Le DDL reprend les entités (colonnes utilisées, contraintes et index),
+ * la table des participants est remplie par les requêtes de reprise de {@link SessionParticipantRepository}.
+ * Les requêtes sont les traductions SQL des requêtes JPQL des dépôts.
+ */
+@Slf4j
+class SessionParticipantQueryPlanTest {
+
+    private static final int SESSIONS = 100_000;
+    private static final int USERS = 20_000;
+    private static final int RECEIVERS_PER_SESSION = 5;
+    private static final int RUNS = 5;
+
+    private static final long RECEIVER_ID = 10_001 + 4_242;
+    private static final int SKILL_ID = 42;
+
+    private static Connection connection;
+    private static String schema;
+
+    @BeforeAll
+    static void seed() throws SQLException {
+        String url = setting("livestream.benchmark.db-url", "LIVESTREAM_BENCHMARK_DB_URL", null);
+        assumeTrue(url != null, "No PostgreSQL configured for the participant benchmark");
+        connection = DriverManager.getConnection(url,
+                setting("livestream.benchmark.db-username", "DB_USERNAME", "postgres"),
+                setting("livestream.benchmark.db-password", "DB_PASSWORD", "admin"));
+        schema = "participant_bench_" + System.currentTimeMillis();
+
+        long started = System.nanoTime();
+        execute("CREATE SCHEMA " + schema,
+                "SET search_path TO " + schema,
+
+                // ===== Entités (colonnes utilisées par les requêtes) =====
+                "CREATE TABLE livestream_sessions (id bigint PRIMARY KEY, skill_id integer NOT NULL, " +
+                        "producer_id bigint NOT NULL, room_name varchar(255) NOT NULL, status varchar(255) NOT NULL, " +
+                        "start_time timestamp, end_time timestamp)",
+                "CREATE TABLE livestream_session_receiver_ids (livestream_session_id bigint NOT NULL " +
+                        "REFERENCES livestream_sessions, receiver_ids bigint)",
+                "CREATE TABLE recordings (id bigint PRIMARY KEY, session_id bigint NOT NULL REFERENCES livestream_sessions, " +
+                        "file_path varchar(255) NOT NULL, file_name varchar(255) NOT NULL, recording_number integer, " +
+                        "status varchar(255) NOT NULL)",
+                "CREATE INDEX idx_recordings_session ON recordings (session_id, recording_number)",
+                "CREATE TABLE recording_access (recording_id bigint NOT NULL REFERENCES recordings, user_id bigint)",
+                "CREATE TABLE livestream_session_participants (id bigserial PRIMARY KEY, " +
+                        "session_id bigint NOT NULL REFERENCES livestream_sessions, user_id bigint NOT NULL, " +
+                        "role varchar(16) NOT NULL, session_status varchar(255) NOT NULL, end_time timestamp, " +
+                        "CONSTRAINT uk_session_participants_session_user UNIQUE (session_id, user_id))",
+                "CREATE INDEX idx_session_participants_user_status " +
+                        "ON livestream_session_participants (user_id, session_status, end_time)",
+
+                // ===== Jeu de données : 80 % terminées, 2 000 producteurs, 5 receveurs parmi 20 000 =====
+                "INSERT INTO livestream_sessions " +
+                        "SELECT g, 1 + g % 200, 1 + g % 2000, 'room-' || g, " +
+                        "CASE WHEN g % 10 < 8 THEN 'COMPLETED' WHEN g % 10 = 8 THEN 'SCHEDULED' ELSE 'LIVE' END, " +
+                        "now() - g * interval '1 minute', " +
+                        "CASE WHEN g % 10 < 8 THEN now() - g * interval '1 minute' + interval '1 hour' END " +
+                        "FROM generate_series(1, " + SESSIONS + ") g",
+                "INSERT INTO livestream_session_receiver_ids " +
+                        "SELECT g, 10001 + (g * 7 + k * 4001) % " + USERS + " " +
+                        "FROM generate_series(1, " + SESSIONS + ") g, generate_series(0, " + (RECEIVERS_PER_SESSION - 1) + ") k",
+                "INSERT INTO recordings SELECT id, id, '/recordings/' || id || '.mp4', id || '.mp4', 1, 'COMPLETED' " +
+                        "FROM livestream_sessions WHERE status = 'COMPLETED'",
+                "INSERT INTO recording_access SELECT rec.id, r.receiver_ids FROM recordings rec " +
+                        "JOIN livestream_session_receiver_ids r ON r.livestream_session_id = rec.session_id",
+
+                // ===== Reprise, comme au démarrage (SessionParticipantRepository) =====
+                "INSERT INTO livestream_session_participants (session_id, user_id, role, session_status, end_time) " +
+                        "SELECT s.id, s.producer_id, 'PRODUCER', s.status, s.end_time FROM livestream_sessions s " +
+                        "ON CONFLICT (session_id, user_id) DO NOTHING",
+                "INSERT INTO livestream_session_participants (session_id, user_id, role, session_status, end_time) " +
+                        "SELECT s.id, r.receiver_ids, 'RECEIVER', s.status, s.end_time " +
+                        "FROM livestream_session_receiver_ids r JOIN livestream_sessions s ON s.id = r.livestream_session_id " +
+                        "WHERE r.receiver_ids IS NOT NULL " +
+                        "ON CONFLICT (session_id, user_id) DO NOTHING",
+                "ANALYZE livestream_sessions, livestream_session_receiver_ids, recordings, recording_access, " +
+                        "livestream_session_participants");
+        log.info("🌱 Seeded {} sessions in {} ({} ms)", SESSIONS, schema, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    @AfterAll
+    static void dropSchema() throws SQLException {
+        if (connection == null) return;
+        try {
+            execute("DROP SCHEMA IF EXISTS " + schema + " CASCADE");
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    void receiverQueriesUseTheParticipantIndex() throws SQLException {
+        // LivestreamSessionRepository.findCompletedByReceiverId
+        compare("completed sessions of receiver",
+                "SELECT s.id FROM livestream_sessions s WHERE " + RECEIVER_ID + " IN " +
+                        "(SELECT r.receiver_ids FROM livestream_session_receiver_ids r WHERE r.livestream_session_id = s.id) " +
+                        "AND s.status = 'COMPLETED' ORDER BY s.end_time DESC",
+                "SELECT s.id FROM livestream_session_participants p JOIN livestream_sessions s ON s.id = p.session_id " +
+                        "WHERE p.user_id = " + RECEIVER_ID + " AND p.role = 'RECEIVER' " +
+                        "AND p.session_status = 'COMPLETED' ORDER BY p.end_time DESC",
+                "idx_session_participants_user_status");
+
+        // LivestreamSessionRepository.findByReceiverIdsContainingAndStatus
+        compare("live sessions of receiver",
+                "SELECT s.id FROM livestream_sessions s WHERE " + RECEIVER_ID + " IN " +
+                        "(SELECT r.receiver_ids FROM livestream_session_receiver_ids r WHERE r.livestream_session_id = s.id) " +
+                        "AND s.status = 'LIVE'",
+                "SELECT s.id FROM livestream_session_participants p JOIN livestream_sessions s ON s.id = p.session_id " +
+                        "WHERE p.user_id = " + RECEIVER_ID + " AND p.role = 'RECEIVER' AND p.session_status = 'LIVE'",
+                "idx_session_participants_user_status");
+
+        // SessionParticipantRepository.findSessionIdsByUserAndSkill
+        compare("finished sessions by user + skill",
+                "SELECT s.id FROM livestream_sessions s WHERE " + RECEIVER_ID + " IN " +
+                        "(SELECT r.receiver_ids FROM livestream_session_receiver_ids r WHERE r.livestream_session_id = s.id) " +
+                        "AND s.status = 'COMPLETED' AND s.skill_id = " + SKILL_ID,
+                "SELECT p.session_id FROM livestream_session_participants p JOIN livestream_sessions s ON s.id = p.session_id " +
+                        "WHERE p.user_id = " + RECEIVER_ID + " AND p.session_status = 'COMPLETED' AND s.skill_id = " + SKILL_ID,
+                "idx_session_participants_user_status");
+
+        // RecordingRepository.findAccessibleByUserId (avant : findByAuthorizedUsersContaining)
+        compare("recordings of user",
+                "SELECT rec.id FROM recordings rec WHERE " + RECEIVER_ID + " IN " +
+                        "(SELECT a.user_id FROM recording_access a WHERE a.recording_id = rec.id)",
+                "SELECT rec.id FROM recordings rec WHERE rec.session_id IN " +
+                        "(SELECT p.session_id FROM livestream_session_participants p WHERE p.user_id = " + RECEIVER_ID + ")",
+                "idx_session_participants_user_status");
+
+        // LivestreamSessionRepository.findReceiverIdsById
+        compare("receivers of session",
+                "SELECT r.receiver_ids FROM livestream_session_receiver_ids r WHERE r.livestream_session_id = 4242",
+                "SELECT p.user_id FROM livestream_session_participants p WHERE p.session_id = 4242 AND p.role = 'RECEIVER'",
+                "uk_session_participants_session_user");
+    }
+
+    /**
+     * Journalise les temps médians des deux versions ; le plan de la nouvelle doit passer par l'index attendu
+     * et ne parcourir séquentiellement ni les participants ni les enregistrements.
+     */
+    private void compare(String name, String memberOfSql, String participantSql, String expectedIndex) throws SQLException {
+        double before = medianExecutionMillis(memberOfSql);
+        double after = medianExecutionMillis(participantSql);
+        log.info("📊 {}: MEMBER OF {} ms, participants {} ms", name, before, after);
+
+        String plan = String.join("\n", explain(participantSql, false));
+        assertTrue(plan.contains(expectedIndex), name + " should use " + expectedIndex + ":\n" + plan);
+        assertFalse(plan.contains("Seq Scan on livestream_session_participants"), name + " scans participants:\n" + plan);
+        assertFalse(plan.contains("Seq Scan on recordings"), name + " scans recordings:\n" + plan);
+    }
+
+    private double medianExecutionMillis(String sql) throws SQLException {
+        double[] timings = new double[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            for (String line : explain(sql, true)) {
+                if (line.startsWith("Execution Time:")) {
+                    timings[run] = Double.parseDouble(line.replaceAll("[^0-9.]", ""));
+                }
+            }
+        }
+        Arrays.sort(timings);
+        return timings[RUNS / 2];
+    }
+
+    private List<String> explain(String sql, boolean analyze) throws SQLException {
+        List<String> lines = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet plan = statement.executeQuery("EXPLAIN " + (analyze ? "(ANALYZE) " : "") + sql)) {
+            while (plan.next()) {
+                lines.add(plan.getString(1).trim());
+            }
+        }
+        return lines;
+    }
+
+    private static void execute(String... statements) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    private static String setting(String property, String environment, String defaultValue) {
+        String value = System.getProperty(property);
+        if (value == null || value.isBlank()) value = System.getenv(environment);
+        return value == null || value.isBlank() ? defaultValue : value;
+    }
+}
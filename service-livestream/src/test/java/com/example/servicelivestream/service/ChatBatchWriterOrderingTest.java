@@ -0,0 +1,142 @@
+package com.example.servicelivestream.service;
+
+import com.example.servicelivestream.dto.ChatHistoryResponse;
+import com.example.servicelivestream.dto.ChatIdentity;
+import com.example.servicelivestream.dto.ChatMessage;
+import com.example.servicelivestream.repository.ChatMessageRepository;
+import com.example.servicelivestream.repository.ChatTranscriptRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+
+/**
+ * Un client qui rattrape avec {@code after=<dernier id vu>} pendant que des expéditeurs écrivent en
+ * parallèle doit recevoir tous les messages : un identifiant n'est jamais visible avant un plus petit.
+ */
+class ChatBatchWriterOrderingTest {
+
+    private static final long SESSION_ID = 1L;
+    private static final int SENDERS = 8;
+    private static final int MESSAGES_PER_SENDER = 2_000;
+
+    @Test
+    void afterReaderSeesEveryMessageWithoutGaps() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        ChatMembershipService membership = Mockito.mock(ChatMembershipService.class);
+        Mockito.when(membership.statusOf(SESSION_ID)).thenReturn("LIVE");
+        Mockito.when(membership.isProducer(anyLong(), anyLong())).thenReturn(false);
+
+        // Session sans historique : le tampon (assez grand pour tout garder) sert toutes les pages
+        ChatMessageRepository chatMessageRepository = Mockito.mock(ChatMessageRepository.class);
+        Mockito.when(chatMessageRepository.findLatestMessages(anyLong(), any(Limit.class))).thenReturn(List.of());
+        int total = SENDERS * MESSAGES_PER_SENDER;
+        ChatHistoryService history = new ChatHistoryService(chatMessageRepository,
+                Mockito.mock(ChatTranscriptRepository.class), membership, new ObjectMapper(),
+                Mockito.mock(PlatformTransactionManager.class), 200, total, 10, false, 24, 20, 20);
+        history.getHistory(SESSION_ID, null, null, 1);
+
+        ChatBatchWriter writer = new ChatBatchWriter(new SimulatedDatabase(), history, meterRegistry,
+                50, 2, total, 5, 100);
+        ChatIngestionService ingestion = new ChatIngestionService(membership, writer,
+                Mockito.mock(SimpMessagingTemplate.class), meterRegistry,
+                Integer.MAX_VALUE, 1e9, 300, Integer.MAX_VALUE);
+
+        Set<Long> sent = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> senders = new ArrayList<>();
+        for (int s = 0; s < SENDERS; s++) {
+            long userId = 100L + s;
+            Thread sender = new Thread(() -> {
+                ChatIdentity user = new ChatIdentity(userId, "kc-" + userId, "Viewer " + userId);
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < MESSAGES_PER_SENDER; i++) {
+                    sent.add(ingestion.accept(SESSION_ID, new ChatMessage(null, null, "Message " + i), user).id());
+                }
+            }, "chat-sender-" + s);
+            sender.start();
+            senders.add(sender);
+        }
+
+        // Lecteur de rattrapage : avance son ancre sur le dernier identifiant reçu
+        List<Long> seen = new ArrayList<>();
+        AtomicBoolean sending = new AtomicBoolean(true);
+        long cursor = 0;
+        start.countDown();
+        Thread waiter = new Thread(() -> {
+            senders.forEach(sender -> {
+                try {
+                    sender.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            sending.set(false);
+        });
+        waiter.start();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while ((sending.get() || seen.size() < sent.size()) && System.nanoTime() < deadline) {
+            ChatHistoryResponse page = history.getHistory(SESSION_ID, null, cursor, 200);
+            for (ChatMessage message : page.messages()) {
+                assertTrue(message.id() > cursor, "page after " + cursor + " returned " + message.id());
+                seen.add(message.id());
+                cursor = message.id();
+            }
+            if (page.messages().isEmpty()) Thread.onSpinWait();
+        }
+        writer.shutdown();
+
+        assertEquals(total, sent.size());
+        assertEquals(sent.stream().sorted().toList(), seen, "the after reader skipped or reordered messages");
+    }
+
+    /**
+     * Séquence et INSERT multi-lignes sans base, avec une durée d'écriture variable
+     */
+    private static final class SimulatedDatabase extends JdbcTemplate {
+        private final AtomicLong sequence = new AtomicLong();
+
+        @Override
+        public <T> List<T> queryForList(String sql, Class<T> elementType, @Nullable Object... args) {
+            int count = (Integer) args[0];
+            List<T> ids = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                ids.add(elementType.cast(sequence.incrementAndGet()));
+            }
+            return ids;
+        }
+
+        @Override
+        public int update(String sql, @Nullable Object... args) {
+            LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(TimeUnit.MILLISECONDS.toNanos(1)));
+            return args.length / 6;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.servicelivestream.service;
+
+import com.example.servicelivestream.dto.ChatIdentity;
+import com.example.servicelivestream.dto.ChatMessage;
+import com.example.servicelivestream.exception.ChatRateLimitException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyLong;
+
+/**
+ * Débit soutenu du chat d'une session en direct, de bout en bout sur un broker embarqué :
+ * {@link ChatIngestionService#accept} (comme {@code ChatController}), diffusion sur le topic par le
+ * {@link SimpleBrokerMessageHandler} vers des abonnés réels et persistance par {@link ChatBatchWriter}.
+ * <p>
+ * La base est simulée (réservation d'identifiants et INSERT multi-lignes comptés, 1 ms par lot) et
+ * le débit par utilisateur n'est pas limité : on mesure ce que le pipeline absorbe, pas la politique.
+ * Deux scénarios : tout est diffusé, puis échantillonnage au seuil par défaut (50 messages/s).
+ * Les débits sont journalisés ; seules la persistance et la diffusion complètes sont vérifiées.
+ */
+@Slf4j
+@Tag("benchmark")
+class ChatIngestionLoadTest {
+
+    private static final long SESSION_ID = 1L;
+    private static final String TOPIC = "/topic/session/" + SESSION_ID + "/chat";
+    private static final int PRODUCERS = 8;
+    private static final int MESSAGES_PER_PRODUCER = 5_000;
+    private static final int USERS_PER_PRODUCER = 500;
+    private static final int SUBSCRIBERS = 20;
+
+    @Test
+    void sustainedChatThroughputOnEmbeddedBroker() throws Exception {
+        Result unsampled = run("no sampling", Integer.MAX_VALUE);
+        Result sampled = run("sampling 50/s", 50);
+
+        for (Result result : List.of(unsampled, sampled)) {
+            assertEquals(result.accepted, result.rowsWritten, "every accepted message is persisted");
+            assertEquals(result.broadcast * SUBSCRIBERS, result.deliveries, "every broadcast reaches every subscriber");
+        }
+    }
+
+    private Result run(String scenario, int sampleThresholdPerSecond) throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        // Broker embarqué : canaux configurés comme dans WebSocketConfig
+        ThreadPoolTaskExecutor outboundExecutor = executor("outbound-", 8);
+        ExecutorSubscribableChannel clientInbound = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel clientOutbound = new ExecutorSubscribableChannel(outboundExecutor);
+        ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        SimpleBrokerMessageHandler broker = new SimpleBrokerMessageHandler(
+                clientInbound, clientOutbound, brokerChannel, List.of("/topic", "/queue"));
+        broker.start();
+
+        AtomicLong deliveries = new AtomicLong();
+        clientOutbound.subscribe(message -> {
+            if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.MESSAGE) {
+                deliveries.incrementAndGet();
+            }
+        });
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            broker.handleMessage(subscribe("viewer-" + i));
+        }
+
+        SimpMessagingTemplate template = new SimpMessagingTemplate(brokerChannel);
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
+        converter.setObjectMapper(new ObjectMapper().findAndRegisterModules());
+        template.setMessageConverter(converter);
+
+        SimulatedDatabase database = new SimulatedDatabase();
+        ChatBatchWriter writer = new ChatBatchWriter(database,
+                Mockito.mock(ChatHistoryService.class, Mockito.withSettings().stubOnly()),
+                meterRegistry, 500, 200, 10_000, 5, 100);
+
+        ChatMembershipService membership = Mockito.mock(ChatMembershipService.class, Mockito.withSettings().stubOnly());
+        Mockito.when(membership.isProducer(anyLong(), anyLong())).thenReturn(false);
+        ChatIngestionService ingestion = new ChatIngestionService(membership, writer, template, meterRegistry,
+                Integer.MAX_VALUE, 1e9, 300, sampleThresholdPerSecond);
+
+        AtomicLong accepted = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        AtomicLong broadcast = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            long firstUser = 1_000L + (long) p * USERS_PER_PRODUCER;
+            Thread producer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < MESSAGES_PER_PRODUCER; i++) {
+                    long userId = firstUser + i % USERS_PER_PRODUCER;
+                    ChatIdentity user = new ChatIdentity(userId, "kc-" + userId, "Viewer " + userId);
+                    try {
+                        ChatMessage out = ingestion.accept(SESSION_ID, new ChatMessage(null, null, "Message " + i), user);
+                        accepted.incrementAndGet();
+                        // Ce que fait @SendTo sur le retour de ChatController
+                        if (out != null) {
+                            template.convertAndSend(TOPIC, out);
+                            broadcast.incrementAndGet();
+                        }
+                    } catch (ChatRateLimitException e) {
+                        rejected.incrementAndGet();
+                    }
+                }
+            }, "chat-producer-" + p);
+            producer.start();
+            producers.add(producer);
+        }
+
+        long started = System.nanoTime();
+        start.countDown();
+        for (Thread producer : producers) producer.join();
+
+        // Soutenu = jusqu'à ce que tout soit diffusé aux abonnés et écrit en base
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while ((database.rows.get() < accepted.get() || deliveries.get() < broadcast.get() * SUBSCRIBERS)
+                && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+
+        writer.shutdown();
+        broker.stop();
+        outboundExecutor.shutdown();
+
+        Result result = new Result(scenario, accepted.get(), rejected.get(), broadcast.get(),
+                deliveries.get(), database.rows.get(), database.batches.get(), seconds);
+        log.info("📊 {}: {} accepted, {} rejected, {} msg/s, {} deliveries/s, {} rows/s, {} batches",
+                scenario, result.accepted, result.rejected, Math.round(result.messagesPerSecond()),
+                Math.round(result.deliveries / seconds), Math.round(result.rowsWritten / seconds), result.batches);
+        return result;
+    }
+
+    private static Message<byte[]> subscribe(String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId("sub-0");
+        accessor.setDestination(TOPIC);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    private static ThreadPoolTaskExecutor executor(String prefix, int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix(prefix);
+        executor.initialize();
+        return executor;
+    }
+
+    private record Result(String scenario, long accepted, long rejected, long broadcast,
+                          long deliveries, long rowsWritten, long batches, double seconds) {
+        double messagesPerSecond() {
+            return accepted / seconds;
+        }
+    }
+
+    /**
+     * Séquence et INSERT multi-lignes de {@link ChatBatchWriter}, sans base : 1 ms par aller-retour
+     */
+    private static final class SimulatedDatabase extends JdbcTemplate {
+        private final AtomicLong sequence = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong batches = new AtomicLong();
+
+        @Override
+        public <T> List<T> queryForList(String sql, Class<T> elementType, @Nullable Object... args) {
+            int count = (Integer) args[0];
+            List<T> ids = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                ids.add(elementType.cast(sequence.incrementAndGet()));
+            }
+            return ids;
+        }
+
+        @Override
+        public int update(String sql, @Nullable Object... args) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            int inserted = args.length / 6;
+            rows.addAndGet(inserted);
+            batches.incrementAndGet();
+            return inserted;
+        }
+    }
+}
@@ -1,17 +1,68 @@
 package com.example.servicemessagerie.config;
 
+import com.example.servicemessagerie.util.PolicyCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
-import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.cache.support.AbstractCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import java.util.Collection;
+
+/**
+ * Caches bornés par politique ({@link CachePolicyProperties}) : taille maximale, TTL,
+ * rafraîchissement anticipé et cache négatif, avec métriques {@code messaging.cache.*}.
+ */
+@Slf4j
 @Configuration
 @EnableCaching
 public class CacheConfig {
 
+    private final ThreadPoolTaskExecutor refreshExecutor = new ThreadPoolTaskExecutor();
+
     @Bean
-    public CacheManager cacheManager() {
-        return new ConcurrentMapCacheManager("userIds");
+    public CacheManager cacheManager(CachePolicyProperties properties, MeterRegistry meterRegistry) {
+        refreshExecutor.setCorePoolSize(properties.getRefreshThreads());
+        refreshExecutor.setMaxPoolSize(properties.getRefreshThreads());
+        refreshExecutor.setQueueCapacity(properties.getRefreshQueueCapacity());
+        refreshExecutor.setThreadNamePrefix("cache-refresh-");
+        refreshExecutor.initialize();
+        new ExecutorServiceMetrics(refreshExecutor.getThreadPoolExecutor(), "cache-refresh", Tags.empty())
+                .bindTo(meterRegistry);
+
+        return new AbstractCacheManager() {
+            @Override
+            protected Collection<? extends Cache> loadCaches() {
+                return properties.getSpecs().keySet().stream()
+                        .map(name -> create(name, properties, meterRegistry))
+                        .toList();
+            }
+
+            @Override
+            protected Cache getMissingCache(String name) {
+                log.warn("⚠️ Cache '{}' has no policy in application.cache.specs, using defaults", name);
+                return create(name, properties, meterRegistry);
+            }
+        };
+    }
+
+    private Cache create(String name, CachePolicyProperties properties, MeterRegistry meterRegistry) {
+        CachePolicyProperties.Spec spec = properties.specFor(name);
+        log.info("🗄️ Cache '{}': maxSize={}, ttl={}ms, refreshAfter={}ms, negativeTtl={}ms",
+                name, spec.getMaxSize(), spec.getTtlMs(), spec.getRefreshAfterMs(), spec.getNegativeTtlMs());
+        return new PolicyCache(name, spec.getMaxSize(), spec.getTtlMs(), spec.getRefreshAfterMs(),
+                spec.getNegativeTtlMs(), refreshExecutor, meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdown();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,39 @@
+package com.example.servicemessagerie.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Politiques des caches applicatifs ({@code application.cache.*}).
+ * Un cache utilisé par {@code @Cacheable} mais absent de {@code specs} reçoit la politique par défaut.
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "application.cache")
+public class CachePolicyProperties {
+
+    private Spec defaults = new Spec();
+    private Map<String, Spec> specs = new LinkedHashMap<>();
+
+    /** Threads dédiés aux rafraîchissements anticipés */
+    private int refreshThreads = 2;
+    private int refreshQueueCapacity = 100;
+
+    @Data
+    public static class Spec {
+        private long maxSize = 10_000;
+        private long ttlMs = 600_000;
+        /** Âge à partir duquel une lecture déclenche un rechargement en arrière-plan (0 = désactivé) */
+        private long refreshAfterMs = 0;
+        /** Durée de mémorisation d'une clé introuvable (0 = désactivé) */
+        private long negativeTtlMs = 0;
+    }
+
+    public Spec specFor(String cacheName) {
+        return specs.getOrDefault(cacheName, defaults);
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.servicemessagerie.config;
+
+import com.example.servicemessagerie.dto.ExchangeEvent;
+import com.example.servicemessagerie.dto.UserUpdatedEvent;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.annotation.EnableKafka;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Consommation des événements d'échange et utilisateur pour invalider les caches locaux.
+ * Chaque instance lit depuis la fin du topic : seuls les changements postérieurs au démarrage comptent.
+ */
+@Configuration
+@EnableKafka
+public class KafkaConsumerConfig {
+
+    @Value("${spring.kafka.bootstrap-servers:localhost:9092}")
+    private String bootstrapServers;
+
+    private Map<String, Object> jsonConsumerProps(Class<?> valueType) {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ErrorHandlingDeserializer.class);
+        props.put(ErrorHandlingDeserializer.VALUE_DESERIALIZER_CLASS, JsonDeserializer.class);
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+
+        props.put(JsonDeserializer.VALUE_DEFAULT_TYPE, valueType.getName());
+        props.put(JsonDeserializer.TRUSTED_PACKAGES, "*");
+        props.put(JsonDeserializer.USE_TYPE_INFO_HEADERS, false);
+        return props;
+    }
+
+    @Bean
+    public ConsumerFactory<String, ExchangeEvent> exchangeEventConsumerFactory() {
+        return new DefaultKafkaConsumerFactory<>(jsonConsumerProps(ExchangeEvent.class));
+    }
+
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, ExchangeEvent> exchangeEventListenerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, ExchangeEvent> factory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(exchangeEventConsumerFactory());
+        factory.setConcurrency(1);
+        factory.getContainerProperties().setPollTimeout(3000);
+        return factory;
+    }
+
+    @Bean
+    public ConsumerFactory<String, UserUpdatedEvent> userEventConsumerFactory() {
+        return new DefaultKafkaConsumerFactory<>(jsonConsumerProps(UserUpdatedEvent.class));
+    }
+
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, UserUpdatedEvent> userEventListenerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, UserUpdatedEvent> factory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(userEventConsumerFactory());
+        factory.setConcurrency(1);
+        factory.getContainerProperties().setPollTimeout(3000);
+        return factory;
+    }
+}
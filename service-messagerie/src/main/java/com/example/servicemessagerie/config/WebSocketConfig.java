@@ -3,8 +3,12 @@ package com.example.servicemessagerie.config;
 import com.example.servicemessagerie.dto.UserResponse;
 import com.example.servicemessagerie.feignclient.UserServiceClient;
 import com.example.servicemessagerie.controller.PresenceController;
+import com.example.websocketsupport.CompactPayloadEncoding;
+import com.example.websocketsupport.OutboundBackpressure;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.ResponseEntity;
@@ -12,6 +16,7 @@ import org.springframework.http.server.ServerHttpRequest;
 import org.springframework.http.server.ServerHttpResponse;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MessageConverter;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.messaging.simp.stomp.StompCommand;
@@ -30,6 +35,7 @@ import org.springframework.web.socket.config.annotation.*;
 import org.springframework.web.socket.server.HandshakeInterceptor;
 import feign.FeignException;
 
+import java.util.List;
 import java.util.Map;
 
 @Slf4j
@@ -40,19 +46,41 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     private final JwtDecoder jwtDecoder;
     private final UserServiceClient userServiceClient;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${application.websocket.permessage-deflate:true}")
+    private boolean permessageDeflate;
+
+    // ✅ Contre-pression sortante (application.websocket.outbound.*)
+    @Value("${application.websocket.outbound.send-time-limit-ms:10000}")
+    private int sendTimeLimitMs;
+    @Value("${application.websocket.outbound.send-buffer-size-limit:524288}")
+    private int sendBufferSizeLimit;
+    @Value("${application.websocket.outbound.low-priority-threshold:32}")
+    private int lowPriorityThreshold;
+    @Value("${application.websocket.outbound.max-queued-frames:512}")
+    private int maxQueuedFrames;
+    @Value("${application.websocket.outbound.max-lag-ms:15000}")
+    private long maxLagMs;
+    @Value("${application.websocket.outbound.low-priority-destinations:" +
+            "/topic/conversation/*/typing,/user/queue/presence*,/user/queue/online-users}")
+    private List<String> lowPriorityDestinations;
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         registry.addEndpoint("/ws/messaging")
                 .setAllowedOriginPatterns("http://localhost:4200")
+                .setHandshakeHandler(compactPayloadEncoding().handshakeHandler())
                 .addInterceptors(new MessagingHandshakeInterceptor())
                 .withSockJS()
                 .setClientLibraryUrl("https://cdn.jsdelivr.net/npm/sockjs-client@1.6.1/dist/sockjs.min.js")
                 .setSessionCookieNeeded(false);
 
+        // WebSocket natif : permessage-deflate + frames binaires CBOR/Smile sur demande
         registry.addEndpoint("/ws/messaging")
                 .setAllowedOriginPatterns("http://localhost:4200")
-                .addInterceptors(new MessagingHandshakeInterceptor());
+                .setHandshakeHandler(compactPayloadEncoding().handshakeHandler())
+                .addInterceptors(new MessagingHandshakeInterceptor(), compactPayloadEncoding().binaryFramesInterceptor());
 
         log.info("Messagerie WebSocket endpoints registered with SockJS support");
     }
@@ -77,9 +105,43 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     @Override
     public void configureClientOutboundChannel(ChannelRegistration registration) {
+        // Contre-pression d'abord : une frame abandonnée n'est pas transcodée
+        registration.interceptors(outboundBackpressure().outboundInterceptor(), compactPayloadEncoding().outboundInterceptor());
         registration.taskExecutor().corePoolSize(10).maxPoolSize(20);
     }
 
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Session qui n'absorbe plus ses frames : fermée au-delà de ces limites (application.websocket.outbound.*)
+        registration.setSendTimeLimit(outboundBackpressure().getSendTimeLimitMs())
+                .setSendBufferSizeLimit(outboundBackpressure().getSendBufferSizeLimit())
+                .addDecoratorFactory(outboundBackpressure().handlerDecorator());
+    }
+
+    @Override
+    public boolean configureMessageConverters(List<MessageConverter> messageConverters) {
+        // Stricts sur le content-type : sans en-tête explicite, les convertisseurs JSON par défaut s'appliquent
+        messageConverters.addAll(compactPayloadEncoding().inboundConverters());
+        return true;
+    }
+
+    /**
+     * Compression et frames binaires CBOR/Smile à la demande (module websocket-support)
+     */
+    @Bean
+    public CompactPayloadEncoding compactPayloadEncoding() {
+        return new CompactPayloadEncoding(permessageDeflate);
+    }
+
+    /**
+     * Contre-pression sortante par session (module websocket-support)
+     */
+    @Bean
+    public OutboundBackpressure outboundBackpressure() {
+        return new OutboundBackpressure(meterRegistry, sendTimeLimitMs, sendBufferSizeLimit,
+                lowPriorityThreshold, maxQueuedFrames, maxLagMs, lowPriorityDestinations);
+    }
+
     @Bean
     public TaskScheduler messagingHeartBeatScheduler() {
         ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
@@ -163,6 +225,7 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                         accessor.getSessionAttributes().put("keycloakId", jwt.getSubject());
                         accessor.getSessionAttributes().put("username", jwt.getClaim("preferred_username"));
                         accessor.getSessionAttributes().put("email", jwt.getClaim("email"));
+                        compactPayloadEncoding().onConnect(accessor);
 
                     } catch (JwtException e) {
                         log.error("Messagerie JWT validation failed: {}", e.getMessage());
@@ -70,10 +70,6 @@ public class ConversationController {
             log.debug("📋 JWT subject: {}, Resolved ID: {}, Page: {}, Size: {}",
                     jwt.getSubject(), userId, page, size);
 
-            if (page == 0) {
-                conversationService.diagnoseUserConversations(userId);
-            }
-
             Page<ConversationDTO> conversations = conversationService.getUserConversations(userId, page, size);
 
             log.info("✅ Found {} conversations for user {} (page {}/{})",
@@ -1,5 +1,8 @@
 package com.example.servicemessagerie.controller;
 
+import com.example.servicemessagerie.service.FileUploadService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
@@ -12,19 +15,133 @@ import org.springframework.web.bind.annotation.RequestMethod;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 @Slf4j
 @RestController
 @CrossOrigin(origins = "http://localhost:4200")
 public class FileController {
 
+    // Attributs Tomcat pour l'envoi zéro-copie (sendfile) après le retour du contrôleur
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final String IMMUTABLE_CACHE = "public, max-age=31536000, immutable";
+
     private final Path messageFileStorageLocation;
+    private final FileUploadService fileUploadService;
 
-    public FileController(@Value("${file.upload-dir:./message-uploads}") String uploadDir) {
+    public FileController(@Value("${file.upload-dir:./message-uploads}") String uploadDir,
+                          FileUploadService fileUploadService) {
         this.messageFileStorageLocation = Paths.get(uploadDir).toAbsolutePath().normalize();
+        this.fileUploadService = fileUploadService;
+    }
+
+    /**
+     * Sert une pièce jointe adressée par contenu : le contenu d'une URL ne change jamais,
+     * d'où ETag = hash, cache immuable, support de Range/If-None-Match et envoi zéro-copie.
+     */
+    @RequestMapping(value = "/message-uploads/blob/{blobName:.+}", method = {RequestMethod.GET, RequestMethod.HEAD})
+    public void downloadBlob(@PathVariable String blobName,
+                             HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        int dot = blobName.indexOf('.');
+        String sha256 = dot > 0 ? blobName.substring(0, dot) : blobName;
+
+        Path path = fileUploadService.resolveBlob(sha256);
+        if (path == null) {
+            log.warn("Blob not found: {}", blobName);
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        serveImmutable(path, "\"" + sha256 + "\"", blobName, request, response);
+    }
+
+    /**
+     * Sert un dérivé (miniature, poster, aperçu) d'une pièce jointe, immuable comme le blob source
+     */
+    @RequestMapping(value = "/message-uploads/derived/{sha256}/{name:.+}", method = {RequestMethod.GET, RequestMethod.HEAD})
+    public void downloadDerivative(@PathVariable String sha256,
+                                   @PathVariable String name,
+                                   HttpServletRequest request,
+                                   HttpServletResponse response) throws IOException {
+        Path path = fileUploadService.resolveDerivative(sha256, name);
+        if (path == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        serveImmutable(path, "\"" + sha256 + "-" + name + "\"", name, request, response);
+    }
+
+    private void serveImmutable(Path path, String etag, String fileName,
+                                HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, IMMUTABLE_CACHE);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        if (matchesEtag(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        String contentType = determineContentType(fileName);
+        response.setContentType(contentType);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, contentDisposition(contentType, fileName));
+
+        long length = Files.size(path);
+        long start = 0;
+        long end = length - 1;
+
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] bounds = parseRange(range, length);
+            if (bounds == null) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (bounds.length == 2) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+
+        long count = end - start + 1;
+        response.setContentLengthLong(count);
+        if ("HEAD".equals(request.getMethod()) || count <= 0) {
+            return;
+        }
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, path.toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, out);
+                if (sent <= 0) break;
+                position += sent;
+                remaining -= sent;
+            }
+        }
     }
 
     /**
@@ -99,6 +216,62 @@ public class FileController {
         }
     }
 
+    private boolean matchesEtag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals("*") || value.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Plage unique "bytes=a-b", "bytes=a-" ou "bytes=-n".
+     * Retourne {start, end}, un tableau vide (ignorer : contenu complet) ou null (416).
+     */
+    private long[] parseRange(String header, long length) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) return null;
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start >= length || start > end) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private String contentDisposition(String contentType, String fileName) {
+        // Pour les images, vidéos et audio, afficher inline
+        boolean inline = contentType.startsWith("image/") || contentType.startsWith("video/") || contentType.startsWith("audio/");
+        return (inline ? "inline" : "attachment") + "; filename=\"" + fileName + "\"";
+    }
+
     /**
      * Détermine le type de contenu basé sur l'extension
      */
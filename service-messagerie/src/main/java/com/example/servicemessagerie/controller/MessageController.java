@@ -94,6 +94,38 @@ public class MessageController {
         }
     }
 
+    /**
+     * Historique par ancre : before=<messageId> pour remonter, after=<messageId> pour le rattrapage
+     */
+    @GetMapping("/conversation/{conversationId}/history")
+    public ResponseEntity<MessageHistoryDTO> getMessageHistory(
+            @PathVariable Long conversationId,
+            @RequestParam(required = false) Long before,
+            @RequestParam(required = false) Long after,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestHeader("Authorization") String token,
+            @AuthenticationPrincipal Jwt jwt) {
+
+        try {
+            Long userId = userIdResolver.resolveUserId(jwt, token);
+            log.debug("📥 History for conversation {} by user {} (before: {}, after: {}, limit: {})",
+                    conversationId, userId, before, after, limit);
+
+            MessageHistoryDTO history = messageService.getMessageHistory(conversationId, userId, before, after, limit);
+            return ResponseEntity.ok(history);
+
+        } catch (IllegalArgumentException e) {
+            log.error("❌ Bad request: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (SecurityException e) {
+            log.warn("🚫 User access denied to conversation {}", conversationId);
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        } catch (Exception e) {
+            log.error("❌ Error fetching history for conversation {}: {}", conversationId, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     /**
      * Marque les messages comme lus
      */
@@ -5,6 +5,7 @@ import com.example.servicemessagerie.dto.TypingIndicatorDTO;
 import com.example.servicemessagerie.dto.UserResponse;
 import com.example.servicemessagerie.feignclient.UserServiceClient;
 import com.example.servicemessagerie.service.MessageService;
+import com.example.servicemessagerie.service.TypingIndicatorService;
 import com.example.servicemessagerie.util.UserIdResolver;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -12,7 +13,6 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
-import org.springframework.messaging.handler.annotation.SendTo;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.security.oauth2.jwt.Jwt;
@@ -29,6 +29,7 @@ public class MessageWebSocketController {
 
     private final SimpMessagingTemplate messagingTemplate;
     private final MessageService messageService;
+    private final TypingIndicatorService typingIndicatorService;
     private final UserServiceClient userServiceClient; // ✅ AJOUTÉ
     private final UserIdResolver userIdResolver; // ✅ AJOUTÉ
 
@@ -70,8 +71,7 @@ public class MessageWebSocketController {
     }
 
     @MessageMapping("/conversation/{conversationId}/typing")
-    @SendTo("/topic/conversation/{conversationId}/typing")
-    public TypingIndicatorDTO handleTyping(
+    public void handleTyping(
             @DestinationVariable Long conversationId,
             @Payload TypingIndicatorDTO indicator,
             SimpMessageHeaderAccessor headerAccessor) {
@@ -82,13 +82,18 @@ public class MessageWebSocketController {
                 throw new SecurityException("Authentication required");
             }
 
-            Jwt jwt = auth.getToken();
+            Long userId = (Long) headerAccessor.getSessionAttributes().get("userId");
+            if (userId == null) {
+                // ✅ CORRECTION: Utiliser la même logique de résolution que WebSocketConfig
+                userId = resolveUserId(auth.getToken());
+            }
 
-            // ✅ CORRECTION: Utiliser la même logique de résolution que WebSocketConfig
-            Long userId = resolveUserId(jwt);
+            // Seules les transitions sont diffusées, par lots (voir TypingIndicatorService)
+            boolean started = typingIndicatorService.onTyping(
+                    conversationId, userId, indicator.getUserName(), indicator.isTyping());
 
-            // Si l'utilisateur tape, marquer les messages comme lus
-            if (indicator.isTyping()) {
+            // Si l'utilisateur commence à taper, marquer les messages comme lus
+            if (started) {
                 try {
                     messageService.markMessagesAsRead(conversationId, userId);
                     log.debug("Auto-marked messages as read for typing user {} in conversation {}",
@@ -98,21 +103,8 @@ public class MessageWebSocketController {
                 }
             }
 
-            log.debug("Typing indicator for conversation {} from user {}",
-                    conversationId, userId);
-
-            // ✅ CORRECTION: Mettre à jour l'indicateur avec le bon userId
-            indicator.setUserId(userId);
-            return indicator;
-
         } catch (Exception e) {
             log.error("❌ Error handling typing indicator: {}", e.getMessage(), e);
-            // Retourner un indicateur vide plutôt que de lancer une exception
-            return TypingIndicatorDTO.builder()
-                    .userId(-1L)
-                    .conversationId(conversationId)
-                    .isTyping(false)
-                    .build();
         }
     }
 
@@ -0,0 +1,46 @@
+package com.example.servicemessagerie.controller;
+
+import com.example.servicemessagerie.dto.SyncDTO;
+import com.example.servicemessagerie.service.SyncService;
+import com.example.servicemessagerie.util.UserIdResolver;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.web.bind.annotation.*;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/v1/messages")
+@RequiredArgsConstructor
+public class SyncController {
+
+    private final SyncService syncService;
+    private final UserIdResolver userIdResolver;
+
+    /**
+     * Synchronisation différentielle à la reconnexion : tout ce qui a changé depuis {@code since}.
+     * Premier appel avec since=0 ; si resetRequired, recharger puis reprendre avec le seq renvoyé.
+     */
+    @GetMapping("/sync")
+    public ResponseEntity<SyncDTO> sync(
+            @RequestParam(defaultValue = "0") long since,
+            @RequestParam(defaultValue = "500") int limit,
+            @RequestHeader("Authorization") String token,
+            @AuthenticationPrincipal Jwt jwt) {
+
+        try {
+            Long userId = userIdResolver.resolveUserId(jwt, token);
+            return ResponseEntity.ok(syncService.sync(userId, since, limit));
+
+        } catch (IllegalArgumentException e) {
+            log.error("❌ Bad sync request: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            log.error("❌ Error during sync since {}: {}", since, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+}
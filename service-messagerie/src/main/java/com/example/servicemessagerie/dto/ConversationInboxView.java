@@ -0,0 +1,24 @@
+package com.example.servicemessagerie.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Ligne de la boîte de réception : une conversation avec son dernier message, le résumé
+ * des participants (JSON) et le nombre de non-lus de l'utilisateur, calculés en une seule requête.
+ */
+public interface ConversationInboxView {
+    Long getId();
+    String getName();
+    String getType();
+    String getStatus();
+    Integer getSkillId();
+    String getLastMessage();
+    LocalDateTime getLastMessageTime();
+    LocalDateTime getCreatedAt();
+    LocalDateTime getUpdatedAt();
+
+    Boolean getAdmin();           // l'utilisateur courant est ADMIN de la conversation
+    Long getUnreadCount();
+    String getParticipantsJson(); // [{"userId":1,"userName":"...","role":"ADMIN"}, ...]
+    Long getTotalCount();         // COUNT(*) OVER () : total sans requête COUNT séparée
+}
@@ -0,0 +1,14 @@
+package com.example.servicemessagerie.dto;
+
+/**
+ * Événement de changement d'état d'un échange publié par le service d'échange (topic "notifications")
+ */
+public record ExchangeEvent(
+        String type,
+        Integer exchangeId,
+        Long producerId,
+        Long receiverId,
+        String skillName,
+        String reason,
+        String streamingDate
+) {}
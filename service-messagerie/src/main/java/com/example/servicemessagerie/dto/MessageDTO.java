@@ -6,6 +6,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.time.LocalDateTime;
+import java.util.Map;
 
 @Data
 @Builder
@@ -25,6 +26,11 @@ public class MessageDTO {
     private String attachmentType;
     private Long attachmentSize;
 
+    // Dérivés générés en arrière-plan (absents tant que le traitement n'est pas terminé)
+    private Map<Integer, String> thumbnailUrls; // largeur en px -> URL
+    private String posterUrl;  // vidéo : image d'aperçu
+    private String previewUrl; // vidéo : version basse résolution
+
     private LocalDateTime sentAt;
     private LocalDateTime readAt;
     private LocalDateTime editedAt;
@@ -0,0 +1,18 @@
+package com.example.servicemessagerie.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class MessageHistoryDTO {
+    private Long conversationId;
+    private List<MessageDTO> messages; // ordre chronologique (id croissant)
+
+    // Ancres pour la page suivante : before=oldestId pour remonter, after=newestId pour rattraper
+    private Long oldestId;
+    private Long newestId;
+    private boolean hasMore; // d'autres messages existent au-delà de la page dans le sens demandé
+}
@@ -0,0 +1,21 @@
+package com.example.servicemessagerie.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class PresenceDeltaDTO {
+    private long fromVersion;
+    private long toVersion;
+    private boolean snapshot; // true: "online" contient l'état complet, joined/left sont vides
+
+    private List<Long> joined;
+    private List<Long> left;
+    private List<Long> online;
+
+    private int totalOnline;
+    private long timestamp;
+}
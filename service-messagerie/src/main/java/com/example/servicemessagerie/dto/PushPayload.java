@@ -0,0 +1,14 @@
+package com.example.servicemessagerie.dto;
+
+import java.util.Map;
+
+/**
+ * Notification push prête à l'envoi (indépendante du SDK Firebase)
+ */
+public record PushPayload(
+        String topic,
+        String title,
+        String body,
+        Map<String, String> data
+) {
+}
@@ -0,0 +1,32 @@
+package com.example.servicemessagerie.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Différentiel renvoyé par {@code GET /sync?since=<seq>} : état courant de tout ce qui a changé
+ * depuis {@code since}, dédupliqué (un message modifié trois fois n'apparaît qu'une fois).
+ */
+@Data
+@Builder
+public class SyncDTO {
+    private long since;
+    private long seq; // à renvoyer comme since au prochain appel
+    private boolean hasMore; // d'autres changements suivent : rappeler immédiatement avec seq
+
+    // Journal tronqué ou curseur inconnu : recharger conversations + messages, puis reprendre à seq
+    private boolean resetRequired;
+
+    private List<ConversationDTO> conversations; // conversations ajoutées ou dont les participants ont changé
+    private List<Long> removedConversationIds; // l'utilisateur n'en fait plus partie
+    private List<MessageDTO> messages; // créés ou modifiés, ordre chronologique
+    private List<Long> deletedMessageIds;
+    private List<ReadWatermark> readWatermarks;
+    private Map<Long, Integer> unreadCounts; // conversations touchées uniquement
+
+    public record ReadWatermark(Long conversationId, Long userId, Long lastReadMessageId) {
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.servicemessagerie.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Ensemble des utilisateurs en train d'écrire dans une conversation (une trame par intervalle)
+ */
+@Data
+@Builder
+public class TypingStateDTO {
+    private Long conversationId;
+    private List<TypingUser> typingUsers;
+    private long timestamp;
+
+    public record TypingUser(Long userId, String userName) {
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.servicemessagerie.dto;
+
+/**
+ * Événement de création/modification/suppression d'un utilisateur (topic "user-updates")
+ */
+public record UserUpdatedEvent(
+        String type,
+        Long userId,
+        String keycloakId
+) {}
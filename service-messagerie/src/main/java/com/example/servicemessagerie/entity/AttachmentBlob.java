@@ -0,0 +1,43 @@
+package com.example.servicemessagerie.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Contenu binaire d'une pièce jointe, adressé par son SHA-256.
+ * Un même fichier envoyé dans plusieurs conversations n'est stocké qu'une fois ;
+ * {@code refCount} compte les messages/uploads qui le référencent.
+ */
+@Entity
+@Table(name = "attachment_blobs",
+        indexes = {
+                @Index(name = "idx_attachment_blobs_refcount", columnList = "ref_count, last_referenced_at")
+        })
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class AttachmentBlob {
+
+    @Id
+    @Column(name = "sha256", length = 64)
+    private String sha256;
+
+    @Column(name = "size_bytes", nullable = false)
+    private long sizeBytes;
+
+    @Column(name = "content_type")
+    private String contentType;
+
+    @Column(name = "ref_count", nullable = false)
+    private int refCount;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "last_referenced_at", nullable = false)
+    private LocalDateTime lastReferencedAt;
+}
@@ -0,0 +1,74 @@
+package com.example.servicemessagerie.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * File persistante des dérivés média (miniatures, poster, aperçu) d'un blob de pièce jointe.
+ * Une ligne par contenu (SHA-256) : un fichier partagé dans plusieurs conversations n'est traité qu'une fois.
+ */
+@Entity
+@Table(name = "media_derivative_jobs",
+        indexes = {
+                @Index(name = "idx_media_jobs_status", columnList = "status, next_attempt_at")
+        })
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MediaDerivativeJob {
+
+    @Id
+    @Column(name = "sha256", length = 64)
+    private String sha256;
+
+    @Column(name = "extension", length = 16)
+    private String extension;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private MediaKind kind;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private JobStatus status;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    // Noms des fichiers produits, séparés par des virgules (ex: "thumb_160.jpg,thumb_320.jpg")
+    @Column(name = "outputs", length = 500)
+    private String outputs;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    public enum MediaKind {
+        IMAGE, VIDEO
+    }
+
+    public enum JobStatus {
+        PENDING, RUNNING, DONE, FAILED
+    }
+
+    public List<String> getOutputList() {
+        if (outputs == null || outputs.isBlank()) {
+            return List.of();
+        }
+        return Arrays.asList(outputs.split(","));
+    }
+}
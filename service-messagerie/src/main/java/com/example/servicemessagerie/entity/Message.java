@@ -7,7 +7,11 @@ import org.hibernate.annotations.CreationTimestamp;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "messages")
+@Table(name = "messages",
+        indexes = {
+                @Index(name = "idx_messages_conversation_id", columnList = "conversation_id, id DESC"),
+                @Index(name = "idx_messages_conversation_status", columnList = "conversation_id, status")
+        })
 @Data
 @Builder
 @NoArgsConstructor
@@ -39,8 +43,9 @@ public class Message {
     @Column(name = "attachment_url")
     private String attachmentUrl;
 
+    // Clé de partition (partitions mensuelles, cf. MessagePartitionService) : jamais modifiée
     @CreationTimestamp
-    @Column(name = "sent_at")
+    @Column(name = "sent_at", nullable = false, updatable = false)
     private LocalDateTime sentAt;
 
     @Column(name = "read_at")
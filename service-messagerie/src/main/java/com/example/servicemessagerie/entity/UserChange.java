@@ -0,0 +1,61 @@
+package com.example.servicemessagerie.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Journal de synchronisation : une ligne par changement visible d'un utilisateur.
+ * {@code seq} est propre à l'utilisateur, strictement croissant et sans trou (cf. {@link UserSyncCursor}) ;
+ * un client reconnecté demande tout ce qui suit le dernier {@code seq} reçu.
+ */
+@Entity
+@Table(name = "user_changes",
+        uniqueConstraints = {
+                @UniqueConstraint(name = "uk_user_changes_user_seq", columnNames = {"user_id", "seq"})
+        },
+        indexes = {
+                @Index(name = "idx_user_changes_changed_at", columnList = "changed_at")
+        })
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserChange {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "seq", nullable = false)
+    private Long seq;
+
+    @Column(name = "conversation_id", nullable = false)
+    private Long conversationId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private ChangeKind kind;
+
+    // MESSAGE : message créé, modifié ou supprimé
+    @Column(name = "message_id")
+    private Long messageId;
+
+    // READ : lecteur ; MEMBERSHIP : participant concerné
+    @Column(name = "actor_id")
+    private Long actorId;
+
+    @Column(name = "changed_at", nullable = false)
+    private LocalDateTime changedAt;
+
+    public enum ChangeKind {
+        MESSAGE,
+        READ,
+        MEMBERSHIP
+    }
+}
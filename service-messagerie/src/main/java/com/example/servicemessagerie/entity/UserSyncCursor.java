@@ -0,0 +1,25 @@
+package com.example.servicemessagerie.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * Dernier numéro de changement attribué à un utilisateur.
+ * La ligne est verrouillée par l'upsert qui l'incrémente jusqu'au commit : les {@code seq}
+ * d'un même utilisateur deviennent visibles dans l'ordre, un client ne peut pas en sauter un.
+ */
+@Entity
+@Table(name = "user_sync_cursors")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserSyncCursor {
+
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(name = "last_seq", nullable = false)
+    private Long lastSeq;
+}
@@ -0,0 +1,68 @@
+package com.example.servicemessagerie.repository;
+
+import com.example.servicemessagerie.entity.AttachmentBlob;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Les mises à jour de compteur sont atomiques (une instruction). Enregistrement d'upload, libération
+ * et purge sont validés immédiatement, indépendamment de la transaction appelante, pour rester cohérents
+ * avec le disque ; la prise de référence suit la transaction du message qui la porte.
+ */
+@Repository
+public interface AttachmentBlobRepository extends JpaRepository<AttachmentBlob, String> {
+
+    /**
+     * Insère le blob sans référence (il en prendra une à l'envoi du message) ; s'il existe déjà,
+     * repousse seulement son délai de grâce
+     */
+    @Modifying
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    @Query(value = "INSERT INTO attachment_blobs (sha256, size_bytes, content_type, ref_count, created_at, last_referenced_at) " +
+            "VALUES (:sha256, :size, :contentType, 0, :now, :now) " +
+            "ON CONFLICT (sha256) DO UPDATE SET last_referenced_at = EXCLUDED.last_referenced_at",
+            nativeQuery = true)
+    int registerUpload(@Param("sha256") String sha256,
+                       @Param("size") long size,
+                       @Param("contentType") String contentType,
+                       @Param("now") LocalDateTime now);
+
+    /**
+     * Référence prise par un message enregistré ; 0 si le blob a déjà été purgé
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE AttachmentBlob b SET b.refCount = b.refCount + 1, b.lastReferencedAt = :now " +
+            "WHERE b.sha256 = :sha256")
+    int acquireReference(@Param("sha256") String sha256, @Param("now") LocalDateTime now);
+
+    /**
+     * La date de dernière référence repart de la libération : le délai de grâce court à partir d'ici
+     */
+    @Modifying
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    @Query("UPDATE AttachmentBlob b SET b.refCount = b.refCount - 1, b.lastReferencedAt = :now " +
+            "WHERE b.sha256 = :sha256 AND b.refCount > 0")
+    int releaseReference(@Param("sha256") String sha256, @Param("now") LocalDateTime now);
+
+    @Query("SELECT b.sha256 FROM AttachmentBlob b WHERE b.refCount <= 0 AND b.lastReferencedAt < :before")
+    List<String> findOrphans(@Param("before") LocalDateTime before, Limit limit);
+
+    /**
+     * Supprime le blob seulement s'il est toujours orphelin et hors délai de grâce
+     * (une référence ou un nouvel upload a pu arriver entre-temps)
+     */
+    @Modifying
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    @Query("DELETE FROM AttachmentBlob b WHERE b.sha256 = :sha256 AND b.refCount <= 0 AND b.lastReferencedAt < :before")
+    int deleteIfOrphan(@Param("sha256") String sha256, @Param("before") LocalDateTime before);
+}
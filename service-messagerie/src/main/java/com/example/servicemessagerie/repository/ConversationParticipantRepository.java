@@ -6,6 +6,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -19,4 +20,17 @@ public interface ConversationParticipantRepository extends JpaRepository<Convers
     @Query("SELECT p FROM ConversationParticipant p WHERE p.conversation.id = :conversationId AND p.isActive = true")
     List<ConversationParticipant> findActiveParticipantsByConversationId(@Param("conversationId") Long conversationId);
 
+    @Query("SELECT p FROM ConversationParticipant p WHERE p.conversation.id IN :conversationIds AND p.isActive = true")
+    List<ConversationParticipant> findActiveParticipantsByConversationIds(@Param("conversationIds") Collection<Long> conversationIds);
+
+    /**
+     * Utilisateurs partageant au moins une conversation active avec {@code userId}
+     */
+    @Query("SELECT DISTINCT other.userId FROM ConversationParticipant self, ConversationParticipant other " +
+            "WHERE self.userId = :userId AND self.isActive = true " +
+            "AND self.conversation.status = 'ACTIVE' " +
+            "AND other.conversation.id = self.conversation.id " +
+            "AND other.isActive = true AND other.userId <> :userId")
+    List<Long> findPeerUserIds(@Param("userId") Long userId);
+
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.example.servicemessagerie.repository;
 
 import com.example.servicemessagerie.entity.Conversation;
+import com.example.servicemessagerie.dto.ConversationInboxView;
 import com.example.servicemessagerie.entity.ConversationParticipant;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -31,6 +32,35 @@ public interface ConversationRepository extends JpaRepository<Conversation, Long
             "AND c.status = 'ACTIVE' " +
             "ORDER BY c.lastMessageTime DESC NULLS LAST")
     Page<Conversation> findByParticipantUserId(@Param("userId") Long userId, Pageable pageable);
+    /**
+     * Page de la boîte de réception en un seul aller-retour : conversation, dernier message,
+     * participants actifs agrégés en JSON, non-lus de l'utilisateur et total (fonction fenêtre).
+     */
+    @Query(value = "SELECT c.id AS \"id\", c.name AS \"name\", c.type AS \"type\", c.status AS \"status\", " +
+            "c.skill_id AS \"skillId\", c.last_message AS \"lastMessage\", " +
+            "c.last_message_time AS \"lastMessageTime\", c.created_at AS \"createdAt\", " +
+            "c.updated_at AS \"updatedAt\", " +
+            "(SELECT bool_or(me.role = 'ADMIN') FROM conversation_participants me " +
+            "    WHERE me.conversation_id = c.id AND me.user_id = :userId AND me.is_active = true) AS \"admin\", " +
+            "(SELECT COUNT(*) FROM messages m " +
+            "    WHERE m.conversation_id = c.id AND m.sender_id <> :userId " +
+            "    AND m.status <> 'READ' AND m.is_deleted = false) AS \"unreadCount\", " +
+            "(SELECT CAST(COALESCE(json_agg(json_build_object('userId', p.user_id, 'userName', p.user_name, " +
+            "    'role', p.role) ORDER BY p.joined_at), CAST('[]' AS json)) AS text) " +
+            "    FROM conversation_participants p " +
+            "    WHERE p.conversation_id = c.id AND p.is_active = true) AS \"participantsJson\", " +
+            "COUNT(*) OVER () AS \"totalCount\" " +
+            "FROM conversations c " +
+            "WHERE c.id IN (SELECT cp.conversation_id FROM conversation_participants cp " +
+            "    WHERE cp.user_id = :userId AND cp.is_active = true) " +
+            "AND c.status = 'ACTIVE' " +
+            "ORDER BY c.last_message_time DESC NULLS LAST, c.id DESC " +
+            "LIMIT :limit OFFSET :offset",
+            nativeQuery = true)
+    List<ConversationInboxView> findInboxPage(@Param("userId") Long userId,
+                                              @Param("limit") int limit,
+                                              @Param("offset") long offset);
+
     /**
      * ✅ NOUVEAU: Méthode pour récupérer les conversations avec participants
      */
@@ -0,0 +1,69 @@
+package com.example.servicemessagerie.repository;
+
+import com.example.servicemessagerie.entity.MediaDerivativeJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface MediaDerivativeJobRepository extends JpaRepository<MediaDerivativeJob, String> {
+
+    /**
+     * Ajoute le job s'il n'existe pas déjà pour ce contenu
+     */
+    @Modifying
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    @Query(value = "INSERT INTO media_derivative_jobs (sha256, extension, kind, status, attempts, created_at, updated_at, next_attempt_at) " +
+            "VALUES (:sha256, :extension, :kind, 'PENDING', 0, :now, :now, :now) " +
+            "ON CONFLICT (sha256) DO NOTHING",
+            nativeQuery = true)
+    int enqueue(@Param("sha256") String sha256,
+                @Param("extension") String extension,
+                @Param("kind") String kind,
+                @Param("now") LocalDateTime now);
+
+    /**
+     * Jobs prêts, verrouillés pour ce nœud (les autres instances les sautent)
+     */
+    @Query(value = "SELECT * FROM media_derivative_jobs " +
+            "WHERE status = 'PENDING' AND next_attempt_at <= :now " +
+            "ORDER BY created_at LIMIT :limit FOR UPDATE SKIP LOCKED",
+            nativeQuery = true)
+    List<MediaDerivativeJob> lockReadyJobs(@Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    @Modifying
+    @Query("UPDATE MediaDerivativeJob j SET j.status = 'RUNNING', j.attempts = j.attempts + 1, j.updatedAt = :now " +
+            "WHERE j.sha256 IN :ids")
+    int markRunning(@Param("ids") List<String> ids, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    @Query("UPDATE MediaDerivativeJob j SET j.status = 'DONE', j.outputs = :outputs, j.lastError = null, " +
+            "j.updatedAt = :now WHERE j.sha256 = :sha256")
+    int markDone(@Param("sha256") String sha256, @Param("outputs") String outputs, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    @Query("UPDATE MediaDerivativeJob j SET j.status = :status, j.lastError = :error, " +
+            "j.updatedAt = :now, j.nextAttemptAt = :nextAttemptAt WHERE j.sha256 = :sha256")
+    int markFailure(@Param("sha256") String sha256,
+                    @Param("status") MediaDerivativeJob.JobStatus status,
+                    @Param("error") String error,
+                    @Param("now") LocalDateTime now,
+                    @Param("nextAttemptAt") LocalDateTime nextAttemptAt);
+
+    /**
+     * Remet en file les jobs restés RUNNING (nœud arrêté en cours de traitement)
+     */
+    @Modifying
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    @Query("UPDATE MediaDerivativeJob j SET j.status = 'PENDING' WHERE j.status = 'RUNNING' AND j.updatedAt < :before")
+    int requeueStale(@Param("before") LocalDateTime before);
+}
@@ -1,11 +1,15 @@
 package com.example.servicemessagerie.repository;
 
 import com.example.servicemessagerie.entity.Message;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
@@ -21,6 +25,45 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
      */
     Page<Message> findByConversationIdAndIsDeletedFalse(Long conversationId, Pageable pageable);
 
+    /**
+     * Historique par ancre (index conversation_id, id DESC) : aucune requête COUNT ni OFFSET
+     */
+    @Query("SELECT m FROM Message m WHERE m.conversation.id = :conversationId " +
+            "AND m.isDeleted = false ORDER BY m.id DESC")
+    List<Message> findLatestMessages(@Param("conversationId") Long conversationId, Limit limit);
+
+    @Query("SELECT m FROM Message m WHERE m.conversation.id = :conversationId " +
+            "AND m.isDeleted = false AND m.id < :beforeId ORDER BY m.id DESC")
+    List<Message> findMessagesBefore(@Param("conversationId") Long conversationId,
+                                     @Param("beforeId") Long beforeId,
+                                     Limit limit);
+
+    @Query("SELECT m FROM Message m WHERE m.conversation.id = :conversationId " +
+            "AND m.isDeleted = false AND m.id > :afterId ORDER BY m.id ASC")
+    List<Message> findMessagesAfter(@Param("conversationId") Long conversationId,
+                                    @Param("afterId") Long afterId,
+                                    Limit limit);
+
+    /**
+     * Lecture à travers l'archive ({@code messages_archive}, mois détachés de la table chaude).
+     * Les entités retournées sont en lecture seule : elles n'existent pas dans {@code messages}.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query(value = "SELECT * FROM messages_archive m WHERE m.conversation_id = :conversationId " +
+            "AND m.is_deleted = false AND m.id < :beforeId ORDER BY m.id DESC LIMIT :limit",
+            nativeQuery = true)
+    List<Message> findArchivedMessagesBefore(@Param("conversationId") Long conversationId,
+                                             @Param("beforeId") Long beforeId,
+                                             @Param("limit") int limit);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query(value = "SELECT * FROM messages_archive m WHERE m.conversation_id = :conversationId " +
+            "AND m.is_deleted = false AND m.id > :afterId ORDER BY m.id ASC LIMIT :limit",
+            nativeQuery = true)
+    List<Message> findArchivedMessagesAfter(@Param("conversationId") Long conversationId,
+                                            @Param("afterId") Long afterId,
+                                            @Param("limit") int limit);
+
     /**
      * Trouve le dernier message d'une conversation
      */
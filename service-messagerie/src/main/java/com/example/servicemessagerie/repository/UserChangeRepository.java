@@ -0,0 +1,62 @@
+package com.example.servicemessagerie.repository;
+
+import com.example.servicemessagerie.entity.UserChange;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface UserChangeRepository extends JpaRepository<UserChange, Long> {
+
+    List<UserChange> findByUserIdAndSeqGreaterThanOrderBySeqAsc(Long userId, Long seq, Limit limit);
+
+    /**
+     * Un changement pour chaque participant actif de la conversation, en une instruction.
+     * Les curseurs sont pris dans l'ordre des user_id : deux écritures concurrentes ne s'interbloquent pas.
+     */
+    @Modifying
+    @Query(value = "WITH bumped AS (" +
+            "INSERT INTO user_sync_cursors (user_id, last_seq) " +
+            "SELECT DISTINCT p.user_id, 1 FROM conversation_participants p " +
+            "WHERE p.conversation_id = :conversationId AND p.is_active = true ORDER BY p.user_id " +
+            "ON CONFLICT (user_id) DO UPDATE SET last_seq = user_sync_cursors.last_seq + 1 " +
+            "RETURNING user_id, last_seq) " +
+            "INSERT INTO user_changes (user_id, seq, conversation_id, kind, message_id, actor_id, changed_at) " +
+            "SELECT b.user_id, b.last_seq, :conversationId, CAST(:kind AS varchar), " +
+            "CAST(:messageId AS bigint), CAST(:actorId AS bigint), :now FROM bumped b",
+            nativeQuery = true)
+    int recordForParticipants(@Param("conversationId") Long conversationId,
+                              @Param("kind") String kind,
+                              @Param("messageId") Long messageId,
+                              @Param("actorId") Long actorId,
+                              @Param("now") LocalDateTime now);
+
+    /**
+     * Un changement pour un seul utilisateur (ex : participant qui vient de quitter la conversation)
+     */
+    @Modifying
+    @Query(value = "WITH bumped AS (" +
+            "INSERT INTO user_sync_cursors (user_id, last_seq) VALUES (:userId, 1) " +
+            "ON CONFLICT (user_id) DO UPDATE SET last_seq = user_sync_cursors.last_seq + 1 " +
+            "RETURNING user_id, last_seq) " +
+            "INSERT INTO user_changes (user_id, seq, conversation_id, kind, message_id, actor_id, changed_at) " +
+            "SELECT b.user_id, b.last_seq, :conversationId, CAST(:kind AS varchar), " +
+            "CAST(:messageId AS bigint), CAST(:actorId AS bigint), :now FROM bumped b",
+            nativeQuery = true)
+    int recordForUser(@Param("userId") Long userId,
+                      @Param("conversationId") Long conversationId,
+                      @Param("kind") String kind,
+                      @Param("messageId") Long messageId,
+                      @Param("actorId") Long actorId,
+                      @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("DELETE FROM UserChange c WHERE c.changedAt < :before")
+    int deleteOlderThan(@Param("before") LocalDateTime before);
+}
@@ -0,0 +1,9 @@
+package com.example.servicemessagerie.repository;
+
+import com.example.servicemessagerie.entity.UserSyncCursor;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface UserSyncCursorRepository extends JpaRepository<UserSyncCursor, Long> {
+}
@@ -0,0 +1,211 @@
+package com.example.servicemessagerie.service;
+
+import com.example.servicemessagerie.dto.CommunityMemberResponse;
+import com.example.servicemessagerie.dto.ExchangeEvent;
+import com.example.servicemessagerie.dto.UserResponse;
+import com.example.servicemessagerie.feignclient.ExchangeServiceClient;
+import com.example.servicemessagerie.util.LongShardedMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Cache local du graphe de relations issu du service d'échange :
+ * producteur -> abonnés, receveur -> communauté, compétence -> membres.
+ * <p>
+ * Chaque entrée garde la liste complète (pour les écrans de sélection) et un tableau trié d'IDs,
+ * de sorte qu'un contrôle d'appartenance est une recherche binaire en mémoire au lieu d'un appel HTTP.
+ * Les entrées expirent après un TTL et sont invalidées par les événements d'échange (Kafka).
+ * En cas d'indisponibilité du service d'échange, l'entrée périmée est servie.
+ */
+@Slf4j
+@Service
+public class AuthorizationGraphService {
+
+    private final ExchangeServiceClient exchangeServiceClient;
+    private final long ttlMillis;
+
+    private final LongShardedMap<Relation<UserResponse>> subscribersByProducer = new LongShardedMap<>();
+    private final LongShardedMap<Relation<CommunityMemberResponse>> communityByReceiver = new LongShardedMap<>();
+    private final Map<Integer, Relation<UserResponse>> membersBySkill = new ConcurrentHashMap<>();
+
+    public AuthorizationGraphService(ExchangeServiceClient exchangeServiceClient,
+                                     @Value("${application.authz.ttl-ms:300000}") long ttlMillis) {
+        this.exchangeServiceClient = exchangeServiceClient;
+        this.ttlMillis = ttlMillis;
+    }
+
+    private static final class Relation<T> {
+        final List<T> members;
+        final long[] sortedIds;
+        final long loadedAt;
+
+        Relation(List<T> members, Function<T, Long> idOf) {
+            this.members = List.copyOf(members);
+            this.sortedIds = members.stream()
+                    .map(idOf)
+                    .filter(Objects::nonNull)
+                    .mapToLong(Long::longValue)
+                    .sorted()
+                    .distinct()
+                    .toArray();
+            this.loadedAt = System.currentTimeMillis();
+        }
+
+        boolean contains(long id) {
+            return Arrays.binarySearch(sortedIds, id) >= 0;
+        }
+    }
+
+    // ===== ABONNÉS D'UN PRODUCTEUR =====
+
+    /**
+     * Abonnés du producteur authentifié par {@code token}
+     */
+    public List<UserResponse> getSubscribers(Long producerId, String token) {
+        return subscribers(producerId, token).members;
+    }
+
+    public boolean isSubscriber(Long producerId, Long userId, String token) {
+        return userId != null && subscribers(producerId, token).contains(userId);
+    }
+
+    private Relation<UserResponse> subscribers(Long producerId, String token) {
+        Relation<UserResponse> cached = subscribersByProducer.get(producerId);
+        if (isFresh(cached)) return cached;
+
+        Relation<UserResponse> loaded = load("subscribers of producer " + producerId, cached,
+                () -> new Relation<>(exchangeServiceClient.getAllSubscribersForProducer(token), UserResponse::id));
+        subscribersByProducer.put(producerId, loaded);
+        return loaded;
+    }
+
+    // ===== COMMUNAUTÉ D'UN RECEVEUR =====
+
+    /**
+     * Membres de la communauté du receveur authentifié par {@code token}
+     */
+    public List<CommunityMemberResponse> getCommunity(Long receiverId, String token) {
+        return community(receiverId, token).members;
+    }
+
+    public boolean isInCommunity(Long receiverId, Long userId, String token) {
+        return userId != null && community(receiverId, token).contains(userId);
+    }
+
+    private Relation<CommunityMemberResponse> community(Long receiverId, String token) {
+        Relation<CommunityMemberResponse> cached = communityByReceiver.get(receiverId);
+        if (isFresh(cached)) return cached;
+
+        Relation<CommunityMemberResponse> loaded = load("community of receiver " + receiverId, cached,
+                () -> new Relation<>(exchangeServiceClient.getAllCommunityMembersForReceiver(token),
+                        CommunityMemberResponse::userId));
+        communityByReceiver.put(receiverId, loaded);
+        return loaded;
+    }
+
+    // ===== MEMBRES D'UNE COMPÉTENCE =====
+
+    public List<UserResponse> getSkillMembers(Integer skillId, String token) {
+        return skillMembers(skillId, token).members;
+    }
+
+    public boolean isSkillMember(Integer skillId, Long userId, String token) {
+        return userId != null && skillMembers(skillId, token).contains(userId);
+    }
+
+    private Relation<UserResponse> skillMembers(Integer skillId, String token) {
+        Relation<UserResponse> cached = membersBySkill.get(skillId);
+        if (isFresh(cached)) return cached;
+
+        Relation<UserResponse> loaded = load("members of skill " + skillId, cached,
+                () -> new Relation<>(exchangeServiceClient.getSkillUsersSimple(skillId, token), UserResponse::id));
+        membersBySkill.put(skillId, loaded);
+        return loaded;
+    }
+
+    private boolean isFresh(Relation<?> relation) {
+        return relation != null && System.currentTimeMillis() - relation.loadedAt < ttlMillis;
+    }
+
+    private <T> Relation<T> load(String what, Relation<T> stale, Supplier<Relation<T>> loader) {
+        try {
+            Relation<T> loaded = loader.get();
+            log.debug("🔐 Loaded {} ({} ids)", what, loaded.sortedIds.length);
+            return loaded;
+        } catch (RuntimeException e) {
+            if (stale != null) {
+                log.warn("⚠️ Exchange service unavailable, serving stale {}: {}", what, e.getMessage());
+                return stale;
+            }
+            throw e;
+        }
+    }
+
+    // ===== INVALIDATION =====
+
+    /**
+     * Un échange a changé d'état (demande, acceptation, refus, session...) : les relations
+     * du producteur et du receveur, ainsi que toute entrée qui les contient, sont rechargées au prochain accès.
+     */
+    @KafkaListener(topics = "${application.authz.exchange-topic:notifications}",
+            groupId = "${application.authz.consumer-group:messagerie-authz}-${random.uuid}",
+            containerFactory = "exchangeEventListenerFactory")
+    public void onExchangeEvent(ExchangeEvent event) {
+        if (event == null) return;
+        log.debug("🔐 Exchange event {} (producer={}, receiver={}): invalidating relations",
+                event.type(), event.producerId(), event.receiverId());
+        invalidateUsers(event.producerId(), event.receiverId());
+    }
+
+    public void invalidateUsers(Long... userIds) {
+        Set<Long> ids = new HashSet<>();
+        for (Long id : userIds) {
+            if (id != null) ids.add(id);
+        }
+        if (ids.isEmpty()) return;
+
+        for (Long id : ids) {
+            subscribersByProducer.remove(id);
+            communityByReceiver.remove(id);
+        }
+        // Les autres entrées qui référencent ces utilisateurs ont aussi changé
+        for (long key : subscribersByProducer.keys()) {
+            Relation<UserResponse> relation = subscribersByProducer.get(key);
+            if (relation != null && containsAny(relation, ids)) subscribersByProducer.remove(key);
+        }
+        for (long key : communityByReceiver.keys()) {
+            Relation<CommunityMemberResponse> relation = communityByReceiver.get(key);
+            if (relation != null && containsAny(relation, ids)) communityByReceiver.remove(key);
+        }
+        membersBySkill.values().removeIf(relation -> containsAny(relation, ids));
+    }
+
+    public void invalidateSkill(Integer skillId) {
+        if (skillId != null) {
+            membersBySkill.remove(skillId);
+        }
+    }
+
+    private static boolean containsAny(Relation<?> relation, Set<Long> ids) {
+        for (Long id : ids) {
+            if (relation.contains(id)) return true;
+        }
+        return false;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("producers", subscribersByProducer.size());
+        stats.put("receivers", communityByReceiver.size());
+        stats.put("skills", membersBySkill.size());
+        stats.put("ttlMillis", ttlMillis);
+        return stats;
+    }
+}
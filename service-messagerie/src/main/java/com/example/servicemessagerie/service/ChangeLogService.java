@@ -0,0 +1,71 @@
+package com.example.servicemessagerie.service;
+
+import com.example.servicemessagerie.entity.UserChange.ChangeKind;
+import com.example.servicemessagerie.repository.UserChangeRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+/**
+ * Alimente le journal de synchronisation ({@code user_changes}) utilisé par {@code GET /sync}.
+ * <p>
+ * Appelé dans la transaction de l'écriture métier : le changement est visible exactement
+ * quand la donnée l'est. Les lignes plus anciennes que {@code retention-days} sont purgées ;
+ * un client plus en retard reçoit {@code resetRequired} et recharge tout.
+ */
+@Slf4j
+@Service
+public class ChangeLogService {
+
+    private final UserChangeRepository changeRepository;
+    private final int retentionDays;
+
+    public ChangeLogService(UserChangeRepository changeRepository,
+                            @Value("${application.sync.retention-days:14}") int retentionDays) {
+        this.changeRepository = changeRepository;
+        this.retentionDays = Math.max(1, retentionDays);
+    }
+
+    /**
+     * Message créé, modifié ou supprimé
+     */
+    @Transactional
+    public void messageChanged(Long conversationId, Long messageId) {
+        changeRepository.recordForParticipants(conversationId, ChangeKind.MESSAGE.name(),
+                messageId, null, LocalDateTime.now());
+    }
+
+    /**
+     * Le marqueur de lecture de {@code readerId} a avancé
+     */
+    @Transactional
+    public void readWatermarkMoved(Long conversationId, Long readerId) {
+        changeRepository.recordForParticipants(conversationId, ChangeKind.READ.name(),
+                null, readerId, LocalDateTime.now());
+    }
+
+    /**
+     * Participants ajoutés ou retirés ; {@code departedUserIds} ne sont plus actifs mais doivent l'apprendre
+     */
+    @Transactional
+    public void membershipChanged(Long conversationId, Long... departedUserIds) {
+        LocalDateTime now = LocalDateTime.now();
+        changeRepository.recordForParticipants(conversationId, ChangeKind.MEMBERSHIP.name(), null, null, now);
+        for (Long userId : departedUserIds) {
+            changeRepository.recordForUser(userId, conversationId, ChangeKind.MEMBERSHIP.name(), null, userId, now);
+        }
+    }
+
+    @Scheduled(cron = "${application.sync.purge-cron:0 45 3 * * *}")
+    @Transactional
+    public void purge() {
+        int deleted = changeRepository.deleteOlderThan(LocalDateTime.now().minusDays(retentionDays));
+        if (deleted > 0) {
+            log.info("🧹 Purged {} sync changes older than {} days", deleted, retentionDays);
+        }
+    }
+}
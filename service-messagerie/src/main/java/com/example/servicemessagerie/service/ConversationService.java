@@ -4,6 +4,9 @@ import com.example.servicemessagerie.dto.*;
 import com.example.servicemessagerie.entity.*;
 import com.example.servicemessagerie.repository.*;
 import com.example.servicemessagerie.feignclient.*;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
@@ -28,9 +31,13 @@ public class ConversationService {
     private final MessageRepository messageRepository;
     private final UserServiceClient userServiceClient;
     private final SkillServiceClient skillServiceClient;
-    private final ExchangeServiceClient exchangeServiceClient;
+    private final AuthorizationGraphService authorizationGraph;
 
     private final ConversationWebSocketService webSocketService;
+    private final PresenceInterestService presenceInterestService;
+    private final PresenceService presenceService;
+    private final ChangeLogService changeLog;
+    private final ObjectMapper objectMapper;
     /**
      * ✅ AMÉLIORÉ: Récupère les utilisateurs disponibles selon le rôle et le type de conversation
      */
@@ -75,11 +82,11 @@ public class ConversationService {
         try {
             if (userRoles.contains("PRODUCER")) {
                 log.info("🎯 Producer: fetching subscribers");
-                return exchangeServiceClient.getAllSubscribersForProducer(token);
+                return authorizationGraph.getSubscribers(currentUserId, token);
 
             } else if (userRoles.contains("RECEIVER")) {
                 log.info("🎯 Receiver: fetching community members");
-                List<CommunityMemberResponse> communityMembers = exchangeServiceClient.getAllCommunityMembersForReceiver(token);
+                List<CommunityMemberResponse> communityMembers = authorizationGraph.getCommunity(currentUserId, token);
 
                 return communityMembers.stream()
                         .filter(member -> !member.userId().equals(currentUserId)) // Exclure l'utilisateur actuel
@@ -103,7 +110,7 @@ public class ConversationService {
     private List<UserResponse> getAvailableUsersForSkill(Integer skillId, String token, Long currentUserId) {
         try {
             log.info("🎯 Fetching users for skill: {}", skillId);
-            List<UserResponse> skillUsers = exchangeServiceClient.getSkillUsersSimple(skillId, token);
+            List<UserResponse> skillUsers = authorizationGraph.getSkillMembers(skillId, token);
 
             // Filtrer l'utilisateur actuel
             return skillUsers.stream()
@@ -156,6 +163,8 @@ public class ConversationService {
 
         participantRepository.saveAll(participants);
         conversation.setParticipants(participants);
+        presenceInterestService.invalidate(List.of(userId1, userId2));
+        changeLog.membershipChanged(conversation.getId());
 
         log.info("Created new direct conversation: {}", conversation.getId());
 
@@ -188,17 +197,14 @@ public class ConversationService {
             List<String> roles1 = getUserRoles(user1);
             List<String> roles2 = getUserRoles(user2);
 
-            // Cas 1: Producteur et ses subscribers
+            // Cas 1: Producteur et ses subscribers (relation du demandeur, propriétaire du token)
+            String bearer = "Bearer " + extractTokenFromBearer(token);
             if (roles1.contains("PRODUCER")) {
-                List<UserResponse> subscribers = exchangeServiceClient.getAllSubscribersForProducer(
-                        "Bearer " + extractTokenFromBearer(token));
-                return subscribers.stream().anyMatch(sub -> sub.id().equals(userId2));
+                return authorizationGraph.isSubscriber(userId1, userId2, bearer);
             }
 
             if (roles2.contains("PRODUCER")) {
-                List<UserResponse> subscribers = exchangeServiceClient.getAllSubscribersForProducer(
-                        "Bearer " + extractTokenFromBearer(token));
-                return subscribers.stream().anyMatch(sub -> sub.id().equals(userId1));
+                return authorizationGraph.isSubscriber(userId1, userId1, bearer);
             }
 
             // Cas 2: Receivers dans la même communauté
@@ -220,13 +226,8 @@ public class ConversationService {
     private boolean areReceiversInSameCommunity(Long receiverId1, Long receiverId2, String token) {
         try {
             // Temporairement permissif - à améliorer avec une vraie vérification communautaire
-            List<CommunityMemberResponse> community = exchangeServiceClient.getAllCommunityMembersForReceiver(token);
-
-            Set<Long> communityUserIds = community.stream()
-                    .map(CommunityMemberResponse::userId)
-                    .collect(Collectors.toSet());
-
-            return communityUserIds.contains(receiverId1) && communityUserIds.contains(receiverId2);
+            return authorizationGraph.isInCommunity(receiverId1, receiverId1, token)
+                    && authorizationGraph.isInCommunity(receiverId1, receiverId2, token);
 
         } catch (Exception e) {
             log.error("❌ Error checking receiver community: {}", e.getMessage(), e);
@@ -243,8 +244,7 @@ public class ConversationService {
      */
     private boolean canUserAccessSkillConversation(Integer skillId, Long userId, String token) {
         try {
-            List<UserResponse> authorizedUsers = exchangeServiceClient.getSkillUsersSimple(skillId, token);
-            return authorizedUsers.stream().anyMatch(user -> user.id().equals(userId));
+            return authorizationGraph.isSkillMember(skillId, userId, token);
 
         } catch (Exception e) {
             log.error("❌ Error checking skill access for user {} and skill {}: {}", userId, skillId, e.getMessage());
@@ -285,7 +285,7 @@ public class ConversationService {
      */
     private void addAuthorizedUsersToSkillConversation(Conversation conversation, Integer skillId, String token) {
         try {
-            List<UserResponse> authorizedUsers = exchangeServiceClient.getSkillUsersSimple(skillId, token);
+            List<UserResponse> authorizedUsers = authorizationGraph.getSkillMembers(skillId, token);
 
             List<ConversationParticipant> participants = new ArrayList<>();
 
@@ -316,6 +316,7 @@ public class ConversationService {
 
             if (!participants.isEmpty()) {
                 participantRepository.saveAll(participants);
+                changeLog.membershipChanged(conversation.getId());
                 log.info("✅ Added {} users to skill conversation {}", participants.size(), conversation.getId());
             }
 
@@ -381,6 +382,8 @@ public class ConversationService {
 
         participantRepository.saveAll(conversationParticipants);
         conversation.setParticipants(conversationParticipants);
+        presenceInterestService.invalidate(allParticipantIds);
+        changeLog.membershipChanged(conversation.getId());
 
         log.info("Group conversation created with {} participants", conversationParticipants.size());
         return convertToDTO(conversation, creatorId);
@@ -396,23 +399,13 @@ public class ConversationService {
 
             if (creatorRoles.contains("PRODUCER")) {
                 // Le producteur peut inviter ses subscribers
-                List<UserResponse> subscribers = exchangeServiceClient.getAllSubscribersForProducer(token);
-                Set<Long> subscriberIds = subscribers.stream()
-                        .map(UserResponse::id)
-                        .collect(Collectors.toSet());
-
                 return participantIds.stream()
-                        .allMatch(id -> id.equals(creatorId) || subscriberIds.contains(id));
+                        .allMatch(id -> id.equals(creatorId) || authorizationGraph.isSubscriber(creatorId, id, token));
 
             } else if (creatorRoles.contains("RECEIVER")) {
                 // Le receiver peut inviter les membres de sa communauté
-                List<CommunityMemberResponse> community = exchangeServiceClient.getAllCommunityMembersForReceiver(token);
-                Set<Long> communityIds = community.stream()
-                        .map(CommunityMemberResponse::userId)
-                        .collect(Collectors.toSet());
-
                 return participantIds.stream()
-                        .allMatch(id -> id.equals(creatorId) || communityIds.contains(id));
+                        .allMatch(id -> id.equals(creatorId) || authorizationGraph.isInCommunity(creatorId, id, token));
             }
 
             return false;
@@ -478,7 +471,7 @@ public class ConversationService {
         log.info("🎯 createOrGetSkillConversation: skill={}, user={}", skillId, userId);
 
         // 1️⃣ Récupérer tous les utilisateurs de la compétence
-        List<UserResponse> allSkillUsers = exchangeServiceClient.getSkillUsersSimple(skillId, token);
+        List<UserResponse> allSkillUsers = authorizationGraph.getSkillMembers(skillId, token);
         if (allSkillUsers.isEmpty()) {
             throw new IllegalStateException("Aucun utilisateur trouvé pour la compétence " + skillId);
         }
@@ -511,10 +504,14 @@ public class ConversationService {
 
         // 3️⃣ Ajouter tous les utilisateurs comme participants (idempotent)
         Set<Long> participantIds = new HashSet<>();
+        boolean membershipChanged = false;
         for (UserResponse u : allSkillUsers) {
-            addUserToSkillConversationIfNeeded(conversation, u.id(), token);
+            membershipChanged |= addUserToSkillConversationIfNeeded(conversation, u.id(), token);
             participantIds.add(u.id());
         }
+        if (membershipChanged) {
+            changeLog.membershipChanged(conversation.getId());
+        }
 
         // 4️⃣ Convertir en DTO
         ConversationDTO dto = convertToDTO(conversation, userId);
@@ -527,11 +524,12 @@ public class ConversationService {
     }
     /**
      * ✅ Méthode utilitaire interne pour ajouter un participant s’il n’existe pas encore
+     * @return vrai si le participant a été ajouté
      */
-    public void addUserToSkillConversationIfNeeded(Conversation conversation, Long userId, String token) {
+    public boolean addUserToSkillConversationIfNeeded(Conversation conversation, Long userId, String token) {
         boolean alreadyThere = conversation.getParticipants().stream()
                 .anyMatch(p -> p.getUserId().equals(userId) && p.isActive());
-        if (alreadyThere) return;
+        if (alreadyThere) return false;
 
         UserResponse user = fetchUserById(userId, token);
         ConversationParticipant participant = ConversationParticipant.builder()
@@ -547,6 +545,8 @@ public class ConversationService {
                         : ConversationParticipant.ParticipantRole.MEMBER)
                 .build();
         participantRepository.save(participant);
+        presenceInterestService.invalidateConversation(conversation.getId());
+        return true;
     }
     /**
      * ✅ NOUVEAU: Version corrigée de création de conversation de compétence
@@ -603,6 +603,8 @@ public class ConversationService {
             }
         }
 
+        changeLog.membershipChanged(conversation.getId());
+
         // ✅ IMPORTANT: Convertir en DTO avant diffusion
         ConversationDTO conversationDTO = convertToDTO(conversation, userId);
 
@@ -612,75 +614,46 @@ public class ConversationService {
         return conversationDTO;
     }
     /**
-     * Récupère toutes les conversations d'un utilisateur
+     * Récupère toutes les conversations d'un utilisateur.
+     * Une seule requête (projection {@link ConversationInboxView}) fournit la page, le dernier message,
+     * les participants, les non-lus et le total ; la présence est lue en mémoire.
      */
     @Transactional(readOnly = true)
     public Page<ConversationDTO> getUserConversations(Long userId, int page, int size) {
         log.info("📋 Fetching conversations for user {}, page {}, size {}", userId, page, size);
 
         try {
-            // Vérifier si l'utilisateur a des participations
-            long participantCount = conversationRepository.countConversationsByUserId(userId);
-            log.info("🔍 User {} has {} conversation participations", userId, participantCount);
-
-            if (participantCount == 0) {
-                log.warn("⚠️ User {} has no conversation participations", userId);
-                return Page.empty();
-            }
-
-            // Utiliser la requête paginée optimisée
             PageRequest pageable = PageRequest.of(page, size,
                     Sort.by(Sort.Order.desc("lastMessageTime").nullsLast()));
 
-            Page<Conversation> conversations = conversationRepository
-                    .findByParticipantUserId(userId, pageable);
-
-            log.info("✅ Paginated query found {} conversations for user {}",
-                    conversations.getTotalElements(), userId);
-
-            // Charger les participants séparément pour éviter le warning Hibernate
-            List<Long> conversationIds = conversations.getContent().stream()
-                    .map(Conversation::getId)
-                    .collect(Collectors.toList());
-
-            if (!conversationIds.isEmpty()) {
-                List<Conversation> conversationsWithParticipants =
-                        conversationRepository.findConversationsWithParticipants(conversationIds);
-
-                // Remapper les conversations avec leurs participants
-                Map<Long, Conversation> conversationMap = conversationsWithParticipants.stream()
-                        .collect(Collectors.toMap(Conversation::getId, c -> c));
+            List<ConversationInboxView> rows =
+                    conversationRepository.findInboxPage(userId, size, pageable.getOffset());
 
-                conversations.getContent().forEach(c -> {
-                    Conversation fullConversation = conversationMap.get(c.getId());
-                    if (fullConversation != null) {
-                        c.setParticipants(fullConversation.getParticipants());
-                    }
-                });
+            long total;
+            if (!rows.isEmpty()) {
+                total = rows.get(0).getTotalCount();
+            } else if (page > 0) {
+                // Page hors limites : le total n'est pas porté par une ligne
+                total = conversationRepository.countActiveConversationsByUserId(userId);
+            } else {
+                log.warn("⚠️ User {} has no conversation participations", userId);
+                return Page.empty(pageable);
             }
 
-            // Convertir en DTOs avec gestion d'erreur par conversation
-            List<ConversationDTO> conversationDTOs = new ArrayList<>();
-            for (Conversation conv : conversations.getContent()) {
+            List<ConversationDTO> conversationDTOs = new ArrayList<>(rows.size());
+            for (ConversationInboxView row : rows) {
                 try {
-                    log.debug("  - Processing conversation {}: {}, type: {}, participants: {}",
-                            conv.getId(), conv.getName(), conv.getType(),
-                            conv.getParticipants() != null ? conv.getParticipants().size() : 0);
-
-                    ConversationDTO dto = convertToDTO(conv, userId);
-                    conversationDTOs.add(dto);
-
-                    log.debug("  - ✅ Converted conversation {} successfully", conv.getId());
+                    conversationDTOs.add(convertToDTO(row));
                 } catch (Exception e) {
-                    log.error("❌ Error converting conversation {} to DTO: {}", conv.getId(), e.getMessage(), e);
+                    log.error("❌ Error converting conversation {} to DTO: {}", row.getId(), e.getMessage(), e);
                     // Continuer avec les autres conversations
                 }
             }
 
-            log.info("✅ Successfully processed {} out of {} conversations",
-                    conversationDTOs.size(), conversations.getContent().size());
+            log.info("✅ Inbox query returned {} of {} conversations for user {}",
+                    conversationDTOs.size(), total, userId);
 
-            return new PageImpl<>(conversationDTOs, pageable, conversations.getTotalElements());
+            return new PageImpl<>(conversationDTOs, pageable, total);
 
         } catch (Exception e) {
             log.error("❌ Error fetching conversations for user {}: {}", userId, e.getMessage(), e);
@@ -788,6 +761,9 @@ public class ConversationService {
         // Marquer comme inactif pour cet utilisateur
         participant.setActive(false);
         participantRepository.save(participant);
+        presenceInterestService.invalidateConversation(conversationId);
+        presenceInterestService.invalidate(List.of(userId));
+        changeLog.membershipChanged(conversationId, userId);
 
         log.info("User {} archived conversation {}", userId, conversationId);
     }
@@ -967,6 +943,40 @@ public class ConversationService {
         }
     }
 
+    /**
+     * Conversion d'une ligne de boîte de réception (projection) vers DTO, sans requête supplémentaire
+     */
+    private ConversationDTO convertToDTO(ConversationInboxView row) throws JsonProcessingException {
+        List<ParticipantDTO> participantDTOs = new ArrayList<>();
+        if (row.getParticipantsJson() != null) {
+            for (JsonNode node : objectMapper.readTree(row.getParticipantsJson())) {
+                Long participantId = node.path("userId").asLong();
+                participantDTOs.add(ParticipantDTO.builder()
+                        .userId(participantId)
+                        .userName(node.path("userName").asText(null))
+                        .role(node.path("role").asText(null))
+                        .isOnline(presenceService.isUserOnline(participantId))
+                        .build());
+            }
+        }
+
+        return ConversationDTO.builder()
+                .id(row.getId())
+                .name(row.getName())
+                .type(row.getType())
+                .status(row.getStatus())
+                .skillId(row.getSkillId())
+                .participants(participantDTOs)
+                .lastMessage(row.getLastMessage())
+                .lastMessageTime(row.getLastMessageTime())
+                .unreadCount(row.getUnreadCount() != null ? row.getUnreadCount().intValue() : 0)
+                .createdAt(row.getCreatedAt())
+                .updatedAt(row.getUpdatedAt())
+                .canSendMessage(true)
+                .isAdmin(Boolean.TRUE.equals(row.getAdmin()))
+                .build();
+    }
+
     // ✅ CORRIGER isUserAdmin
     private boolean isUserAdmin(List<ConversationParticipant> participants, Long userId) {
         if (userId == null || participants == null) return false;
@@ -27,6 +27,7 @@ import java.util.stream.Collectors;
 public class ConversationWebSocketService {
 
     private final SimpMessagingTemplate messagingTemplate;
+    private final WebSocketFanoutService fanoutService;
     private final ExchangeServiceClient exchangeServiceClient;
     private ConversationRepository conversationRepository;
 
@@ -49,18 +50,7 @@ public class ConversationWebSocketService {
                     .collect(Collectors.toSet());
 
             // ✅ Diffuser à chaque utilisateur (producteur + receivers)
-            for (Long userId : participantIds) {
-                try {
-                    messagingTemplate.convertAndSendToUser(
-                            userId.toString(),
-                            "/queue/new-conversation",
-                            conversation
-                    );
-                    log.debug("✅ Sent to user {}", userId);
-                } catch (Exception e) {
-                    log.error("❌ Failed to send to user {}: {}", userId, e.getMessage());
-                }
-            }
+            fanoutService.sendToUsers(participantIds, "/queue/new-conversation", conversation);
 
             // ✅ Topic global pour cette compétence
             messagingTemplate.convertAndSend(
@@ -86,34 +76,21 @@ public class ConversationWebSocketService {
             List<Long> participantIds = conversationRepository
                     .findUserIdsByConversationId(conversationId);
 
-            for (Long participantId : participantIds) {
-                if (!participantId.equals(message.getSenderId())) {
-                    // Envoyer le message
-                    messagingTemplate.convertAndSendToUser(
-                            participantId.toString(),
-                            "/queue/new-message",
-                            messageDTO
-                    );
-
-                    // Mise à jour du compteur non lu
-                    Map<String, Object> unreadIncrement = new HashMap<>();
-                    unreadIncrement.put("conversationId", conversationId);
-                    unreadIncrement.put("action", "INCREMENT");
-                    unreadIncrement.put("messageId", message.getId());
-
-                    messagingTemplate.convertAndSendToUser(
-                            participantId.toString(),
-                            "/queue/unread-update",
-                            unreadIncrement
-                    );
-                }
-            }
-
-            // Diffuser aussi sur le topic de la conversation
-            messagingTemplate.convertAndSend(
-                    "/topic/conversation/" + conversationId,
-                    messageDTO
-            );
+            List<Long> recipientIds = participantIds.stream()
+                    .filter(participantId -> !participantId.equals(message.getSenderId()))
+                    .toList();
+
+            // Message : topic de la conversation + file personnelle, sérialisé une fois
+            fanoutService.publish("/topic/conversation/" + conversationId, messageDTO,
+                    recipientIds, "/queue/new-message");
+
+            // Mise à jour du compteur non lu (identique pour tous les destinataires)
+            Map<String, Object> unreadIncrement = new HashMap<>();
+            unreadIncrement.put("conversationId", conversationId);
+            unreadIncrement.put("action", "INCREMENT");
+            unreadIncrement.put("messageId", message.getId());
+
+            fanoutService.sendToUsers(recipientIds, "/queue/unread-update", unreadIncrement);
 
             log.debug("✅ New message broadcasted for conversation {}", conversationId);
 
@@ -143,40 +120,24 @@ public class ConversationWebSocketService {
             readReceipt.put("timestamp", LocalDateTime.now().toString());
             readReceipt.put("type", "READ_RECEIPT");
 
-            // 1. Diffuser sur le topic de la conversation
-            messagingTemplate.convertAndSend(
-                    "/topic/conversation/" + conversationId + "/read",
-                    readReceipt
-            );
+            // 1. Participants à notifier (sauf celui qui a lu)
+            List<Long> participantIds = conversationRepository.findUserIdsByConversationId(conversationId).stream()
+                    .filter(participantId -> !participantId.equals(readByUserId))
+                    .toList();
+
+            // 2. Topic de la conversation + queue personnelle pour les receipts
+            fanoutService.publish("/topic/conversation/" + conversationId + "/read", readReceipt,
+                    participantIds, "/queue/read-receipt");
+
+            // 3. Mise à jour du compteur non lu
+            Map<String, Object> unreadUpdate = new HashMap<>();
+            unreadUpdate.put("conversationId", conversationId);
+            unreadUpdate.put("action", "DECREMENT");
+            unreadUpdate.put("count", messagesRead);
 
-            // 2. Récupérer tous les participants
-            List<Long> participantIds = conversationRepository.findUserIdsByConversationId(conversationId);
-
-            // 3. Envoyer à chaque participant individuellement (sauf celui qui a lu)
-            for (Long participantId : participantIds) {
-                if (!participantId.equals(readByUserId)) {
-                    // Queue personnelle pour les receipts
-                    messagingTemplate.convertAndSendToUser(
-                            participantId.toString(),
-                            "/queue/read-receipt",
-                            readReceipt
-                    );
-
-                    // Mise à jour du compteur non lu
-                    Map<String, Object> unreadUpdate = new HashMap<>();
-                    unreadUpdate.put("conversationId", conversationId);
-                    unreadUpdate.put("action", "DECREMENT");
-                    unreadUpdate.put("count", messagesRead);
-
-                    messagingTemplate.convertAndSendToUser(
-                            participantId.toString(),
-                            "/queue/unread-update",
-                            unreadUpdate
-                    );
-                }
-            }
-
-            log.info("✅ Read receipt broadcasted to {} participants", participantIds.size() - 1);
+            fanoutService.sendToUsers(participantIds, "/queue/unread-update", unreadUpdate);
+
+            log.info("✅ Read receipt broadcasted to {} participants", participantIds.size());
 
         } catch (Exception e) {
             log.error("❌ Error broadcasting read receipt: {}", e.getMessage(), e);
@@ -218,17 +179,7 @@ public class ConversationWebSocketService {
         log.info("Broadcasting new conversation {} to {} participants",
                 conversation.getId(), participantIds.size());
 
-        for (Long participantId : participantIds) {
-            try {
-                messagingTemplate.convertAndSendToUser(
-                        participantId.toString(),
-                        "/queue/new-conversation",
-                        conversation
-                );
-            } catch (Exception e) {
-                log.error("Failed to send to user {}: {}", participantId, e.getMessage());
-            }
-        }
+        fanoutService.sendToUsers(participantIds, "/queue/new-conversation", conversation);
     }
 
     private MessageDTO convertMessageToDTO(Message message) {
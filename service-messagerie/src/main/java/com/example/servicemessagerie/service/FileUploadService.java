@@ -1,25 +1,61 @@
 package com.example.servicemessagerie.service;
 
+import com.example.servicemessagerie.repository.AttachmentBlobRepository;
+import com.example.servicemessagerie.repository.MediaDerivativeJobRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
 import java.util.Arrays;
+import java.util.HexFormat;
 import java.util.List;
-import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+/**
+ * Stockage des pièces jointes adressé par contenu.
+ * Le SHA-256 est calculé pendant la copie en flux vers un fichier temporaire (jamais tout le fichier en mémoire),
+ * puis le fichier est rangé sous {@code blobs/ab/cd/<sha256>}. Un contenu déjà présent n'est pas réécrit.
+ * La référence est prise à l'enregistrement du message qui porte la pièce jointe et rendue à sa suppression ;
+ * les blobs sans référence (dont les uploads jamais envoyés) sont purgés après un délai de grâce.
+ * Les fichiers temporaires sont écrits hors de l'arborescence servie.
+ */
 @Slf4j
 @Service
 public class FileUploadService {
 
+    public static final String BLOB_PATH = "/message-uploads/blob/";
+    public static final String DERIVED_PATH = "/message-uploads/derived/";
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+    private static final Pattern DERIVATIVE_NAME = Pattern.compile("[a-z0-9_]+\\.(jpg|webp|mp4)");
+    private static final Pattern BLOB_URL = Pattern.compile(Pattern.quote(BLOB_PATH) + "([0-9a-f]{64})(?:\\.[A-Za-z0-9]+)?$");
+
     private final Path fileStorageLocation;
+    private final Path blobRoot;
+    private final Path derivedRoot;
+    private final Path tmpDir;
+    private final String publicBaseUrl;
+    private final long orphanGraceMillis;
+    private final AttachmentBlobRepository blobRepository;
+    private final MediaDerivativeJobRepository derivativeJobRepository;
+
+    // Verrous par préfixe de hash : sérialise upload et purge d'un même blob sur ce nœud
+    private final Object[] blobLocks = new Object[64];
 
     // Types de fichiers autorisés
     private final List<String> ALLOWED_EXTENSIONS = Arrays.asList(
@@ -29,10 +65,28 @@ public class FileUploadService {
             "pdf", "doc", "docx", "txt"          // Documents
     );
 
-    public FileUploadService(@Value("${file.upload-dir:./message-uploads}") String uploadDir) {
+    public FileUploadService(@Value("${file.upload-dir:./message-uploads}") String uploadDir,
+                             @Value("${file.staging-dir:./message-uploads-staging}") String stagingDir,
+                             @Value("${application.attachments.public-base-url:http://localhost:8822}") String publicBaseUrl,
+                             @Value("${application.attachments.orphan-grace-ms:86400000}") long orphanGraceMillis,
+                             AttachmentBlobRepository blobRepository,
+                             MediaDerivativeJobRepository derivativeJobRepository) {
         this.fileStorageLocation = Paths.get(uploadDir).toAbsolutePath().normalize();
+        this.blobRoot = fileStorageLocation.resolve("blobs");
+        this.derivedRoot = fileStorageLocation.resolve("derived");
+        // Même volume que le stockage (déplacement atomique), mais hors du gestionnaire statique /message-uploads/**
+        this.tmpDir = Paths.get(stagingDir).toAbsolutePath().normalize();
+        this.publicBaseUrl = publicBaseUrl;
+        this.orphanGraceMillis = orphanGraceMillis;
+        this.blobRepository = blobRepository;
+        this.derivativeJobRepository = derivativeJobRepository;
+        for (int i = 0; i < blobLocks.length; i++) {
+            blobLocks[i] = new Object();
+        }
         try {
-            Files.createDirectories(this.fileStorageLocation);
+            Files.createDirectories(this.blobRoot);
+            Files.createDirectories(this.derivedRoot);
+            Files.createDirectories(this.tmpDir);
             log.info("✅ File upload directory created/verified: {}", this.fileStorageLocation);
         } catch (Exception ex) {
             log.error("❌ Could not create file upload directory: {}", ex.getMessage());
@@ -64,16 +118,10 @@ public class FileUploadService {
                 throw new IllegalArgumentException("Invalid filename: " + originalFilename);
             }
 
-            // Créer un nom unique
             String fileExtension = getFileExtension(originalFilename);
-            String newFileName = UUID.randomUUID() + "_" + userId + "." + fileExtension;
-
-            // Sauvegarder le fichier
-            Path targetLocation = this.fileStorageLocation.resolve(newFileName);
-            Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
+            String sha256 = storeBlob(file, userId);
 
-            // ✅ CORRECTION: Retourner l'URL correcte avec votre configuration
-            String fileUrl = "http://localhost:8822/message-uploads/" + newFileName;
+            String fileUrl = publicBaseUrl + BLOB_PATH + sha256 + "." + fileExtension;
 
             log.info("✅ File uploaded successfully: {} -> {}", originalFilename, fileUrl);
             return fileUrl;
@@ -84,6 +132,146 @@ public class FileUploadService {
         }
     }
 
+    /**
+     * Copie en flux vers un fichier temporaire en calculant le SHA-256, puis rattache le contenu
+     * au blob existant ou le déplace (atomiquement) à sa place dans l'arborescence.
+     */
+    private String storeBlob(MultipartFile file, Long userId) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+
+        Path tmp = Files.createTempFile(tmpDir, "upload-" + userId + "-", ".part");
+        try {
+            long size;
+            try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+                size = Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            String sha256 = HexFormat.of().formatHex(digest.digest());
+            Path target = blobPath(sha256);
+
+            synchronized (lockFor(sha256)) {
+                blobRepository.registerUpload(sha256, size, file.getContentType(), LocalDateTime.now());
+                if (Files.exists(target)) {
+                    log.debug("♻️ Deduplicated upload {} ({} bytes)", sha256, size);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            return sha256;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Chemin du blob s'il existe, sinon null (le hash est validé pour éviter toute traversée)
+     */
+    public Path resolveBlob(String sha256) {
+        if (sha256 == null || !SHA256_HEX.matcher(sha256).matches()) {
+            return null;
+        }
+        Path path = blobPath(sha256);
+        return Files.isRegularFile(path) ? path : null;
+    }
+
+    /**
+     * Hash du blob désigné par une URL de pièce jointe, ou null pour une URL hors stockage par contenu
+     */
+    public String extractBlobHash(String attachmentUrl) {
+        if (attachmentUrl == null) return null;
+        Matcher matcher = BLOB_URL.matcher(attachmentUrl);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    /**
+     * Répertoire des dérivés (miniatures, poster, aperçu) d'un blob
+     */
+    public Path derivativeDir(String sha256) {
+        return derivedRoot.resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4)).resolve(sha256);
+    }
+
+    public Path resolveDerivative(String sha256, String name) {
+        if (sha256 == null || name == null || !SHA256_HEX.matcher(sha256).matches()
+                || !DERIVATIVE_NAME.matcher(name).matches()) {
+            return null;
+        }
+        Path path = derivativeDir(sha256).resolve(name);
+        return Files.isRegularFile(path) ? path : null;
+    }
+
+    public String derivativeUrl(String sha256, String name) {
+        return publicBaseUrl + DERIVED_PATH + sha256 + "/" + name;
+    }
+
+    /**
+     * Prend la référence d'une pièce jointe pour un message en cours d'enregistrement (même transaction).
+     * Les anciennes URLs hors blob sont ignorées.
+     *
+     * @throws IllegalArgumentException si le blob a été purgé entre l'upload et l'envoi
+     */
+    public void acquireAttachment(String attachmentUrl) {
+        String sha256 = extractBlobHash(attachmentUrl);
+        if (sha256 == null) return;
+
+        if (blobRepository.acquireReference(sha256, LocalDateTime.now()) == 0) {
+            throw new IllegalArgumentException("Pièce jointe introuvable ou expirée");
+        }
+    }
+
+    /**
+     * Retire la référence d'une pièce jointe (message supprimé). Les anciennes URLs hors blob sont ignorées.
+     */
+    public void releaseAttachment(String attachmentUrl) {
+        String sha256 = extractBlobHash(attachmentUrl);
+        if (sha256 == null) return;
+
+        try {
+            blobRepository.releaseReference(sha256, LocalDateTime.now());
+        } catch (Exception e) {
+            log.warn("⚠️ Could not release attachment {}: {}", sha256, e.getMessage());
+        }
+    }
+
+    /**
+     * Purge des blobs sans référence depuis plus que le délai de grâce
+     * (couvre aussi les fichiers uploadés mais jamais envoyés).
+     */
+    @Scheduled(fixedDelayString = "${application.attachments.gc-interval-ms:3600000}")
+    public void collectOrphanBlobs() {
+        LocalDateTime before = LocalDateTime.now().minusNanos(orphanGraceMillis * 1_000_000L);
+        int deleted = 0;
+        try {
+            for (String sha256 : blobRepository.findOrphans(before, Limit.of(500))) {
+                synchronized (lockFor(sha256)) {
+                    if (blobRepository.deleteIfOrphan(sha256, before) > 0) {
+                        Files.deleteIfExists(blobPath(sha256));
+                        FileSystemUtils.deleteRecursively(derivativeDir(sha256));
+                        derivativeJobRepository.deleteById(sha256);
+                        deleted++;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("❌ Error collecting orphan attachments: {}", e.getMessage());
+        }
+        if (deleted > 0) {
+            log.info("🧹 Deleted {} orphan attachment blobs", deleted);
+        }
+    }
+
+    private Path blobPath(String sha256) {
+        return blobRoot.resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4)).resolve(sha256);
+    }
+
+    private Object lockFor(String sha256) {
+        return blobLocks[Integer.parseInt(sha256.substring(0, 2), 16) & (blobLocks.length - 1)];
+    }
+
     /**
      * ✅ Validation du type de fichier
      */
@@ -1,19 +1,117 @@
 package com.example.servicemessagerie.service;
 
+import com.example.servicemessagerie.dto.PushPayload;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.firebase.messaging.*;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class FirebaseMessagingService {
 
+    // Limite FCM de messages par appel sendEach
+    public static final int MAX_BATCH_SIZE = 500;
+
     private final FirebaseMessaging firebaseMessaging;
+    private final ObjectMapper objectMapper;
+    private final String stubUrl;
+    private final HttpClient stubClient;
+
+    /**
+     * Si {@code application.push.fcm-stub-url} est défini, les lots sont postés au format FCM v1
+     * ({"message": {...}} par notification) vers ce endpoint local au lieu de Firebase.
+     */
+    public FirebaseMessagingService(FirebaseMessaging firebaseMessaging,
+                                    ObjectMapper objectMapper,
+                                    @Value("${application.push.fcm-stub-url:}") String stubUrl) {
+        this.firebaseMessaging = firebaseMessaging;
+        this.objectMapper = objectMapper;
+        this.stubUrl = stubUrl == null || stubUrl.isBlank() ? null : stubUrl;
+        this.stubClient = this.stubUrl == null ? null : HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        if (this.stubUrl != null) {
+            log.warn("⚠️ Push notifications routed to FCM stub: {}", this.stubUrl);
+        }
+    }
+
+    /**
+     * Envoie un lot (au plus {@link #MAX_BATCH_SIZE}) en un seul appel FCM {@code sendEach}.
+     *
+     * @return nombre de notifications acceptées
+     */
+    public int sendBatch(List<PushPayload> payloads) throws FirebaseMessagingException {
+        if (payloads.isEmpty()) return 0;
+        if (payloads.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Batch too large: " + payloads.size());
+        }
+        if (stubUrl != null) {
+            return sendToStub(payloads);
+        }
+
+        List<Message> messages = new ArrayList<>(payloads.size());
+        for (PushPayload payload : payloads) {
+            messages.add(Message.builder()
+                    .setNotification(Notification.builder()
+                            .setTitle(payload.title())
+                            .setBody(payload.body())
+                            .build())
+                    .putAllData(payload.data())
+                    .setTopic(payload.topic())
+                    .build());
+        }
+
+        BatchResponse response = firebaseMessaging.sendEach(messages);
+        if (response.getFailureCount() > 0) {
+            for (SendResponse result : response.getResponses()) {
+                if (!result.isSuccessful()) {
+                    log.debug("Push failed: {}", result.getException().getMessage());
+                }
+            }
+        }
+        return response.getSuccessCount();
+    }
+
+    private int sendToStub(List<PushPayload> payloads) {
+        int success = 0;
+        for (PushPayload payload : payloads) {
+            try {
+                Map<String, Object> message = new HashMap<>();
+                message.put("topic", payload.topic());
+                message.put("notification", Map.of("title", payload.title(), "body", payload.body()));
+                message.put("data", payload.data());
+
+                HttpRequest request = HttpRequest.newBuilder(URI.create(stubUrl))
+                        .timeout(Duration.ofSeconds(10))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(
+                                objectMapper.writeValueAsString(Map.of("message", message))))
+                        .build();
+                HttpResponse<Void> response = stubClient.send(request, HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() / 100 == 2) {
+                    success++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.debug("Push to stub failed: {}", e.getMessage());
+            }
+        }
+        return success;
+    }
 
     public void sendMessageNotification(Long userId, String senderName, String message, Long conversationId) {
         try {
@@ -45,27 +143,6 @@ public class FirebaseMessagingService {
         }
     }
 
-    public void sendTypingIndicator(Long conversationId, Long userId, String userName, boolean isTyping) {
-        try {
-            Map<String, String> data = new HashMap<>();
-            data.put("type", "TYPING_INDICATOR");
-            data.put("conversationId", conversationId.toString());
-            data.put("userId", userId.toString());
-            data.put("userName", userName);
-            data.put("isTyping", String.valueOf(isTyping));
-
-            Message message = Message.builder()
-                    .putAllData(data)
-                    .setTopic("conversation_" + conversationId)
-                    .build();
-
-            firebaseMessaging.send(message);
-
-        } catch (Exception e) {
-            log.error("Error sending typing indicator", e);
-        }
-    }
-
     public void sendPresenceUpdate(Long userId, boolean isOnline) {
         try {
             Map<String, String> data = new HashMap<>();
@@ -0,0 +1,508 @@
+package com.example.servicemessagerie.service;
+
+import com.example.servicemessagerie.dto.MessageDTO;
+import com.example.servicemessagerie.entity.MediaDerivativeJob;
+import com.example.servicemessagerie.repository.MediaDerivativeJobRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pipeline asynchrone de dérivés pour les pièces jointes : miniatures d'images (plusieurs largeurs),
+ * poster et aperçu basse résolution des vidéos (via ffmpeg s'il est installé).
+ * <p>
+ * La file est la table {@code media_derivative_jobs} : elle survit aux redémarrages et plusieurs instances
+ * se partagent le travail via {@code FOR UPDATE SKIP LOCKED}. Le traitement tourne sur un pool borné ;
+ * on ne réserve jamais plus de jobs que de workers libres.
+ */
+@Slf4j
+@Service
+public class MediaDerivativeService {
+
+    private static final Set<String> IMAGE_EXTENSIONS = Set.of("jpg", "jpeg", "png", "gif", "webp");
+    private static final Set<String> VIDEO_EXTENSIONS = Set.of("mp4", "webm", "mov", "avi");
+    private static final long MAX_IMAGE_PIXELS = 50_000_000L;
+    private static final int MAX_CACHED_RESULTS = 2048;
+
+    private final MediaDerivativeJobRepository jobRepository;
+    private final FileUploadService fileUploadService;
+    private final TransactionTemplate transactionTemplate;
+
+    private final int[] thumbnailWidths;
+    private final String ffmpegPath;
+    private final long ffmpegTimeoutMillis;
+    private final int maxAttempts;
+    private final int workers;
+
+    private final ThreadPoolTaskExecutor executor;
+    private final Semaphore freeWorkers;
+    private volatile boolean ffmpegAvailable;
+
+    private final long pendingCacheTtlMillis;
+
+    /**
+     * État connu des dérivés d'un hash : définitif (DONE ou FAILED) ou provisoire (en attente, en cours, pas de job)
+     */
+    private record CachedOutputs(List<String> outputs, boolean terminal, long loadedAt) {
+    }
+
+    // Les états définitifs restent jusqu'à éviction LRU, les autres expirent après pending-cache-ttl-ms
+    private final Map<String, CachedOutputs> outputsCache = Collections.synchronizedMap(
+            new LinkedHashMap<>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedOutputs> eldest) {
+                    return size() > MAX_CACHED_RESULTS;
+                }
+            });
+
+    public MediaDerivativeService(MediaDerivativeJobRepository jobRepository,
+                                  FileUploadService fileUploadService,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${application.media.thumbnail-widths:160,320,640}") int[] thumbnailWidths,
+                                  @Value("${application.media.ffmpeg-path:ffmpeg}") String ffmpegPath,
+                                  @Value("${application.media.ffmpeg-timeout-ms:120000}") long ffmpegTimeoutMillis,
+                                  @Value("${application.media.max-attempts:3}") int maxAttempts,
+                                  @Value("${application.media.workers:2}") int workers,
+                                  @Value("${application.media.pending-cache-ttl-ms:5000}") long pendingCacheTtlMillis) {
+        this.jobRepository = jobRepository;
+        this.fileUploadService = fileUploadService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.thumbnailWidths = Arrays.stream(thumbnailWidths).sorted().toArray();
+        this.ffmpegPath = ffmpegPath;
+        this.ffmpegTimeoutMillis = ffmpegTimeoutMillis;
+        this.maxAttempts = maxAttempts;
+        this.workers = Math.max(1, workers);
+        this.pendingCacheTtlMillis = pendingCacheTtlMillis;
+
+        this.freeWorkers = new Semaphore(this.workers);
+        this.executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(this.workers);
+        executor.setMaxPoolSize(this.workers);
+        executor.setQueueCapacity(this.workers);
+        executor.setThreadNamePrefix("media-derivative-");
+        executor.initialize();
+
+        this.ffmpegAvailable = detectFfmpeg();
+    }
+
+    /**
+     * Planifie les dérivés d'une pièce jointe fraîchement uploadée (sans effet si déjà planifiés)
+     */
+    public void enqueue(String attachmentUrl) {
+        String sha256 = fileUploadService.extractBlobHash(attachmentUrl);
+        if (sha256 == null) return;
+
+        String extension = extensionOf(attachmentUrl);
+        MediaDerivativeJob.MediaKind kind = kindOf(extension);
+        if (kind == null) return;
+
+        try {
+            if (jobRepository.enqueue(sha256, extension, kind.name(), LocalDateTime.now()) > 0) {
+                log.debug("🖼️ Derivative job queued for {} ({})", sha256, kind);
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ Could not queue derivative job for {}: {}", sha256, e.getMessage());
+        }
+    }
+
+    /**
+     * Ajoute au DTO les URLs des dérivés disponibles pour sa pièce jointe
+     */
+    public void decorate(MessageDTO dto) {
+        String sha256 = fileUploadService.extractBlobHash(dto.getAttachmentUrl());
+        if (sha256 == null || kindOf(extensionOf(dto.getAttachmentUrl())) == null) return;
+
+        List<String> outputs = findOutputs(sha256);
+        if (outputs.isEmpty()) return;
+
+        Map<Integer, String> thumbnails = new TreeMap<>();
+        for (String name : outputs) {
+            if (name.startsWith("thumb_")) {
+                int width = Integer.parseInt(name.substring(6, name.indexOf('.')));
+                thumbnails.put(width, fileUploadService.derivativeUrl(sha256, name));
+            } else if (name.startsWith("poster")) {
+                dto.setPosterUrl(fileUploadService.derivativeUrl(sha256, name));
+            } else if (name.startsWith("preview")) {
+                dto.setPreviewUrl(fileUploadService.derivativeUrl(sha256, name));
+            }
+        }
+        if (!thumbnails.isEmpty()) {
+            dto.setThumbnailUrls(thumbnails);
+        }
+    }
+
+    /**
+     * Charge en une requête l'état des dérivés d'une page de messages ; les appels à
+     * {@link #decorate(MessageDTO)} qui suivent sont servis par le cache
+     */
+    public void prefetch(Collection<String> attachmentUrls) {
+        long now = System.currentTimeMillis();
+        Set<String> missing = new HashSet<>();
+        for (String url : attachmentUrls) {
+            String sha256 = fileUploadService.extractBlobHash(url);
+            if (sha256 != null && kindOf(extensionOf(url)) != null && cachedOutputs(sha256, now) == null) {
+                missing.add(sha256);
+            }
+        }
+        if (missing.isEmpty()) return;
+
+        try {
+            for (MediaDerivativeJob job : jobRepository.findAllById(missing)) {
+                cache(job.getSha256(), job, now);
+                missing.remove(job.getSha256());
+            }
+            missing.forEach(sha256 -> cache(sha256, null, now));
+        } catch (Exception e) {
+            log.warn("⚠️ Could not prefetch derivative jobs: {}", e.getMessage());
+        }
+    }
+
+    private List<String> findOutputs(String sha256) {
+        long now = System.currentTimeMillis();
+        List<String> cached = cachedOutputs(sha256, now);
+        if (cached != null) {
+            return cached;
+        }
+        return cache(sha256, jobRepository.findById(sha256).orElse(null), now);
+    }
+
+    private List<String> cachedOutputs(String sha256, long now) {
+        CachedOutputs cached = outputsCache.get(sha256);
+        if (cached != null && (cached.terminal() || now - cached.loadedAt() < pendingCacheTtlMillis)) {
+            return cached.outputs();
+        }
+        return null;
+    }
+
+    private List<String> cache(String sha256, MediaDerivativeJob job, long now) {
+        MediaDerivativeJob.JobStatus status = job != null ? job.getStatus() : null;
+        List<String> outputs = status == MediaDerivativeJob.JobStatus.DONE ? job.getOutputList() : List.of();
+        boolean terminal = status == MediaDerivativeJob.JobStatus.DONE || status == MediaDerivativeJob.JobStatus.FAILED;
+        outputsCache.put(sha256, new CachedOutputs(outputs, terminal, now));
+        return outputs;
+    }
+
+    /**
+     * Réserve autant de jobs prêts que de workers libres et les soumet au pool
+     */
+    @Scheduled(fixedDelayString = "${application.media.poll-ms:2000}")
+    public void dispatchJobs() {
+        int capacity = freeWorkers.availablePermits();
+        if (capacity == 0) return;
+
+        List<MediaDerivativeJob> claimed;
+        try {
+            claimed = transactionTemplate.execute(status -> {
+                LocalDateTime now = LocalDateTime.now();
+                List<MediaDerivativeJob> jobs = jobRepository.lockReadyJobs(now, capacity);
+                if (!jobs.isEmpty()) {
+                    jobRepository.markRunning(jobs.stream().map(MediaDerivativeJob::getSha256).toList(), now);
+                }
+                return jobs;
+            });
+        } catch (Exception e) {
+            log.error("❌ Error claiming derivative jobs: {}", e.getMessage());
+            return;
+        }
+
+        for (MediaDerivativeJob job : claimed) {
+            freeWorkers.acquireUninterruptibly();
+            try {
+                executor.execute(() -> {
+                    try {
+                        process(job);
+                    } finally {
+                        freeWorkers.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                freeWorkers.release();
+                recordFailure(job, "Executor rejected job: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Les jobs RUNNING depuis trop longtemps (nœud tombé) sont remis en file
+     */
+    @Scheduled(fixedDelayString = "${application.media.stale-check-ms:300000}")
+    public void requeueStaleJobs() {
+        LocalDateTime before = LocalDateTime.now().minusNanos(ffmpegTimeoutMillis * 3 * 1_000_000L);
+        int requeued = jobRepository.requeueStale(before);
+        if (requeued > 0) {
+            log.warn("⚠️ Requeued {} stale derivative jobs", requeued);
+        }
+    }
+
+    private void process(MediaDerivativeJob job) {
+        String sha256 = job.getSha256();
+        long started = System.currentTimeMillis();
+        try {
+            Path source = fileUploadService.resolveBlob(sha256);
+            if (source == null) {
+                recordFailure(job, "Source blob missing");
+                return;
+            }
+
+            Path outDir = fileUploadService.derivativeDir(sha256);
+            Files.createDirectories(outDir);
+
+            List<String> outputs = job.getKind() == MediaDerivativeJob.MediaKind.IMAGE
+                    ? renderImage(source, outDir)
+                    : renderVideo(source, outDir);
+
+            jobRepository.markDone(sha256, String.join(",", outputs), LocalDateTime.now());
+            outputsCache.put(sha256, new CachedOutputs(outputs, true, System.currentTimeMillis()));
+            log.info("✅ Derivatives {} generated for {} in {} ms", outputs, sha256,
+                    System.currentTimeMillis() - started);
+
+        } catch (Exception e) {
+            log.warn("⚠️ Derivative job {} failed (attempt {}): {}", sha256, job.getAttempts() + 1, e.getMessage());
+            recordFailure(job, e.getMessage());
+        }
+    }
+
+    private void recordFailure(MediaDerivativeJob job, String error) {
+        boolean exhausted = job.getAttempts() + 1 >= maxAttempts;
+        LocalDateTime now = LocalDateTime.now();
+        // Backoff exponentiel : 30 s, 60 s, 120 s...
+        LocalDateTime next = now.plusSeconds(30L << Math.min(job.getAttempts(), 10));
+        String message = error == null ? "unknown" : error.substring(0, Math.min(error.length(), 1000));
+        try {
+            jobRepository.markFailure(job.getSha256(),
+                    exhausted ? MediaDerivativeJob.JobStatus.FAILED : MediaDerivativeJob.JobStatus.PENDING,
+                    message, now, next);
+        } catch (Exception e) {
+            log.error("❌ Could not record derivative failure for {}: {}", job.getSha256(), e.getMessage());
+        }
+    }
+
+    // ===== IMAGES =====
+
+    private List<String> renderImage(Path source, Path outDir) throws IOException, InterruptedException {
+        BufferedImage image = readImageSafely(source.toFile());
+        if (image == null) {
+            // Format non lisible par ImageIO (ex: WebP) : ffmpeg sait le décoder
+            return renderWithFfmpegScale(source, outDir);
+        }
+
+        List<String> outputs = new ArrayList<>();
+        int previous = 0;
+        for (int width : thumbnailWidths) {
+            int target = Math.min(width, image.getWidth());
+            if (target <= previous) break; // source plus petite que les largeurs suivantes
+            String name = "thumb_" + width + ".jpg";
+            writeJpeg(scale(image, target), outDir.resolve(name));
+            outputs.add(name);
+            previous = target;
+        }
+        return outputs;
+    }
+
+    private BufferedImage readImageSafely(File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) return null;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                // Refuse les "bombes" de décompression avant d'allouer les pixels
+                if ((long) reader.getWidth(0) * reader.getHeight(0) > MAX_IMAGE_PIXELS) {
+                    throw new IOException("Image too large to thumbnail");
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage scale(BufferedImage source, int width) {
+        int height = Math.max(1, (int) Math.round((double) source.getHeight() * width / source.getWidth()));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setColor(Color.WHITE); // fond pour les images transparentes
+            g.fillRect(0, 0, width, height);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private void writeJpeg(BufferedImage image, Path target) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".part");
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(tmp.toFile())) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(0.8f);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private List<String> renderWithFfmpegScale(Path source, Path outDir) throws IOException, InterruptedException {
+        requireFfmpeg();
+        List<String> outputs = new ArrayList<>();
+        for (int width : thumbnailWidths) {
+            String name = "thumb_" + width + ".jpg";
+            runFfmpeg(source, outDir.resolve(name),
+                    "-vf", "scale='min(" + width + ",iw)':-2", "-frames:v", "1", "-q:v", "4");
+            outputs.add(name);
+        }
+        return outputs;
+    }
+
+    // ===== VIDÉOS =====
+
+    private List<String> renderVideo(Path source, Path outDir) throws IOException, InterruptedException {
+        requireFfmpeg();
+        Path poster = outDir.resolve("poster.jpg");
+        try {
+            renderPoster(source, poster, "1");
+        } catch (IOException e) {
+            // Vidéo de moins d'une seconde : aucune image après -ss 1, on prend la première
+            log.debug("No frame at 1s for {}, poster from the first frame: {}", source.getFileName(), e.getMessage());
+            renderPoster(source, poster, "0");
+        }
+        runFfmpeg(source, outDir.resolve("preview.mp4"),
+                "-t", "30", "-vf", "scale='min(480,iw)':-2",
+                "-c:v", "libx264", "-preset", "veryfast", "-b:v", "400k", "-maxrate", "500k", "-bufsize", "1000k",
+                "-c:a", "aac", "-b:a", "64k", "-movflags", "+faststart");
+
+        return List.of("poster.jpg", "preview.mp4");
+    }
+
+    private void renderPoster(Path source, Path target, String seekSeconds) throws IOException, InterruptedException {
+        int posterWidth = thumbnailWidths[thumbnailWidths.length - 1];
+        runFfmpeg(source, target,
+                "-ss", seekSeconds, "-vf", "scale='min(" + posterWidth + ",iw)':-2", "-frames:v", "1", "-q:v", "4");
+    }
+
+    private void requireFfmpeg() throws IOException {
+        if (!ffmpegAvailable) {
+            throw new IOException("ffmpeg not available at '" + ffmpegPath + "'");
+        }
+    }
+
+    /**
+     * Exécute ffmpeg vers un fichier temporaire puis le renomme : un dérivé publié est toujours complet
+     */
+    private void runFfmpeg(Path source, Path target, String... options) throws IOException, InterruptedException {
+        String fileName = target.getFileName().toString();
+        Path tmp = target.resolveSibling("tmp_" + fileName);
+
+        List<String> command = new ArrayList<>(List.of(ffmpegPath, "-nostdin", "-y", "-loglevel", "error"));
+        int optionsStart = 0;
+        // Une recherche (-ss) placée avant -i est bien plus rapide
+        if (options.length >= 2 && "-ss".equals(options[0])) {
+            command.add(options[0]);
+            command.add(options[1]);
+            optionsStart = 2;
+        }
+        command.add("-i");
+        command.add(source.toString());
+        command.addAll(Arrays.asList(options).subList(optionsStart, options.length));
+        command.add(tmp.toString());
+
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            if (!process.waitFor(ffmpegTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("ffmpeg timed out after " + ffmpegTimeoutMillis + " ms");
+            }
+            if (process.exitValue() != 0) {
+                throw new IOException("ffmpeg exited with code " + process.exitValue() + " for " + fileName);
+            }
+            // ffmpeg sort en 0 sans rien écrire quand aucune image n'est décodée (recherche après la fin)
+            if (!Files.isRegularFile(tmp) || Files.size(tmp) == 0) {
+                throw new IOException("ffmpeg produced no output for " + fileName);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            if (process.isAlive()) {
+                process.destroyForcibly();
+            }
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private boolean detectFfmpeg() {
+        try {
+            Process process = new ProcessBuilder(ffmpegPath, "-version")
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            boolean ok = process.waitFor(5, TimeUnit.SECONDS) && process.exitValue() == 0;
+            if (!ok) process.destroyForcibly();
+            log.info(ok ? "🎬 ffmpeg available: {}" : "⚠️ ffmpeg not usable: {}", ffmpegPath);
+            return ok;
+        } catch (Exception e) {
+            log.warn("⚠️ ffmpeg not found ({}): video derivatives disabled", ffmpegPath);
+            return false;
+        }
+    }
+
+    private static String extensionOf(String url) {
+        int dot = url.lastIndexOf('.');
+        return dot < 0 ? "" : url.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static MediaDerivativeJob.MediaKind kindOf(String extension) {
+        if (IMAGE_EXTENSIONS.contains(extension)) return MediaDerivativeJob.MediaKind.IMAGE;
+        if (VIDEO_EXTENSIONS.contains(extension)) return MediaDerivativeJob.MediaKind.VIDEO;
+        return null;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("workers", workers);
+        stats.put("busyWorkers", workers - freeWorkers.availablePermits());
+        stats.put("ffmpegAvailable", ffmpegAvailable);
+        stats.put("cachedResults", outputsCache.size());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        log.info("Media derivative workers stopped");
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.servicemessagerie.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Partitionnement mensuel de {@code messages} sur {@code sent_at}, géré par le service.
+ * <p>
+ * <ul>
+ *   <li>Au démarrage, une table {@code messages} ordinaire (créée par Hibernate) est convertie
+ *       en table partitionnée ; les partitions des mois à venir sont créées à l'avance.</li>
+ *   <li>Les mois sortis de la fenêtre chaude sont compactés (messages supprimés purgés), détachés de
+ *       {@code messages} et rattachés tels quels à {@code messages_archive} : aucune copie de données.</li>
+ * </ul>
+ * Les requêtes JPA ne voient donc que les partitions chaudes ; l'historique lit l'archive en complément.
+ * Les opérations DDL sont sérialisées entre instances par un verrou consultatif PostgreSQL.
+ */
+@Slf4j
+@Service
+public class MessagePartitionService {
+
+    private static final String TABLE = "messages";
+    private static final String ARCHIVE = "messages_archive";
+    private static final long DDL_LOCK_KEY = 0x6d73675f70617274L; // "msg_part"
+    private static final Pattern PARTITION_NAME = Pattern.compile("^messages_p(\\d{4})_(\\d{2})$");
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyy_MM");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int premakeMonths;
+    private final int hotMonths;
+
+    private volatile boolean archiveAvailable;
+
+    public MessagePartitionService(JdbcTemplate jdbcTemplate,
+                                   PlatformTransactionManager transactionManager,
+                                   @Value("${application.messages.partitioning.enabled:true}") boolean enabled,
+                                   @Value("${application.messages.partitioning.premake-months:3}") int premakeMonths,
+                                   @Value("${application.messages.partitioning.hot-months:12}") int hotMonths) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.premakeMonths = Math.max(1, premakeMonths);
+        this.hotMonths = Math.max(1, hotMonths);
+    }
+
+    /**
+     * Vrai si des mois ont été archivés : l'historique doit alors compléter ses pages depuis l'archive
+     */
+    public boolean isArchiveAvailable() {
+        return archiveAvailable;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        if (!enabled) {
+            log.info("🗂️ Message partitioning disabled");
+            return;
+        }
+        try {
+            inDdlTransaction(this::ensurePartitioned);
+            maintainPartitions();
+        } catch (Exception e) {
+            log.error("❌ Message partitioning setup failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Crée les partitions à venir puis archive les mois sortis de la fenêtre chaude
+     */
+    @Scheduled(cron = "${application.messages.partitioning.maintenance-cron:0 15 3 * * *}")
+    public void maintainPartitions() {
+        if (!enabled || !"p".equals(relkind(TABLE))) return;
+
+        try {
+            inDdlTransaction(() -> {
+                YearMonth current = YearMonth.now();
+                for (int i = 0; i <= premakeMonths; i++) {
+                    createPartition(current.plusMonths(i));
+                }
+                ensureArchiveTable();
+            });
+
+            YearMonth oldestHot = YearMonth.now().minusMonths(hotMonths - 1L);
+            for (YearMonth month : partitionMonths(TABLE)) {
+                if (month.isBefore(oldestHot)) {
+                    inDdlTransaction(() -> archivePartition(month));
+                }
+            }
+
+            Long defaultRows = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM (SELECT 1 FROM messages_default LIMIT 1) d", Long.class);
+            if (defaultRows != null && defaultRows > 0) {
+                log.warn("⚠️ messages_default contains rows outside the monthly partitions");
+            }
+        } catch (Exception e) {
+            log.error("❌ Message partition maintenance failed: {}", e.getMessage(), e);
+        } finally {
+            refreshArchiveAvailability();
+        }
+    }
+
+    // ===== CONVERSION INITIALE =====
+
+    private void ensurePartitioned() {
+        String kind = relkind(TABLE);
+        if (kind == null) {
+            log.warn("⚠️ Table messages not found, partitioning skipped");
+            return;
+        }
+        if ("p".equals(kind)) return;
+
+        log.info("🗂️ Converting messages into a monthly partitioned table...");
+        jdbcTemplate.execute("LOCK TABLE messages IN ACCESS EXCLUSIVE MODE");
+        jdbcTemplate.execute("UPDATE messages SET sent_at = now() WHERE sent_at IS NULL");
+        jdbcTemplate.execute("ALTER TABLE messages RENAME TO messages_unpartitioned");
+        jdbcTemplate.execute("DROP INDEX IF EXISTS idx_messages_conversation_id");
+        jdbcTemplate.execute("DROP INDEX IF EXISTS idx_messages_conversation_status");
+
+        // LIKE ne copie ni l'identité ni les contraintes : clé primaire incluant la clé de partition
+        jdbcTemplate.execute("CREATE TABLE messages (LIKE messages_unpartitioned INCLUDING DEFAULTS) " +
+                "PARTITION BY RANGE (sent_at)");
+        jdbcTemplate.execute("ALTER TABLE messages ADD CONSTRAINT pk_messages PRIMARY KEY (id, sent_at)");
+
+        LocalDate oldest = jdbcTemplate.queryForObject(
+                "SELECT CAST(MIN(sent_at) AS date) FROM messages_unpartitioned", LocalDate.class);
+        YearMonth from = oldest != null ? YearMonth.from(oldest) : YearMonth.now();
+        for (YearMonth month = from; !month.isAfter(YearMonth.now().plusMonths(premakeMonths)); month = month.plusMonths(1)) {
+            createPartition(month);
+        }
+        jdbcTemplate.execute("CREATE TABLE messages_default PARTITION OF messages DEFAULT");
+
+        int copied = jdbcTemplate.update("INSERT INTO messages SELECT * FROM messages_unpartitioned");
+        jdbcTemplate.execute("DROP TABLE messages_unpartitioned");
+
+        jdbcTemplate.execute("CREATE SEQUENCE messages_id_seq OWNED BY messages.id");
+        jdbcTemplate.queryForObject("SELECT setval('messages_id_seq', COALESCE(MAX(id), 0) + 1, false) FROM messages",
+                Long.class);
+        jdbcTemplate.execute("ALTER TABLE messages ALTER COLUMN id SET DEFAULT nextval('messages_id_seq')");
+
+        jdbcTemplate.execute("ALTER TABLE messages ADD CONSTRAINT fk_messages_conversation " +
+                "FOREIGN KEY (conversation_id) REFERENCES conversations(id)");
+        jdbcTemplate.execute("CREATE INDEX idx_messages_conversation_id ON messages (conversation_id, id DESC)");
+        jdbcTemplate.execute("CREATE INDEX idx_messages_conversation_status ON messages (conversation_id, status)");
+
+        log.info("✅ messages partitioned by month ({} rows migrated since {})", copied, from);
+    }
+
+    // ===== PARTITIONS =====
+
+    private void createPartition(YearMonth month) {
+        String name = partitionName(month);
+        if (relkind(name) != null) return; // existe déjà (éventuellement archivée)
+
+        jdbcTemplate.execute("CREATE TABLE " + name + " PARTITION OF messages FOR VALUES FROM ('"
+                + month.atDay(1) + "') TO ('" + month.plusMonths(1).atDay(1) + "')");
+        log.info("🗂️ Created partition {}", name);
+    }
+
+    private void ensureArchiveTable() {
+        if (relkind(ARCHIVE) != null) return;
+
+        jdbcTemplate.execute("CREATE TABLE messages_archive (LIKE messages INCLUDING DEFAULTS) " +
+                "PARTITION BY RANGE (sent_at)");
+        jdbcTemplate.execute("ALTER TABLE messages_archive ALTER COLUMN id DROP DEFAULT");
+        jdbcTemplate.execute("ALTER TABLE messages_archive ADD CONSTRAINT pk_messages_archive PRIMARY KEY (id, sent_at)");
+        jdbcTemplate.execute("CREATE INDEX idx_messages_archive_conversation_id " +
+                "ON messages_archive (conversation_id, id DESC)");
+        log.info("🗂️ Created messages_archive");
+    }
+
+    /**
+     * Compacte puis déplace une partition de {@code messages} vers {@code messages_archive}
+     */
+    private void archivePartition(YearMonth month) {
+        String name = partitionName(month);
+        if (!partitionMonths(TABLE).contains(month)) return; // déjà traitée par une autre instance
+
+        int purged = jdbcTemplate.update("DELETE FROM " + name + " WHERE is_deleted = true");
+        jdbcTemplate.execute("ALTER TABLE messages DETACH PARTITION " + name);
+        jdbcTemplate.execute("ALTER TABLE messages_archive ATTACH PARTITION " + name + " FOR VALUES FROM ('"
+                + month.atDay(1) + "') TO ('" + month.plusMonths(1).atDay(1) + "')");
+        log.info("🧊 Archived partition {} ({} deleted messages purged)", name, purged);
+    }
+
+    private List<YearMonth> partitionMonths(String parent) {
+        List<String> names = jdbcTemplate.queryForList(
+                "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                        "WHERE i.inhparent = to_regclass(?) ORDER BY c.relname",
+                String.class, parent);
+        return names.stream()
+                .map(PARTITION_NAME::matcher)
+                .filter(Matcher::matches)
+                .map(m -> YearMonth.of(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2))))
+                .toList();
+    }
+
+    private void refreshArchiveAvailability() {
+        try {
+            Boolean any = jdbcTemplate.queryForObject(
+                    "SELECT EXISTS (SELECT 1 FROM pg_inherits WHERE inhparent = to_regclass('messages_archive'))",
+                    Boolean.class);
+            archiveAvailable = Boolean.TRUE.equals(any);
+        } catch (Exception e) {
+            log.warn("⚠️ Could not check messages_archive: {}", e.getMessage());
+        }
+    }
+
+    private static String partitionName(YearMonth month) {
+        return "messages_p" + month.format(SUFFIX);
+    }
+
+    private String relkind(String relation) {
+        List<String> kinds = jdbcTemplate.queryForList(
+                "SELECT CAST(c.relkind AS text) FROM pg_class c " +
+                        "WHERE c.oid = to_regclass(?)",
+                String.class, relation);
+        return kinds.isEmpty() ? null : kinds.get(0);
+    }
+
+    private void inDdlTransaction(Runnable work) {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.queryForObject("SELECT pg_advisory_xact_lock(?)", Object.class, DDL_LOCK_KEY);
+            work.run();
+        });
+    }
+}
@@ -8,6 +8,7 @@ import jakarta.annotation.PreDestroy;
 import jakarta.persistence.OptimisticLockException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
@@ -17,12 +18,12 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 @Service
@@ -31,13 +32,23 @@ import java.util.stream.Collectors;
 @Transactional
 public class MessageService {
 
+    private static final int MAX_HISTORY_LIMIT = 100;
+
     private final MessageRepository messageRepository;
     private final ConversationRepository conversationRepository;
     private final ConversationParticipantRepository participantRepository;
     private final SimpMessagingTemplate messagingTemplate;
+    private final WebSocketFanoutService fanoutService;
     private final UserServiceClient userServiceClient;
-    private final FirebaseMessagingService firebaseService;
+    private final PushNotificationDispatcher pushDispatcher;
+    private final TypingIndicatorService typingIndicatorService;
     private final FileUploadService fileUploadService;
+    private final MediaDerivativeService mediaDerivativeService;
+    private final PresenceInterestService presenceInterestService;
+    private final MessagePartitionService partitionService;
+    private final ReadMarkDebouncer readMarkDebouncer;
+    private final ChangeLogService changeLog;
+    private final TransactionTemplate transactionTemplate;
 
     @Transactional(propagation = Propagation.REQUIRED, isolation = Isolation.READ_COMMITTED)
     public MessageDTO sendMessage(MessageRequest request, String token) {
@@ -82,22 +93,28 @@ public class MessageService {
                 .sentAt(LocalDateTime.now())
                 .build();
 
+        // La pièce jointe n'est référencée qu'une fois le message envoyé
+        fileUploadService.acquireAttachment(message.getAttachmentUrl());
         message = messageRepository.save(message);
 
         // 5️⃣ Mettre à jour la conversation
         updateConversationLastMessageSafely(conversation.getId(), request.getContent().trim());
+        changeLog.messageChanged(conversation.getId(), message.getId());
 
         // 6️⃣ DTO de réponse
         MessageDTO dto = convertToDTO(message, sender);
 
-        // 7️⃣ DIFFUSION WEBSOCKET
-        messagingTemplate.convertAndSend(
-                "/topic/conversation/" + conversation.getId(),
-                dto
-        );
+        // 7️⃣ DIFFUSION WEBSOCKET : topic + files personnelles, sérialisé une seule fois
+        Set<ConversationParticipant> recipients = conversation.getParticipants().stream()
+                .filter(p -> p != null && p.isActive() && !p.getUserId().equals(dto.getSenderId()))
+                .collect(Collectors.toSet());
+        broadcastMessageToRecipients(conversation.getId(), dto, recipients);
+
+        // L'envoi met fin à l'indicateur de frappe de l'expéditeur
+        typingIndicatorService.stop(conversation.getId(), request.getSenderId());
 
-        // 8️⃣ Notifications push asynchrones
-        broadcastMessageAsync(conversation.getId(), dto, conversation.getParticipants(), sender);
+        // 8️⃣ Notifications push : simple mise en file, l'envoi FCM est fait par le dispatcher
+        sendPushNotificationsToOfflineUsers(conversation.getId(), dto, recipients, sender);
 
         log.info("✅ Message {} envoyé et diffusé", message.getId());
         return dto;
@@ -143,6 +160,7 @@ public class MessageService {
                 participantRepository.save(participant);
             }
         }
+        changeLog.readWatermarkMoved(conversationId, userId);
 
         // Notifier les autres participants
         notifyMessageRead(conversationId, userId, unreadMessages.size());
@@ -156,7 +174,87 @@ public class MessageService {
     public Page<MessageDTO> getConversationMessages(Long conversationId, Long userId, Pageable pageable) {
         log.debug("Fetching messages for conversation {} by user {}", conversationId, userId);
 
-        // Vérifier l'accès
+        ConversationParticipant participant = checkReadAccess(conversationId, userId);
+
+        // Récupérer les messages
+        Page<Message> messages = messageRepository
+                .findByConversationIdAndIsDeletedFalse(conversationId, pageable);
+
+        // CORRECTION: Marquer comme lu dans une transaction séparée pour éviter les problèmes
+        if (participant != null && pageable.getPageNumber() == 0) {
+            markMessagesAsReadAsync(conversationId, userId);
+        }
+
+        prefetchDerivatives(messages.getContent());
+        return messages.map(m -> convertToDTO(m, null));
+    }
+
+    /**
+     * Historique par ancre : {@code before} remonte dans le passé, {@code after} rattrape après
+     * une reconnexion, sans ancre la page la plus récente. Une ligne de plus est lue pour hasMore.
+     */
+    @Transactional(readOnly = true)
+    public MessageHistoryDTO getMessageHistory(Long conversationId, Long userId,
+                                               Long beforeId, Long afterId, int limit) {
+        if (beforeId != null && afterId != null) {
+            throw new IllegalArgumentException("Use either 'before' or 'after', not both");
+        }
+        int pageSize = Math.max(1, Math.min(limit, MAX_HISTORY_LIMIT));
+
+        ConversationParticipant participant = checkReadAccess(conversationId, userId);
+
+        List<Message> rows;
+        if (afterId != null) {
+            rows = new ArrayList<>();
+            // Rattrapage depuis une ancre archivée : l'archive précède toujours la table chaude
+            if (partitionService.isArchiveAvailable()) {
+                rows.addAll(messageRepository.findArchivedMessagesAfter(conversationId, afterId, pageSize + 1));
+            }
+            if (rows.size() <= pageSize) {
+                Long hotAnchor = rows.isEmpty() ? afterId : rows.get(rows.size() - 1).getId();
+                rows.addAll(messageRepository.findMessagesAfter(conversationId, hotAnchor,
+                        Limit.of(pageSize + 1 - rows.size())));
+            }
+        } else {
+            rows = new ArrayList<>(beforeId != null
+                    ? messageRepository.findMessagesBefore(conversationId, beforeId, Limit.of(pageSize + 1))
+                    : messageRepository.findLatestMessages(conversationId, Limit.of(pageSize + 1)));
+            // Table chaude épuisée : la suite de l'historique est lue dans l'archive
+            if (rows.size() <= pageSize && partitionService.isArchiveAvailable()) {
+                Long archiveAnchor = !rows.isEmpty() ? rows.get(rows.size() - 1).getId()
+                        : beforeId != null ? beforeId : Long.MAX_VALUE;
+                rows.addAll(messageRepository.findArchivedMessagesBefore(conversationId, archiveAnchor,
+                        pageSize + 1 - rows.size()));
+            }
+        }
+
+        boolean hasMore = rows.size() > pageSize;
+        List<Message> page = new ArrayList<>(hasMore ? rows.subList(0, pageSize) : rows);
+        if (afterId == null) {
+            Collections.reverse(page); // requêtes DESC -> ordre chronologique
+        }
+
+        // Page la plus récente, ou dernière page du rattrapage : l'utilisateur a vu jusqu'au dernier message.
+        // Une page after avec hasMore laisse des messages non lus derrière elle.
+        boolean reachedLatest = beforeId == null && (afterId == null || !hasMore);
+        if (participant != null && reachedLatest && !page.isEmpty()) {
+            markMessagesAsReadAsync(conversationId, userId);
+        }
+
+        prefetchDerivatives(page);
+        return MessageHistoryDTO.builder()
+                .conversationId(conversationId)
+                .messages(page.stream().map(m -> convertToDTO(m, null)).collect(Collectors.toList()))
+                .oldestId(page.isEmpty() ? null : page.get(0).getId())
+                .newestId(page.isEmpty() ? null : page.get(page.size() - 1).getId())
+                .hasMore(hasMore)
+                .build();
+    }
+
+    /**
+     * Vérifie l'accès en lecture ; retourne la participation (null pour un lecteur de groupe de compétence)
+     */
+    private ConversationParticipant checkReadAccess(Long conversationId, Long userId) {
         ConversationParticipant participant = participantRepository
                 .findByConversationIdAndUserId(conversationId, userId)
                 .orElse(null);
@@ -168,33 +266,16 @@ public class MessageService {
         if (participant == null && conversation.getType() != Conversation.ConversationType.SKILL_GROUP) {
             throw new SecurityException("User not authorized");
         }
-
-        // Récupérer les messages
-        Page<Message> messages = messageRepository
-                .findByConversationIdAndIsDeletedFalse(conversationId, pageable);
-
-        // CORRECTION: Marquer comme lu dans une transaction séparée pour éviter les problèmes
-        if (participant != null && pageable.getPageNumber() == 0) {
-            CompletableFuture.runAsync(() -> {
-                try {
-                    markMessagesAsReadAsync(conversationId, userId);
-                } catch (Exception e) {
-                    log.warn("Could not auto-mark messages as read: {}", e.getMessage());
-                }
-            });
-        }
-
-        return messages.map(m -> convertToDTO(m, null));
+        return participant;
     }
 
-    // NOUVEAU: Méthode asynchrone pour marquer comme lu
+    /**
+     * Marquage différé et regroupé par (utilisateur, conversation) : les lectures de page, activations
+     * et frappes rapprochées ne donnent qu'une seule mise à jour, exécutée hors du thread appelant.
+     */
     private void markMessagesAsReadAsync(Long conversationId, Long userId) {
-        try {
-            Thread.sleep(500); // Petit délai pour éviter les conflits
-            markMessagesAsRead(conversationId, userId);
-        } catch (Exception e) {
-            log.warn("Error in async mark as read: {}", e.getMessage());
-        }
+        readMarkDebouncer.request(userId, conversationId, () ->
+                transactionTemplate.executeWithoutResult(status -> markMessagesAsRead(conversationId, userId)));
     }
 
     // CORRECTION: Notifier correctement les changements d'état de lecture
@@ -207,25 +288,18 @@ public class MessageService {
                     "timestamp", LocalDateTime.now()
             );
 
-            // Notifier sur le topic de la conversation
-            messagingTemplate.convertAndSend(
+            // Topic de la conversation + file personnelle de chaque autre participant
+            List<Long> participantIds = conversationRepository
+                    .findUserIdsByConversationId(conversationId).stream()
+                    .filter(participantId -> !participantId.equals(userId))
+                    .toList();
+
+            fanoutService.publish(
                     "/topic/conversation/" + conversationId + "/read",
-                    readNotification
+                    readNotification,
+                    participantIds,
+                    "/queue/read-receipt"
             );
-
-            // Notifier aussi chaque participant individuellement
-            List<Long> participantIds = conversationRepository
-                    .findUserIdsByConversationId(conversationId);
-
-            for (Long participantId : participantIds) {
-                if (!participantId.equals(userId)) {
-                    messagingTemplate.convertAndSendToUser(
-                            participantId.toString(),
-                            "/queue/read-receipt",
-                            readNotification
-                    );
-                }
-            }
         } catch (Exception e) {
             log.warn("Error sending read notification: {}", e.getMessage());
         }
@@ -257,6 +331,8 @@ public class MessageService {
                         .build();
 
                 participantRepository.save(participant);
+                presenceInterestService.invalidateConversation(conversation.getId());
+                changeLog.membershipChanged(conversation.getId());
                 log.info("✅ User {} successfully joined skill conversation {}", userId, conversation.getId());
             }
         } catch (Exception e) {
@@ -292,40 +368,23 @@ public class MessageService {
         }
     }
 
-    private void broadcastMessageAsync(Long conversationId, MessageDTO messageDTO,
-                                       Set<ConversationParticipant> participants, UserResponse sender) {
-        CompletableFuture.runAsync(() -> {
-            try {
-                Set<ConversationParticipant> recipientsOnly = participants.stream()
-                        .filter(p -> !p.getUserId().equals(messageDTO.getSenderId()))
-                        .collect(Collectors.toSet());
-
-                broadcastMessageToRecipients(conversationId, messageDTO, recipientsOnly);
-                sendPushNotificationsToOfflineUsers(conversationId, messageDTO, recipientsOnly, sender);
-
-            } catch (Exception e) {
-                log.error("❌ Error in async message broadcasting: {}", e.getMessage());
-            }
-        });
-    }
-
+    /**
+     * Diffusion synchrone (préserve l'ordre des messages) : le DTO est sérialisé une fois pour le topic
+     * et toutes les files {@code /queue/conversation} ; les sessions déjà abonnées au topic ne reçoivent pas de doublon.
+     */
     private void broadcastMessageToRecipients(Long conversationId, MessageDTO messageDTO,
                                               Set<ConversationParticipant> recipients) {
         try {
-            recipients.stream()
-                    .filter(p -> p != null && p.isActive())
-                    .forEach(participant -> {
-                        try {
-                            messagingTemplate.convertAndSendToUser(
-                                    participant.getUserId().toString(),
-                                    "/queue/conversation",
-                                    messageDTO
-                            );
-                        } catch (Exception e) {
-                            log.warn("Failed to send to user {}: {}",
-                                    participant.getUserId(), e.getMessage());
-                        }
-                    });
+            List<Long> recipientIds = recipients.stream()
+                    .map(ConversationParticipant::getUserId)
+                    .toList();
+
+            fanoutService.publish(
+                    "/topic/conversation/" + conversationId,
+                    messageDTO,
+                    recipientIds,
+                    "/queue/conversation"
+            );
 
         } catch (Exception e) {
             log.error("Error broadcasting: {}", e.getMessage());
@@ -337,22 +396,15 @@ public class MessageService {
         try {
             if (participants == null) return;
 
+            String senderName = sender.firstName() + " " + sender.lastName();
+            String preview = truncateForNotification(messageDTO.getContent());
+
+            // Le dispatcher ignore les utilisateurs en ligne et regroupe les envois par lots
             participants.stream()
                     .filter(p -> p != null && p.isActive() && p.isNotificationEnabled())
                     .filter(p -> !p.getUserId().equals(messageDTO.getSenderId()))
-                    .forEach(participant -> {
-                        try {
-                            firebaseService.sendMessageNotification(
-                                    participant.getUserId(),
-                                    sender.firstName() + " " + sender.lastName(),
-                                    truncateForNotification(messageDTO.getContent()),
-                                    conversationId
-                            );
-                        } catch (Exception e) {
-                            log.warn("⚠️ Failed to send push notification to user {}: {}",
-                                    participant.getUserId(), e.getMessage());
-                        }
-                    });
+                    .forEach(participant -> pushDispatcher.enqueueMessage(
+                            participant.getUserId(), conversationId, senderName, preview));
 
         } catch (Exception e) {
             log.error("❌ Error sending push notifications: {}", e.getMessage());
@@ -370,8 +422,22 @@ public class MessageService {
         return content.substring(0, MAX_LENGTH - 3) + "...";
     }
 
+    /**
+     * État courant des messages demandés (utilisé par la synchronisation différentielle), par id croissant
+     */
+    @Transactional(readOnly = true)
+    public List<MessageDTO> getMessagesByIds(Collection<Long> messageIds) {
+        if (messageIds.isEmpty()) return List.of();
+        List<Message> messages = messageRepository.findAllById(messageIds);
+        prefetchDerivatives(messages);
+        return messages.stream()
+                .sorted(Comparator.comparing(Message::getId))
+                .map(m -> convertToDTO(m, null))
+                .collect(Collectors.toList());
+    }
+
     private MessageDTO convertToDTO(Message message, UserResponse sender) {
-        return MessageDTO.builder()
+        MessageDTO dto = MessageDTO.builder()
                 .id(message.getId())
                 .conversationId(message.getConversation().getId())
                 .senderId(message.getSenderId())
@@ -388,6 +454,24 @@ public class MessageService {
                 .canEdit(message.getSenderId().equals(message.getSenderId()))
                 .canDelete(message.getSenderId().equals(message.getSenderId()))
                 .build();
+
+        if (message.getAttachmentUrl() != null) {
+            mediaDerivativeService.decorate(dto);
+        }
+        return dto;
+    }
+
+    /**
+     * Une requête pour les dérivés de toute la page, au lieu d'une par pièce jointe
+     */
+    private void prefetchDerivatives(List<Message> messages) {
+        List<String> attachmentUrls = messages.stream()
+                .map(Message::getAttachmentUrl)
+                .filter(Objects::nonNull)
+                .toList();
+        if (!attachmentUrls.isEmpty()) {
+            mediaDerivativeService.prefetch(attachmentUrls);
+        }
     }
 
     // Toutes les autres méthodes existantes restent EXACTEMENT les mêmes...
@@ -408,6 +492,7 @@ public class MessageService {
         message.setContent(newContent);
         message.setEditedAt(LocalDateTime.now());
         message = messageRepository.save(message);
+        changeLog.messageChanged(message.getConversation().getId(), messageId);
 
         MessageDTO dto = convertToDTO(message, null);
 
@@ -429,9 +514,13 @@ public class MessageService {
             throw new SecurityException("Only sender can delete message");
         }
 
+        if (!message.isDeleted()) {
+            fileUploadService.releaseAttachment(message.getAttachmentUrl());
+        }
         message.setDeleted(true);
         message.setContent("[Message supprimé]");
         messageRepository.save(message);
+        changeLog.messageChanged(message.getConversation().getId(), messageId);
 
         messagingTemplate.convertAndSend(
                 "/topic/conversation/" + message.getConversation().getId() + "/delete",
@@ -448,6 +537,7 @@ public class MessageService {
         }
 
         String fileUrl = fileUploadService.uploadFile(file, userId);
+        mediaDerivativeService.enqueue(fileUrl);
         log.info("File uploaded by user {}: {}", userId, fileUrl);
         return fileUrl;
     }
@@ -469,6 +559,7 @@ public class MessageService {
                 .findByConversationIdAndContentContainingIgnoreCaseAndIsDeletedFalse(
                         conversationId, query, pageable);
 
+        prefetchDerivatives(messages.getContent());
         return messages.map(m -> convertToDTO(m, null));
     }
 
@@ -488,6 +579,7 @@ public class MessageService {
                         PageRequest.of(0, 100))
                 .getContent();
 
+        prefetchDerivatives(messages);
         return messages.stream()
                 .map(m -> convertToDTO(m, null))
                 .collect(Collectors.toList());
@@ -531,6 +623,7 @@ public class MessageService {
                     participant.setLastReadMessageId(lastMessage.get().getId());
                     participant.setLastReadTime(LocalDateTime.now());
                     participantRepository.save(participant);
+                    changeLog.readWatermarkMoved(conversationId, userId);
                     log.debug("Updated last read message for user {} in conversation {}", userId, conversationId);
                 }
             }
@@ -579,14 +672,7 @@ public class MessageService {
             log.debug("Conversation {} marked as active for user {}", conversationId, userId);
 
             // Marquer automatiquement tous les messages comme lus
-            CompletableFuture.runAsync(() -> {
-                try {
-                    Thread.sleep(100); // Petit délai pour éviter les conflits
-                    markMessagesAsRead(conversationId, userId);
-                } catch (Exception e) {
-                    log.error("Error marking messages as read on activation: {}", e.getMessage());
-                }
-            });
+            markMessagesAsReadAsync(conversationId, userId);
         } else {
             activeConversations.remove(key);
             log.debug("Conversation {} marked as inactive for user {}", conversationId, userId);
@@ -623,6 +709,15 @@ public class MessageService {
                 message.setReadAt(LocalDateTime.now());
                 messageRepository.save(message);
 
+                // Avancer le dernier message lu, comme markMessagesAsRead : SyncService en tire les readWatermarks
+                participantRepository.findByConversationIdAndUserId(conversationId, userId)
+                        .filter(participant -> !participant.hasReadMessage(messageId))
+                        .ifPresent(participant -> {
+                            participant.markMessageAsRead(messageId);
+                            participantRepository.save(participant);
+                        });
+                changeLog.readWatermarkMoved(conversationId, userId);
+
                 log.debug("Auto-marked message {} as read in active conversation {}", messageId, conversationId);
 
                 // Notifier les autres participants
@@ -0,0 +1,116 @@
+package com.example.servicemessagerie.service;
+
+import com.example.servicemessagerie.repository.ConversationParticipantRepository;
+import com.example.servicemessagerie.repository.ConversationRepository;
+import com.example.servicemessagerie.util.LongShardedMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Graphe d'intérêt de la présence : un utilisateur n'est notifié que des changements de présence
+ * des personnes avec qui il partage une conversation active.
+ * Les pairs sont chargés depuis conversation_participants et mis en cache (tableau trié) avec TTL,
+ * invalidés explicitement lors des changements de membres, après la validation de la transaction.
+ */
+@Slf4j
+@Service
+public class PresenceInterestService {
+
+    private final ConversationParticipantRepository participantRepository;
+    private final ConversationRepository conversationRepository;
+    private final long ttlMillis;
+
+    private final LongShardedMap<PeerSet> peersByUser = new LongShardedMap<>();
+
+    public PresenceInterestService(ConversationParticipantRepository participantRepository,
+                                   ConversationRepository conversationRepository,
+                                   @Value("${application.presence.interest-ttl-ms:60000}") long ttlMillis) {
+        this.participantRepository = participantRepository;
+        this.conversationRepository = conversationRepository;
+        this.ttlMillis = ttlMillis;
+    }
+
+    private static final class PeerSet {
+        final long[] sortedPeers;
+        final long loadedAt;
+
+        PeerSet(long[] sortedPeers, long loadedAt) {
+            this.sortedPeers = sortedPeers;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /**
+     * Pairs de l'utilisateur, triés par ordre croissant.
+     */
+    public long[] getPeers(long userId) {
+        long now = System.currentTimeMillis();
+        PeerSet cached = peersByUser.get(userId);
+        if (cached != null && now - cached.loadedAt < ttlMillis) {
+            return cached.sortedPeers;
+        }
+
+        try {
+            List<Long> ids = participantRepository.findPeerUserIds(userId);
+            long[] peers = new long[ids.size()];
+            for (int i = 0; i < peers.length; i++) {
+                peers[i] = ids.get(i);
+            }
+            Arrays.sort(peers);
+            peersByUser.put(userId, new PeerSet(peers, now));
+            return peers;
+        } catch (Exception e) {
+            log.error("❌ Error loading presence peers for user {}: {}", userId, e.getMessage());
+            return cached != null ? cached.sortedPeers : new long[0];
+        }
+    }
+
+    public boolean isPeer(long userId, long otherUserId) {
+        return Arrays.binarySearch(getPeers(userId), otherUserId) >= 0;
+    }
+
+    /**
+     * À appeler après un ajout/retrait de participants : les pairs seront rechargés au prochain usage.
+     * Dans une transaction, l'éviction attend la validation ; sinon une lecture concurrente
+     * remettrait en cache l'ancienne liste jusqu'à l'expiration du TTL.
+     */
+    public void invalidate(Collection<Long> userIds) {
+        if (userIds == null) return;
+        List<Long> ids = userIds.stream().filter(Objects::nonNull).toList();
+        if (ids.isEmpty()) return;
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    ids.forEach(id -> peersByUser.remove(id));
+                }
+            });
+        } else {
+            ids.forEach(id -> peersByUser.remove(id));
+        }
+    }
+
+    public void invalidateConversation(Long conversationId) {
+        try {
+            invalidate(conversationRepository.findUserIdsByConversationId(conversationId));
+        } catch (Exception e) {
+            log.warn("⚠️ Could not invalidate presence peers for conversation {}: {}", conversationId, e.getMessage());
+        }
+    }
+
+    /**
+     * Libère le cache d'un utilisateur passé hors ligne.
+     */
+    public void evict(long userId) {
+        peersByUser.remove(userId);
+    }
+}
@@ -1,58 +1,495 @@
 package com.example.servicemessagerie.service;
 
+import com.example.servicemessagerie.dto.PresenceDeltaDTO;
+import com.example.servicemessagerie.util.HashedTimerWheel;
+import com.example.servicemessagerie.util.LongShardedMap;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Registre de présence unique du service.
+ * <ul>
+ *     <li>utilisateurs en ligne dans une {@link LongShardedMap} (clés long primitives, verrous par shard)</li>
+ *     <li>comptage des sessions WebSocket par utilisateur : hors ligne quand la dernière session se ferme</li>
+ *     <li>expiration d'inactivité par {@link HashedTimerWheel} au lieu d'un parcours complet périodique</li>
+ *     <li>changements regroupés en deltas versionnés (joined/left depuis la version N)</li>
+ *     <li>deltas routés vers les seuls pairs en ligne ({@link PresenceInterestService})</li>
+ * </ul>
+ */
 @Slf4j
 @Service
 public class PresenceService {
 
-    private final Map<Long, Long> onlineUsers = new ConcurrentHashMap<>();
+    public static final String DELTA_QUEUE = "/queue/presence-delta";
 
-    public void markUserOnline(Long userId) {
-        onlineUsers.put(userId, System.currentTimeMillis());
-        log.info("✅ User {} marked as online", userId);
+    private final SimpMessagingTemplate messagingTemplate;
+    private final PresenceInterestService interestService;
+    private final DistributionSummary fanoutSummary;
+    private final Counter framesCounter;
+    private final long inactivityTimeoutMillis;
+    private final int deltaHistorySize;
+
+    private final LongShardedMap<UserPresence> onlineUsers = new LongShardedMap<>();
+    private final Map<String, Long> sessionToUserId = new ConcurrentHashMap<>();
+    private final HashedTimerWheel expiryWheel;
+
+    // Changements en attente du prochain flush : userId -> {état initial, état courant}
+    private final Map<Long, boolean[]> pendingChanges = new LinkedHashMap<>();
+    private final Deque<PresenceDeltaDTO> deltaHistory = new ArrayDeque<>();
+    // Époque du serveur : la numérotation repart au-dessus de toute version distribuée avant un redémarrage
+    private long version = System.currentTimeMillis();
+
+    public PresenceService(SimpMessagingTemplate messagingTemplate,
+                           PresenceInterestService interestService,
+                           MeterRegistry meterRegistry,
+                           @Value("${application.presence.inactivity-timeout-ms:120000}") long inactivityTimeoutMillis,
+                           @Value("${application.presence.tick-ms:1000}") long tickMillis,
+                           @Value("${application.presence.delta-history-size:256}") int deltaHistorySize) {
+        this.messagingTemplate = messagingTemplate;
+        this.interestService = interestService;
+        this.inactivityTimeoutMillis = inactivityTimeoutMillis;
+        this.deltaHistorySize = deltaHistorySize;
+        this.expiryWheel = new HashedTimerWheel(tickMillis, inactivityTimeoutMillis, System.currentTimeMillis());
+
+        this.fanoutSummary = DistributionSummary.builder("messaging.presence.fanout.recipients")
+                .description("Online peers notified per presence change")
+                .register(meterRegistry);
+        this.framesCounter = Counter.builder("messaging.presence.fanout.frames")
+                .description("Presence delta frames sent to user queues")
+                .register(meterRegistry);
+        Gauge.builder("messaging.presence.online.users", onlineUsers, LongShardedMap::size)
+                .register(meterRegistry);
+    }
+
+    private static class UserPresence {
+        final Set<String> sessionIds = new HashSet<>(2);
+        long lastActivity = System.currentTimeMillis();
+        long nextCheck;
+        boolean removed;
+    }
+
+    /**
+     * Enregistre une session (ou une activité explicite si {@code sessionId} est null).
+     * L'utilisateur passe en ligne à sa première session.
+     */
+    public void connect(Long userId, String sessionId) {
+        if (!isValidUserId(userId)) return;
+
+        long now = System.currentTimeMillis();
+        while (true) {
+            boolean[] created = {false};
+            UserPresence presence = onlineUsers.computeIfAbsent(userId, id -> {
+                created[0] = true;
+                return new UserPresence();
+            });
+
+            synchronized (presence) {
+                if (presence.removed) {
+                    continue;
+                }
+                if (sessionId != null && presence.sessionIds.add(sessionId)) {
+                    sessionToUserId.put(sessionId, userId);
+                }
+                presence.lastActivity = now;
+                if (created[0]) {
+                    presence.nextCheck = now + inactivityTimeoutMillis;
+                    expiryWheel.schedule(userId, presence.nextCheck);
+                    recordChange(userId, true);
+                    log.info("✅ User {} is now ONLINE (session: {})", userId, sessionId);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Rafraîchit l'activité d'un utilisateur ; l'enregistre s'il était inconnu.
+     */
+    public void touch(Long userId, String sessionId) {
+        if (!isValidUserId(userId)) return;
+
+        UserPresence presence = onlineUsers.get(userId);
+        if (presence != null) {
+            synchronized (presence) {
+                if (!presence.removed && (sessionId == null || presence.sessionIds.contains(sessionId))) {
+                    presence.lastActivity = System.currentTimeMillis();
+                    return;
+                }
+            }
+        }
+        connect(userId, sessionId);
+    }
+
+    /**
+     * Ferme une session WebSocket.
+     *
+     * @return l'utilisateur associé à la session, ou null si la session était inconnue
+     */
+    public Long disconnect(String sessionId) {
+        if (sessionId == null) return null;
+
+        Long userId = sessionToUserId.remove(sessionId);
+        if (userId != null) {
+            releaseSession(userId, sessionId);
+        }
+        return userId;
+    }
+
+    /**
+     * Passage hors ligne explicite : une session précise, ou toutes si {@code sessionId} est null.
+     */
+    public void disconnect(Long userId, String sessionId) {
+        if (!isValidUserId(userId)) return;
+
+        if (sessionId != null) {
+            sessionToUserId.remove(sessionId, userId);
+            releaseSession(userId, sessionId);
+            return;
+        }
+
+        UserPresence presence = onlineUsers.get(userId);
+        if (presence == null) return;
+        synchronized (presence) {
+            if (!presence.removed) {
+                evict(userId, presence);
+                log.info("❌ User {} is now OFFLINE (manual)", userId);
+            }
+        }
     }
 
-    public void markUserOffline(Long userId) {
-        onlineUsers.remove(userId);
-        log.info("❌ User {} marked as offline", userId);
+    private void releaseSession(Long userId, String sessionId) {
+        UserPresence presence = onlineUsers.get(userId);
+        if (presence == null) return;
+
+        synchronized (presence) {
+            if (presence.removed) return;
+            presence.sessionIds.remove(sessionId);
+            presence.lastActivity = System.currentTimeMillis();
+            if (presence.sessionIds.isEmpty()) {
+                evict(userId, presence);
+                log.info("❌ User {} is now OFFLINE (no active sessions)", userId);
+            } else {
+                log.debug("ℹ️ User {} still has {} active session(s)", userId, presence.sessionIds.size());
+            }
+        }
+    }
+
+    // Appelé avec le verrou de presence
+    private void evict(Long userId, UserPresence presence) {
+        presence.removed = true;
+        for (String sessionId : presence.sessionIds) {
+            sessionToUserId.remove(sessionId, userId);
+        }
+        presence.sessionIds.clear();
+        onlineUsers.remove(userId, presence);
+        recordChange(userId, false);
     }
 
     public boolean isUserOnline(Long userId) {
-        return onlineUsers.containsKey(userId);
+        return isValidUserId(userId) && onlineUsers.containsKey(userId);
     }
 
     public List<Long> getOnlineUsers() {
-        return new ArrayList<>(onlineUsers.keySet());
+        long[] keys = onlineUsers.keys();
+        List<Long> result = new ArrayList<>(keys.length);
+        for (long key : keys) {
+            result.add(key);
+        }
+        return result;
+    }
+
+    public int getOnlineCount() {
+        return onlineUsers.size();
+    }
+
+    public int getSessionCount() {
+        return sessionToUserId.size();
+    }
+
+    public synchronized long getCurrentVersion() {
+        return version;
+    }
+
+    /**
+     * État complet, à utiliser par un client qui (re)démarre ou dont la version est trop ancienne.
+     */
+    public PresenceDeltaDTO getSnapshot() {
+        long snapshotVersion;
+        synchronized (this) {
+            snapshotVersion = version;
+        }
+        List<Long> online = getOnlineUsers();
+        return PresenceDeltaDTO.builder()
+                .fromVersion(0)
+                .toVersion(snapshotVersion)
+                .snapshot(true)
+                .joined(List.of())
+                .left(List.of())
+                .online(online)
+                .totalOnline(online.size())
+                .timestamp(System.currentTimeMillis())
+                .build();
+    }
+
+    /**
+     * Changements nets depuis {@code sinceVersion}. Retombe sur un snapshot si l'historique
+     * ne remonte plus jusqu'à cette version, ou si elle est postérieure à la version courante
+     * (version obtenue d'une autre instance ou d'avant un redémarrage).
+     */
+    public PresenceDeltaDTO getChangesSince(long sinceVersion) {
+        Map<Long, Boolean> net = new LinkedHashMap<>();
+        long toVersion;
+
+        synchronized (this) {
+            toVersion = version;
+            if (sinceVersion > toVersion) {
+                return getSnapshot();
+            }
+            if (sinceVersion < toVersion) {
+                PresenceDeltaDTO oldest = deltaHistory.peekFirst();
+                if (sinceVersion < 0 || oldest == null || oldest.getFromVersion() > sinceVersion) {
+                    return getSnapshot();
+                }
+                for (PresenceDeltaDTO delta : deltaHistory) {
+                    if (delta.getToVersion() <= sinceVersion) continue;
+                    delta.getJoined().forEach(id -> net.put(id, Boolean.TRUE));
+                    delta.getLeft().forEach(id -> net.put(id, Boolean.FALSE));
+                }
+            }
+        }
+
+        List<Long> joined = new ArrayList<>();
+        List<Long> left = new ArrayList<>();
+        net.forEach((id, online) -> (online ? joined : left).add(id));
+
+        return PresenceDeltaDTO.builder()
+                .fromVersion(Math.min(sinceVersion, toVersion))
+                .toVersion(toVersion)
+                .snapshot(false)
+                .joined(joined)
+                .left(left)
+                .totalOnline(onlineUsers.size())
+                .timestamp(System.currentTimeMillis())
+                .build();
+    }
+
+    /**
+     * Snapshot restreint aux pairs de {@code userId}.
+     */
+    public PresenceDeltaDTO getSnapshot(Long userId) {
+        PresenceDeltaDTO snapshot = getSnapshot();
+        List<Long> online = filterPeers(userId, snapshot.getOnline());
+        snapshot.setOnline(online);
+        snapshot.setTotalOnline(online.size());
+        return snapshot;
+    }
+
+    /**
+     * Deltas depuis {@code sinceVersion}, restreints aux pairs de {@code userId}.
+     */
+    public PresenceDeltaDTO getChangesSince(long sinceVersion, Long userId) {
+        PresenceDeltaDTO delta = getChangesSince(sinceVersion);
+        if (delta.isSnapshot()) {
+            return getSnapshot(userId);
+        }
+        delta.setJoined(filterPeers(userId, delta.getJoined()));
+        delta.setLeft(filterPeers(userId, delta.getLeft()));
+        return delta;
+    }
+
+    public List<Long> getOnlinePeers(Long userId) {
+        return filterPeers(userId, getOnlineUsers());
+    }
+
+    private void recordChange(Long userId, boolean online) {
+        synchronized (pendingChanges) {
+            boolean[] change = pendingChanges.get(userId);
+            if (change == null) {
+                pendingChanges.put(userId, new boolean[]{!online, online});
+            } else {
+                change[1] = online;
+            }
+        }
+    }
+
+    /**
+     * Avance la roue d'expiration : seuls les utilisateurs dont l'échéance tombe dans le tick sont visités.
+     */
+    @Scheduled(fixedDelayString = "${application.presence.tick-ms:1000}")
+    public void expireInactiveUsers() {
+        try {
+            long now = System.currentTimeMillis();
+            int expired = expiryWheel.advance(now, userId -> checkExpiry(userId, now));
+            if (expired > 0) {
+                log.info("🧹 Expired {} inactive users, {} users remain online", expired, onlineUsers.size());
+            }
+        } catch (Exception e) {
+            log.error("❌ Error advancing presence expiry wheel: {}", e.getMessage(), e);
+        }
+    }
+
+    private boolean checkExpiry(long userId, long now) {
+        UserPresence presence = onlineUsers.get(userId);
+        if (presence == null) return false;
+
+        synchronized (presence) {
+            // Entrée obsolète de la roue : une échéance plus récente est déjà planifiée
+            if (presence.removed || presence.nextCheck > now + expiryWheel.getTickMillis()) {
+                return false;
+            }
+            long deadline = presence.lastActivity + inactivityTimeoutMillis;
+            if (deadline <= now) {
+                log.info("🧹 Marking inactive user as offline: {} (last activity: {} seconds ago)",
+                        userId, (now - presence.lastActivity) / 1000);
+                evict(userId, presence);
+                return true;
+            }
+            presence.nextCheck = deadline;
+            expiryWheel.schedule(userId, deadline);
+            return false;
+        }
     }
 
     /**
-     * Nettoyage automatique toutes les 5 minutes
+     * Publie les changements accumulés sous forme d'un seul delta versionné.
+     * La période de flush est la fenêtre de coalescence : un utilisateur parti puis revenu
+     * dans la même fenêtre n'apparaît pas.
      */
-    @Scheduled(fixedDelay = 300000)
-    public void cleanupInactiveUsers() {
-        long currentTime = System.currentTimeMillis();
-        long timeout = 5 * 60 * 1000;
+    @Scheduled(fixedDelayString = "${application.presence.delta-flush-ms:500}")
+    public void flushDeltas() {
+        Map<Long, boolean[]> batch;
+        synchronized (pendingChanges) {
+            if (pendingChanges.isEmpty()) return;
+            batch = new LinkedHashMap<>(pendingChanges);
+            pendingChanges.clear();
+        }
 
-        int removedCount = 0;
-        Iterator<Map.Entry<Long, Long>> iterator = onlineUsers.entrySet().iterator();
+        List<Long> joined = new ArrayList<>();
+        List<Long> left = new ArrayList<>();
+        batch.forEach((userId, change) -> {
+            if (change[0] != change[1]) {
+                (change[1] ? joined : left).add(userId);
+            }
+        });
+        if (joined.isEmpty() && left.isEmpty()) return;
 
-        while (iterator.hasNext()) {
-            Map.Entry<Long, Long> entry = iterator.next();
-            if ((currentTime - entry.getValue()) > timeout) {
-                iterator.remove();
-                removedCount++;
-                log.info("🧹 Removed inactive user: {}", entry.getKey());
+        PresenceDeltaDTO delta;
+        synchronized (this) {
+            delta = PresenceDeltaDTO.builder()
+                    .fromVersion(version)
+                    .toVersion(++version)
+                    .snapshot(false)
+                    .joined(joined)
+                    .left(left)
+                    .totalOnline(onlineUsers.size())
+                    .timestamp(System.currentTimeMillis())
+                    .build();
+            deltaHistory.addLast(delta);
+            while (deltaHistory.size() > deltaHistorySize) {
+                deltaHistory.removeFirst();
             }
         }
 
-        if (removedCount > 0) {
-            log.info("🧹 Cleaned up {} inactive users", removedCount);
+        publish(delta);
+    }
+
+    /**
+     * Fan-out par intérêt : chaque changement n'est envoyé qu'aux pairs en ligne de l'utilisateur concerné,
+     * regroupé en un seul frame par destinataire pour toute la fenêtre.
+     */
+    private void publish(PresenceDeltaDTO delta) {
+        try {
+            Map<Long, List<Long>[]> framesByRecipient = new HashMap<>();
+            addRecipients(framesByRecipient, delta.getJoined(), 0);
+            addRecipients(framesByRecipient, delta.getLeft(), 1);
+            delta.getLeft().forEach(interestService::evict);
+
+            framesByRecipient.forEach((recipientId, changes) -> {
+                PresenceDeltaDTO frame = PresenceDeltaDTO.builder()
+                        .fromVersion(delta.getFromVersion())
+                        .toVersion(delta.getToVersion())
+                        .snapshot(false)
+                        .joined(changes[0])
+                        .left(changes[1])
+                        .totalOnline(delta.getTotalOnline())
+                        .timestamp(delta.getTimestamp())
+                        .build();
+                messagingTemplate.convertAndSendToUser(recipientId.toString(), DELTA_QUEUE, frame);
+            });
+            framesCounter.increment(framesByRecipient.size());
+
+            log.debug("📡 Presence delta v{}: +{} / -{} sent to {} recipients", delta.getToVersion(),
+                    delta.getJoined().size(), delta.getLeft().size(), framesByRecipient.size());
+        } catch (Exception e) {
+            log.error("❌ Error broadcasting presence delta: {}", e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    @SuppressWarnings("unchecked")
+    private void addRecipients(Map<Long, List<Long>[]> framesByRecipient, List<Long> changedUsers, int index) {
+        for (Long userId : changedUsers) {
+            int recipients = 0;
+            for (long peerId : interestService.getPeers(userId)) {
+                if (!onlineUsers.containsKey(peerId)) continue;
+                framesByRecipient
+                        .computeIfAbsent(peerId, id -> new List[]{new ArrayList<>(), new ArrayList<>()})[index]
+                        .add(userId);
+                recipients++;
+            }
+            fanoutSummary.record(recipients);
+        }
+    }
+
+    private List<Long> filterPeers(Long userId, List<Long> userIds) {
+        long[] peers = interestService.getPeers(userId);
+        List<Long> result = new ArrayList<>();
+        for (Long id : userIds) {
+            if (Arrays.binarySearch(peers, id) >= 0) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Informations de debug (parcours complet, réservé au endpoint de diagnostic).
+     */
+    public Map<String, Object> describe() {
+        long now = System.currentTimeMillis();
+        Map<Long, Map<String, Object>> userDetails = new HashMap<>();
+        for (long userId : onlineUsers.keys()) {
+            UserPresence info = onlineUsers.get(userId);
+            if (info == null) continue;
+            synchronized (info) {
+                Map<String, Object> details = new HashMap<>();
+                details.put("sessionCount", info.sessionIds.size());
+                details.put("lastActivity", info.lastActivity);
+                details.put("secondsSinceLastActivity", (now - info.lastActivity) / 1000);
+                userDetails.put(userId, details);
+            }
+        }
+
+        Map<String, Object> debugInfo = new HashMap<>();
+        debugInfo.put("timestamp", now);
+        debugInfo.put("version", getCurrentVersion());
+        debugInfo.put("totalOnlineUsers", userDetails.size());
+        debugInfo.put("onlineUserIds", new ArrayList<>(userDetails.keySet()));
+        debugInfo.put("totalSessions", sessionToUserId.size());
+        debugInfo.put("userDetails", userDetails);
+        return debugInfo;
+    }
+
+    private boolean isValidUserId(Long userId) {
+        return userId != null && userId > 0;
+    }
+}
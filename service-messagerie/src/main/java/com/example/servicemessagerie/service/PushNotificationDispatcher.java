@@ -0,0 +1,230 @@
+package com.example.servicemessagerie.service;
+
+import com.example.servicemessagerie.dto.PushPayload;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Notifications push des nouveaux messages, regroupées par destinataire.
+ * <p>
+ * Les utilisateurs connectés (présence) sont ignorés : ils reçoivent déjà le message par WebSocket.
+ * Les messages destinés à un même utilisateur pendant la fenêtre de regroupement donnent une seule
+ * notification ("N nouveaux messages"). Les notifications prêtes partent par lots FCM {@code sendEach}
+ * depuis un pool borné ; au-delà des capacités configurées elles sont abandonnées et comptées.
+ */
+@Slf4j
+@Service
+public class PushNotificationDispatcher {
+
+    private final FirebaseMessagingService firebaseService;
+    private final PresenceService presenceService;
+
+    private final long coalesceWindowMillis;
+    private final int maxPendingUsers;
+    private final ThreadPoolTaskExecutor sender;
+
+    private final Map<Long, PendingPush> pendingByUser = new ConcurrentHashMap<>();
+
+    private final Counter enqueuedCounter;
+    private final Counter coalescedCounter;
+    private final Counter skippedOnlineCounter;
+    private final Counter droppedQueueFullCounter;
+    private final Counter droppedSenderBusyCounter;
+    private final Counter sentCounter;
+    private final Counter failedCounter;
+    private final Timer batchTimer;
+
+    public PushNotificationDispatcher(FirebaseMessagingService firebaseService,
+                                      PresenceService presenceService,
+                                      MeterRegistry meterRegistry,
+                                      @Value("${application.push.coalesce-window-ms:3000}") long coalesceWindowMillis,
+                                      @Value("${application.push.max-pending-users:20000}") int maxPendingUsers,
+                                      @Value("${application.push.sender-threads:2}") int senderThreads,
+                                      @Value("${application.push.max-queued-batches:50}") int maxQueuedBatches) {
+        this.firebaseService = firebaseService;
+        this.presenceService = presenceService;
+        this.coalesceWindowMillis = coalesceWindowMillis;
+        this.maxPendingUsers = maxPendingUsers;
+
+        this.sender = new ThreadPoolTaskExecutor();
+        sender.setCorePoolSize(senderThreads);
+        sender.setMaxPoolSize(senderThreads);
+        sender.setQueueCapacity(maxQueuedBatches);
+        sender.setThreadNamePrefix("push-sender-");
+        sender.initialize();
+        new ExecutorServiceMetrics(sender.getThreadPoolExecutor(), "push-sender", Tags.empty())
+                .bindTo(meterRegistry);
+
+        this.enqueuedCounter = Counter.builder("messaging.push.enqueued")
+                .description("Message notifications accepted for offline recipients")
+                .register(meterRegistry);
+        this.coalescedCounter = Counter.builder("messaging.push.coalesced")
+                .description("Message notifications merged into a pending push")
+                .register(meterRegistry);
+        this.skippedOnlineCounter = Counter.builder("messaging.push.skipped")
+                .tag("reason", "online")
+                .register(meterRegistry);
+        this.droppedQueueFullCounter = Counter.builder("messaging.push.dropped")
+                .tag("reason", "pending_full")
+                .register(meterRegistry);
+        this.droppedSenderBusyCounter = Counter.builder("messaging.push.dropped")
+                .tag("reason", "sender_busy")
+                .register(meterRegistry);
+        this.sentCounter = Counter.builder("messaging.push.sent")
+                .tag("result", "success")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("messaging.push.sent")
+                .tag("result", "failure")
+                .register(meterRegistry);
+        this.batchTimer = Timer.builder("messaging.push.batch.latency")
+                .description("FCM sendEach call duration")
+                .register(meterRegistry);
+        Gauge.builder("messaging.push.pending.users", pendingByUser, Map::size)
+                .register(meterRegistry);
+    }
+
+    private static final class PendingPush {
+        final long firstAt = System.currentTimeMillis();
+        final Set<Long> conversationIds = new LinkedHashSet<>(2);
+        int count;
+        Long lastConversationId;
+        String lastSenderName;
+        String lastPreview;
+    }
+
+    /**
+     * Signale un nouveau message pour {@code userId} ; ignoré si l'utilisateur est en ligne
+     */
+    public void enqueueMessage(Long userId, Long conversationId, String senderName, String preview) {
+        if (presenceService.isUserOnline(userId)) {
+            skippedOnlineCounter.increment();
+            return;
+        }
+        if (pendingByUser.size() >= maxPendingUsers && !pendingByUser.containsKey(userId)) {
+            droppedQueueFullCounter.increment();
+            return;
+        }
+
+        pendingByUser.compute(userId, (id, pending) -> {
+            if (pending == null) {
+                pending = new PendingPush();
+            } else {
+                coalescedCounter.increment();
+            }
+            pending.count++;
+            pending.conversationIds.add(conversationId);
+            pending.lastConversationId = conversationId;
+            pending.lastSenderName = senderName;
+            pending.lastPreview = preview;
+            return pending;
+        });
+        enqueuedCounter.increment();
+    }
+
+    /**
+     * Vide les regroupements dont la fenêtre est écoulée et les envoie par lots
+     */
+    @Scheduled(fixedDelayString = "${application.push.flush-ms:1000}")
+    public void flush() {
+        if (pendingByUser.isEmpty()) return;
+
+        long deadline = System.currentTimeMillis() - coalesceWindowMillis;
+        List<PushPayload> ready = new ArrayList<>();
+
+        for (Long userId : pendingByUser.keySet()) {
+            PendingPush[] taken = new PendingPush[1];
+            pendingByUser.computeIfPresent(userId, (id, pending) -> {
+                if (pending.firstAt > deadline) {
+                    return pending;
+                }
+                taken[0] = pending;
+                return null;
+            });
+            if (taken[0] == null) continue;
+
+            // Revenu en ligne pendant la fenêtre : il a vu les messages
+            if (presenceService.isUserOnline(userId)) {
+                skippedOnlineCounter.increment(taken[0].count);
+                continue;
+            }
+            ready.add(toPayload(userId, taken[0]));
+        }
+
+        for (int from = 0; from < ready.size(); from += FirebaseMessagingService.MAX_BATCH_SIZE) {
+            List<PushPayload> batch = ready.subList(from, Math.min(ready.size(), from + FirebaseMessagingService.MAX_BATCH_SIZE));
+            submit(new ArrayList<>(batch));
+        }
+    }
+
+    private void submit(List<PushPayload> batch) {
+        try {
+            sender.execute(() -> sendBatch(batch));
+        } catch (TaskRejectedException e) {
+            droppedSenderBusyCounter.increment(batch.size());
+            log.warn("⚠️ Push sender saturated, dropped {} notifications", batch.size());
+        }
+    }
+
+    private void sendBatch(List<PushPayload> batch) {
+        try {
+            int success = batchTimer.recordCallable(() -> firebaseService.sendBatch(batch));
+            sentCounter.increment(success);
+            failedCounter.increment(batch.size() - success);
+            log.debug("📲 Push batch sent: {}/{} accepted", success, batch.size());
+        } catch (Exception e) {
+            failedCounter.increment(batch.size());
+            log.error("❌ Error sending push batch of {}: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    private PushPayload toPayload(Long userId, PendingPush pending) {
+        Map<String, String> data = new HashMap<>();
+        data.put("conversationId", pending.lastConversationId.toString());
+        data.put("count", String.valueOf(pending.count));
+
+        String title;
+        String body;
+        if (pending.count == 1) {
+            data.put("type", "NEW_MESSAGE");
+            data.put("senderName", pending.lastSenderName);
+            title = "Nouveau message de " + pending.lastSenderName;
+            body = pending.lastPreview;
+        } else {
+            data.put("type", "NEW_MESSAGES_SUMMARY");
+            title = pending.count + " nouveaux messages";
+            body = pending.conversationIds.size() > 1
+                    ? "Dans " + pending.conversationIds.size() + " conversations"
+                    : "De " + pending.lastSenderName + " : " + pending.lastPreview;
+        }
+        return new PushPayload("user_" + userId, title, body, data);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushAll();
+        sender.shutdown();
+    }
+
+    private void flushAll() {
+        List<PushPayload> remaining = new ArrayList<>();
+        pendingByUser.forEach((userId, pending) -> remaining.add(toPayload(userId, pending)));
+        pendingByUser.clear();
+        for (int from = 0; from < remaining.size(); from += FirebaseMessagingService.MAX_BATCH_SIZE) {
+            sendBatch(remaining.subList(from, Math.min(remaining.size(), from + FirebaseMessagingService.MAX_BATCH_SIZE)));
+        }
+    }
+}
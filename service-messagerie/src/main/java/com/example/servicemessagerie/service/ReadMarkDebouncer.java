@@ -0,0 +1,115 @@
+package com.example.servicemessagerie.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Regroupe les demandes "marquer comme lu" d'un même couple (utilisateur, conversation).
+ * <p>
+ * La première demande planifie une exécution après {@code debounce-ms} ; les suivantes arrivées
+ * avant cette échéance sont absorbées. L'exécution part sur un pool borné et nommé
+ * ({@code read-marker-*}) ; pool saturé = demande abandonnée (la prochaine activité la relancera).
+ */
+@Slf4j
+@Service
+public class ReadMarkDebouncer {
+
+    private record Key(long userId, long conversationId) {
+    }
+
+    private final long debounceMillis;
+    private final ThreadPoolTaskScheduler scheduler;
+    private final ThreadPoolTaskExecutor workers;
+    private final Map<Key, Boolean> pending = new ConcurrentHashMap<>();
+
+    private final Counter requestedCounter;
+    private final Counter collapsedCounter;
+    private final Counter rejectedCounter;
+
+    public ReadMarkDebouncer(MeterRegistry meterRegistry,
+                             @Value("${application.async.read-mark.debounce-ms:500}") long debounceMillis,
+                             @Value("${application.async.read-mark.threads:2}") int threads,
+                             @Value("${application.async.read-mark.queue-capacity:500}") int queueCapacity) {
+        this.debounceMillis = debounceMillis;
+
+        this.scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("read-mark-debounce-");
+        scheduler.initialize();
+
+        this.workers = new ThreadPoolTaskExecutor();
+        workers.setCorePoolSize(threads);
+        workers.setMaxPoolSize(threads);
+        workers.setQueueCapacity(queueCapacity);
+        workers.setThreadNamePrefix("read-marker-");
+        workers.initialize();
+        new ExecutorServiceMetrics(workers.getThreadPoolExecutor(), "read-marker", Tags.empty())
+                .bindTo(meterRegistry);
+
+        this.requestedCounter = Counter.builder("messaging.read_mark.requests")
+                .description("Mark-as-read triggers received")
+                .register(meterRegistry);
+        this.collapsedCounter = Counter.builder("messaging.read_mark.collapsed")
+                .description("Triggers absorbed by an already scheduled execution")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("messaging.read_mark.rejected")
+                .description("Executions dropped because the worker pool was saturated")
+                .register(meterRegistry);
+        Gauge.builder("messaging.read_mark.pending", pending, Map::size)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Planifie {@code action} pour ce couple, sauf si une exécution est déjà en attente
+     */
+    public void request(Long userId, Long conversationId, Runnable action) {
+        requestedCounter.increment();
+        Key key = new Key(userId, conversationId);
+        if (pending.putIfAbsent(key, Boolean.TRUE) != null) {
+            collapsedCounter.increment();
+            return;
+        }
+
+        scheduler.schedule(() -> {
+            // Retiré avant l'exécution : une activité pendant le traitement replanifie un passage
+            pending.remove(key);
+            try {
+                workers.execute(() -> run(key, action));
+            } catch (TaskRejectedException e) {
+                rejectedCounter.increment();
+                log.warn("⚠️ Read-marker pool saturated, skipped user {} conversation {}",
+                        userId, conversationId);
+            }
+        }, Instant.now().plus(Duration.ofMillis(debounceMillis)));
+    }
+
+    private void run(Key key, Runnable action) {
+        try {
+            action.run();
+        } catch (Exception e) {
+            log.warn("Error marking conversation {} as read for user {}: {}",
+                    key.conversationId(), key.userId(), e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+        workers.shutdown();
+    }
+}
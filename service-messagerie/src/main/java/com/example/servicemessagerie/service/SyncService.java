@@ -0,0 +1,164 @@
+package com.example.servicemessagerie.service;
+
+import com.example.servicemessagerie.dto.ConversationDTO;
+import com.example.servicemessagerie.dto.MessageDTO;
+import com.example.servicemessagerie.dto.SyncDTO;
+import com.example.servicemessagerie.entity.ConversationParticipant;
+import com.example.servicemessagerie.entity.UserChange;
+import com.example.servicemessagerie.entity.UserSyncCursor;
+import com.example.servicemessagerie.repository.ConversationParticipantRepository;
+import com.example.servicemessagerie.repository.MessageRepository;
+import com.example.servicemessagerie.repository.UserChangeRepository;
+import com.example.servicemessagerie.repository.UserSyncCursorRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+
+/**
+ * Lecture du journal {@code user_changes} : transforme les changements postérieurs à {@code since}
+ * en un différentiel compact, hydraté avec l'état courant des messages et conversations.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SyncService {
+
+    private static final int MAX_CHANGES = 1000;
+
+    private final UserChangeRepository changeRepository;
+    private final UserSyncCursorRepository cursorRepository;
+    private final ConversationParticipantRepository participantRepository;
+    private final MessageRepository messageRepository;
+    private final MessageService messageService;
+    private final ConversationService conversationService;
+
+    @Transactional(readOnly = true)
+    public SyncDTO sync(Long userId, long since, int limit) {
+        if (since < 0) {
+            throw new IllegalArgumentException("since must be >= 0");
+        }
+        int pageSize = Math.max(1, Math.min(limit, MAX_CHANGES));
+        long current = cursorRepository.findById(userId).map(UserSyncCursor::getLastSeq).orElse(0L);
+
+        if (since == current) {
+            return empty(since, current, false);
+        }
+        if (since > current) {
+            // Curseur d'une autre base (ou remis à zéro) : seul un rechargement complet est sûr
+            return empty(since, current, true);
+        }
+
+        List<UserChange> changes = changeRepository.findByUserIdAndSeqGreaterThanOrderBySeqAsc(
+                userId, since, Limit.of(pageSize + 1));
+        // Séquence dense : un premier seq différent de since + 1 signifie que le début a été purgé
+        if (changes.isEmpty() || changes.get(0).getSeq() != since + 1) {
+            log.debug("🔄 Sync for user {} from {} requires a reset (current {})", userId, since, current);
+            return empty(since, current, true);
+        }
+
+        boolean hasMore = changes.size() > pageSize;
+        if (hasMore) {
+            changes = changes.subList(0, pageSize);
+        }
+
+        // Dédoublonnage : seul l'état courant compte
+        Set<Long> messageIds = new LinkedHashSet<>();
+        Set<Long> readConversations = new LinkedHashSet<>();
+        Set<Long> membershipConversations = new LinkedHashSet<>();
+        Set<Long> touchedConversations = new HashSet<>();
+        for (UserChange change : changes) {
+            touchedConversations.add(change.getConversationId());
+            switch (change.getKind()) {
+                case MESSAGE -> messageIds.add(change.getMessageId());
+                case READ -> readConversations.add(change.getConversationId());
+                case MEMBERSHIP -> membershipConversations.add(change.getConversationId());
+            }
+        }
+
+        List<MessageDTO> messages = new ArrayList<>();
+        List<Long> deletedMessageIds = new ArrayList<>();
+        for (MessageDTO message : messageService.getMessagesByIds(messageIds)) {
+            if (message.isDeleted()) {
+                deletedMessageIds.add(message.getId());
+            } else {
+                messages.add(message);
+            }
+        }
+
+        List<ConversationDTO> conversations = new ArrayList<>();
+        List<Long> removedConversationIds = new ArrayList<>();
+        for (Long conversationId : membershipConversations) {
+            boolean member = participantRepository.findByConversationIdAndUserId(conversationId, userId)
+                    .map(ConversationParticipant::isActive)
+                    .orElse(false);
+            if (!member) {
+                removedConversationIds.add(conversationId);
+                continue;
+            }
+            try {
+                conversations.add(conversationService.getConversation(conversationId, userId));
+            } catch (IllegalArgumentException | SecurityException e) {
+                removedConversationIds.add(conversationId);
+            }
+        }
+
+        List<SyncDTO.ReadWatermark> readWatermarks = new ArrayList<>();
+        if (!readConversations.isEmpty()) {
+            for (ConversationParticipant p : participantRepository.findActiveParticipantsByConversationIds(readConversations)) {
+                if (p.getLastReadMessageId() != null) {
+                    readWatermarks.add(new SyncDTO.ReadWatermark(
+                            p.getConversation().getId(), p.getUserId(), p.getLastReadMessageId()));
+                }
+            }
+        }
+
+        Map<Long, Integer> unreadCounts = new HashMap<>();
+        for (Long conversationId : touchedConversations) {
+            if (!removedConversationIds.contains(conversationId)) {
+                unreadCounts.put(conversationId, 0);
+            }
+        }
+        for (Object[] row : messageRepository.countUnreadMessagesPerConversation(userId)) {
+            Long conversationId = (Long) row[0];
+            if (unreadCounts.containsKey(conversationId)) {
+                unreadCounts.put(conversationId, ((Number) row[1]).intValue());
+            }
+        }
+
+        long seq = changes.get(changes.size() - 1).getSeq();
+        log.debug("🔄 Sync for user {}: {} changes ({} -> {}), {} messages, hasMore={}",
+                userId, changes.size(), since, seq, messages.size() + deletedMessageIds.size(), hasMore);
+
+        return SyncDTO.builder()
+                .since(since)
+                .seq(seq)
+                .hasMore(hasMore)
+                .resetRequired(false)
+                .conversations(conversations)
+                .removedConversationIds(removedConversationIds)
+                .messages(messages)
+                .deletedMessageIds(deletedMessageIds)
+                .readWatermarks(readWatermarks)
+                .unreadCounts(unreadCounts)
+                .build();
+    }
+
+    private static SyncDTO empty(long since, long current, boolean resetRequired) {
+        return SyncDTO.builder()
+                .since(since)
+                .seq(current)
+                .hasMore(false)
+                .resetRequired(resetRequired)
+                .conversations(List.of())
+                .removedConversationIds(List.of())
+                .messages(List.of())
+                .deletedMessageIds(List.of())
+                .readWatermarks(List.of())
+                .unreadCounts(Map.of())
+                .build();
+    }
+}
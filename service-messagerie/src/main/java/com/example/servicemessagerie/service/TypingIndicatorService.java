@@ -0,0 +1,148 @@
+package com.example.servicemessagerie.service;
+
+import com.example.servicemessagerie.dto.TypingStateDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Agrégation des indicateurs de frappe par conversation.
+ * <p>
+ * Les événements clavier d'un même utilisateur sont limités en débit ; seules les transitions
+ * (début/fin, ou expiration du TTL sans nouvel événement) modifient l'état visible. Au plus une trame
+ * "qui écrit" est publiée par conversation et par intervalle, uniquement si l'ensemble a changé.
+ * Ces indicateurs restent sur la WebSocket et ne passent jamais par les notifications push.
+ */
+@Slf4j
+@Service
+public class TypingIndicatorService {
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final long ttlMillis;
+    private final long minEventIntervalMillis;
+
+    private final Map<Long, ConversationTyping> conversations = new ConcurrentHashMap<>();
+
+    public TypingIndicatorService(SimpMessagingTemplate messagingTemplate,
+                                  @Value("${application.typing.ttl-ms:6000}") long ttlMillis,
+                                  @Value("${application.typing.min-event-interval-ms:1000}") long minEventIntervalMillis) {
+        this.messagingTemplate = messagingTemplate;
+        this.ttlMillis = ttlMillis;
+        this.minEventIntervalMillis = minEventIntervalMillis;
+    }
+
+    private static final class TypingEntry {
+        final String userName;
+        long expiresAt;
+        long lastEventAt;
+
+        TypingEntry(String userName, long now, long ttlMillis) {
+            this.userName = userName;
+            this.lastEventAt = now;
+            this.expiresAt = now + ttlMillis;
+        }
+    }
+
+    private static final class ConversationTyping {
+        final Map<Long, TypingEntry> typing = new LinkedHashMap<>();
+        boolean dirty;
+        boolean removed; // retiré de la table : un nouvel état doit être créé
+    }
+
+    /**
+     * Enregistre un événement de frappe.
+     *
+     * @return true si l'utilisateur vient de commencer à écrire (transition début)
+     */
+    public boolean onTyping(Long conversationId, Long userId, String userName, boolean isTyping) {
+        long now = System.currentTimeMillis();
+        if (!isTyping) {
+            stop(conversationId, userId);
+            return false;
+        }
+
+        while (true) {
+            ConversationTyping state = conversations.computeIfAbsent(conversationId, id -> new ConversationTyping());
+            synchronized (state) {
+                if (state.removed) {
+                    continue;
+                }
+                TypingEntry entry = state.typing.get(userId);
+                if (entry == null) {
+                    state.typing.put(userId, new TypingEntry(userName, now, ttlMillis));
+                    state.dirty = true;
+                    return true;
+                }
+                // Frappe continue : on prolonge le TTL au plus une fois par intervalle
+                if (now - entry.lastEventAt >= minEventIntervalMillis) {
+                    entry.lastEventAt = now;
+                    entry.expiresAt = now + ttlMillis;
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Fin de frappe explicite (ou message envoyé)
+     */
+    public void stop(Long conversationId, Long userId) {
+        ConversationTyping state = conversations.get(conversationId);
+        if (state == null) return;
+        synchronized (state) {
+            if (state.typing.remove(userId) != null) {
+                state.dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Expire les frappes sans nouvel événement et publie l'ensemble des conversations modifiées
+     */
+    @Scheduled(fixedDelayString = "${application.typing.flush-ms:300}")
+    public void flush() {
+        if (conversations.isEmpty()) return;
+        long now = System.currentTimeMillis();
+
+        for (Map.Entry<Long, ConversationTyping> e : conversations.entrySet()) {
+            Long conversationId = e.getKey();
+            ConversationTyping state = e.getValue();
+
+            List<TypingStateDTO.TypingUser> typingUsers;
+            synchronized (state) {
+                if (state.typing.values().removeIf(entry -> entry.expiresAt <= now)) {
+                    state.dirty = true;
+                }
+                if (!state.dirty) {
+                    continue;
+                }
+                state.dirty = false;
+
+                typingUsers = new ArrayList<>(state.typing.size());
+                state.typing.forEach((userId, entry) ->
+                        typingUsers.add(new TypingStateDTO.TypingUser(userId, entry.userName)));
+
+                if (state.typing.isEmpty()) {
+                    state.removed = true;
+                    conversations.remove(conversationId, state);
+                }
+            }
+
+            try {
+                messagingTemplate.convertAndSend("/topic/conversation/" + conversationId + "/typing",
+                        TypingStateDTO.builder()
+                                .conversationId(conversationId)
+                                .typingUsers(typingUsers)
+                                .timestamp(now)
+                                .build());
+            } catch (Exception ex) {
+                log.warn("Failed to publish typing state for conversation {}: {}", conversationId, ex.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.servicemessagerie.service;
+
+import com.example.servicemessagerie.dto.UserUpdatedEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Service;
+
+/**
+ * Invalide les données utilisateur mises en cache lorsqu'un utilisateur est créé, modifié ou supprimé :
+ * identifiant résolu (y compris une éventuelle entrée négative "introuvable"), détails et relations d'échange.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UserCacheInvalidationService {
+
+    private final CacheManager cacheManager;
+    private final AuthorizationGraphService authorizationGraph;
+
+    @KafkaListener(topics = "${application.cache.user-events-topic:user-updates}",
+            groupId = "${application.cache.consumer-group:messagerie-cache}-${random.uuid}",
+            containerFactory = "userEventListenerFactory")
+    public void onUserEvent(UserUpdatedEvent event) {
+        if (event == null) return;
+        log.debug("🗄️ User event {} (userId={}, keycloakId={}): evicting cached entries",
+                event.type(), event.userId(), event.keycloakId());
+        invalidateUser(event.userId(), event.keycloakId());
+    }
+
+    public void invalidateUser(Long userId, String keycloakId) {
+        if (keycloakId != null) {
+            evict("userIds", keycloakId);
+            evict("userIds", "keycloak:" + keycloakId);
+        }
+        if (userId != null) {
+            evict("userDetails", userId);
+            authorizationGraph.invalidateUsers(userId);
+        }
+    }
+
+    private void evict(String cacheName, Object key) {
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache != null) {
+            cache.evict(key);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.servicemessagerie.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.user.SimpSession;
+import org.springframework.messaging.simp.user.SimpSubscription;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeType;
+
+import java.util.Collection;
+
+/**
+ * Diffusion d'un même payload vers un topic et/ou plusieurs files utilisateur.
+ * <p>
+ * Le payload est converti une seule fois (même convertisseur que {@code convertAndSend}, donc même JSON) ;
+ * chaque destination reçoit un message qui partage ce tableau d'octets, seuls les en-têtes diffèrent.
+ * Quand un topic couvre déjà la diffusion, les sessions abonnées à ce topic ne reçoivent pas
+ * en plus la copie de leur file personnelle.
+ */
+@Slf4j
+@Service
+public class WebSocketFanoutService {
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final SimpUserRegistry userRegistry;
+
+    private final Counter encodedCounter;
+    private final Counter deliveredCounter;
+    private final Counter deduplicatedCounter;
+
+    public WebSocketFanoutService(SimpMessagingTemplate messagingTemplate,
+                                  SimpUserRegistry userRegistry,
+                                  MeterRegistry meterRegistry) {
+        this.messagingTemplate = messagingTemplate;
+        this.userRegistry = userRegistry;
+        this.encodedCounter = Counter.builder("messaging.fanout.encoded")
+                .description("Payloads serialized for a fan-out")
+                .register(meterRegistry);
+        this.deliveredCounter = Counter.builder("messaging.fanout.delivered")
+                .description("Broker messages emitted from a pre-encoded payload")
+                .register(meterRegistry);
+        this.deduplicatedCounter = Counter.builder("messaging.fanout.deduplicated")
+                .description("User-queue copies skipped because the session already receives the topic")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Publie sur {@code topic} puis sur {@code userQueue} de chaque destinataire,
+     * sauf pour les sessions déjà abonnées à {@code topic}
+     */
+    public void publish(String topic, Object payload, Collection<Long> userIds, String userQueue) {
+        Encoded encoded = encode(payload);
+        send(topic, encoded, null);
+
+        for (Long userId : userIds) {
+            try {
+                sendToUserDeduplicated(userId.toString(), userQueue, topic, encoded);
+            } catch (Exception e) {
+                log.warn("Failed to send to user {}: {}", userId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Envoie le même payload sur {@code userQueue} de chaque destinataire
+     */
+    public void sendToUsers(Collection<Long> userIds, String userQueue, Object payload) {
+        if (userIds.isEmpty()) return;
+        Encoded encoded = encode(payload);
+
+        for (Long userId : userIds) {
+            try {
+                send(userDestination(userId.toString(), userQueue), encoded, null);
+            } catch (Exception e) {
+                log.warn("Failed to send to user {}: {}", userId, e.getMessage());
+            }
+        }
+    }
+
+    private void sendToUserDeduplicated(String user, String userQueue, String topic, Encoded encoded) {
+        SimpUser simpUser = userRegistry.getUser(user);
+        if (simpUser == null || !simpUser.hasSessions()) {
+            // Inconnu localement : comportement standard de convertAndSendToUser
+            send(userDestination(user, userQueue), encoded, null);
+            return;
+        }
+
+        int covered = 0;
+        for (SimpSession session : simpUser.getSessions()) {
+            if (isSubscribed(session, topic)) covered++;
+        }
+        if (covered == 0) {
+            send(userDestination(user, userQueue), encoded, null);
+            return;
+        }
+
+        deduplicatedCounter.increment(covered);
+        if (covered == simpUser.getSessions().size()) return;
+
+        // Seules les sessions qui n'écoutent pas le topic reçoivent la copie personnelle
+        for (SimpSession session : simpUser.getSessions()) {
+            if (!isSubscribed(session, topic)) {
+                send(userDestination(user, userQueue), encoded, session.getId());
+            }
+        }
+    }
+
+    private static boolean isSubscribed(SimpSession session, String destination) {
+        for (SimpSubscription subscription : session.getSubscriptions()) {
+            if (destination.equals(subscription.getDestination())) return true;
+        }
+        return false;
+    }
+
+    private String userDestination(String user, String userQueue) {
+        String prefix = messagingTemplate.getUserDestinationPrefix();
+        return prefix + user + (userQueue.startsWith("/") ? userQueue : "/" + userQueue);
+    }
+
+    private record Encoded(byte[] body, MimeType contentType) {
+    }
+
+    private Encoded encode(Object payload) {
+        Message<?> converted = messagingTemplate.getMessageConverter().toMessage(payload, null);
+        if (converted == null || !(converted.getPayload() instanceof byte[] body)) {
+            throw new IllegalArgumentException("Cannot encode payload of type " + payload.getClass().getName());
+        }
+        encodedCounter.increment();
+        return new Encoded(body, converted.getHeaders().get(MessageHeaders.CONTENT_TYPE, MimeType.class));
+    }
+
+    /**
+     * Le sessionId restreint une destination utilisateur à cette session (DefaultUserDestinationResolver)
+     */
+    private void send(String destination, Encoded encoded, String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        if (encoded.contentType() != null) {
+            accessor.setContentType(encoded.contentType());
+        }
+        if (sessionId != null) {
+            accessor.setSessionId(sessionId);
+        }
+        accessor.setLeaveMutable(true);
+        messagingTemplate.send(destination, MessageBuilder.createMessage(encoded.body(), accessor.getMessageHeaders()));
+        deliveredCounter.increment();
+    }
+}
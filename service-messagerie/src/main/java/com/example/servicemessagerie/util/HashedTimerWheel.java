@@ -0,0 +1,116 @@
+package com.example.servicemessagerie.util;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * Roue temporelle hachée pour des échéances identifiées par une clé {@code long}.
+ * <p>
+ * Planifier une clé coûte O(1) ; chaque tick ne visite que le slot courant au lieu de parcourir
+ * toutes les clés. Les échéances sont "paresseuses" : lorsqu'un slot expire, le callback décide
+ * si la clé est réellement échue ou si elle doit être replanifiée (activité entre-temps).
+ * L'avancement ({@link #advance}) doit être appelé par un seul thread.
+ */
+public class HashedTimerWheel {
+
+    private final long tickMillis;
+    private final int mask;
+    private final LongBucket[] wheel;
+    private long currentTick;
+
+    public HashedTimerWheel(long tickMillis, long maxDelayMillis, long startMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive");
+        }
+        long ticks = Math.max(2, (maxDelayMillis + tickMillis - 1) / tickMillis + 1);
+        int slots = Integer.highestOneBit((int) Math.min(1 << 20, ticks - 1) << 1);
+        this.tickMillis = tickMillis;
+        this.mask = slots - 1;
+        this.wheel = new LongBucket[slots];
+        for (int i = 0; i < slots; i++) {
+            wheel[i] = new LongBucket();
+        }
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    /**
+     * Planifie {@code key} pour l'instant {@code deadlineMillis}. Les échéances au-delà de
+     * la taille de la roue sont ramenées au dernier slot et seront revérifiées à l'expiration.
+     */
+    public void schedule(long key, long deadlineMillis) {
+        long tick;
+        synchronized (this) {
+            long target = Math.max(currentTick + 1, deadlineMillis / tickMillis);
+            tick = Math.min(target, currentTick + mask);
+        }
+        LongBucket bucket = wheel[(int) (tick & mask)];
+        synchronized (bucket) {
+            bucket.add(key);
+        }
+    }
+
+    /**
+     * Avance la roue jusqu'à {@code nowMillis}. Pour chaque clé des slots écoulés, {@code onExpired}
+     * retourne {@code true} si la clé est définitivement échue ; sinon l'appelant doit l'avoir replanifiée.
+     *
+     * @return nombre de clés déclarées échues
+     */
+    public int advance(long nowMillis, LongPredicate onExpired) {
+        long targetTick = nowMillis / tickMillis;
+        int expired = 0;
+        while (true) {
+            long tick;
+            synchronized (this) {
+                if (currentTick >= targetTick) {
+                    break;
+                }
+                tick = ++currentTick;
+            }
+            LongBucket bucket = wheel[(int) (tick & mask)];
+            long[] due;
+            synchronized (bucket) {
+                due = bucket.drain();
+            }
+            for (long key : due) {
+                if (onExpired.test(key)) {
+                    expired++;
+                }
+            }
+        }
+        return expired;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    public int getSlotCount() {
+        return wheel.length;
+    }
+
+    private static final class LongBucket {
+        private static final long[] NONE = new long[0];
+
+        private long[] items = NONE;
+        private int size;
+
+        void add(long key) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, Math.max(4, size << 1));
+            }
+            items[size++] = key;
+        }
+
+        long[] drain() {
+            if (size == 0) {
+                return NONE;
+            }
+            long[] result = Arrays.copyOf(items, size);
+            size = 0;
+            if (items.length > 64) {
+                items = NONE;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.example.servicemessagerie.util;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+import java.util.function.LongFunction;
+
+/**
+ * Map concurrente à clés {@code long} primitives, découpée en shards.
+ * Chaque shard est une table à adressage ouvert (sondage linéaire) protégée par son propre verrou :
+ * pas de boxing des clés, pas d'objet Entry par élément, et une contention répartie sur les shards.
+ */
+public class LongShardedMap<V> {
+
+    private static final long EMPTY_KEY = 0L;
+
+    private final Shard<V>[] shards;
+    private final int shardMask;
+
+    public LongShardedMap() {
+        this(16, 64);
+    }
+
+    @SuppressWarnings("unchecked")
+    public LongShardedMap(int shardCount, int initialCapacityPerShard) {
+        int count = Integer.highestOneBit(Math.max(1, shardCount - 1) << 1);
+        this.shards = new Shard[count];
+        this.shardMask = count - 1;
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard<>(initialCapacityPerShard);
+        }
+    }
+
+    public V get(long key) {
+        Shard<V> shard = shardFor(key);
+        synchronized (shard) {
+            return shard.get(key);
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+        Shard<V> shard = shardFor(key);
+        synchronized (shard) {
+            return shard.put(key, value);
+        }
+    }
+
+    public V computeIfAbsent(long key, LongFunction<V> factory) {
+        Shard<V> shard = shardFor(key);
+        synchronized (shard) {
+            V existing = shard.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            V created = factory.apply(key);
+            if (created != null) {
+                shard.put(key, created);
+            }
+            return created;
+        }
+    }
+
+    public V remove(long key) {
+        Shard<V> shard = shardFor(key);
+        synchronized (shard) {
+            return shard.remove(key);
+        }
+    }
+
+    /**
+     * Supprime la clé uniquement si elle est toujours associée à {@code expected} (comparaison d'identité).
+     */
+    public boolean remove(long key, V expected) {
+        Shard<V> shard = shardFor(key);
+        synchronized (shard) {
+            if (shard.get(key) != expected) {
+                return false;
+            }
+            shard.remove(key);
+            return true;
+        }
+    }
+
+    public int size() {
+        int total = 0;
+        for (Shard<V> shard : shards) {
+            synchronized (shard) {
+                total += shard.size;
+            }
+        }
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Instantané des clés, shard par shard (cohérent par shard, pas globalement).
+     */
+    public long[] keys() {
+        long[] result = new long[16];
+        int n = 0;
+        for (Shard<V> shard : shards) {
+            synchronized (shard) {
+                if (n + shard.size > result.length) {
+                    result = Arrays.copyOf(result, Math.max(result.length * 2, n + shard.size));
+                }
+                n = shard.copyKeysInto(result, n);
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Parcourt les entrées sous le verrou de chaque shard ; l'action ne doit pas modifier la map.
+     */
+    public void forEach(BiConsumer<Long, V> action) {
+        for (Shard<V> shard : shards) {
+            synchronized (shard) {
+                shard.forEach(action);
+            }
+        }
+    }
+
+    public void clear() {
+        for (Shard<V> shard : shards) {
+            synchronized (shard) {
+                shard.clear();
+            }
+        }
+    }
+
+    private Shard<V> shardFor(long key) {
+        return shards[(int) (mix(key) >>> 40) & shardMask];
+    }
+
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * Table à adressage ouvert ; la clé 0 est stockée à part pour servir de sentinelle "vide".
+     */
+    private static final class Shard<V> {
+        private long[] keys;
+        private Object[] values;
+        private int size;
+        private int mask;
+        private Object zeroValue;
+
+        Shard(int initialCapacity) {
+            int capacity = Integer.highestOneBit(Math.max(4, initialCapacity - 1) << 1);
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+            this.mask = capacity - 1;
+        }
+
+        @SuppressWarnings("unchecked")
+        V get(long key) {
+            if (key == EMPTY_KEY) {
+                return (V) zeroValue;
+            }
+            int idx = (int) mix(key) & mask;
+            while (true) {
+                long k = keys[idx];
+                if (k == EMPTY_KEY) {
+                    return null;
+                }
+                if (k == key) {
+                    return (V) values[idx];
+                }
+                idx = (idx + 1) & mask;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        V put(long key, V value) {
+            if (key == EMPTY_KEY) {
+                V previous = (V) zeroValue;
+                if (previous == null) {
+                    size++;
+                }
+                zeroValue = value;
+                return previous;
+            }
+            int idx = (int) mix(key) & mask;
+            while (true) {
+                long k = keys[idx];
+                if (k == EMPTY_KEY) {
+                    keys[idx] = key;
+                    values[idx] = value;
+                    size++;
+                    if (size * 4 >= keys.length * 3) {
+                        rehash(keys.length << 1);
+                    }
+                    return null;
+                }
+                if (k == key) {
+                    V previous = (V) values[idx];
+                    values[idx] = value;
+                    return previous;
+                }
+                idx = (idx + 1) & mask;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        V remove(long key) {
+            if (key == EMPTY_KEY) {
+                V previous = (V) zeroValue;
+                if (previous != null) {
+                    zeroValue = null;
+                    size--;
+                }
+                return previous;
+            }
+            int idx = (int) mix(key) & mask;
+            while (true) {
+                long k = keys[idx];
+                if (k == EMPTY_KEY) {
+                    return null;
+                }
+                if (k == key) {
+                    V previous = (V) values[idx];
+                    shiftKeys(idx);
+                    size--;
+                    return previous;
+                }
+                idx = (idx + 1) & mask;
+            }
+        }
+
+        /**
+         * Suppression par décalage arrière (pas de tombstones) pour garder des sondages courts.
+         */
+        private void shiftKeys(int pos) {
+            int last;
+            while (true) {
+                last = pos;
+                pos = (pos + 1) & mask;
+                long k;
+                while (true) {
+                    k = keys[pos];
+                    if (k == EMPTY_KEY) {
+                        keys[last] = EMPTY_KEY;
+                        values[last] = null;
+                        return;
+                    }
+                    int slot = (int) mix(k) & mask;
+                    if (last <= pos ? (last >= slot || slot > pos) : (last >= slot && slot > pos)) {
+                        break;
+                    }
+                    pos = (pos + 1) & mask;
+                }
+                keys[last] = k;
+                values[last] = values[pos];
+            }
+        }
+
+        private void rehash(int newCapacity) {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new long[newCapacity];
+            values = new Object[newCapacity];
+            mask = newCapacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                long k = oldKeys[i];
+                if (k != EMPTY_KEY) {
+                    int idx = (int) mix(k) & mask;
+                    while (keys[idx] != EMPTY_KEY) {
+                        idx = (idx + 1) & mask;
+                    }
+                    keys[idx] = k;
+                    values[idx] = oldValues[i];
+                }
+            }
+        }
+
+        int copyKeysInto(long[] target, int offset) {
+            if (zeroValue != null) {
+                target[offset++] = EMPTY_KEY;
+            }
+            for (long k : keys) {
+                if (k != EMPTY_KEY) {
+                    target[offset++] = k;
+                }
+            }
+            return offset;
+        }
+
+        @SuppressWarnings("unchecked")
+        void forEach(BiConsumer<Long, V> action) {
+            if (zeroValue != null) {
+                action.accept(EMPTY_KEY, (V) zeroValue);
+            }
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY_KEY) {
+                    action.accept(keys[i], (V) values[i]);
+                }
+            }
+        }
+
+        void clear() {
+            Arrays.fill(keys, EMPTY_KEY);
+            Arrays.fill(values, null);
+            zeroValue = null;
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.servicemessagerie.util;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.support.AbstractValueAdaptingCache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cache Spring borné (taille + TTL) avec rafraîchissement anticipé et cache négatif.
+ * <p>
+ * Utilisé avec {@code @Cacheable(sync = true)} : la fonction de chargement fournie par Spring porte
+ * les arguments de l'appel courant (dont le token), ce qui permet :
+ * <ul>
+ *   <li>de recharger en arrière-plan une entrée lue après {@code refreshAfter}, en servant l'ancienne valeur ;</li>
+ *   <li>de mémoriser pendant {@code negativeTtl} qu'une clé est introuvable ({@link IllegalArgumentException})
+ *       et de relancer la même erreur sans rappeler le service distant.</li>
+ * </ul>
+ */
+@Slf4j
+public class PolicyCache extends AbstractValueAdaptingCache {
+
+    private final String name;
+    private final com.github.benmanes.caffeine.cache.Cache<Object, Entry> store;
+    private final long refreshAfterNanos;
+    private final long negativeTtlNanos;
+    private final Executor refresher;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter negativeHits;
+    private final Counter refreshed;
+    private final Counter refreshRejected;
+    private final Counter evictions;
+    private final Timer loadSuccess;
+    private final Timer loadNotFound;
+    private final Timer loadFailure;
+
+    private static final class Entry {
+        final Object value;               // valeur stockée (null pour une entrée négative)
+        final RuntimeException failure;   // erreur "introuvable" mémorisée
+        final long writtenAt = System.nanoTime();
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(Object value, RuntimeException failure) {
+            this.value = value;
+            this.failure = failure;
+        }
+    }
+
+    public PolicyCache(String name, long maxSize, long ttlMillis, long refreshAfterMillis, long negativeTtlMillis,
+                       Executor refresher, MeterRegistry meterRegistry) {
+        super(true);
+        this.name = name;
+        this.refreshAfterNanos = TimeUnit.MILLISECONDS.toNanos(refreshAfterMillis);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+        this.refresher = refresher;
+
+        long ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.evictions = Counter.builder("messaging.cache.evictions").tag("cache", name).register(meterRegistry);
+        this.store = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<Object, Entry>() {
+                    @Override
+                    public long expireAfterCreate(Object key, Entry entry, long currentTime) {
+                        return entry.failure != null ? negativeTtlNanos : ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Object key, Entry entry, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, entry, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(Object key, Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .removalListener((Object key, Entry entry, RemovalCause cause) -> {
+                    if (cause == RemovalCause.SIZE) evictions.increment();
+                })
+                .build();
+
+        this.hits = gets(meterRegistry, "hit");
+        this.misses = gets(meterRegistry, "miss");
+        this.negativeHits = gets(meterRegistry, "negative_hit");
+        this.refreshed = Counter.builder("messaging.cache.refreshes").tag("cache", name).tag("result", "scheduled")
+                .register(meterRegistry);
+        this.refreshRejected = Counter.builder("messaging.cache.refreshes").tag("cache", name).tag("result", "rejected")
+                .register(meterRegistry);
+        this.loadSuccess = loads(meterRegistry, "success");
+        this.loadNotFound = loads(meterRegistry, "not_found");
+        this.loadFailure = loads(meterRegistry, "failure");
+        Gauge.builder("messaging.cache.size", store, com.github.benmanes.caffeine.cache.Cache::estimatedSize)
+                .tag("cache", name)
+                .register(meterRegistry);
+    }
+
+    private Counter gets(MeterRegistry registry, String result) {
+        return Counter.builder("messaging.cache.gets").tag("cache", name).tag("result", result).register(registry);
+    }
+
+    private Timer loads(MeterRegistry registry, String result) {
+        return Timer.builder("messaging.cache.load").tag("cache", name).tag("result", result).register(registry);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return store;
+    }
+
+    @Override
+    protected Object lookup(Object key) {
+        Entry entry = store.getIfPresent(key);
+        if (entry == null || entry.failure != null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        Entry entry = store.getIfPresent(key);
+        if (entry != null) {
+            if (entry.failure != null) {
+                negativeHits.increment();
+                throw new ValueRetrievalException(key, valueLoader, entry.failure);
+            }
+            hits.increment();
+            refreshIfStale(key, entry, valueLoader);
+            return (T) fromStoreValue(entry.value);
+        }
+
+        misses.increment();
+        Entry loaded = store.get(key, k -> load(k, valueLoader));
+        if (loaded.failure != null) {
+            throw new ValueRetrievalException(key, valueLoader, loaded.failure);
+        }
+        return (T) fromStoreValue(loaded.value);
+    }
+
+    private Entry load(Object key, Callable<?> valueLoader) {
+        long start = System.nanoTime();
+        try {
+            Entry entry = new Entry(toStoreValue(valueLoader.call()), null);
+            loadSuccess.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return entry;
+        } catch (Exception e) {
+            RuntimeException failure = e instanceof RuntimeException re
+                    ? re : new ValueRetrievalException(key, valueLoader, e);
+            if (negativeTtlNanos > 0 && isNotFound(e)) {
+                loadNotFound.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                return new Entry(null, failure);
+            }
+            loadFailure.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw failure;
+        }
+    }
+
+    private static boolean isNotFound(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof IllegalArgumentException) return true;
+        }
+        return false;
+    }
+
+    private void refreshIfStale(Object key, Entry entry, Callable<?> valueLoader) {
+        if (refreshAfterNanos <= 0 || System.nanoTime() - entry.writtenAt < refreshAfterNanos) return;
+        if (!entry.refreshing.compareAndSet(false, true)) return;
+
+        try {
+            refresher.execute(() -> {
+                try {
+                    store.asMap().replace(key, entry, load(key, valueLoader));
+                } catch (RuntimeException e) {
+                    // L'ancienne valeur reste servie jusqu'à son expiration
+                    entry.refreshing.set(false);
+                    log.debug("Cache {}: refresh of {} failed: {}", name, key, e.getMessage());
+                }
+            });
+            refreshed.increment();
+        } catch (RejectedExecutionException e) {
+            entry.refreshing.set(false);
+            refreshRejected.increment();
+        }
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        store.put(key, new Entry(toStoreValue(value), null));
+    }
+
+    @Override
+    public void evict(Object key) {
+        store.invalidate(key);
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        return store.asMap().remove(key) != null;
+    }
+
+    @Override
+    public void clear() {
+        store.invalidateAll();
+    }
+
+    @Override
+    public boolean invalidate() {
+        boolean notEmpty = store.estimatedSize() > 0;
+        store.invalidateAll();
+        return notEmpty;
+    }
+}
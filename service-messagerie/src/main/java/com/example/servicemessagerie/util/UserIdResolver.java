@@ -26,7 +26,7 @@ public class UserIdResolver {
             "^[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}$"
     );
 
-    @Cacheable(value = "userIds", key = "#jwt.subject")
+    @Cacheable(value = "userIds", key = "#jwt.subject", sync = true)
     public Long resolveUserId(Jwt jwt, String token) {
         String subject = jwt.getSubject();
         log.debug("Resolving user ID for subject: {}", subject);
@@ -48,7 +48,7 @@ public class UserIdResolver {
         }
     }
 
-    @Cacheable(value = "userIds", key = "'keycloak:' + #keycloakId")
+    @Cacheable(value = "userIds", key = "'keycloak:' + #keycloakId", sync = true)
     public Long resolveFromKeycloakId(String keycloakId, String token) {
         log.debug("Resolving user ID from Keycloak ID: {}", keycloakId);
 
@@ -77,7 +77,7 @@ public class UserIdResolver {
     /**
      * Récupère les informations complètes d'un utilisateur
      */
-    @Cacheable(value = "userDetails", key = "#userId")
+    @Cacheable(value = "userDetails", key = "#userId", sync = true)
     public UserResponse getUserDetails(Long userId, String token) {
         try {
             ResponseEntity<UserResponse> response = userServiceClient.getUserById(userId, token);
@@ -0,0 +1,253 @@
+package com.example.servicemessagerie.service;
+
+import com.example.servicemessagerie.dto.MessageDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.user.SimpSession;
+import org.springframework.messaging.simp.user.SimpSubscription;
+import org.springframework.messaging.simp.user.SimpSubscriptionMatcher;
+import org.springframework.messaging.simp.user.SimpUser;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Octets alloués par message diffusé à 10 / 100 / 1000 destinataires :
+ * {@code convertAndSend} + {@code convertAndSendToUser} par destinataire (ancien chemin)
+ * contre {@link WebSocketFanoutService#publish} (payload encodé une fois), avec et sans
+ * destinataires déjà abonnés au topic.
+ * <p>
+ * Le canal sortant est un puits synchrone : on mesure le coût côté application (sérialisation,
+ * messages et en-têtes), pas le broker ni la socket.
+ */
+@Slf4j
+@Tag("benchmark")
+class WebSocketFanoutServiceBenchmarkTest {
+
+    private static final int[] RECIPIENTS = {10, 100, 1000};
+    private static final int WARMUP_MESSAGES = 200;
+    private static final int MEASURED_MESSAGES = 200;
+    private static final String TOPIC = "/topic/conversation/42";
+    private static final String USER_QUEUE = "/queue/messages";
+
+    private static com.sun.management.ThreadMXBean threadBean;
+
+    private long sink;
+
+    @BeforeAll
+    static void checkAllocationCounter() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean, "Per-thread allocation counter unavailable");
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported(), "Per-thread allocation counter unavailable");
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    void fanoutAllocatesLessPerMessageThanPerRecipientConversion() {
+        for (int recipients : RECIPIENTS) {
+            List<Long> userIds = LongStream.rangeClosed(1, recipients).boxed().toList();
+            SimpMessagingTemplate template = template();
+
+            // Aucun destinataire connu localement : une copie par file utilisateur, comme avant
+            WebSocketFanoutService fanout = new WebSocketFanoutService(
+                    template, new InMemoryUserRegistry(Map.of()), new SimpleMeterRegistry());
+            // Tous connectés et abonnés au topic : les copies personnelles sont supprimées
+            WebSocketFanoutService dedup = new WebSocketFanoutService(
+                    template, InMemoryUserRegistry.subscribedTo(TOPIC, userIds), new SimpleMeterRegistry());
+
+            long naive = bytesPerMessage(id -> {
+                MessageDTO dto = message(id);
+                template.convertAndSend(TOPIC, dto);
+                for (Long userId : userIds) {
+                    template.convertAndSendToUser(userId.toString(), USER_QUEUE, dto);
+                }
+            });
+            long encodedOnce = bytesPerMessage(id -> fanout.publish(TOPIC, message(id), userIds, USER_QUEUE));
+            long deduplicated = bytesPerMessage(id -> dedup.publish(TOPIC, message(id), userIds, USER_QUEUE));
+
+            log.info("📊 {} recipients: naive {} B/msg, fanout {} B/msg, dedup {} B/msg ({}x)",
+                    recipients, naive, encodedOnce, deduplicated, String.format("%.1f", (double) naive / encodedOnce));
+
+            assertTrue(encodedOnce < naive,
+                    "fan-out should allocate less than per-recipient conversion at " + recipients + " recipients");
+            assertTrue(deduplicated <= encodedOnce,
+                    "skipping covered sessions should not allocate more at " + recipients + " recipients");
+        }
+    }
+
+    private long bytesPerMessage(Consumer<Long> publish) {
+        long threadId = Thread.currentThread().getId();
+        for (long i = 0; i < WARMUP_MESSAGES; i++) {
+            publish.accept(i);
+        }
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (long i = 0; i < MEASURED_MESSAGES; i++) {
+            publish.accept(i);
+        }
+        return (threadBean.getThreadAllocatedBytes(threadId) - before) / MEASURED_MESSAGES;
+    }
+
+    private SimpMessagingTemplate template() {
+        // Puits synchrone : garde une trace de chaque payload pour que rien ne soit éliminé
+        MessageChannel channel = (message, timeout) -> {
+            if (message.getPayload() instanceof byte[] body) sink += body.length;
+            return true;
+        };
+        SimpMessagingTemplate template = new SimpMessagingTemplate(channel);
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
+        converter.setObjectMapper(new ObjectMapper().findAndRegisterModules());
+        template.setMessageConverter(converter);
+        return template;
+    }
+
+    private static MessageDTO message(long id) {
+        return MessageDTO.builder()
+                .id(id)
+                .conversationId(42L)
+                .senderId(7L)
+                .senderName("Amine Lahmer")
+                .content("Bonjour, la session de demain est confirmée à 18h. Pensez à préparer vos questions !")
+                .type("TEXT")
+                .status("SENT")
+                .sentAt(LocalDateTime.of(2025, 1, 15, 18, 0))
+                .canEdit(true)
+                .canDelete(true)
+                .build();
+    }
+
+    /**
+     * Registre minimal : chaque utilisateur a une session, abonnée ou non au topic de la conversation
+     */
+    private static final class InMemoryUserRegistry implements SimpUserRegistry {
+        private final Map<String, SimpUser> users;
+
+        InMemoryUserRegistry(Map<String, SimpUser> users) {
+            this.users = users;
+        }
+
+        static InMemoryUserRegistry subscribedTo(String destination, List<Long> userIds) {
+            Map<String, SimpUser> users = new HashMap<>();
+            for (Long userId : userIds) {
+                users.put(userId.toString(), new User(userId.toString(), destination));
+            }
+            return new InMemoryUserRegistry(users);
+        }
+
+        @Override
+        public SimpUser getUser(String userName) {
+            return users.get(userName);
+        }
+
+        @Override
+        public Set<SimpUser> getUsers() {
+            return new HashSet<>(users.values());
+        }
+
+        @Override
+        public int getUserCount() {
+            return users.size();
+        }
+
+        @Override
+        public Set<SimpSubscription> findSubscriptions(SimpSubscriptionMatcher matcher) {
+            Set<SimpSubscription> result = new HashSet<>();
+            for (SimpUser user : users.values()) {
+                for (SimpSession session : user.getSessions()) {
+                    for (SimpSubscription subscription : session.getSubscriptions()) {
+                        if (matcher.match(subscription)) result.add(subscription);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class User implements SimpUser {
+        private final String name;
+        private final Set<SimpSession> sessions;
+
+        User(String name, String destination) {
+            this.name = name;
+            this.sessions = Set.of(new Session("session-" + name, this, destination));
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean hasSessions() {
+            return true;
+        }
+
+        @Override
+        public SimpSession getSession(String sessionId) {
+            return sessions.stream().filter(s -> s.getId().equals(sessionId)).findFirst().orElse(null);
+        }
+
+        @Override
+        public Set<SimpSession> getSessions() {
+            return sessions;
+        }
+    }
+
+    private static final class Session implements SimpSession {
+        private final String id;
+        private final SimpUser user;
+        private final Set<SimpSubscription> subscriptions;
+
+        Session(String id, SimpUser user, String destination) {
+            this.id = id;
+            this.user = user;
+            this.subscriptions = Set.of(new Subscription("sub-0", this, destination));
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public SimpUser getUser() {
+            return user;
+        }
+
+        @Override
+        public Set<SimpSubscription> getSubscriptions() {
+            return subscriptions;
+        }
+    }
+
+    private record Subscription(String id, SimpSession session, String destination) implements SimpSubscription {
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public SimpSession getSession() {
+            return session;
+        }
+
+        @Override
+        public String getDestination() {
+            return destination;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.websocketsupport;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encodage compact optionnel des frames STOMP.
+ * <ul>
+ *   <li>Compression : l'extension {@code permessage-deflate} proposée par le client est acceptée
+ *       (ou refusée si {@code application.websocket.permessage-deflate=false}).</li>
+ *   <li>Format binaire : un client qui envoie {@code payload-format: cbor|smile} dans son CONNECT reçoit
+ *       des frames binaires {@code application/octet-stream;codec=cbor|smile}. Le JSON produit par le broker
+ *       est transcodé une fois par message diffusé (le payload est partagé entre les sessions).
+ *       En entrée, les frames {@code application/cbor} / {@code application/x-jackson-smile} sont acceptées.
+ *       Réservé au point d'accès WebSocket natif : SockJS ne transporte pas de frames binaires.</li>
+ * </ul>
+ * Les autres clients continuent de recevoir du JSON texte.
+ * <p>
+ * Partagé par les services WebSocket : chacun le déclare comme bean dans son {@code WebSocketConfig}.
+ */
+@Slf4j
+public class CompactPayloadEncoding {
+
+    public static final String FORMAT_HEADER = "payload-format";
+    private static final String BINARY_FRAMES_ATTRIBUTE = "binaryFrames";
+
+    private static final MimeType CBOR = MimeType.valueOf("application/cbor");
+    private static final MimeType SMILE = MimeType.valueOf("application/x-jackson-smile");
+
+    enum Format {
+        CBOR("cbor", new CBORFactory()),
+        SMILE("smile", new SmileFactory());
+
+        final String codec;
+        final JsonFactory factory;
+        final MimeType wireType;
+        // Payload JSON partagé -> payload transcodé (clés comparées par identité)
+        final Map<byte[], byte[]> transcoded = Collections.synchronizedMap(new WeakHashMap<>());
+
+        Format(String codec, JsonFactory factory) {
+            this.codec = codec;
+            this.factory = factory;
+            this.wireType = new MimeType(MimeTypeUtils.APPLICATION_OCTET_STREAM, Map.of("codec", codec));
+        }
+
+        static Format parse(String value) {
+            if (value == null) return null;
+            for (Format format : values()) {
+                if (format.codec.equalsIgnoreCase(value.trim())) return format;
+            }
+            return null;
+        }
+    }
+
+    private final boolean deflateEnabled;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final Map<String, Format> formatBySession = new ConcurrentHashMap<>();
+
+    public CompactPayloadEncoding(boolean deflateEnabled) {
+        this.deflateEnabled = deflateEnabled;
+    }
+
+    // ===== COMPRESSION =====
+
+    public DefaultHandshakeHandler handshakeHandler() {
+        return new DefaultHandshakeHandler() {
+            @Override
+            protected List<WebSocketExtension> filterRequestedExtensions(ServerHttpRequest request,
+                                                                         List<WebSocketExtension> requested,
+                                                                         List<WebSocketExtension> supported) {
+                List<WebSocketExtension> accepted = super.filterRequestedExtensions(request, requested, supported);
+                if (deflateEnabled) return accepted;
+                return accepted.stream()
+                        .filter(extension -> !"permessage-deflate".equalsIgnoreCase(extension.getName()))
+                        .toList();
+            }
+        };
+    }
+
+    // ===== FORMAT BINAIRE =====
+
+    /**
+     * Marque les sessions WebSocket natives : SockJS n'envoie que du texte, ses sessions restent en JSON
+     */
+    public HandshakeInterceptor binaryFramesInterceptor() {
+        return new HandshakeInterceptor() {
+            @Override
+            public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                           WebSocketHandler wsHandler, Map<String, Object> attributes) {
+                attributes.put(BINARY_FRAMES_ATTRIBUTE, Boolean.TRUE);
+                return true;
+            }
+
+            @Override
+            public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                       WebSocketHandler wsHandler, Exception exception) {
+            }
+        };
+    }
+
+    /**
+     * À appeler sur le CONNECT : mémorise le format demandé par la session
+     */
+    public void onConnect(StompHeaderAccessor accessor) {
+        Format format = Format.parse(accessor.getFirstNativeHeader(FORMAT_HEADER));
+        if (format == null || accessor.getSessionId() == null) return;
+
+        Map<String, Object> attributes = accessor.getSessionAttributes();
+        if (attributes == null || !Boolean.TRUE.equals(attributes.get(BINARY_FRAMES_ATTRIBUTE))) {
+            log.debug("Session {} asked for {} over SockJS, keeping JSON", accessor.getSessionId(), format.codec);
+            return;
+        }
+        formatBySession.put(accessor.getSessionId(), format);
+        log.debug("Session {} uses {} payloads", accessor.getSessionId(), format.codec);
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        formatBySession.remove(event.getSessionId());
+    }
+
+    /**
+     * Convertisseurs entrants pour les frames CBOR/Smile (correspondance stricte du content-type)
+     */
+    public List<MessageConverter> inboundConverters() {
+        return List.of(binaryConverter(new CBORMapper(), CBOR), binaryConverter(new SmileMapper(), SMILE));
+    }
+
+    private static MessageConverter binaryConverter(ObjectMapper mapper, MimeType mimeType) {
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter(mimeType);
+        mapper.findAndRegisterModules();
+        converter.setObjectMapper(mapper);
+        converter.setStrictContentTypeMatch(true);
+        return converter;
+    }
+
+    /**
+     * Intercepteur du canal sortant : transcode les MESSAGE JSON pour les sessions binaires
+     */
+    public ChannelInterceptor outboundInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                if (formatBySession.isEmpty()) return message;
+                if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) {
+                    return message;
+                }
+                Format format = formatBySession.get(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()));
+                if (format == null || !(message.getPayload() instanceof byte[] json) || json.length == 0) {
+                    return message;
+                }
+                MimeType contentType = message.getHeaders().get(SimpMessageHeaderAccessor.CONTENT_TYPE, MimeType.class);
+                if (contentType == null || !MimeTypeUtils.APPLICATION_JSON.isCompatibleWith(contentType)) {
+                    return message;
+                }
+
+                try {
+                    byte[] body = format.transcoded.get(json);
+                    if (body == null) {
+                        body = transcode(json, format);
+                        format.transcoded.put(json, body);
+                    }
+                    SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+                    accessor.setContentType(format.wireType); // octet-stream => frame WebSocket binaire
+                    return MessageBuilder.createMessage(body, accessor.getMessageHeaders());
+                } catch (IOException e) {
+                    log.warn("⚠️ Could not transcode payload to {}: {}", format.codec, e.getMessage());
+                    return message;
+                }
+            }
+        };
+    }
+
+    private byte[] transcode(byte[] json, Format format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+        try (JsonParser parser = jsonFactory.createParser(json);
+             JsonGenerator generator = format.factory.createGenerator(out)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+        return out.toByteArray();
+    }
+}
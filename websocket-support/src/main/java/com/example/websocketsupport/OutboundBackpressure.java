@@ -0,0 +1,257 @@
+package com.example.websocketsupport;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Contre-pression sortante par session WebSocket.
+ * <p>
+ * Chaque frame acceptée sur le canal sortant est comptée jusqu'à son écriture effective sur la socket
+ * (file de l'exécuteur + tampon de {@code ConcurrentWebSocketSessionDecorator}) :
+ * <ul>
+ *   <li>au-delà de {@code low-priority-threshold} frames en attente, les destinations basse priorité
+ *       (frappe, présence...) et les heartbeats sont abandonnés ;</li>
+ *   <li>au-delà de {@code max-queued-frames} ou si la plus ancienne frame attend depuis {@code max-lag-ms},
+ *       la session est fermée.</li>
+ * </ul>
+ * Les messages ne sont jamais abandonnés individuellement : soit ils partent, soit la session est coupée.
+ * Les frames de contrôle (CONNECTED, RECEIPT, ERROR...) ne sont jamais refusées mais restent comptées,
+ * puisque leur écriture passe par la même socket.
+ * <p>
+ * Partagé par les services WebSocket : chacun le déclare comme bean dans son {@code WebSocketConfig}
+ * avec ses propres destinations basse priorité.
+ */
+@Slf4j
+public class OutboundBackpressure {
+
+    enum Priority {CONTROL, HIGH, LOW}
+
+    @Getter
+    private final int sendTimeLimitMs;
+    @Getter
+    private final int sendBufferSizeLimit;
+    private final int lowPriorityThreshold;
+    private final int maxQueuedFrames;
+    private final long maxLagNanos;
+    private final List<String> lowPriorityDestinations;
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    private final Map<String, SessionState> sessions = new ConcurrentHashMap<>();
+
+    private final Counter droppedCounter;
+    private final Counter backlogDisconnects;
+    private final Counter lagDisconnects;
+    private final Timer lagTimer;
+    private final Timer writeTimer;
+
+    public OutboundBackpressure(MeterRegistry meterRegistry,
+                                int sendTimeLimitMs,
+                                int sendBufferSizeLimit,
+                                int lowPriorityThreshold,
+                                int maxQueuedFrames,
+                                long maxLagMs,
+                                List<String> lowPriorityDestinations) {
+        this.sendTimeLimitMs = sendTimeLimitMs;
+        this.sendBufferSizeLimit = sendBufferSizeLimit;
+        this.lowPriorityThreshold = lowPriorityThreshold;
+        this.maxQueuedFrames = Math.max(lowPriorityThreshold, maxQueuedFrames);
+        this.maxLagNanos = TimeUnit.MILLISECONDS.toNanos(maxLagMs);
+        this.lowPriorityDestinations = lowPriorityDestinations;
+
+        this.droppedCounter = Counter.builder("websocket.outbound.dropped")
+                .description("Low-priority frames dropped for lagging sessions")
+                .register(meterRegistry);
+        this.backlogDisconnects = Counter.builder("websocket.outbound.disconnected")
+                .tag("reason", "backlog")
+                .description("Sessions closed because too many frames were pending")
+                .register(meterRegistry);
+        this.lagDisconnects = Counter.builder("websocket.outbound.disconnected")
+                .tag("reason", "lag")
+                .description("Sessions closed because the oldest pending frame was too old")
+                .register(meterRegistry);
+        this.lagTimer = Timer.builder("websocket.outbound.lag")
+                .description("Delay between a frame entering the outbound channel and its socket write")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.writeTimer = Timer.builder("websocket.outbound.write")
+                .description("Socket write duration per frame")
+                .register(meterRegistry);
+        Gauge.builder("websocket.outbound.sessions", sessions, Map::size)
+                .register(meterRegistry);
+        Gauge.builder("websocket.outbound.backlog.max", sessions,
+                        s -> s.values().stream().mapToInt(state -> state.backlog.get()).max().orElse(0))
+                .description("Largest per-session backlog, in frames")
+                .register(meterRegistry);
+    }
+
+    private final class SessionState {
+        final WebSocketSession session;
+        final ConcurrentLinkedDeque<Long> enqueuedAt = new ConcurrentLinkedDeque<>();
+        final AtomicInteger backlog = new AtomicInteger();
+        volatile boolean closing;
+
+        SessionState(WebSocketSession session) {
+            this.session = session;
+        }
+
+        void enqueued(long now) {
+            backlog.incrementAndGet();
+            enqueuedAt.addLast(now);
+        }
+
+        /**
+         * Frame acceptée ici mais jamais remise au canal (refusée plus loin dans la chaîne)
+         */
+        void cancelled() {
+            if (enqueuedAt.pollLast() != null) {
+                backlog.decrementAndGet();
+            }
+        }
+
+        long oldestWaitNanos(long now) {
+            Long oldest = enqueuedAt.peekFirst();
+            return oldest != null ? now - oldest : 0;
+        }
+
+        void written(long writeStart) {
+            long now = System.nanoTime();
+            writeTimer.record(now - writeStart, TimeUnit.NANOSECONDS);
+            // Les frames sortent dans l'ordre d'entrée : la plus ancienne vient d'être écrite
+            Long enqueued = enqueuedAt.pollFirst();
+            if (enqueued != null) {
+                backlog.decrementAndGet();
+                lagTimer.record(now - enqueued, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Enregistre la session brute (sous le décorateur concurrent de Spring) pour mesurer les écritures réelles
+     */
+    public WebSocketHandlerDecoratorFactory handlerDecorator() {
+        return handler -> new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                SessionState state = new SessionState(session);
+                sessions.put(session.getId(), state);
+                super.afterConnectionEstablished(new WebSocketSessionDecorator(session) {
+                    @Override
+                    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+                        long start = System.nanoTime();
+                        try {
+                            super.sendMessage(message);
+                        } finally {
+                            state.written(start);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                sessions.remove(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    /**
+     * Intercepteur du canal sortant : abandon des frames basse priorité, puis coupure des sessions lentes
+     */
+    public ChannelInterceptor outboundInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                SessionState state = sessions.get(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()));
+                if (state == null) return message;
+
+                Priority priority = priorityOf(message);
+                if (priority == Priority.CONTROL) {
+                    // Jamais refusée, mais comptée : son écriture dépile comme les autres
+                    state.enqueued(System.nanoTime());
+                    return message;
+                }
+                if (state.closing) return null;
+
+                int backlog = state.backlog.get();
+                if (priority == Priority.LOW && backlog >= lowPriorityThreshold) {
+                    droppedCounter.increment();
+                    return null;
+                }
+                if (backlog >= maxQueuedFrames) {
+                    disconnect(state, backlogDisconnects, backlog + " frames pending");
+                    return null;
+                }
+                long now = System.nanoTime();
+                if (state.oldestWaitNanos(now) > maxLagNanos) {
+                    disconnect(state, lagDisconnects,
+                            TimeUnit.NANOSECONDS.toMillis(state.oldestWaitNanos(now)) + "ms behind");
+                    return null;
+                }
+
+                state.enqueued(now);
+                return message;
+            }
+
+            @Override
+            public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent, Exception ex) {
+                // Appelé seulement si preSend a laissé passer la frame : elle a donc été comptée
+                if (sent) return;
+                SessionState state = sessions.get(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()));
+                if (state != null) state.cancelled();
+            }
+        };
+    }
+
+    private Priority priorityOf(Message<?> message) {
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        if (type == SimpMessageType.HEARTBEAT) return Priority.LOW;
+        if (type != SimpMessageType.MESSAGE) return Priority.CONTROL; // CONNECTED, ERROR, RECEIPT...
+
+        // Destination telle que vue par le client (/user/queue/... plutôt que la file résolue)
+        Object original = message.getHeaders().get(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION);
+        String destination = original instanceof String s ? s : SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination != null) {
+            for (String pattern : lowPriorityDestinations) {
+                if (pathMatcher.match(pattern, destination)) return Priority.LOW;
+            }
+        }
+        return Priority.HIGH;
+    }
+
+    private void disconnect(SessionState state, Counter counter, String reason) {
+        if (state.closing) return;
+        state.closing = true;
+        counter.increment();
+        log.warn("🐢 Closing slow WebSocket session {}: {}", state.session.getId(), reason);
+        try {
+            state.session.close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (IOException e) {
+            log.debug("Error closing session {}: {}", state.session.getId(), e.getMessage());
+        }
+    }
+}
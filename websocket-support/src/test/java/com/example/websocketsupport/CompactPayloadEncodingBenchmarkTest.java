@@ -0,0 +1,269 @@
+package com.example.websocketsupport;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Octets sur le fil et temps CPU par message pour JSON, CBOR et Smile, avec et sans permessage-deflate.
+ * <p>
+ * Les payloads reproduisent le trafic des deux services (message de conversation, conversation avec
+ * participants, delta de présence, indicateur de frappe). Le chemin mesuré est celui de production :
+ * sérialisation JSON du broker, {@link CompactPayloadEncoding#outboundInterceptor()} pour les sessions
+ * binaires, frame STOMP MESSAGE complète ({@link StompEncoder}) puis deflate. Le deflate est fait
+ * message par message sans contexte partagé (no_context_takeover), soit le cas le moins favorable.
+ */
+@Slf4j
+@Tag("benchmark")
+class CompactPayloadEncodingBenchmarkTest {
+
+    private static final int WARMUP_MESSAGES = 2_000;
+    private static final int MEASURED_MESSAGES = 5_000;
+
+    private static ThreadMXBean threadBean;
+
+    private final ObjectMapper jsonMapper = new ObjectMapper();
+    private final StompEncoder stompEncoder = new StompEncoder();
+    private final CompactPayloadEncoding encoding = new CompactPayloadEncoding(true);
+    private final ChannelInterceptor interceptor = encoding.outboundInterceptor();
+    private long sink;
+
+    @BeforeAll
+    static void checkCpuClock() {
+        threadBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean.isCurrentThreadCpuTimeSupported(), "Thread CPU time unavailable");
+        threadBean.setThreadCpuTimeEnabled(true);
+    }
+
+    @Test
+    void compactFormatsShrinkFramesAndRoundTrip() throws Exception {
+        connect("json-session", null);
+        connect("cbor-session", "cbor");
+        connect("smile-session", "smile");
+
+        for (Map.Entry<String, Object> payload : payloads().entrySet()) {
+            byte[] json = jsonMapper.writeValueAsBytes(payload.getValue());
+            JsonNode expected = jsonMapper.readTree(json);
+            int jsonFrame = frame(deliver("json-session", json)).length;
+
+            for (String session : List.of("json-session", "cbor-session", "smile-session")) {
+                String format = session.substring(0, session.indexOf('-'));
+                Message<?> delivered = deliver(session, jsonMapper.writeValueAsBytes(payload.getValue()));
+                byte[] frame = frame(delivered);
+                byte[] deflated = deflate(frame);
+
+                // Le client binaire relit exactement le même document
+                byte[] body = (byte[]) delivered.getPayload();
+                JsonNode decoded = switch (format) {
+                    case "cbor" -> new CBORMapper().readTree(body);
+                    case "smile" -> new SmileMapper().readTree(body);
+                    default -> jsonMapper.readTree(body);
+                };
+                assertEquals(expected, decoded, format + " round trip of " + payload.getKey());
+                if (!"json".equals(format)) {
+                    assertTrue(frame.length < jsonFrame,
+                            format + " frame should be smaller than JSON for " + payload.getKey());
+                }
+
+                double encodeMicros = cpuMicrosPerMessage(() -> frame(deliver(session, serialize(payload.getValue()))));
+                double deflateMicros = cpuMicrosPerMessage(() -> deflate(frame(deliver(session, serialize(payload.getValue())))));
+
+                log.info("📊 {} / {}: frame {} B, deflated {} B, {} µs/msg, {} µs with deflate",
+                        payload.getKey(), format, frame.length, deflated.length,
+                        String.format("%.2f", encodeMicros), String.format("%.2f", deflateMicros));
+            }
+        }
+    }
+
+    // ===== CHEMIN MESURÉ =====
+
+    private void connect(String sessionId, String format) throws Exception {
+        Map<String, Object> attributes = new HashMap<>();
+        encoding.binaryFramesInterceptor().beforeHandshake(null, null, null, attributes);
+
+        StompHeaderAccessor connect = StompHeaderAccessor.create(StompCommand.CONNECT);
+        connect.setSessionId(sessionId);
+        connect.setSessionAttributes(attributes);
+        if (format != null) {
+            connect.setNativeHeader(CompactPayloadEncoding.FORMAT_HEADER, format);
+        }
+        encoding.onConnect(connect);
+    }
+
+    private byte[] serialize(Object payload) {
+        try {
+            return jsonMapper.writeValueAsBytes(payload);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Message du broker pour une session, après l'intercepteur du canal sortant
+     */
+    private Message<?> deliver(String sessionId, byte[] json) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId("sub-0");
+        accessor.setDestination("/topic/conversation/42");
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        Message<?> out = interceptor.preSend(MessageBuilder.createMessage(json, accessor.getMessageHeaders()), null);
+        return Objects.requireNonNull(out);
+    }
+
+    /**
+     * Frame STOMP MESSAGE telle qu'écrite sur la socket
+     */
+    private byte[] frame(Message<?> message) {
+        StompHeaderAccessor stomp = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        stomp.setSubscriptionId("sub-0");
+        stomp.setMessageId(UUID.randomUUID().toString());
+        stomp.setDestination(SimpMessageHeaderAccessor.getDestination(message.getHeaders()));
+        stomp.setContentType(message.getHeaders().get(SimpMessageHeaderAccessor.CONTENT_TYPE, MimeType.class));
+        byte[] frame = stompEncoder.encode(stomp.getMessageHeaders(), (byte[]) message.getPayload());
+        sink += frame.length;
+        return frame;
+    }
+
+    /**
+     * permessage-deflate sans contexte partagé : flux raw deflate, vidage synchrone, 4 octets de fin retirés
+     */
+    private byte[] deflate(byte[] frame) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(frame);
+            byte[] buffer = new byte[frame.length + 64];
+            int length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+            byte[] out = Arrays.copyOf(buffer, Math.max(0, length - 4));
+            sink += out.length;
+            return out;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private double cpuMicrosPerMessage(Runnable send) {
+        for (int i = 0; i < WARMUP_MESSAGES; i++) {
+            send.run();
+        }
+        long start = threadBean.getCurrentThreadCpuTime();
+        for (int i = 0; i < MEASURED_MESSAGES; i++) {
+            send.run();
+        }
+        return (threadBean.getCurrentThreadCpuTime() - start) / 1_000.0 / MEASURED_MESSAGES;
+    }
+
+    // ===== PAYLOADS REPRÉSENTATIFS =====
+
+    private static Map<String, Object> payloads() {
+        Map<String, Object> payloads = new LinkedHashMap<>();
+        payloads.put("message", message(1L));
+        payloads.put("conversation", conversation());
+        payloads.put("presence", presence());
+        payloads.put("typing", typing());
+        return payloads;
+    }
+
+    private static Map<String, Object> message(long id) {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("id", id);
+        message.put("conversationId", 42L);
+        message.put("senderId", 7L);
+        message.put("senderName", "Amine Lahmer");
+        message.put("senderAvatar", "http://localhost:8822/avatars/7.jpg");
+        message.put("content", "Bonjour, la session de demain est confirmée à 18h. Pensez à préparer vos questions !");
+        message.put("type", "TEXT");
+        message.put("status", "SENT");
+        message.put("attachmentUrl", null);
+        message.put("attachmentName", null);
+        message.put("attachmentType", null);
+        message.put("attachmentSize", null);
+        message.put("thumbnailUrls", null);
+        message.put("posterUrl", null);
+        message.put("previewUrl", null);
+        message.put("sentAt", "2025-01-15T18:00:00");
+        message.put("readAt", null);
+        message.put("editedAt", null);
+        message.put("deleted", false);
+        message.put("canEdit", true);
+        message.put("canDelete", true);
+        message.put("replyToMessageId", 0);
+        return message;
+    }
+
+    private static Map<String, Object> conversation() {
+        List<Map<String, Object>> participants = new ArrayList<>();
+        for (long userId = 1; userId <= 20; userId++) {
+            Map<String, Object> participant = new LinkedHashMap<>();
+            participant.put("userId", userId);
+            participant.put("userName", "Participant " + userId);
+            participant.put("role", userId == 1 ? "ADMIN" : "MEMBER");
+            participant.put("isOnline", userId % 3 == 0);
+            participant.put("avatar", "http://localhost:8822/avatars/" + userId + ".jpg");
+            participant.put("joinedAt", "2025-01-0" + (userId % 9 + 1) + "T10:00:00");
+            participants.add(participant);
+        }
+        Map<String, Object> conversation = new LinkedHashMap<>();
+        conversation.put("id", 42L);
+        conversation.put("name", "Atelier Angular avancé");
+        conversation.put("type", "SKILL_GROUP");
+        conversation.put("status", "ACTIVE");
+        conversation.put("skillId", 12);
+        conversation.put("participants", participants);
+        conversation.put("lastMessage", "À demain !");
+        conversation.put("lastMessageTime", "2025-01-15T18:05:00");
+        conversation.put("unreadCount", 3);
+        conversation.put("canSendMessage", true);
+        conversation.put("isAdmin", false);
+        return conversation;
+    }
+
+    private static Map<String, Object> presence() {
+        List<Long> online = new ArrayList<>();
+        for (long userId = 1000; userId < 1200; userId++) {
+            online.add(userId);
+        }
+        Map<String, Object> delta = new LinkedHashMap<>();
+        delta.put("fromVersion", 1736960000000L);
+        delta.put("toVersion", 1736960000001L);
+        delta.put("snapshot", true);
+        delta.put("joined", List.of());
+        delta.put("left", List.of());
+        delta.put("online", online);
+        delta.put("totalOnline", online.size());
+        delta.put("timestamp", 1736960000123L);
+        return delta;
+    }
+
+    private static Map<String, Object> typing() {
+        Map<String, Object> typing = new LinkedHashMap<>();
+        typing.put("conversationId", 42L);
+        typing.put("typingUserIds", List.of(7L, 12L));
+        typing.put("timestamp", 1736960000123L);
+        return typing;
+    }
+}